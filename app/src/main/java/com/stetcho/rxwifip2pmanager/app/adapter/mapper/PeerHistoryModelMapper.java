@@ -0,0 +1,27 @@
+package com.stetcho.rxwifip2pmanager.app.adapter.mapper;
+
+import com.stetcho.rxwifip2pmanager.app.domain.discovery.model.DeviceModel;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerHistory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.functions.Func1;
+
+/**
+ * Implementation of {@link rx.Observable#map(Func1)} that allows mapping the peers known from a
+ * {@link PeerHistory} to a list with {@link DeviceModel}.
+ */
+public class PeerHistoryModelMapper implements Func1<List<PeerHistory.Peer>, List<DeviceModel>> {
+    public PeerHistoryModelMapper() {
+    }
+
+    @Override
+    public List<DeviceModel> call(final List<PeerHistory.Peer> peers) {
+        List<DeviceModel> deviceModelList = new ArrayList<>(peers.size());
+        for (final PeerHistory.Peer peer : peers) {
+            deviceModelList.add(new DeviceModel(peer.getDeviceName(), peer.getDeviceAddress()));
+        }
+        return deviceModelList;
+    }
+}
@@ -4,11 +4,20 @@ import android.app.Application;
 
 import com.squareup.leakcanary.LeakCanary;
 import com.stetcho.rxwifip2pmanager.app.BuildConfig;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerHistory;
+
+import java.io.File;
+
+import rx.schedulers.Schedulers;
 
 /**
  * Created by Stefan Mitev on 01/07/2015.
  */
 public class AndroidApplication extends Application {
+    private static final String PEER_HISTORY_FILE = "peer_history";
+
+    private PeerHistory mPeerHistory;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -17,4 +26,27 @@ public class AndroidApplication extends Application {
             LeakCanary.install(this);
         }
     }
+
+    /**
+     * @return the history of the peers and connections, shared by the whole process. There must
+     * be only one history per file, as its compaction replaces the file, so it outlives the
+     * activities and is not closed by them.
+     */
+    public synchronized PeerHistory getPeerHistory() {
+        if (mPeerHistory == null) {
+            mPeerHistory = new PeerHistory(new File(getFilesDir(), PEER_HISTORY_FILE),
+                    Schedulers.io());
+        }
+        return mPeerHistory;
+    }
+
+    @Override
+    public void onTerminate() {
+        super.onTerminate();
+        synchronized (this) {
+            if (mPeerHistory != null) {
+                mPeerHistory.close();
+            }
+        }
+    }
 }
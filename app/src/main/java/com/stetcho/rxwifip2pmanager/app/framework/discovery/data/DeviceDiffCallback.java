@@ -0,0 +1,48 @@
+package com.stetcho.rxwifip2pmanager.app.framework.discovery.data;
+
+import android.support.v7.util.DiffUtil;
+
+import com.stetcho.rxwifip2pmanager.app.domain.discovery.model.DeviceModel;
+
+import java.util.List;
+
+/**
+ * Implementation of {@link DiffUtil.Callback} that compares two lists with {@link DeviceModel}s.
+ * Devices are identified by their address, so a renamed device is updated in place instead of
+ * being removed and added again.
+ */
+public class DeviceDiffCallback extends DiffUtil.Callback {
+    private final List<DeviceModel> mOldList;
+    private final List<DeviceModel> mNewList;
+
+    public DeviceDiffCallback(final List<DeviceModel> oldList, final List<DeviceModel> newList) {
+        mOldList = oldList;
+        mNewList = newList;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mOldList.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return mNewList.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(final int oldItemPosition, final int newItemPosition) {
+        return equal(mOldList.get(oldItemPosition).getAddress(),
+                mNewList.get(newItemPosition).getAddress());
+    }
+
+    @Override
+    public boolean areContentsTheSame(final int oldItemPosition, final int newItemPosition) {
+        return equal(mOldList.get(oldItemPosition).getName(),
+                mNewList.get(newItemPosition).getName());
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -1,29 +1,63 @@
 package com.stetcho.rxwifip2pmanager.app.framework.discovery.data;
 
-import android.content.Context;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 import com.stetcho.rxwifip2pmanager.app.R;
 import com.stetcho.rxwifip2pmanager.app.domain.discovery.model.DeviceModel;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerRegistry;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 
 /**
  * Created by Stefan Mitev on 01/07/2015.
+ *
+ * Shows a list with {@link DeviceModel}s, which are identified by their address. A new list is
+ * applied incrementally: the difference to the current one is computed off the main thread
+ * ({@link #computeUpdate(List)}) and only the changed rows are rebound ({@link #applyUpdate}).
  */
-public class DeviceListAdapter extends BaseAdapter {
-    private final Context mContext;
-    private List<DeviceModel> mData;
+public class DeviceListAdapter extends RecyclerView.Adapter<DeviceListAdapter.ViewHolder> {
+    /**
+     * Listener for clicks on a device
+     */
+    public interface OnDeviceClickListener {
+        void onDeviceClick(DeviceModel deviceModel);
+    }
+
+    /**
+     * The difference between the list of the adapter at the time it was computed and a new list
+     */
+    public static class Update {
+        private final List<DeviceModel> mBase;
+        private final List<DeviceModel> mList;
+        private final DiffUtil.DiffResult mDiffResult;
+
+        Update(final List<DeviceModel> base,
+               final List<DeviceModel> list,
+               final DiffUtil.DiffResult diffResult) {
+            mBase = base;
+            mList = list;
+            mDiffResult = diffResult;
+        }
+
+        public int size() {
+            return mList.size();
+        }
+    }
 
-    class ViewHolder {
+    class ViewHolder extends RecyclerView.ViewHolder {
         @BindView(R.id.tv_name)
         TextView tvName;
 
@@ -31,66 +65,142 @@ public class DeviceListAdapter extends BaseAdapter {
         TextView tvAddress;
 
         ViewHolder(View v) {
+            super(v);
             ButterKnife.bind(this, v);
+            v.setOnClickListener(view -> {
+                final int position = getAdapterPosition();
+                if (mOnDeviceClickListener != null && position != RecyclerView.NO_POSITION) {
+                    mOnDeviceClickListener.onDeviceClick(getItem(position));
+                }
+            });
         }
     }
 
-    public DeviceListAdapter(Context context, List<DeviceModel> deviceModelList) {
-        mData = deviceModelList;
-        mContext = context;
+    // Never modified, but replaced, so that an update can be computed on another thread
+    private volatile List<DeviceModel> mData = Collections.emptyList();
+    private OnDeviceClickListener mOnDeviceClickListener;
+
+    public DeviceListAdapter() {
+        setHasStableIds(true);
     }
 
-    public void setData(List<DeviceModel> deviceModelList) {
-        mData = deviceModelList;
-        notifyDataSetChanged();
+    public void setOnDeviceClickListener(OnDeviceClickListener listener) {
+        mOnDeviceClickListener = listener;
     }
 
-    public void clearData() {
-        if(mData != null) {
-            mData.clear();
+    /**
+     * Computes the changes from the current list to a new one. It may be called on any thread,
+     * and should be called off the main thread for large lists.
+     *
+     * @param deviceModelList the new list
+     * @return an {@link Update} to be passed to {@link #applyUpdate(Update)}
+     */
+    public Update computeUpdate(List<DeviceModel> deviceModelList) {
+        final List<DeviceModel> base = mData;
+        final List<DeviceModel> list =
+                Collections.unmodifiableList(new ArrayList<>(deviceModelList));
+        return new Update(base, list,
+                DiffUtil.calculateDiff(new DeviceDiffCallback(base, list)));
+    }
+
+    /**
+     * Applies an update on the main thread. Only the changed rows are rebound, unless the list
+     * has changed since the update was computed.
+     *
+     * @param update an update returned by {@link #computeUpdate(List)}
+     */
+    public void applyUpdate(Update update) {
+        final boolean isCurrent = update.mBase == mData;
+        mData = update.mList;
+        if (isCurrent) {
+            update.mDiffResult.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
         }
     }
 
-    public void addData(DeviceModel deviceModel) {
-        if(mData == null) {
-            mData = new ArrayList<>();
+    /**
+     * Replaces the list, computing the changes on the calling thread
+     */
+    public void setData(List<DeviceModel> deviceModelList) {
+        applyUpdate(computeUpdate(deviceModelList));
+    }
+
+    /**
+     * Adds several devices at once. Devices which are already shown are updated in place, the
+     * others are appended with a single insertion.
+     */
+    public void addAll(Collection<DeviceModel> deviceModels) {
+        final List<DeviceModel> list = new ArrayList<>(mData.size() + deviceModels.size());
+        list.addAll(mData);
+        final Map<String, Integer> positions = new HashMap<>(list.size() * 4 / 3 + 1);
+        for (int i = 0; i < list.size(); i++) {
+            positions.put(list.get(i).getAddress(), i);
+        }
+
+        final int size = list.size();
+        for (DeviceModel deviceModel : deviceModels) {
+            final Integer position = positions.get(deviceModel.getAddress());
+            if (position == null) {
+                positions.put(deviceModel.getAddress(), list.size());
+                list.add(deviceModel);
+            } else {
+                list.set(position, deviceModel);
+                if (position < size) {
+                    notifyItemChanged(position);
+                }
+            }
+        }
+        mData = Collections.unmodifiableList(list);
+        if (list.size() > size) {
+            notifyItemRangeInserted(size, list.size() - size);
         }
-        mData.add(deviceModel);
-        notifyDataSetChanged();
     }
 
-    @Override
-    public int getCount() {
-        return mData == null ? 0 : mData.size();
+    public void clearData() {
+        final int size = mData.size();
+        mData = Collections.emptyList();
+        notifyItemRangeRemoved(0, size);
     }
 
-    @Override
     public DeviceModel getItem(int position) {
         return mData.get(position);
     }
 
     @Override
-    public long getItemId(int position) {
-        return position;
+    public int getItemCount() {
+        return mData.size();
     }
 
+    /**
+     * @return the address packed into a long, which stays the same for a device across updates
+     */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        DeviceModel device = getItem(position);
-        ViewHolder viewHolder;
-
-        if (convertView == null) {
-            LayoutInflater inflater = LayoutInflater.from(mContext);
-            convertView = inflater.inflate(R.layout.li_device, parent, false);
-            viewHolder = new ViewHolder(convertView);
-            convertView.setTag(viewHolder);
-        } else {
-            viewHolder = (ViewHolder) convertView.getTag();
+    public long getItemId(int position) {
+        final String address = getItem(position).getAddress();
+        // The ids of devices without a valid address are outside of the 48 bits of a packed
+        // one, and never RecyclerView.NO_ID
+        if (address == null) {
+            return 1L << 49;
         }
+        final long packed = PeerRegistry.packAddress(address);
+        if (packed >= 0) {
+            return packed;
+        }
+        return (1L << 48) | (address.hashCode() & 0xffffffffL);
+    }
 
-        viewHolder.tvName.setText(device.getName());
-        viewHolder.tvAddress.setText(device.getAddress());
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.li_device, parent, false);
+        return new ViewHolder(view);
+    }
 
-        return convertView;
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        final DeviceModel device = getItem(position);
+        holder.tvName.setText(device.getName());
+        holder.tvAddress.setText(device.getAddress());
     }
-}
\ No newline at end of file
+}
@@ -2,35 +2,39 @@ package com.stetcho.rxwifip2pmanager.app.framework.discovery.view;
 
 import android.content.Context;
 import android.net.wifi.WpsInfo;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pGroup;
 import android.net.wifi.p2p.WifiP2pManager;
 import android.os.Bundle;
 import android.support.design.widget.Snackbar;
 import android.support.v4.widget.SwipeRefreshLayout;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
-import android.widget.ListView;
 import android.widget.TextView;
 
 import com.pixplicity.sharp.Sharp;
 import com.stetcho.rxwifip2pmanager.app.R;
 import com.stetcho.rxwifip2pmanager.app.domain.discovery.model.DeviceModel;
 import com.stetcho.rxwifip2pmanager.app.adapter.mapper.DeviceModelMapper;
+import com.stetcho.rxwifip2pmanager.app.adapter.mapper.PeerHistoryModelMapper;
 import com.stetcho.rxwifip2pmanager.app.adapter.mapper.WifiP2pSingleDeviceMapper;
+import com.stetcho.rxwifip2pmanager.app.framework.AndroidApplication;
 import com.stetcho.rxwifip2pmanager.app.framework.discovery.data.DeviceListAdapter;
 import com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager;
-import com.stetcho.rxwifip2pmanager.data.wifi.broadcast.factory.WifiP2pBroadcastObservableManagerFactory;
+import com.stetcho.rxwifip2pmanager.data.wifi.broadcast.factory.SharedWifiP2pBroadcastObservableManagerFactory;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerHistory;
+import com.stetcho.rxwifip2pmanager.data.wifi.retry.RetryPolicy;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
 import butterknife.OnClick;
-import butterknife.OnItemClick;
 import rx.Single;
 import rx.Subscriber;
 import rx.Subscription;
@@ -72,16 +76,17 @@ public class DiscoveryActivity extends AppCompatActivity
     /**
      * Subscriber for when we are initiating a new peer discovery
      */
-    private class DiscoverPeersSubscription extends DefaultSubscriber<List<DeviceModel>> {
+    private class DiscoverPeersSubscription
+            extends DefaultSubscriber<DeviceListAdapter.Update> {
         @Override
-        public void onNext(final List<DeviceModel> deviceList) {
-            // We got a list with nearby p2p devices
+        public void onNext(final DeviceListAdapter.Update update) {
+            // We got a list with nearby p2p devices, already compared with the shown one
 
             // Stop refreshing
             stopDiscoveringUi();
 
             // Change the screen state
-            setFoundNewDevicesScreen(deviceList);
+            setFoundNewDevicesScreen(update);
         }
 
         @Override
@@ -148,8 +153,8 @@ public class DiscoveryActivity extends AppCompatActivity
     /*
      * Views
      */
-    @BindView(R.id.lv_devices)
-    protected ListView mLvDevices;
+    @BindView(R.id.rv_devices)
+    protected RecyclerView mRvDevices;
 
     @BindView(R.id.swipeRefreshLayout)
     protected SwipeRefreshLayout mSwipeRefreshLayout;
@@ -185,11 +190,13 @@ public class DiscoveryActivity extends AppCompatActivity
      */
     private Subscription mRequestConnectionInfoSubscription;
     private Subscription mDiscoverPeersSubscription;
+    private Subscription mKnownPeersSubscription;
 
     /*
      * Other instance variables
      */
     private RxWifiP2pManager mRxWifiP2pManager;
+    private PeerHistory mPeerHistory;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -201,10 +208,16 @@ public class DiscoveryActivity extends AppCompatActivity
                 new RxWifiP2pManager(
                         getApplicationContext(),
                         (WifiP2pManager) getSystemService(Context.WIFI_P2P_SERVICE),
-                        new WifiP2pBroadcastObservableManagerFactory(getApplicationContext()));
+                        SharedWifiP2pBroadcastObservableManagerFactory.getInstance(this));
 
-        mDeviceListAdapter = new DeviceListAdapter(getApplicationContext(), new ArrayList<>());
-        mLvDevices.setAdapter(mDeviceListAdapter);
+        // Remember the peers and connections, so that they can be shown on the next start
+        mPeerHistory = ((AndroidApplication) getApplication()).getPeerHistory();
+        mRxWifiP2pManager.setPeerHistory(mPeerHistory);
+
+        mDeviceListAdapter = new DeviceListAdapter();
+        mDeviceListAdapter.setOnDeviceClickListener(this::onDeviceClick);
+        mRvDevices.setLayoutManager(new LinearLayoutManager(this));
+        mRvDevices.setAdapter(mDeviceListAdapter);
 
         // Check if we are connected to another device
         getConnectedToDeviceObservable()
@@ -212,6 +225,13 @@ public class DiscoveryActivity extends AppCompatActivity
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new ConnectedToDeviceSubscriber());
 
+        // Show the peers known from earlier runs until a discovery has found the current ones
+        mKnownPeersSubscription = mPeerHistory.getPeers()
+                .map(new PeerHistoryModelMapper())
+                .map(mDeviceListAdapter::computeUpdate)
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(this::setKnownDevicesScreen, Throwable::printStackTrace);
+
         mSwipeRefreshLayout.setOnRefreshListener(this);
 
         // Configure the refreshing colors
@@ -224,13 +244,13 @@ public class DiscoveryActivity extends AppCompatActivity
         mTvText.setText("");
         mVgDiscoveryStateNotFound.setVisibility(View.GONE);
         mVgDeviceConnected.setVisibility(View.GONE);
-        mLvDevices.setVisibility(View.VISIBLE);
+        mRvDevices.setVisibility(View.VISIBLE);
         mVgDiscoveryStateInitial.setVisibility(View.VISIBLE);
         mTvDeviceFoundCount.setVisibility(View.GONE);
     }
 
     private void setNoDevicesFoundScreen() {
-        mLvDevices.setVisibility(View.GONE);
+        mRvDevices.setVisibility(View.GONE);
         mTvDeviceFoundCount.setVisibility(View.GONE);
         mVgDiscoveryStateInitial.setVisibility(View.GONE);
         mVgDeviceConnected.setVisibility(View.GONE);
@@ -239,24 +259,34 @@ public class DiscoveryActivity extends AppCompatActivity
         mVgDiscoveryStateNotFound.setVisibility(View.VISIBLE);
     }
 
-    private void setFoundNewDevicesScreen(final List<DeviceModel> deviceList) {
+    private void setFoundNewDevicesScreen(final DeviceListAdapter.Update update) {
         mTvDeviceFoundCount.setText(String.format(getString(R.string.device_found_1d),
-                deviceList.size()));
+                update.size()));
         mVgDiscoveryStateInitial.setVisibility(View.GONE);
         mVgDiscoveryStateNotFound.setVisibility(View.GONE);
         mVgDeviceConnected.setVisibility(View.GONE);
-        mLvDevices.setVisibility(View.VISIBLE);
+        mRvDevices.setVisibility(View.VISIBLE);
         mTvDeviceFoundCount.setVisibility(View.VISIBLE);
 
-        // Reset the list with previously found devices (if there were any)
-        mDeviceListAdapter.clearData();
+        // Rebind only the devices which were found, lost or renamed since the last discovery
+        mDeviceListAdapter.applyUpdate(update);
+    }
 
-        ((DeviceListAdapter) mLvDevices.getAdapter()).setData(deviceList);
+    private void setKnownDevicesScreen(final DeviceListAdapter.Update update) {
+        // A discovery or a connection which finished in the meantime is more up to date
+        if (update.size() == 0 || mDeviceListAdapter.getItemCount() > 0
+                || mVgDiscoveryStateNotFound.getVisibility() == View.VISIBLE
+                || mVgDeviceConnected.getVisibility() == View.VISIBLE) {
+            return;
+        }
+        mVgDiscoveryStateInitial.setVisibility(View.GONE);
+        mRvDevices.setVisibility(View.VISIBLE);
+        mDeviceListAdapter.applyUpdate(update);
     }
 
     private void setConnectedToDeviceScreen(final DeviceModel deviceModel) {
         mTvTitle.setText(deviceModel.getName());
-        mLvDevices.setVisibility(View.GONE);
+        mRvDevices.setVisibility(View.GONE);
         mVgDiscoveryStateInitial.setVisibility(View.GONE);
         mVgDiscoveryStateNotFound.setVisibility(View.GONE);
         mVgDeviceConnected.setVisibility(View.VISIBLE);
@@ -265,17 +295,19 @@ public class DiscoveryActivity extends AppCompatActivity
 
     @Override
     public void onRefresh() {
-        mDiscoverPeersSubscription = mRxWifiP2pManager.discoverAndRequestPeersList()
+        mDiscoverPeersSubscription = mRxWifiP2pManager
+                .discoverAndRequestPeersList(RetryPolicy.createDefault())
                 .timeout(5, TimeUnit.SECONDS)
                 .map(new DeviceModelMapper())
+                // The peers arrive on the main thread, compare them with the shown ones elsewhere
+                .observeOn(Schedulers.computation())
+                .map(mDeviceListAdapter::computeUpdate)
                 .subscribeOn(Schedulers.computation())
                 .observeOn(AndroidSchedulers.mainThread())
                 .subscribe(new DiscoverPeersSubscription());
     }
 
-    @OnItemClick(R.id.lv_devices)
-    protected void onDeviceClick(int position) {
-        final DeviceModel deviceModel = mDeviceListAdapter.getItem(position);
+    protected void onDeviceClick(final DeviceModel deviceModel) {
         mRxWifiP2pManager
                 .connect(mRxWifiP2pManager.createConfig(deviceModel.getAddress(), WpsInfo.PBC))
                 .subscribeOn(Schedulers.computation())
@@ -300,13 +332,25 @@ public class DiscoveryActivity extends AppCompatActivity
     }
 
     private Single<DeviceModel> getConnectedToDeviceObservable() {
-        return mRxWifiP2pManager.requestConnectionInfo()
-                .flatMap(wifiP2pInfo -> {
-                    if (wifiP2pInfo == null || wifiP2pInfo.groupOwnerAddress == null) {
-                        return Single.error(
+        return mRxWifiP2pManager.observeConnectionState()
+                .first()
+                .toSingle()
+                .flatMap(connectionState -> {
+                    if (!connectionState.isConnected()) {
+                        return Single.<WifiP2pDevice>error(
                                 new RuntimeException(getString(R.string.not_connected)));
                     }
 
+                    // The group is attached to the connection state since API level 18
+                    final WifiP2pGroup group = connectionState.getWifiP2pGroup();
+                    if (group != null) {
+                        final WifiP2pDevice device = group.isGroupOwner()
+                                && !group.getClientList().isEmpty()
+                                ? group.getClientList().iterator().next()
+                                : group.getOwner();
+                        return Single.just(device);
+                    }
+
                     // Seems like we are connected, let's request the list with peers
                     return mRxWifiP2pManager.requestPeersList()
                             // Now map the output to produce Single<WifiP2pDevice>
@@ -324,6 +368,14 @@ public class DiscoveryActivity extends AppCompatActivity
         safeUnsubscribe();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        safeUnsubscribe(mKnownPeersSubscription);
+        // The history is shared by the process, only the manager of this activity lets go of it
+        mRxWifiP2pManager.setPeerHistory(null);
+    }
+
     private void stopDiscoveringUi() {
         mSwipeRefreshLayout.setRefreshing(false);
     }
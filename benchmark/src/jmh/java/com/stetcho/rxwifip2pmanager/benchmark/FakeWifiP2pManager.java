@@ -0,0 +1,97 @@
+package com.stetcho.rxwifip2pmanager.benchmark;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.p2p.WifiP2pConfig;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+import android.os.Looper;
+
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * A {@link WifiP2pManager} which completes every operation synchronously, so that a benchmark
+ * measures the library rather than the framework. A successful peer discovery is followed by a
+ * {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION} broadcast without the peer list extra, so
+ * the peers are always requested through {@link #requestPeers(Channel, PeerListListener)}.
+ */
+public class FakeWifiP2pManager extends WifiP2pManager {
+    private final FakeBroadcastObservableManager mBroadcasts;
+    private final Intent mPeersChangedIntent =
+            new Intent(WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION);
+    private final WifiP2pInfo mConnectionInfo = new WifiP2pInfo();
+    private WifiP2pDeviceList mPeers = new WifiP2pDeviceList();
+
+    public FakeWifiP2pManager(final FakeBroadcastObservableManager broadcasts) {
+        super(null);
+        mBroadcasts = broadcasts;
+    }
+
+    /**
+     * Creates a list with peers which have unique, well-formed addresses.
+     */
+    public static WifiP2pDeviceList createPeers(final int count) {
+        final ArrayList<WifiP2pDevice> devices = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final WifiP2pDevice device = new WifiP2pDevice();
+            device.deviceAddress = String.format(Locale.US, "02:00:00:00:%02x:%02x",
+                    (i >> 8) & 0xff, i & 0xff);
+            device.deviceName = "Peer " + i;
+            device.status = WifiP2pDevice.AVAILABLE;
+            devices.add(device);
+        }
+        return new WifiP2pDeviceList(devices);
+    }
+
+    public void setPeers(final WifiP2pDeviceList peers) {
+        mPeers = peers;
+    }
+
+    @Override
+    public Channel initialize(final Context srcContext,
+                              final Looper srcLooper,
+                              final ChannelListener listener) {
+        return null;
+    }
+
+    @Override
+    public void discoverPeers(final Channel c, final ActionListener listener) {
+        listener.onSuccess();
+        mBroadcasts.send(mPeersChangedIntent);
+    }
+
+    @Override
+    public void stopPeerDiscovery(final Channel c, final ActionListener listener) {
+        listener.onSuccess();
+    }
+
+    @Override
+    public void connect(final Channel c, final WifiP2pConfig config, final ActionListener listener) {
+        listener.onSuccess();
+    }
+
+    @Override
+    public void removeGroup(final Channel c, final ActionListener listener) {
+        listener.onSuccess();
+    }
+
+    @Override
+    public void requestPeers(final Channel c, final PeerListListener listener) {
+        listener.onPeersAvailable(mPeers);
+    }
+
+    @Override
+    public void requestConnectionInfo(final Channel c, final ConnectionInfoListener listener) {
+        listener.onConnectionInfoAvailable(mConnectionInfo);
+    }
+
+    @Override
+    public void requestGroupInfo(final Channel c, final GroupInfoListener listener) {
+        listener.onGroupInfoAvailable(null);
+    }
+}
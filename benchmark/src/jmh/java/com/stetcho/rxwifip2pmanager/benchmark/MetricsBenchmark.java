@@ -0,0 +1,62 @@
+package com.stetcho.rxwifip2pmanager.benchmark;
+
+import android.net.wifi.p2p.WifiP2pInfo;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.HistogramP2pMetrics;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.LatencyHistogram;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.P2pMetrics;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link P2pMetrics} on a framework call, compared to
+ * {@link P2pMetrics#NONE}, and the cost of recording a single value.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsBenchmark {
+    @Param({"none", "histogram"})
+    public String metrics;
+
+    private RxWifiP2pManager mRxWifiP2pManager;
+    private LatencyHistogram mHistogram;
+    private long mValue;
+
+    @Setup
+    public void setUp() {
+        final FakeBroadcastObservableManager broadcasts = new FakeBroadcastObservableManager();
+        mRxWifiP2pManager = new RxWifiP2pManager(null, new FakeWifiP2pManager(broadcasts),
+                broadcasts);
+        mRxWifiP2pManager.setMetrics("histogram".equals(metrics)
+                ? new HistogramP2pMetrics()
+                : P2pMetrics.NONE);
+        mHistogram = new LatencyHistogram();
+    }
+
+    @Benchmark
+    public void requestConnectionInfo(final Blackhole blackhole) {
+        mRxWifiP2pManager
+                .requestConnectionInfo()
+                .subscribe(new RxWifiP2pManagerBenchmark.BlackholeSubscriber<WifiP2pInfo>(
+                        blackhole));
+    }
+
+    @Benchmark
+    public void recordLatency() {
+        mValue = (mValue + 7919) & 0xfffffff;
+        mHistogram.record(mValue);
+    }
+}
@@ -0,0 +1,77 @@
+package com.stetcho.rxwifip2pmanager.benchmark;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerTable;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Measures how fast {@link RxWifiP2pManager#requestPeers()} flattens a peer list into single
+ * {@link WifiP2pDevice} emissions, compared to the former {@code flatMap(Observable.from())}
+ * flattening and to the {@link PeerTable} projection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PeerFlatteningBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int peerCount;
+
+    private RxWifiP2pManager mRxWifiP2pManager;
+
+    @Setup
+    public void setUp() {
+        final FakeBroadcastObservableManager broadcasts = new FakeBroadcastObservableManager();
+        final FakeWifiP2pManager wifiP2pManager = new FakeWifiP2pManager(broadcasts);
+        wifiP2pManager.setPeers(FakeWifiP2pManager.createPeers(peerCount));
+        mRxWifiP2pManager = new RxWifiP2pManager(null, wifiP2pManager, broadcasts);
+    }
+
+    @Benchmark
+    public void flatMapFrom(final Blackhole blackhole) {
+        mRxWifiP2pManager
+                .requestPeersList()
+                .toObservable()
+                .flatMap(new Func1<WifiP2pDeviceList, Observable<WifiP2pDevice>>() {
+                    @Override
+                    public Observable<WifiP2pDevice> call(final WifiP2pDeviceList deviceList) {
+                        return Observable.from(deviceList.getDeviceList());
+                    }
+                })
+                .subscribe(new RxWifiP2pManagerBenchmark.BlackholeSubscriber<WifiP2pDevice>(
+                        blackhole));
+    }
+
+    @Benchmark
+    public void requestPeers(final Blackhole blackhole) {
+        mRxWifiP2pManager
+                .requestPeers()
+                .subscribe(new RxWifiP2pManagerBenchmark.BlackholeSubscriber<WifiP2pDevice>(
+                        blackhole));
+    }
+
+    @Benchmark
+    public void requestPeerTable(final Blackhole blackhole) {
+        mRxWifiP2pManager
+                .requestPeerTable()
+                .subscribe(new RxWifiP2pManagerBenchmark.BlackholeSubscriber<PeerTable>(
+                        blackhole));
+    }
+}
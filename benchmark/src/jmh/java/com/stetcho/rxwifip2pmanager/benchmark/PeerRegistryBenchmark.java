@@ -0,0 +1,81 @@
+package com.stetcho.rxwifip2pmanager.benchmark;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.schedulers.Schedulers;
+
+/**
+ * Compares the {@link PeerRegistry} with a map of device copies keyed by address, the obvious way
+ * to keep peers across refreshes. Run with the gc profiler: both structures are sized up front,
+ * so the allocations of the fill benchmarks are the memory they retain, and those of the refresh
+ * benchmarks are the garbage produced by every broadcast.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeerRegistryBenchmark {
+    @Param({"100", "10000"})
+    public int peerCount;
+
+    private WifiP2pDeviceList mPeers;
+    private PeerRegistry mRegistry;
+    private Map<String, WifiP2pDevice> mMap;
+
+    @Setup
+    public void setUp() {
+        mPeers = FakeWifiP2pManager.createPeers(peerCount);
+        mRegistry = fillRegistry();
+        mMap = fillMap();
+    }
+
+    @Benchmark
+    public PeerRegistry fillRegistry() {
+        final PeerRegistry registry = new PeerRegistry(Schedulers.immediate(), peerCount);
+        registry.update(mPeers);
+        return registry;
+    }
+
+    @Benchmark
+    public Map<String, WifiP2pDevice> fillMap() {
+        final Map<String, WifiP2pDevice> map = new HashMap<>(peerCount * 4 / 3 + 1);
+        for (WifiP2pDevice device : mPeers.getDeviceList()) {
+            map.put(device.deviceAddress, new WifiP2pDevice(device));
+        }
+        return map;
+    }
+
+    @Benchmark
+    public int refreshRegistry() {
+        return mRegistry.update(mPeers);
+    }
+
+    @Benchmark
+    public int refreshMap() {
+        for (WifiP2pDevice device : mPeers.getDeviceList()) {
+            mMap.put(device.deviceAddress, new WifiP2pDevice(device));
+        }
+        return mMap.size();
+    }
+
+    @Benchmark
+    public PeerRegistry.Snapshot refreshAndSnapshotRegistry() {
+        mRegistry.update(mPeers);
+        return mRegistry.snapshot();
+    }
+}
@@ -0,0 +1,140 @@
+package com.stetcho.rxwifip2pmanager.benchmark;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pInfo;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.Disposable;
+
+/**
+ * Compares the RxJava 1 library with the RxJava 2 module on the same {@link FakeWifiP2pManager}:
+ * a single operation, the flattening of a peer list and a whole discovery round-trip. The reuse
+ * of the connection info is disabled, so that both managers call the framework every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RxJava2Benchmark {
+    @Param({"10", "1000"})
+    public int peerCount;
+
+    private RxWifiP2pManager mRxJava1;
+    private com.stetcho.rxwifip2pmanager.rx2.data.wifi.RxWifiP2pManager mRxJava2;
+
+    @Setup
+    public void setUp() {
+        final FakeBroadcastObservableManager broadcasts1 = new FakeBroadcastObservableManager();
+        final FakeWifiP2pManager wifiP2pManager1 = new FakeWifiP2pManager(broadcasts1);
+        wifiP2pManager1.setPeers(FakeWifiP2pManager.createPeers(peerCount));
+        mRxJava1 = new RxWifiP2pManager(null, wifiP2pManager1, broadcasts1);
+        mRxJava1.setRequestCoalescingWindow(0, TimeUnit.MILLISECONDS);
+
+        final FakeBroadcastObservableManager broadcasts2 = new FakeBroadcastObservableManager();
+        final FakeWifiP2pManager wifiP2pManager2 = new FakeWifiP2pManager(broadcasts2);
+        wifiP2pManager2.setPeers(FakeWifiP2pManager.createPeers(peerCount));
+        mRxJava2 = new com.stetcho.rxwifip2pmanager.rx2.data.wifi.RxWifiP2pManager(
+                null, wifiP2pManager2, broadcasts2);
+    }
+
+    @Benchmark
+    public void requestConnectionInfo1(final Blackhole blackhole) {
+        mRxJava1
+                .requestConnectionInfo()
+                .subscribe(new RxWifiP2pManagerBenchmark.BlackholeSubscriber<WifiP2pInfo>(
+                        blackhole));
+    }
+
+    @Benchmark
+    public void requestConnectionInfo2(final Blackhole blackhole) {
+        mRxJava2
+                .requestConnectionInfo()
+                .subscribe(new BlackholeObserver<WifiP2pInfo>(blackhole));
+    }
+
+    @Benchmark
+    public void requestPeers1(final Blackhole blackhole) {
+        mRxJava1
+                .requestPeers()
+                .subscribe(new RxWifiP2pManagerBenchmark.BlackholeSubscriber<WifiP2pDevice>(
+                        blackhole));
+    }
+
+    @Benchmark
+    public void requestPeers2(final Blackhole blackhole) {
+        mRxJava2
+                .requestPeers()
+                .subscribe(new BlackholeObserver<WifiP2pDevice>(blackhole));
+    }
+
+    @Benchmark
+    public void discoverAndRequestPeersList1(final Blackhole blackhole) {
+        mRxJava1
+                .discoverAndRequestPeersList()
+                .subscribe(new RxWifiP2pManagerBenchmark.BlackholeSubscriber<WifiP2pDeviceList>(
+                        blackhole));
+    }
+
+    @Benchmark
+    public void discoverAndRequestPeersList2(final Blackhole blackhole) {
+        mRxJava2
+                .discoverAndRequestPeersList()
+                .subscribe(new BlackholeObserver<WifiP2pDeviceList>(blackhole));
+    }
+
+    /**
+     * Consumes the emissions of RxJava 2 sources, requesting all of them at once.
+     */
+    static final class BlackholeObserver<T> implements Subscriber<T>, SingleObserver<T> {
+        private final Blackhole mBlackhole;
+
+        BlackholeObserver(final Blackhole blackhole) {
+            mBlackhole = blackhole;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onSubscribe(final Disposable disposable) {
+        }
+
+        @Override
+        public void onNext(final T value) {
+            mBlackhole.consume(value);
+        }
+
+        @Override
+        public void onSuccess(final T value) {
+            mBlackhole.consume(value);
+        }
+
+        @Override
+        public void onError(final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.stetcho.rxwifip2pmanager.benchmark;
+
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager;
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionState;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Subscriber;
+import rx.Subscription;
+
+/**
+ * Measures the cost of subscribing to the library's streams and the latency of a whole
+ * discovery round-trip against a {@link FakeWifiP2pManager}, which answers synchronously.
+ * Run with {@code ./gradlew :benchmark:jmh}, the gc profiler reports the allocations per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RxWifiP2pManagerBenchmark {
+    private static final int PEER_COUNT = 10;
+
+    private RxWifiP2pManager mRxWifiP2pManager;
+
+    @Setup
+    public void setUp() {
+        final FakeBroadcastObservableManager broadcasts = new FakeBroadcastObservableManager();
+        final FakeWifiP2pManager wifiP2pManager = new FakeWifiP2pManager(broadcasts);
+        wifiP2pManager.setPeers(FakeWifiP2pManager.createPeers(PEER_COUNT));
+        mRxWifiP2pManager = new RxWifiP2pManager(null, wifiP2pManager, broadcasts);
+    }
+
+    @Benchmark
+    public RxWifiP2pManager createManager() {
+        final FakeBroadcastObservableManager broadcasts = new FakeBroadcastObservableManager();
+        return new RxWifiP2pManager(null, new FakeWifiP2pManager(broadcasts), broadcasts);
+    }
+
+    @Benchmark
+    public void subscribeToEvents(final Blackhole blackhole) {
+        final Subscription subscription = mRxWifiP2pManager
+                .observeEvents()
+                .subscribe(new BlackholeSubscriber<P2pEvent>(blackhole));
+        subscription.unsubscribe();
+    }
+
+    @Benchmark
+    public void subscribeToConnectionState(final Blackhole blackhole) {
+        final Subscription subscription = mRxWifiP2pManager
+                .observeConnectionState()
+                .subscribe(new BlackholeSubscriber<ConnectionState>(blackhole));
+        subscription.unsubscribe();
+    }
+
+    @Benchmark
+    public void discoverAndRequestPeersList(final Blackhole blackhole) {
+        mRxWifiP2pManager
+                .discoverAndRequestPeersList()
+                .subscribe(new BlackholeSubscriber<WifiP2pDeviceList>(blackhole));
+    }
+
+    /**
+     * Consumes the emissions, so that the JIT can not eliminate the work which produced them.
+     */
+    static final class BlackholeSubscriber<T> extends Subscriber<T> {
+        private final Blackhole mBlackhole;
+
+        BlackholeSubscriber(final Blackhole blackhole) {
+            mBlackhole = blackhole;
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+
+        @Override
+        public void onError(final Throwable e) {
+            throw new IllegalStateException(e);
+        }
+
+        @Override
+        public void onNext(final T value) {
+            mBlackhole.consume(value);
+        }
+    }
+}
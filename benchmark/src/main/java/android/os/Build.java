@@ -0,0 +1,27 @@
+package android.os;
+
+/**
+ * Replaces the framework class, whose static initializer calls native code which is not
+ * available on the JVM. RxJava reads {@link VERSION#SDK_INT} to detect Android.
+ */
+public class Build {
+    public static final String MODEL = "jvm";
+    public static final String MANUFACTURER = "jvm";
+    public static final String DEVICE = "jvm";
+    public static final String PRODUCT = "jvm";
+    public static final String FINGERPRINT = "jvm";
+    public static final String TYPE = "user";
+
+    public static class VERSION {
+        public static final int SDK_INT = 25;
+        public static final String RELEASE = "7.1.1";
+        public static final String CODENAME = "REL";
+    }
+
+    public static class VERSION_CODES {
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int LOLLIPOP = 21;
+        public static final int N_MR1 = 25;
+    }
+}
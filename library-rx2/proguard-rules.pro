@@ -0,0 +1,2 @@
+# Add project specific ProGuard rules here.
+# The module has no rules of its own, see the proguard-rules.pro of the library module.
@@ -0,0 +1,185 @@
+package com.stetcho.rxwifip2pmanager.rx2.data.wifi;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.operation.ChannelOperationQueue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableObserver;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeObserver;
+import io.reactivex.Single;
+import io.reactivex.SingleObserver;
+import io.reactivex.disposables.Disposable;
+import rx.functions.Action0;
+
+/**
+ * Sources that submit an operation to the {@link ChannelOperationQueue} upon subscription and
+ * deliver its result straight to the observer. Unlike {@link Single#create}, there is no emitter
+ * in between, so an operation costs one allocation per subscriber besides the queue's own.
+ */
+final class QueuedOperations {
+    private QueuedOperations() {
+    }
+
+    /**
+     * @return a {@link Single} that fails with a {@link NullPointerException} if the framework
+     * delivers null
+     */
+    static <T> Single<T> single(final ChannelOperationQueue queue,
+                                final Object key,
+                                final ChannelOperationQueue.Operation<T> operation) {
+        return new Single<T>() {
+            @Override
+            protected void subscribeActual(final SingleObserver<? super T> observer) {
+                final Receiver<T> receiver = new Receiver<T>() {
+                    @Override
+                    void onResult(final T value) {
+                        if (value == null) {
+                            observer.onError(new NullPointerException(
+                                    "The framework delivered a null result"));
+                        } else {
+                            observer.onSuccess(value);
+                        }
+                    }
+
+                    @Override
+                    void onFailure(final Throwable error) {
+                        observer.onError(error);
+                    }
+                };
+                observer.onSubscribe(receiver);
+                receiver.submit(queue, key, operation, null);
+            }
+        };
+    }
+
+    /**
+     * @return a {@link Maybe} that completes without a value if the framework delivers null
+     */
+    static <T> Maybe<T> maybe(final ChannelOperationQueue queue,
+                              final Object key,
+                              final ChannelOperationQueue.Operation<T> operation) {
+        return new Maybe<T>() {
+            @Override
+            protected void subscribeActual(final MaybeObserver<? super T> observer) {
+                final Receiver<T> receiver = new Receiver<T>() {
+                    @Override
+                    void onResult(final T value) {
+                        if (value == null) {
+                            observer.onComplete();
+                        } else {
+                            observer.onSuccess(value);
+                        }
+                    }
+
+                    @Override
+                    void onFailure(final Throwable error) {
+                        observer.onError(error);
+                    }
+                };
+                observer.onSubscribe(receiver);
+                receiver.submit(queue, key, operation, null);
+            }
+        };
+    }
+
+    /**
+     * @return a {@link Completable} for operations which deliver no result
+     */
+    static Completable completable(final ChannelOperationQueue queue,
+                                   final Object key,
+                                   final ChannelOperationQueue.Operation<Void> operation) {
+        return completable(queue, key, operation, null);
+    }
+
+    /**
+     * @param onCancel invoked when the last observer is disposed while the operation is in
+     *                 flight, see {@link ChannelOperationQueue#enqueue(Object,
+     *                 ChannelOperationQueue.Operation, Action0)}
+     * @return a {@link Completable} for operations which deliver no result
+     */
+    static Completable completable(final ChannelOperationQueue queue,
+                                   final Object key,
+                                   final ChannelOperationQueue.Operation<Void> operation,
+                                   final Action0 onCancel) {
+        return new Completable() {
+            @Override
+            protected void subscribeActual(final CompletableObserver observer) {
+                final Receiver<Void> receiver = new Receiver<Void>() {
+                    @Override
+                    void onResult(final Void value) {
+                        observer.onComplete();
+                    }
+
+                    @Override
+                    void onFailure(final Throwable error) {
+                        observer.onError(error);
+                    }
+                };
+                observer.onSubscribe(receiver);
+                receiver.submit(queue, key, operation, onCancel);
+            }
+        };
+    }
+
+    /**
+     * Receives the result of a queued operation and withdraws from the queue when disposed. The
+     * flag is set once the observer has been terminated or disposed.
+     */
+    private abstract static class Receiver<T> extends AtomicBoolean
+            implements ChannelOperationQueue.Callback<T>, Disposable {
+        private static final long serialVersionUID = 1L;
+
+        private volatile Action0 mWithdraw;
+
+        void submit(final ChannelOperationQueue queue,
+                    final Object key,
+                    final ChannelOperationQueue.Operation<T> operation,
+                    final Action0 onCancel) {
+            if (get()) {
+                return;
+            }
+            final Action0 withdraw = queue.submit(key, operation, onCancel, this);
+            mWithdraw = withdraw;
+            if (get()) {
+                // Disposed while the operation was submitted
+                withdraw.call();
+            }
+        }
+
+        @Override
+        public void onSuccess(final T value) {
+            if (compareAndSet(false, true)) {
+                onResult(value);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+            // Like a disposed RxJava 1 subscriber, a disposed observer ignores late errors
+            if (compareAndSet(false, true)) {
+                onFailure(error);
+            }
+        }
+
+        @Override
+        public void dispose() {
+            if (compareAndSet(false, true)) {
+                final Action0 withdraw = mWithdraw;
+                if (withdraw != null) {
+                    withdraw.call();
+                }
+            }
+        }
+
+        @Override
+        public boolean isDisposed() {
+            return get();
+        }
+
+        abstract void onResult(T value);
+
+        abstract void onFailure(Throwable error);
+    }
+}
@@ -0,0 +1,122 @@
+package com.stetcho.rxwifip2pmanager.rx2.data.wifi;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.Single;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import rx.Observable;
+import rx.SingleSubscriber;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Bridges the parts shared with the RxJava 1 library, e.g. the
+ * {@link com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionStateMachine}, to RxJava 2.
+ * Cancelling on either side cancels the other one.
+ */
+final class RxJavaInterop {
+    private RxJavaInterop() {
+    }
+
+    /**
+     * @return an {@link Observable} that requests all items of the flowable
+     */
+    static <T> Observable<T> toObservable(final Flowable<T> flowable) {
+        return Observable.create(new Observable.OnSubscribe<T>() {
+            @Override
+            public void call(final Subscriber<? super T> subscriber) {
+                final Disposable disposable = flowable.subscribe(
+                        new Consumer<T>() {
+                            @Override
+                            public void accept(final T value) {
+                                subscriber.onNext(value);
+                            }
+                        },
+                        new Consumer<Throwable>() {
+                            @Override
+                            public void accept(final Throwable error) {
+                                subscriber.onError(error);
+                            }
+                        },
+                        new Action() {
+                            @Override
+                            public void run() {
+                                subscriber.onCompleted();
+                            }
+                        });
+                subscriber.add(dispose(disposable));
+            }
+        });
+    }
+
+    static <T> rx.Single<T> toSingle(final Single<T> single) {
+        return rx.Single.create(new rx.Single.OnSubscribe<T>() {
+            @Override
+            public void call(final SingleSubscriber<? super T> subscriber) {
+                final Disposable disposable = single.subscribe(
+                        new Consumer<T>() {
+                            @Override
+                            public void accept(final T value) {
+                                subscriber.onSuccess(value);
+                            }
+                        },
+                        new Consumer<Throwable>() {
+                            @Override
+                            public void accept(final Throwable error) {
+                                subscriber.onError(error);
+                            }
+                        });
+                subscriber.add(dispose(disposable));
+            }
+        });
+    }
+
+    /**
+     * @return a {@link Flowable} that buffers the items of the observable for slow subscribers
+     */
+    static <T> Flowable<T> toFlowable(final Observable<T> observable) {
+        return Flowable.create(new FlowableOnSubscribe<T>() {
+            @Override
+            public void subscribe(final FlowableEmitter<T> emitter) {
+                final Subscription subscription = observable.subscribe(new Subscriber<T>() {
+                    @Override
+                    public void onCompleted() {
+                        emitter.onComplete();
+                    }
+
+                    @Override
+                    public void onError(final Throwable e) {
+                        emitter.onError(e);
+                    }
+
+                    @Override
+                    public void onNext(final T value) {
+                        emitter.onNext(value);
+                    }
+                });
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        subscription.unsubscribe();
+                    }
+                });
+            }
+        }, BackpressureStrategy.BUFFER);
+    }
+
+    private static Subscription dispose(final Disposable disposable) {
+        return Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                disposable.dispose();
+            }
+        });
+    }
+}
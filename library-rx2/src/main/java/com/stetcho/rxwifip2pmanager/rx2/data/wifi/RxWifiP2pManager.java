@@ -0,0 +1,1174 @@
+package com.stetcho.rxwifip2pmanager.rx2.data.wifi;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.net.wifi.WpsInfo;
+import android.net.wifi.p2p.WifiP2pConfig;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+import android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceRequest;
+import android.net.wifi.p2p.nsd.WifiP2pServiceInfo;
+import android.net.wifi.p2p.nsd.WifiP2pServiceRequest;
+import android.os.Build;
+import android.os.Looper;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionState;
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionStateMachine;
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.PeerConnectionResult;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEventParser;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pChannelDisconnectedException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pException;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.HistogramP2pMetrics;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.MeasuredOperation;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.P2pMetrics;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.P2pOperation;
+import com.stetcho.rxwifip2pmanager.data.wifi.operation.ChannelOperationQueue;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerChange;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerListDiffer;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerTable;
+import com.stetcho.rxwifip2pmanager.data.wifi.service.DnsSdRecord;
+import com.stetcho.rxwifip2pmanager.data.wifi.service.TxtRecordCache;
+import com.stetcho.rxwifip2pmanager.domain.broadcast.BroadcastObservableManager;
+
+import org.reactivestreams.Publisher;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.reactivex.BackpressureStrategy;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.FlowableEmitter;
+import io.reactivex.FlowableOnSubscribe;
+import io.reactivex.Maybe;
+import io.reactivex.MaybeSource;
+import io.reactivex.Scheduler;
+import io.reactivex.Single;
+import io.reactivex.SingleSource;
+import io.reactivex.functions.Action;
+import io.reactivex.functions.Cancellable;
+import io.reactivex.functions.Consumer;
+import io.reactivex.functions.Function;
+import io.reactivex.functions.Predicate;
+import io.reactivex.processors.FlowableProcessor;
+import io.reactivex.processors.PublishProcessor;
+import io.reactivex.schedulers.Schedulers;
+import rx.Subscriber;
+import rx.Subscription;
+import rx.functions.Action0;
+
+/**
+ * The RxJava 2 counterpart of {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager}.
+ * Both share the operation queue, the typed events and the peer diffing, so the framework is used
+ * in the same way; only the reactive types differ.
+ *
+ * Streams that can emit more than one item are {@link Flowable}s: the peers of a list are emitted
+ * as they are requested, and the broadcasts are buffered, since none of them may be lost and they
+ * arrive at a low rate. Operations are delivered straight from the framework callback to the
+ * observer, without an emitter in between.
+ */
+public class RxWifiP2pManager {
+    private static final String OPERATION_DISCOVER_PEERS = "discoverPeers";
+    private static final String OPERATION_STOP_PEER_DISCOVERY = "stopPeerDiscovery";
+    private static final String OPERATION_CANCEL_CONNECT = "cancelConnect";
+    private static final String OPERATION_REQUEST_PEERS = "requestPeers";
+    private static final String OPERATION_REQUEST_CONNECTION_INFO = "requestConnectionInfo";
+    private static final String OPERATION_REQUEST_GROUP_INFO = "requestGroupInfo";
+    private static final String OPERATION_REMOVE_GROUP = "removeGroup";
+    private static final String OPERATION_CREATE_GROUP = "createGroup";
+    private static final String OPERATION_DISCOVER_SERVICES = "discoverServices";
+
+    private static final P2pEventParser PARSER = new P2pEventParser();
+
+    private static final Function<WifiP2pDeviceList, Iterable<WifiP2pDevice>> TO_DEVICES =
+            new Function<WifiP2pDeviceList, Iterable<WifiP2pDevice>>() {
+                @Override
+                public Iterable<WifiP2pDevice> apply(final WifiP2pDeviceList deviceList) {
+                    return deviceList.getDeviceList();
+                }
+            };
+
+    private static final Function<WifiP2pDeviceList, PeerTable> TO_PEER_TABLE =
+            new Function<WifiP2pDeviceList, PeerTable>() {
+                @Override
+                public PeerTable apply(final WifiP2pDeviceList deviceList) {
+                    return PeerTable.of(deviceList);
+                }
+            };
+
+    private static final Function<WifiP2pGroup, Collection<WifiP2pDevice>> TO_CLIENTS =
+            new Function<WifiP2pGroup, Collection<WifiP2pDevice>>() {
+                @Override
+                public Collection<WifiP2pDevice> apply(final WifiP2pGroup group) {
+                    return group.isGroupOwner() && group.getClientList() != null
+                            ? group.getClientList()
+                            : Collections.<WifiP2pDevice>emptyList();
+                }
+            };
+
+    private final WifiP2pManager mWifiP2pManager;
+    private final Context mContext;
+    private final Looper mLooper;
+    private final WifiP2pManager.ChannelListener mChannelListener =
+            new WifiP2pManager.ChannelListener() {
+                @Override
+                public void onChannelDisconnected() {
+                    reinitializeChannel();
+                }
+            };
+    private volatile WifiP2pManager.Channel mChannel;
+    private final Flowable<P2pEvent> mEvents;
+    private final ChannelOperationQueue mOperationQueue = new ChannelOperationQueue();
+    private final Action0 mStopPeerDiscovery = new Action0() {
+        @Override
+        public void call() {
+            stopPeerDiscovery().onErrorComplete().subscribe();
+        }
+    };
+    private final Action0 mCancelConnect = new Action0() {
+        @Override
+        public void call() {
+            cancelConnect().onErrorComplete().subscribe();
+        }
+    };
+    private final TxtRecordCache mTxtRecordCache =
+            new TxtRecordCache(rx.schedulers.Schedulers.immediate());
+    private final FlowableProcessor<DnsSdRecord> mDnsSdRecords =
+            PublishProcessor.<DnsSdRecord>create().toSerialized();
+    private final AtomicBoolean mDnsSdListenersSet = new AtomicBoolean();
+    private final ConnectionStateMachine mConnectionStateMachine;
+    private volatile P2pMetrics mMetrics = P2pMetrics.NONE;
+
+    /**
+     * Creates a manager whose framework callbacks are delivered on the main thread.
+     *
+     * @see #RxWifiP2pManager(Context, WifiP2pManager, BroadcastObservableManager.Factory, Looper)
+     */
+    public RxWifiP2pManager(Context context,
+                            WifiP2pManager wifiP2pManager,
+                            BroadcastObservableManager.Factory intentObservableFactory) {
+        this(context, wifiP2pManager, intentObservableFactory, Looper.getMainLooper());
+    }
+
+    /**
+     * The main constructor, see
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#RxWifiP2pManager(Context,
+     * WifiP2pManager, BroadcastObservableManager.Factory, Looper)}.
+     *
+     * @param context                 an instance of the application's context
+     * @param wifiP2pManager          an instance of {@link WifiP2pManager}
+     * @param intentObservableFactory the factory of the broadcast receiver, the broadcasts are
+     *                                received once for all subscribers
+     * @param looper                  the looper on which the framework callbacks are delivered
+     */
+    public RxWifiP2pManager(Context context,
+                            WifiP2pManager wifiP2pManager,
+                            BroadcastObservableManager.Factory intentObservableFactory,
+                            Looper looper) {
+        mWifiP2pManager = wifiP2pManager;
+        mContext = context;
+        mLooper = looper;
+        mChannel = mWifiP2pManager.initialize(mContext, mLooper, mChannelListener);
+        mEvents = parse(intentObservableFactory.create().getBroadcastObservable());
+        mConnectionStateMachine = new ConnectionStateMachine(RxJavaInterop.toObservable(mEvents),
+                RxJavaInterop.toSingle(Single.defer(new Callable<Single<WifiP2pInfo>>() {
+                    @Override
+                    public Single<WifiP2pInfo> call() {
+                        return requestConnectionInfo();
+                    }
+                })));
+    }
+
+    /**
+     * Returns the class provides the API for managing Wi-Fi peer-to-peer connectivity.
+     *
+     * @return {@link WifiP2pManager}
+     */
+    public WifiP2pManager getWifiP2pManager() {
+        return mWifiP2pManager;
+    }
+
+    /**
+     * A channel that represents the connection between the application and the Wifi p2p framework
+     *
+     * @return {@link WifiP2pManager.Channel}
+     */
+    public WifiP2pManager.Channel getChannel() {
+        return mChannel;
+    }
+
+    /**
+     * @return the number of channel operations that have not delivered their result yet,
+     * including the one in flight
+     */
+    public int getQueueDepth() {
+        return mOperationQueue.getQueueDepth();
+    }
+
+    /**
+     * Plugs in the metrics which measure the framework calls and the handling of broadcasts from
+     * now on. Operations are not measured at all with the default {@link P2pMetrics#NONE}.
+     *
+     * @param metrics the metrics, e.g. {@link HistogramP2pMetrics}, or {@link P2pMetrics#NONE}
+     */
+    public void setMetrics(final P2pMetrics metrics) {
+        mMetrics = metrics == null ? P2pMetrics.NONE : metrics;
+    }
+
+    public P2pMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns the cache of the DNS-SD TXT records received through service discovery.
+     *
+     * @return {@link TxtRecordCache}
+     */
+    public TxtRecordCache getTxtRecordCache() {
+        return mTxtRecordCache;
+    }
+
+    /**
+     * Observes the Wi-Fi p2p broadcasts as typed events. Each broadcast is parsed once and the
+     * event is shared between all subscribers of this manager, including the ones used internally.
+     *
+     * @return a {@link Flowable} that buffers the {@link P2pEvent}s for slow subscribers and never
+     * completes
+     */
+    public Flowable<P2pEvent> observeEvents() {
+        return mEvents;
+    }
+
+    /**
+     * Observes the state of the p2p connection, see
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#observeConnectionState()}.
+     * While the state is observed, it is emitted immediately upon subscription, followed by every
+     * change.
+     *
+     * @return a {@link Flowable} that buffers the {@link ConnectionState}s for slow subscribers
+     * and never completes
+     */
+    public Flowable<ConnectionState> observeConnectionState() {
+        return RxJavaInterop.toFlowable(mConnectionStateMachine.observe());
+    }
+
+    /**
+     * Requests the current peers.
+     *
+     * @return a {@link Flowable} that emits the peers of a {@link WifiP2pDeviceList} as they are
+     * requested by the subscriber
+     */
+    public Flowable<WifiP2pDevice> requestPeers() {
+        return requestPeersList().flattenAsFlowable(TO_DEVICES);
+    }
+
+    /**
+     * Requests all current peers, projected to their address, name and status
+     *
+     * @return a {@link Single} that emits a {@link PeerTable} of the current peers
+     */
+    public Single<PeerTable> requestPeerTable() {
+        return requestPeersList().map(TO_PEER_TABLE);
+    }
+
+    /**
+     * Requests a list with all current nearby p2p devices.
+     *
+     * @return a {@link Single} that emits {@link WifiP2pDeviceList}
+     */
+    public Single<WifiP2pDeviceList> requestPeersList() {
+        return QueuedOperations.single(mOperationQueue, OPERATION_REQUEST_PEERS,
+                measure(P2pOperation.REQUEST_PEERS,
+                new ChannelOperationQueue.Operation<WifiP2pDeviceList>() {
+                    @Override
+                    public void execute(
+                            final ChannelOperationQueue.Callback<WifiP2pDeviceList> callback) {
+                        mWifiP2pManager.requestPeers(mChannel,
+                                new WifiP2pManager.PeerListListener() {
+                                    @Override
+                                    public void onPeersAvailable(WifiP2pDeviceList peers) {
+                                        callback.onSuccess(peers);
+                                    }
+                                });
+                    }
+                }));
+    }
+
+    /**
+     * Initiates a peer discovery by scanning for available Wi-Fi peers for the purpose of
+     * establishing a connection. If the observer is disposed before the framework has answered,
+     * the discovery is stopped again (see {@link #stopPeerDiscovery()}).
+     *
+     * @return a {@link Completable} that indicates whether the discovery was successful or not
+     */
+    public Completable discoverPeers() {
+        return QueuedOperations.completable(mOperationQueue, OPERATION_DISCOVER_PEERS,
+                measure(P2pOperation.DISCOVER_PEERS,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.discoverPeers(mChannel, toActionListener(callback));
+                    }
+                }), mStopPeerDiscovery)
+                .doOnComplete(new Action() {
+                    @Override
+                    public void run() {
+                        mConnectionStateMachine.onDiscoveryStarted();
+                    }
+                });
+    }
+
+    /**
+     * Stops an ongoing peer discovery. The framework supports it since API level 16, on older
+     * releases this completes without doing anything and the discovery ends on its own.
+     *
+     * @return a {@link Completable} that completes once the discovery has been stopped
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable stopPeerDiscovery() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return Completable.complete();
+        }
+        return QueuedOperations.completable(mOperationQueue, OPERATION_STOP_PEER_DISCOVERY,
+                measure(P2pOperation.STOP_PEER_DISCOVERY,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.stopPeerDiscovery(mChannel, toActionListener(callback));
+                    }
+                }));
+    }
+
+    /**
+     * Initiates a peer discovery and looks for nearby devices. The discovery is stopped if the
+     * observer is disposed before the peers have been found.
+     *
+     * @return a {@link Single} that emits a list with all discovered nearby devices
+     */
+    public Single<WifiP2pDeviceList> discoverAndRequestPeersList() {
+        return discoverPeers()
+                .andThen(Single.defer(new Callable<Single<P2pEvent.PeersChanged>>() {
+                    @Override
+                    public Single<P2pEvent.PeersChanged> call() {
+                        // Sometimes we get two broadcasts, so let's take only the first one
+                        return mEvents
+                                .ofType(P2pEvent.PeersChanged.class)
+                                .firstOrError()
+                                .doOnDispose(new Action() {
+                                    @Override
+                                    public void run() {
+                                        mStopPeerDiscovery.call();
+                                    }
+                                });
+                    }
+                }))
+                .flatMap(new Function<P2pEvent.PeersChanged, SingleSource<WifiP2pDeviceList>>() {
+                    @Override
+                    public SingleSource<WifiP2pDeviceList> apply(
+                            final P2pEvent.PeersChanged event) {
+                        return requestPeersList(event);
+                    }
+                });
+    }
+
+    /**
+     * Initiates a peer discovery and looks for nearby devices.
+     *
+     * @return a {@link Flowable} that emits the discovered devices as they are requested by the
+     * subscriber
+     */
+    public Flowable<WifiP2pDevice> discoverAndRequestPeers() {
+        return discoverAndRequestPeersList().flattenAsFlowable(TO_DEVICES);
+    }
+
+    /**
+     * Initiates a peer discovery and looks for nearby devices.
+     *
+     * @return a {@link Single} that emits a {@link PeerTable} of all discovered nearby devices
+     */
+    public Single<PeerTable> discoverAndRequestPeerTable() {
+        return discoverAndRequestPeersList().map(TO_PEER_TABLE);
+    }
+
+    /**
+     * Initiates a peer discovery and keeps it alive until cancelled, emitting only the peers that
+     * were added, removed or changed, see
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#discoverPeerChanges()}.
+     *
+     * Only the newest peer list is requested when the subscriber falls behind, and none of its
+     * changes are dropped. Cancelling stops the discovery.
+     *
+     * @return a {@link Flowable} that emits {@link PeerChange}s keyed by
+     * {@link WifiP2pDevice#deviceAddress}
+     */
+    public Flowable<PeerChange> discoverPeerChanges() {
+        return Flowable.defer(new Callable<Publisher<PeerChange>>() {
+            @Override
+            public Publisher<PeerChange> call() {
+                final Flowable<Single<WifiP2pDeviceList>> refreshes = mEvents
+                        .flatMap(new Function<P2pEvent, Publisher<Single<WifiP2pDeviceList>>>() {
+                            @Override
+                            public Publisher<Single<WifiP2pDeviceList>> apply(
+                                    final P2pEvent event) {
+                                if (event.getType() == P2pEvent.Type.PEERS_CHANGED) {
+                                    return Flowable.just(
+                                            requestPeersList((P2pEvent.PeersChanged) event));
+                                }
+                                if (event.getType() == P2pEvent.Type.DISCOVERY_CHANGED
+                                        && !((P2pEvent.DiscoveryChanged) event).isStarted()) {
+                                    // A failed restart must not terminate the stream, the next
+                                    // stop event or a resubscription will try again
+                                    return discoverPeers()
+                                            .andThen(Flowable.just(requestPeersList()))
+                                            .onErrorResumeNext(
+                                                    Flowable.<Single<WifiP2pDeviceList>>empty());
+                                }
+                                return Flowable.empty();
+                            }
+                        });
+                final PeerListDiffer differ = new PeerListDiffer();
+
+                return Flowable
+                        .merge(refreshes,
+                                discoverPeers().andThen(Flowable.just(requestPeersList())))
+                        .switchMap(new Function<Single<WifiP2pDeviceList>,
+                                Publisher<WifiP2pDeviceList>>() {
+                            @Override
+                            public Publisher<WifiP2pDeviceList> apply(
+                                    final Single<WifiP2pDeviceList> request) {
+                                return request.toFlowable();
+                            }
+                        })
+                        .flatMapIterable(new Function<WifiP2pDeviceList, Iterable<PeerChange>>() {
+                            @Override
+                            public Iterable<PeerChange> apply(final WifiP2pDeviceList peers) {
+                                return differ.diff(peers.getDeviceList());
+                            }
+                        })
+                        .doOnCancel(new Action() {
+                            @Override
+                            public void run() {
+                                mStopPeerDiscovery.call();
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Initiates a connection request to a peer. After a successful group formation, you might use
+     * {@link #requestConnectionInfo()} to fetch the connection details. If the observer is
+     * disposed before the framework has answered, the request is cancelled again (see
+     * {@link #cancelConnect()}).
+     *
+     * @param config the configuration for setting up a new Wi-Fi p2p connection, see
+     *               {@link #createConfig(String, int)}
+     * @return a {@link Completable} that indicates completion upon successful connection
+     */
+    public Completable connect(final WifiP2pConfig config) {
+        return enqueueConnect(config, mCancelConnect);
+    }
+
+    /**
+     * @param onCancel cancels the request once the framework has accepted it, if the observer has
+     *                 been disposed in the meantime, or null to let it go on
+     */
+    private Completable enqueueConnect(final WifiP2pConfig config, final Action0 onCancel) {
+        return QueuedOperations.completable(mOperationQueue, null,
+                measure(P2pOperation.CONNECT,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mConnectionStateMachine.onConnecting();
+                        mWifiP2pManager.connect(mChannel, config, toActionListener(callback));
+                    }
+                }), onCancel)
+                .doOnError(new Consumer<Throwable>() {
+                    @Override
+                    public void accept(final Throwable throwable) {
+                        mConnectionStateMachine.onConnectFailed();
+                    }
+                });
+    }
+
+    /**
+     * Cancels an ongoing connection request, e.g. one whose peer has not accepted the invitation
+     * yet.
+     *
+     * @return a {@link Completable} that completes once the framework has cancelled the request
+     */
+    public Completable cancelConnect() {
+        return QueuedOperations.completable(mOperationQueue, OPERATION_CANCEL_CONNECT,
+                measure(P2pOperation.CANCEL_CONNECT,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.cancelConnect(mChannel, toActionListener(callback));
+                    }
+                }))
+                .doOnComplete(new Action() {
+                    @Override
+                    public void run() {
+                        mConnectionStateMachine.onConnectFailed();
+                    }
+                });
+    }
+
+    /**
+     * Creates a p2p group with this device as the group owner. The group is formed
+     * asynchronously, a {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION} broadcast follows
+     * once it is up.
+     *
+     * @return a {@link Completable} that indicates whether the framework accepted the request
+     */
+    public Completable createGroup() {
+        return QueuedOperations.completable(mOperationQueue, OPERATION_CREATE_GROUP,
+                measure(P2pOperation.CREATE_GROUP,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.createGroup(mChannel, toActionListener(callback));
+                    }
+                }));
+    }
+
+    /**
+     * Fetches information about the current connection.
+     *
+     * @return a {@link Single} that emits {@link WifiP2pInfo}
+     */
+    public Single<WifiP2pInfo> requestConnectionInfo() {
+        return QueuedOperations.single(mOperationQueue, OPERATION_REQUEST_CONNECTION_INFO,
+                measure(P2pOperation.REQUEST_CONNECTION_INFO,
+                new ChannelOperationQueue.Operation<WifiP2pInfo>() {
+                    @Override
+                    public void execute(
+                            final ChannelOperationQueue.Callback<WifiP2pInfo> callback) {
+                        mWifiP2pManager.requestConnectionInfo(mChannel,
+                                new WifiP2pManager.ConnectionInfoListener() {
+                                    @Override
+                                    public void onConnectionInfoAvailable(WifiP2pInfo info) {
+                                        callback.onSuccess(info);
+                                    }
+                                });
+                    }
+                }));
+    }
+
+    /**
+     * Fetches information about the current group.
+     *
+     * @return a {@link Maybe} that emits the {@link WifiP2pGroup}, or completes without a value
+     * when this device is not part of a group
+     */
+    public Maybe<WifiP2pGroup> requestGroupInfo() {
+        return QueuedOperations.maybe(mOperationQueue, OPERATION_REQUEST_GROUP_INFO,
+                measure(P2pOperation.REQUEST_GROUP_INFO,
+                new ChannelOperationQueue.Operation<WifiP2pGroup>() {
+                    @Override
+                    public void execute(
+                            final ChannelOperationQueue.Callback<WifiP2pGroup> callback) {
+                        mWifiP2pManager.requestGroupInfo(mChannel,
+                                new WifiP2pManager.GroupInfoListener() {
+                                    @Override
+                                    public void onGroupInfoAvailable(WifiP2pGroup group) {
+                                        callback.onSuccess(group);
+                                    }
+                                });
+                    }
+                }));
+    }
+
+    /**
+     * Observes the clients of the group owned by this device, see
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#observeGroupMembership()}.
+     *
+     * @return a {@link Flowable} that emits {@link PeerChange}s keyed by
+     * {@link WifiP2pDevice#deviceAddress} and never completes
+     */
+    public Flowable<PeerChange> observeGroupMembership() {
+        return Flowable.defer(new Callable<Publisher<PeerChange>>() {
+            @Override
+            public Publisher<PeerChange> call() {
+                final Flowable<Maybe<WifiP2pGroup>> changes = mEvents
+                        .ofType(P2pEvent.ConnectionChanged.class)
+                        .map(new Function<P2pEvent.ConnectionChanged, Maybe<WifiP2pGroup>>() {
+                            @Override
+                            public Maybe<WifiP2pGroup> apply(
+                                    final P2pEvent.ConnectionChanged event) {
+                                if (!event.isConnected()) {
+                                    return Maybe.empty();
+                                }
+                                // The group is attached to the broadcast since API level 18
+                                return event.getWifiP2pGroup() != null
+                                        ? Maybe.just(event.getWifiP2pGroup())
+                                        : requestGroupInfo();
+                            }
+                        });
+                final PeerListDiffer differ = new PeerListDiffer();
+
+                return Flowable
+                        .merge(changes, Flowable.just(requestGroupInfo()))
+                        .switchMap(new Function<Maybe<WifiP2pGroup>,
+                                Publisher<Collection<WifiP2pDevice>>>() {
+                            @Override
+                            public Publisher<Collection<WifiP2pDevice>> apply(
+                                    final Maybe<WifiP2pGroup> request) {
+                                return request
+                                        .map(TO_CLIENTS)
+                                        .defaultIfEmpty(Collections.<WifiP2pDevice>emptyList())
+                                        .toFlowable();
+                            }
+                        })
+                        .flatMapIterable(new Function<Collection<WifiP2pDevice>,
+                                Iterable<PeerChange>>() {
+                            @Override
+                            public Iterable<PeerChange> apply(
+                                    final Collection<WifiP2pDevice> clients) {
+                                return differ.diff(clients);
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Invites several peers into a single group with this device as the group owner.
+     *
+     * @see #connectAll(Collection, long, TimeUnit, Scheduler)
+     */
+    public Flowable<PeerConnectionResult> connectAll(final Collection<String> deviceAddresses,
+                                                     final long timeout,
+                                                     final TimeUnit unit) {
+        return connectAll(deviceAddresses, timeout, unit, Schedulers.computation());
+    }
+
+    /**
+     * Invites several peers into a single group with this device as the group owner, see
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#connectAll(Collection, long,
+     * TimeUnit, rx.Scheduler)}. An invitation which times out is not cancelled, as
+     * {@link #cancelConnect()} would abort the other invitations as well.
+     *
+     * @param deviceAddresses the addresses of the peers, duplicates are invited once
+     * @param timeout         how long to wait for each peer to join
+     * @param unit            the time unit of timeout
+     * @param scheduler       the scheduler of the timeouts
+     * @return a {@link Flowable} that emits one {@link PeerConnectionResult} per peer, in the
+     * order in which they arrive, and completes once all peers are reported. It fails when the
+     * group can not be created or when this device is a client of another group.
+     */
+    public Flowable<PeerConnectionResult> connectAll(final Collection<String> deviceAddresses,
+                                                     final long timeout,
+                                                     final TimeUnit unit,
+                                                     final Scheduler scheduler) {
+        return Flowable.defer(new Callable<Publisher<PeerConnectionResult>>() {
+            @Override
+            public Publisher<PeerConnectionResult> call() {
+                final Set<String> addresses = new LinkedHashSet<>(deviceAddresses);
+                return requestOwnedGroup().flatMapPublisher(
+                        new Function<WifiP2pGroup, Publisher<PeerConnectionResult>>() {
+                            @Override
+                            public Publisher<PeerConnectionResult> apply(
+                                    final WifiP2pGroup group) {
+                                final Flowable<WifiP2pGroup> groups = observeOwnedGroup()
+                                        .startWith(group)
+                                        .replay(1)
+                                        .refCount();
+                                return Flowable.fromIterable(addresses).flatMap(
+                                        new Function<String, Publisher<PeerConnectionResult>>() {
+                                            @Override
+                                            public Publisher<PeerConnectionResult> apply(
+                                                    final String address) {
+                                                return invite(address, groups, timeout, unit,
+                                                        scheduler);
+                                            }
+                                        });
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Reports the peer once it is a client of the group, sending an invitation unless it is one
+     * already
+     */
+    private Flowable<PeerConnectionResult> invite(final String address,
+                                                  final Flowable<WifiP2pGroup> groups,
+                                                  final long timeout,
+                                                  final TimeUnit unit,
+                                                  final Scheduler scheduler) {
+        final PeerConnectionResult connected =
+                new PeerConnectionResult(address, PeerConnectionResult.Status.CONNECTED, null);
+        return groups
+                .take(1)
+                .flatMap(new Function<WifiP2pGroup, Publisher<PeerConnectionResult>>() {
+                    @Override
+                    public Publisher<PeerConnectionResult> apply(final WifiP2pGroup group) {
+                        if (hasClient(group, address)) {
+                            return Flowable.just(connected);
+                        }
+
+                        // Cancelling would abort the invitations of the other peers too
+                        final Flowable<PeerConnectionResult> rejected =
+                                enqueueConnect(createConfig(address, WpsInfo.PBC), null)
+                                        .<PeerConnectionResult>toFlowable()
+                                        .onErrorReturn(
+                                                new Function<Throwable, PeerConnectionResult>() {
+                                                    @Override
+                                                    public PeerConnectionResult apply(
+                                                            final Throwable throwable) {
+                                                        return new PeerConnectionResult(address,
+                                                                PeerConnectionResult.Status.FAILED,
+                                                                throwable);
+                                                    }
+                                                });
+                        final Flowable<PeerConnectionResult> joined = groups
+                                .filter(new Predicate<WifiP2pGroup>() {
+                                    @Override
+                                    public boolean test(final WifiP2pGroup group) {
+                                        return hasClient(group, address);
+                                    }
+                                })
+                                .map(new Function<WifiP2pGroup, PeerConnectionResult>() {
+                                    @Override
+                                    public PeerConnectionResult apply(final WifiP2pGroup group) {
+                                        return connected;
+                                    }
+                                });
+
+                        return Flowable.merge(joined, rejected)
+                                .take(1)
+                                .timeout(timeout, unit, scheduler, Flowable.just(
+                                        new PeerConnectionResult(address,
+                                                PeerConnectionResult.Status.TIMED_OUT, null)));
+                    }
+                });
+    }
+
+    /**
+     * Emits the group owned by this device, creating it first if there is none
+     */
+    private Maybe<WifiP2pGroup> requestOwnedGroup() {
+        return requestGroupInfo()
+                .flatMap(new Function<WifiP2pGroup, MaybeSource<WifiP2pGroup>>() {
+                    @Override
+                    public MaybeSource<WifiP2pGroup> apply(final WifiP2pGroup group) {
+                        return group.isGroupOwner()
+                                ? Maybe.just(group)
+                                : Maybe.<WifiP2pGroup>error(new IllegalStateException(
+                                "This device is a client of another group"));
+                    }
+                })
+                .switchIfEmpty(Maybe.defer(new Callable<MaybeSource<WifiP2pGroup>>() {
+                    @Override
+                    public MaybeSource<WifiP2pGroup> call() {
+                        // Listen before creating the group, so that its broadcast is not missed
+                        return Flowable
+                                .merge(observeOwnedGroup(),
+                                        createGroup().<WifiP2pGroup>toFlowable())
+                                .firstElement();
+                    }
+                }));
+    }
+
+    /**
+     * Emits the group owned by this device whenever the connection changes. The group is attached
+     * to the broadcast since API level 18, otherwise it is requested from the framework.
+     */
+    private Flowable<WifiP2pGroup> observeOwnedGroup() {
+        // The events are not filtered ahead of concatMap(), as RxJava 2.0.1 hands null to the
+        // cast of ofType() when a filter follows it in a fused chain
+        return mEvents
+                .ofType(P2pEvent.ConnectionChanged.class)
+                .concatMap(new Function<P2pEvent.ConnectionChanged, Publisher<WifiP2pGroup>>() {
+                    @Override
+                    public Publisher<WifiP2pGroup> apply(final P2pEvent.ConnectionChanged event) {
+                        if (!event.isConnected() || (event.getWifiP2pInfo() != null
+                                && !event.getWifiP2pInfo().isGroupOwner)) {
+                            return Flowable.empty();
+                        }
+                        return event.getWifiP2pGroup() != null
+                                ? Flowable.just(event.getWifiP2pGroup())
+                                : requestGroupInfo().toFlowable();
+                    }
+                })
+                .filter(new Predicate<WifiP2pGroup>() {
+                    @Override
+                    public boolean test(final WifiP2pGroup group) {
+                        return group.isGroupOwner();
+                    }
+                });
+    }
+
+    private static boolean hasClient(final WifiP2pGroup group, final String address) {
+        final Collection<WifiP2pDevice> clients = group.getClientList();
+        if (clients == null) {
+            return false;
+        }
+        for (WifiP2pDevice client : clients) {
+            if (client != null && address.equalsIgnoreCase(client.deviceAddress)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the group for the current channel. Only the group owner removes the group, so when
+     * this device is a client or not part of a group, this completes as soon as the group info is
+     * known.
+     *
+     * @return a {@link Completable} that indicates whether removing the group was successful
+     */
+    public Completable disconnect() {
+        return requestGroupInfo()
+                .flatMapCompletable(new Function<WifiP2pGroup, Completable>() {
+                    @Override
+                    public Completable apply(final WifiP2pGroup group) {
+                        return group.isGroupOwner() ? removeGroup() : Completable.complete();
+                    }
+                });
+    }
+
+    private Completable removeGroup() {
+        return QueuedOperations.completable(mOperationQueue, OPERATION_REMOVE_GROUP,
+                measure(P2pOperation.REMOVE_GROUP,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mConnectionStateMachine.onDisconnecting();
+                        mWifiP2pManager.removeGroup(mChannel, toActionListener(callback));
+                    }
+                }))
+                .doOnComplete(new Action() {
+                    @Override
+                    public void run() {
+                        mConnectionStateMachine.onDisconnected();
+                    }
+                });
+    }
+
+    /**
+     * Creates a {@link WifiP2pConfig} configuration for setting up a Wi-Fi p2p connection
+     *
+     * @param deviceAddress Device MAC Address
+     * @param wpsInfoSetup  {@link WifiP2pConfig#wps}'s setup field, e.g. {@link WpsInfo#PBC}
+     * @return a {@link WifiP2pConfig}, containing Wi-Fi p2p configuration for setting up a
+     * connection
+     */
+    public WifiP2pConfig createConfig(String deviceAddress, int wpsInfoSetup) {
+        WifiP2pConfig config = new WifiP2pConfig();
+        config.deviceAddress = deviceAddress;
+        config.wps.setup = wpsInfoSetup;
+        config.groupOwnerIntent = 15;
+        return config;
+    }
+
+    /**
+     * Registers a local service, which nearby peers can find through service discovery.
+     * Requires API level 16.
+     *
+     * @param serviceInfo the service, e.g. a
+     *                    {@link android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceInfo}
+     * @return a {@link Completable} that completes once the service has been registered
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable addLocalService(final WifiP2pServiceInfo serviceInfo) {
+        return QueuedOperations.completable(mOperationQueue, null,
+                measure(P2pOperation.ADD_LOCAL_SERVICE,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.addLocalService(mChannel, serviceInfo,
+                                toActionListener(callback));
+                    }
+                }));
+    }
+
+    /**
+     * Unregisters a service added through {@link #addLocalService(WifiP2pServiceInfo)}.
+     * Requires API level 16.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable removeLocalService(final WifiP2pServiceInfo serviceInfo) {
+        return QueuedOperations.completable(mOperationQueue, null,
+                measure(P2pOperation.REMOVE_LOCAL_SERVICE,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.removeLocalService(mChannel, serviceInfo,
+                                toActionListener(callback));
+                    }
+                }));
+    }
+
+    /**
+     * Adds a request that the next {@link WifiP2pManager#discoverServices} sends over the air.
+     * {@link #discoverServices()} manages its own request, use this only for other kinds of
+     * services. Requires API level 16.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable addServiceRequest(final WifiP2pServiceRequest request) {
+        return QueuedOperations.completable(mOperationQueue, null,
+                measure(P2pOperation.ADD_SERVICE_REQUEST,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.addServiceRequest(mChannel, request,
+                                toActionListener(callback));
+                    }
+                }));
+    }
+
+    /**
+     * Removes a request added through {@link #addServiceRequest(WifiP2pServiceRequest)}.
+     * Requires API level 16.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable removeServiceRequest(final WifiP2pServiceRequest request) {
+        return QueuedOperations.completable(mOperationQueue, null,
+                measure(P2pOperation.REMOVE_SERVICE_REQUEST,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.removeServiceRequest(mChannel, request,
+                                toActionListener(callback));
+                    }
+                }));
+    }
+
+    /**
+     * Discovers the DNS-SD (Bonjour) services of all nearby peers.
+     *
+     * @see #discoverServices(WifiP2pDnsSdServiceRequest)
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Flowable<DnsSdRecord> discoverServices() {
+        return Flowable.defer(new Callable<Publisher<DnsSdRecord>>() {
+            @Override
+            public Publisher<DnsSdRecord> call() {
+                return discoverServices(WifiP2pDnsSdServiceRequest.newInstance());
+            }
+        });
+    }
+
+    /**
+     * Adds the request, initiates a service discovery and emits the DNS-SD responses as they
+     * arrive, see
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#discoverServices(
+     * WifiP2pDnsSdServiceRequest)}. The request is removed again when the subscriber cancels or
+     * the discovery fails. Requires API level 16.
+     *
+     * @param request the services to look for
+     * @return a {@link Flowable} that buffers the {@link DnsSdRecord}s for slow subscribers and
+     * never completes, or fails with a {@link P2pException} when the discovery can not be
+     * initiated
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Flowable<DnsSdRecord> discoverServices(final WifiP2pDnsSdServiceRequest request) {
+        return Flowable.defer(new Callable<Publisher<DnsSdRecord>>() {
+            @Override
+            public Publisher<DnsSdRecord> call() {
+                setDnsSdResponseListeners();
+                final Completable discovery = addServiceRequest(request)
+                        .andThen(QueuedOperations.completable(mOperationQueue,
+                                OPERATION_DISCOVER_SERVICES,
+                                measure(P2pOperation.DISCOVER_SERVICES,
+                                new ChannelOperationQueue.Operation<Void>() {
+                                    @Override
+                                    public void execute(
+                                            final ChannelOperationQueue.Callback<Void> callback) {
+                                        mWifiP2pManager.discoverServices(mChannel,
+                                                toActionListener(callback));
+                                    }
+                                })));
+                return Flowable
+                        .merge(mDnsSdRecords.onBackpressureBuffer(),
+                                discovery.<DnsSdRecord>toFlowable())
+                        .doFinally(new Action() {
+                            @Override
+                            public void run() {
+                                removeServiceRequest(request).onErrorComplete().subscribe();
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Looks up the DNS-SD TXT record of a peer. A record that is still fresh in the
+     * {@link TxtRecordCache} is served from memory, otherwise the services are discovered until
+     * the peer responds. Requires API level 16.
+     *
+     * @param deviceAddress the {@link WifiP2pDevice#deviceAddress} of the peer
+     * @return a {@link Single} that emits the latest {@link DnsSdRecord.Type#TXT_RECORD} of the
+     * peer. It waits for the peer indefinitely, so apply a timeout.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Single<DnsSdRecord> requestTxtRecord(final String deviceAddress) {
+        return Single.defer(new Callable<Single<DnsSdRecord>>() {
+            @Override
+            public Single<DnsSdRecord> call() {
+                final DnsSdRecord cached = mTxtRecordCache.get(deviceAddress);
+                if (cached != null) {
+                    return Single.just(cached);
+                }
+                return discoverServices()
+                        .filter(new Predicate<DnsSdRecord>() {
+                            @Override
+                            public boolean test(final DnsSdRecord record) {
+                                return record.getType() == DnsSdRecord.Type.TXT_RECORD
+                                        && deviceAddress.equals(record.getDeviceAddress());
+                            }
+                        })
+                        .firstOrError();
+            }
+        });
+    }
+
+    /**
+     * The framework keeps a single pair of DNS-SD listeners per channel, so they are set once and
+     * their responses are multicast to all service discoveries
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setDnsSdResponseListeners() {
+        if (!mDnsSdListenersSet.compareAndSet(false, true)) {
+            return;
+        }
+        mWifiP2pManager.setDnsSdResponseListeners(mChannel,
+                new WifiP2pManager.DnsSdServiceResponseListener() {
+                    @Override
+                    public void onDnsSdServiceAvailable(String instanceName,
+                                                        String registrationType,
+                                                        WifiP2pDevice srcDevice) {
+                        mDnsSdRecords.onNext(
+                                DnsSdRecord.service(instanceName, registrationType, srcDevice));
+                    }
+                },
+                new WifiP2pManager.DnsSdTxtRecordListener() {
+                    @Override
+                    public void onDnsSdTxtRecordAvailable(String fullDomainName,
+                                                          Map<String, String> txtRecordMap,
+                                                          WifiP2pDevice srcDevice) {
+                        final DnsSdRecord record =
+                                DnsSdRecord.txtRecord(fullDomainName, txtRecordMap, srcDevice);
+                        mTxtRecordCache.put(record);
+                        mDnsSdRecords.onNext(record);
+                    }
+                });
+    }
+
+    /**
+     * Parses the broadcasts right where they are received, so that unknown ones are dropped
+     * without an operator in between, and shares them between all subscribers. A shared
+     * {@link Flowable} emits only as fast as its slowest subscriber requests, so each subscriber
+     * gets a buffer of its own instead.
+     */
+    private static Flowable<P2pEvent> parse(final rx.Observable<Intent> intents) {
+        return Flowable.create(new FlowableOnSubscribe<P2pEvent>() {
+            @Override
+            public void subscribe(final FlowableEmitter<P2pEvent> emitter) {
+                final Subscription subscription = intents.subscribe(new Subscriber<Intent>() {
+                    @Override
+                    public void onCompleted() {
+                        emitter.onComplete();
+                    }
+
+                    @Override
+                    public void onError(final Throwable e) {
+                        emitter.onError(e);
+                    }
+
+                    @Override
+                    public void onNext(final Intent intent) {
+                        final P2pEvent event = PARSER.call(intent);
+                        if (event != null) {
+                            emitter.onNext(event);
+                        }
+                    }
+                });
+                emitter.setCancellable(new Cancellable() {
+                    @Override
+                    public void cancel() {
+                        subscription.unsubscribe();
+                    }
+                });
+            }
+        }, BackpressureStrategy.BUFFER)
+                .share()
+                .onBackpressureBuffer();
+    }
+
+    /**
+     * Reads the peers from a {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION} broadcast. The
+     * list is attached to the broadcast since API level 18, otherwise it is requested from the
+     * framework.
+     */
+    private Single<WifiP2pDeviceList> requestPeersList(final P2pEvent.PeersChanged event) {
+        final WifiP2pDeviceList peers = event.getPeers();
+        return measureLag(event, peers != null ? Single.just(peers) : requestPeersList());
+    }
+
+    /**
+     * Replaces a channel that the framework has disconnected, e.g. because the Wi-Fi service was
+     * restarted. Local services and service requests of the old channel are lost.
+     */
+    private void reinitializeChannel() {
+        mChannel = mWifiP2pManager.initialize(mContext, mLooper, mChannelListener);
+        if (mDnsSdListenersSet.getAndSet(false)) {
+            setDnsSdResponseListeners();
+        }
+        // The result of the operation in flight will never be delivered
+        mOperationQueue.failActive(new P2pChannelDisconnectedException());
+    }
+
+    private <T> ChannelOperationQueue.Operation<T> measure(
+            final P2pOperation type,
+            final ChannelOperationQueue.Operation<T> operation) {
+        return MeasuredOperation.measure(mMetrics, type, operation);
+    }
+
+    /**
+     * Reports the time between the arrival of the broadcast and the emission of its result
+     */
+    private <T> Single<T> measureLag(final P2pEvent event, final Single<T> result) {
+        final P2pMetrics metrics = mMetrics;
+        if (metrics == P2pMetrics.NONE) {
+            return result;
+        }
+        final long start = System.nanoTime();
+        return result.doOnSuccess(new Consumer<T>() {
+            @Override
+            public void accept(final T value) {
+                metrics.onBroadcastHandled(event.getType(), System.nanoTime() - start);
+            }
+        });
+    }
+
+    private static WifiP2pManager.ActionListener toActionListener(
+            final ChannelOperationQueue.Callback<Void> callback) {
+        return new WifiP2pManager.ActionListener() {
+            @Override
+            public void onSuccess() {
+                callback.onSuccess(null);
+            }
+
+            @Override
+            public void onFailure(int reasonCode) {
+                callback.onError(P2pException.fromReasonCode(reasonCode));
+            }
+        };
+    }
+}
@@ -0,0 +1,330 @@
+package com.stetcho.rxwifip2pmanager.rx2.data.wifi;
+
+import android.net.wifi.p2p.WifiP2pConfig;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionState;
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionStatus;
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.PeerConnectionResult;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pBusyException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pChannelDisconnectedException;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerChange;
+import com.stetcho.rxwifip2pmanager.data.wifi.service.DnsSdRecord;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+import com.stetcho.rxwifip2pmanager.fake.FakeWifiP2pManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.reactivex.observers.TestObserver;
+import io.reactivex.schedulers.TestScheduler;
+import io.reactivex.subscribers.TestSubscriber;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionInfo;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.group;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.intent;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.peersChanged;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RxWifiP2pManagerTest {
+    private static final String PEER_A = "aa:00:00:00:00:01";
+    private static final String PEER_B = "aa:00:00:00:00:02";
+    private static final String PEER_C = "aa:00:00:00:00:03";
+
+    private FakeWifiP2pManager mFramework;
+    private FakeBroadcastObservableManager mBroadcasts;
+    private RxWifiP2pManager mManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mFramework = new FakeWifiP2pManager();
+        mBroadcasts = new FakeBroadcastObservableManager();
+        mManager = new RxWifiP2pManager(null, mFramework.getWifiP2pManager(), mBroadcasts);
+    }
+
+    @Test
+    public void requestPeers_emitsThePeersAsTheyAreRequested() throws Exception {
+        final TestSubscriber<WifiP2pDevice> subscriber = mManager.requestPeers().test(0);
+        mFramework.respondPeers(deviceList(device(PEER_A), device(PEER_B), device(PEER_C)));
+        subscriber.assertNoValues();
+
+        subscriber.request(2);
+        subscriber.assertValueCount(2);
+        subscriber.assertNotComplete();
+
+        subscriber.request(1);
+        subscriber.assertValueCount(3);
+        subscriber.assertComplete();
+    }
+
+    @Test
+    public void concurrentRequests_shareOneFrameworkCall() throws Exception {
+        final TestObserver<WifiP2pDeviceList> first = mManager.requestPeersList().test();
+        final TestObserver<WifiP2pDeviceList> second = mManager.requestPeersList().test();
+        first.dispose();
+
+        final WifiP2pDeviceList peers = deviceList(device(PEER_A));
+        mFramework.respondPeers(peers);
+
+        assertEquals(1, mFramework.getCallCount("requestPeers"));
+        first.assertNoValues();
+        second.assertValue(peers);
+    }
+
+    @Test
+    public void disposedOperation_isDroppedBeforeExecution() throws Exception {
+        final TestObserver<Void> discovery = mManager.discoverPeers().test();
+        mManager.requestConnectionInfo().test().dispose();
+
+        mFramework.succeed("discoverPeers");
+
+        discovery.assertComplete();
+        assertEquals(0, mFramework.getCallCount("requestConnectionInfo"));
+        assertEquals(0, mManager.getQueueDepth());
+    }
+
+    @Test
+    public void disposedConnect_isCancelledOnceTheFrameworkAnswers() throws Exception {
+        mManager.connect(new WifiP2pConfig()).test().dispose();
+        assertEquals(0, mFramework.getCallCount("cancelConnect"));
+
+        mFramework.succeed("connect");
+        assertEquals(1, mFramework.getCallCount("cancelConnect"));
+
+        mFramework.succeed("cancelConnect");
+        assertEquals(0, mManager.getQueueDepth());
+    }
+
+    @Test
+    public void failedAction_emitsTheMatchingException() throws Exception {
+        final TestObserver<Void> observer = mManager.createGroup().test();
+
+        mFramework.fail("createGroup", WifiP2pManager.BUSY);
+
+        observer.assertError(P2pBusyException.class);
+    }
+
+    @Test
+    public void requestGroupInfo_isEmptyWithoutAGroup() throws Exception {
+        final TestObserver<WifiP2pGroup> observer = mManager.requestGroupInfo().test();
+
+        mFramework.respondGroupInfo(null);
+
+        observer.assertNoValues();
+        observer.assertComplete();
+    }
+
+    @Test
+    public void disconnect_removesOnlyAnOwnedGroup() throws Exception {
+        final TestObserver<Void> client = mManager.disconnect().test();
+        mFramework.respondGroupInfo(group(false));
+        client.assertComplete();
+        assertEquals(0, mFramework.getCallCount("removeGroup"));
+
+        final TestObserver<Void> owner = mManager.disconnect().test();
+        mFramework.respondGroupInfo(group(true));
+        mFramework.succeed("removeGroup");
+        owner.assertComplete();
+    }
+
+    @Test
+    public void discoverAndRequestPeersList_readsThePeersFromTheBroadcast() throws Exception {
+        final TestObserver<WifiP2pDeviceList> observer =
+                mManager.discoverAndRequestPeersList().test();
+        final WifiP2pDeviceList peers = deviceList(device(PEER_A));
+
+        mFramework.succeed("discoverPeers");
+        mBroadcasts.send(peersChanged(peers));
+        mBroadcasts.send(peersChanged(deviceList()));
+
+        observer.assertValue(peers);
+        assertEquals(0, mFramework.getCallCount("requestPeers"));
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void discoverPeerChanges_emitsOnlyDifferences() throws Exception {
+        final TestSubscriber<PeerChange> subscriber = mManager.discoverPeerChanges().test();
+
+        mFramework.succeed("discoverPeers");
+        mFramework.respondPeers(deviceList(device(PEER_A)));
+        mBroadcasts.send(peersChanged(deviceList(device(PEER_A), device(PEER_B))));
+        mBroadcasts.send(peersChanged(deviceList(device(PEER_B))));
+
+        assertChanges(subscriber.values(),
+                PeerChange.Type.ADDED, PEER_A,
+                PeerChange.Type.ADDED, PEER_B,
+                PeerChange.Type.REMOVED, PEER_A);
+        subscriber.cancel();
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void groupMembership_emitsTheClientsThatJoinAndLeave() throws Exception {
+        final TestSubscriber<PeerChange> subscriber = mManager.observeGroupMembership().test();
+        mFramework.respondGroupInfo(group(true, PEER_A));
+
+        final WifiP2pInfo owner = connectionInfo(true, true);
+        mBroadcasts.send(connectionChanged(true, owner, group(true, PEER_A, PEER_B)));
+        mBroadcasts.send(connectionChanged(true, owner, group(true, PEER_B)));
+        mBroadcasts.send(connectionChanged(false, connectionInfo(false, false), null));
+
+        assertChanges(subscriber.values(),
+                PeerChange.Type.ADDED, PEER_A,
+                PeerChange.Type.ADDED, PEER_B,
+                PeerChange.Type.REMOVED, PEER_A,
+                PeerChange.Type.REMOVED, PEER_B);
+    }
+
+    @Test
+    public void events_areParsedOnceAndBufferedForSlowSubscribers() throws Exception {
+        final TestSubscriber<P2pEvent> slow = mManager.observeEvents().test(0);
+        final TestSubscriber<P2pEvent> fast = mManager.observeEvents().test();
+
+        mBroadcasts.send(peersChanged());
+        mBroadcasts.send(intent("android.intent.action.UNKNOWN"));
+        mBroadcasts.send(peersChanged());
+
+        fast.assertValueCount(2);
+        slow.assertNoValues();
+        slow.request(2);
+        slow.assertValueCount(2);
+        assertTrue(mBroadcasts.hasObservers());
+
+        slow.cancel();
+        fast.cancel();
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void disconnectedChannel_isReinitializedAndFailsTheOperationInFlight()
+            throws Exception {
+        final TestObserver<WifiP2pDeviceList> lost = mManager.requestPeersList().test();
+        final TestObserver<WifiP2pInfo> next = mManager.requestConnectionInfo().test();
+
+        mFramework.disconnectChannel();
+
+        lost.assertError(P2pChannelDisconnectedException.class);
+        assertEquals(2, mFramework.getCallCount("initialize"));
+        mFramework.respondConnectionInfo(connectionInfo(false, false));
+        next.assertValueCount(1);
+    }
+
+    @Test
+    public void connectionState_followsTheOperationsAndBroadcasts() throws Exception {
+        final TestSubscriber<ConnectionState> subscriber = mManager.observeConnectionState().test();
+        mFramework.respondConnectionInfo(connectionInfo(false, false));
+
+        mManager.connect(new WifiP2pConfig()).test();
+        mFramework.succeed("connect");
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true), group(true)));
+
+        assertEquals(3, subscriber.valueCount());
+        assertEquals(ConnectionStatus.IDLE, subscriber.values().get(0).getStatus());
+        assertEquals(ConnectionStatus.CONNECTING, subscriber.values().get(1).getStatus());
+        assertEquals(ConnectionStatus.CONNECTED_AS_GROUP_OWNER,
+                subscriber.values().get(2).getStatus());
+
+        subscriber.cancel();
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void connectAll_createsGroupAndPipelinesInvitations() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final TestSubscriber<PeerConnectionResult> subscriber = mManager
+                .connectAll(Arrays.asList(PEER_A, PEER_B), 30, TimeUnit.SECONDS, scheduler)
+                .test();
+
+        mFramework.respondGroupInfo(null);
+        mFramework.succeed("createGroup");
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true), group(true)));
+
+        // Every invitation is sent before any peer has joined
+        mFramework.succeed("connect");
+        mFramework.fail("connect", WifiP2pManager.BUSY);
+        assertEquals(2, mFramework.getCallCount("connect"));
+
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true), group(true, PEER_A)));
+
+        final List<PeerConnectionResult> results = subscriber.values();
+        assertEquals(PEER_B, results.get(0).getDeviceAddress());
+        assertEquals(PeerConnectionResult.Status.FAILED, results.get(0).getStatus());
+        assertEquals(PEER_A, results.get(1).getDeviceAddress());
+        assertEquals(PeerConnectionResult.Status.CONNECTED, results.get(1).getStatus());
+        subscriber.assertComplete();
+        assertEquals(0, mFramework.getCallCount("cancelConnect"));
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void connectAll_failsForClientOfAnotherGroup() throws Exception {
+        final TestSubscriber<PeerConnectionResult> subscriber = mManager
+                .connectAll(Collections.singletonList(PEER_A), 30, TimeUnit.SECONDS)
+                .test();
+
+        mFramework.respondGroupInfo(group(false));
+
+        subscriber.assertError(IllegalStateException.class);
+        assertEquals(0, mFramework.getCallCount("connect"));
+    }
+
+    @Test
+    public void discoverServices_emitsResponsesAndRemovesItsRequest() throws Exception {
+        final TestSubscriber<DnsSdRecord> subscriber = mManager.discoverServices().test(1);
+        mFramework.succeed("addServiceRequest");
+        mFramework.succeed("discoverServices");
+
+        mFramework.respondDnsSdService("printer", "_ipp._tcp.local.", device(PEER_A));
+        mFramework.respondDnsSdTxtRecord("printer._ipp._tcp.local.",
+                Collections.singletonMap("color", "true"), device(PEER_A));
+
+        subscriber.assertValueCount(1);
+        subscriber.request(1);
+        assertEquals(DnsSdRecord.Type.SERVICE, subscriber.values().get(0).getType());
+        assertEquals("true", subscriber.values().get(1).getTxtRecord().get("color"));
+        subscriber.assertNotTerminated();
+
+        subscriber.cancel();
+        assertEquals(1, mFramework.getCallCount("removeServiceRequest"));
+    }
+
+    @Test
+    public void requestTxtRecord_isServedFromTheCacheOnceReceived() throws Exception {
+        final TestObserver<DnsSdRecord> first = mManager.requestTxtRecord(PEER_B).test();
+        mFramework.succeed("addServiceRequest");
+        mFramework.succeed("discoverServices");
+        mFramework.respondDnsSdTxtRecord("b._ipp._tcp.local.",
+                Collections.singletonMap("rack", "7"), device(PEER_B));
+
+        final TestObserver<DnsSdRecord> second = mManager.requestTxtRecord(PEER_B).test();
+
+        assertEquals("7", first.values().get(0).getTxtRecord().get("rack"));
+        second.assertValue(first.values().get(0));
+        assertEquals(1, mFramework.getCallCount("discoverServices"));
+        assertEquals(1, mFramework.getCallCount("removeServiceRequest"));
+    }
+
+    private static void assertChanges(final List<PeerChange> changes, final Object... expected) {
+        assertEquals(expected.length / 2, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(expected[2 * i], changes.get(i).getType());
+            assertEquals(expected[2 * i + 1], changes.get(i).getDeviceAddress());
+        }
+    }
+}
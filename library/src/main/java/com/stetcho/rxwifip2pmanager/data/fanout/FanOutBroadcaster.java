@@ -0,0 +1,221 @@
+package com.stetcho.rxwifip2pmanager.data.fanout;
+
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.functions.Func0;
+import rx.schedulers.Schedulers;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Sends the same payload to many clients at once, usually from the group owner to all of the
+ * {@link DataChannel}s accepted by
+ * {@link com.stetcho.rxwifip2pmanager.data.socket.DataChannelFactory}.
+ *
+ * The payload is held once, in a read-only buffer which is memory-mapped for files, and each
+ * client writes from its own view of it, so no copies are made per client. A single selector
+ * loop writes to whichever client can take more bytes, so a slow client does not hold back the
+ * others.
+ */
+public class FanOutBroadcaster {
+    private static final long SELECT_TIMEOUT_MILLIS = 100;
+
+    private final Scheduler mScheduler;
+
+    public FanOutBroadcaster() {
+        this(Schedulers.io());
+    }
+
+    /**
+     * @param scheduler runs the selector loop of each broadcast
+     */
+    public FanOutBroadcaster(final Scheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Sends the whole file to every client, from a read-only memory mapping of the file
+     *
+     * @see #broadcast(ByteBuffer, Collection)
+     */
+    public Observable<FanOutProgress> broadcast(final File file,
+                                                final Collection<DataChannel> clients) {
+        return Observable.defer(new Func0<Observable<FanOutProgress>>() {
+            @Override
+            public Observable<FanOutProgress> call() {
+                final ByteBuffer payload;
+                try {
+                    final FileInputStream input = new FileInputStream(file);
+                    try {
+                        final FileChannel channel = input.getChannel();
+                        // The mapping stays valid after the channel is closed
+                        payload = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    } finally {
+                        input.close();
+                    }
+                } catch (IOException e) {
+                    return Observable.error(e);
+                }
+                return broadcast(payload, clients);
+            }
+        });
+    }
+
+    /**
+     * Sends the remaining bytes of the payload to every client. The clients are switched to
+     * non-blocking mode while the broadcast runs and must not be used by anything else until it
+     * terminates.
+     *
+     * @param payload the bytes between its position and limit are sent, the buffer itself is not
+     *                modified
+     * @param clients the receivers
+     * @return an {@link Observable} that emits the progress of each client after every write, a
+     * {@link FanOutProgress.Status#COMPLETED} or {@link FanOutProgress.Status#FAILED} progress per
+     * client, and completes once every client has terminated. Unsubscribing stops the broadcast and
+     * leaves the clients open, back in blocking mode.
+     */
+    public Observable<FanOutProgress> broadcast(final ByteBuffer payload,
+                                                final Collection<DataChannel> clients) {
+        return Observable.create(new Observable.OnSubscribe<FanOutProgress>() {
+            @Override
+            public void call(final Subscriber<? super FanOutProgress> subscriber) {
+                final Selector selector;
+                try {
+                    selector = Selector.open();
+                } catch (IOException e) {
+                    subscriber.onError(e);
+                    return;
+                }
+                // The loop is stopped by waking up the selector rather than by interrupting the
+                // worker, since an interrupt during a write closes the client channel
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        selector.wakeup();
+                    }
+                }));
+                final Scheduler.Worker worker = mScheduler.createWorker();
+                worker.schedule(new Action0() {
+                    @Override
+                    public void call() {
+                        try {
+                            run(selector, payload.asReadOnlyBuffer(), new ArrayList<>(clients),
+                                    subscriber);
+                        } finally {
+                            worker.unsubscribe();
+                        }
+                    }
+                });
+            }
+        }).onBackpressureBuffer();
+    }
+
+    private static void run(final Selector selector,
+                            final ByteBuffer payload,
+                            final List<DataChannel> clients,
+                            final Subscriber<? super FanOutProgress> subscriber) {
+        final long start = System.nanoTime();
+        final long total = payload.remaining();
+        try {
+            int pending = 0;
+            for (DataChannel client : clients) {
+                final Transfer transfer = new Transfer(client, payload.duplicate());
+                try {
+                    final SocketChannel channel = client.getSocketChannel();
+                    channel.configureBlocking(false);
+                    channel.register(selector, SelectionKey.OP_WRITE, transfer);
+                    pending++;
+                } catch (IOException e) {
+                    subscriber.onNext(transfer.fail(e, total, start));
+                }
+            }
+
+            while (pending > 0 && !subscriber.isUnsubscribed()) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    final Transfer transfer = (Transfer) key.attachment();
+                    FanOutProgress progress;
+                    try {
+                        progress = transfer.write(total, start);
+                    } catch (IOException e) {
+                        progress = transfer.fail(e, total, start);
+                    }
+                    if (progress.getStatus() != FanOutProgress.Status.IN_PROGRESS) {
+                        key.cancel();
+                        pending--;
+                    }
+                    subscriber.onNext(progress);
+                }
+            }
+        } catch (IOException e) {
+            subscriber.onError(e);
+            return;
+        } finally {
+            restoreBlocking(selector, clients);
+        }
+        subscriber.onCompleted();
+    }
+
+    private static void restoreBlocking(final Selector selector,
+                                        final List<DataChannel> clients) {
+        try {
+            // Closing the selector deregisters the channels, which is required to switch them back
+            selector.close();
+        } catch (IOException e) {
+            // The selector is closed either way
+        }
+        for (DataChannel client : clients) {
+            try {
+                client.getSocketChannel().configureBlocking(true);
+            } catch (Exception e) {
+                // The channel is closed or still registered, it is not usable anymore
+            }
+        }
+    }
+
+    /**
+     * The state of the payload towards a single client
+     */
+    private static class Transfer {
+        private final DataChannel mClient;
+        private final ByteBuffer mView;
+
+        Transfer(final DataChannel client, final ByteBuffer view) {
+            mClient = client;
+            mView = view;
+        }
+
+        FanOutProgress write(final long total, final long start) throws IOException {
+            mClient.getSocketChannel().write(mView);
+            return new FanOutProgress(mClient,
+                    mView.hasRemaining()
+                            ? FanOutProgress.Status.IN_PROGRESS
+                            : FanOutProgress.Status.COMPLETED,
+                    total - mView.remaining(), total, System.nanoTime() - start, null);
+        }
+
+        FanOutProgress fail(final Throwable error, final long total, final long start) {
+            return new FanOutProgress(mClient, FanOutProgress.Status.FAILED,
+                    total - mView.remaining(), total, System.nanoTime() - start, error);
+        }
+    }
+}
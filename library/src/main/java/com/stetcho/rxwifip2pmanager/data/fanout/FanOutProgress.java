@@ -0,0 +1,96 @@
+package com.stetcho.rxwifip2pmanager.data.fanout;
+
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannel;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The progress of a payload towards a single client, see {@link FanOutBroadcaster}
+ */
+public class FanOutProgress {
+    /**
+     * The kind of a {@link FanOutProgress}
+     */
+    public enum Status {
+        /**
+         * Some bytes have been written, more are pending
+         */
+        IN_PROGRESS,
+        /**
+         * The whole payload has been written
+         */
+        COMPLETED,
+        /**
+         * Writing failed, see {@link #getError()}. The client does not receive the rest.
+         */
+        FAILED
+    }
+
+    private final DataChannel mClient;
+    private final Status mStatus;
+    private final long mBytesSent;
+    private final long mTotalBytes;
+    private final long mElapsedNanos;
+    private final Throwable mError;
+
+    public FanOutProgress(final DataChannel client,
+                          final Status status,
+                          final long bytesSent,
+                          final long totalBytes,
+                          final long elapsedNanos,
+                          final Throwable error) {
+        mClient = client;
+        mStatus = status;
+        mBytesSent = bytesSent;
+        mTotalBytes = totalBytes;
+        mElapsedNanos = elapsedNanos;
+        mError = error;
+    }
+
+    public DataChannel getClient() {
+        return mClient;
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    public long getBytesSent() {
+        return mBytesSent;
+    }
+
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return the time since the broadcast started
+     */
+    public long getElapsed(final TimeUnit unit) {
+        return unit.convert(mElapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the average throughput towards this client since the broadcast started
+     */
+    public double getBytesPerSecond() {
+        return mElapsedNanos == 0 ? 0 : mBytesSent * 1e9 / mElapsedNanos;
+    }
+
+    /**
+     * @return the reason of a {@link Status#FAILED} progress, otherwise null
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    @Override
+    public String toString() {
+        return "FanOutProgress{" +
+                "mClient=" + mClient.getRemoteAddress() +
+                ", mStatus=" + mStatus +
+                ", mBytesSent=" + mBytesSent +
+                ", mTotalBytes=" + mTotalBytes +
+                '}';
+    }
+}
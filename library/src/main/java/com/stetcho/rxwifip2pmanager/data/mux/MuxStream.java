@@ -0,0 +1,158 @@
+package com.stetcho.rxwifip2pmanager.data.mux;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import rx.Completable;
+import rx.CompletableSubscriber;
+import rx.Observable;
+import rx.Observer;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.observables.SyncOnSubscribe;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * A logical stream of a {@link StreamMultiplexer}. Writes are split into frames which are sent
+ * as long as the remote side has granted enough window, and streams with a higher priority are
+ * served first.
+ */
+public class MuxStream {
+    /**
+     * The highest priority, lower values are served first
+     */
+    public static final int PRIORITY_HIGHEST = 0;
+    public static final int PRIORITY_DEFAULT = 4;
+    /**
+     * The lowest priority
+     */
+    public static final int PRIORITY_LOWEST = 7;
+
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+
+    private final StreamMultiplexer mMultiplexer;
+    private final int mId;
+    private final int mPriority;
+    private final BlockingQueue<ByteBuffer> mReceived = new LinkedBlockingQueue<>();
+
+    /*
+     * The send side, guarded by the lock of the multiplexer
+     */
+    final Deque<PendingWrite> mPendingWrites = new ArrayDeque<>();
+    int mSendWindow;
+    long mLastServed;
+    boolean mCloseRequested;
+    boolean mCloseSent;
+    boolean mRemoteClosed;
+
+    MuxStream(final StreamMultiplexer multiplexer,
+              final int id,
+              final int priority,
+              final int sendWindow) {
+        mMultiplexer = multiplexer;
+        mId = id;
+        mPriority = priority;
+        mSendWindow = sendWindow;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer. The buffer must not be modified until the
+     * {@link Completable} has completed. Unsubscribing withdraws the write if none of its frames
+     * has been sent yet.
+     *
+     * @return a {@link Completable} that completes once the last frame of the buffer is written to
+     * the connection
+     */
+    public Completable write(final ByteBuffer buffer) {
+        return Completable.create(new Completable.OnSubscribe() {
+            @Override
+            public void call(final CompletableSubscriber subscriber) {
+                final PendingWrite write = new PendingWrite(buffer.slice(), subscriber);
+                final Subscription subscription = Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        mMultiplexer.withdraw(MuxStream.this, write);
+                    }
+                });
+                subscriber.onSubscribe(subscription);
+                mMultiplexer.enqueue(MuxStream.this, write);
+                if (subscription.isUnsubscribed()) {
+                    // Unsubscribed before the write was enqueued
+                    mMultiplexer.withdraw(MuxStream.this, write);
+                }
+            }
+        });
+    }
+
+    /**
+     * Emits the received data. The remote side is granted more window only when a buffer is
+     * requested, so a slow subscriber stalls the remote writer of this stream only. Subscribe on
+     * {@link rx.schedulers.Schedulers#io()}, as the read blocks until data arrives.
+     *
+     * @return an {@link Observable} that completes when the remote side closes the stream
+     */
+    public Observable<ByteBuffer> read() {
+        return Observable.create(SyncOnSubscribe.createStateless(
+                new Action1<Observer<? super ByteBuffer>>() {
+                    @Override
+                    public void call(final Observer<? super ByteBuffer> observer) {
+                        final ByteBuffer buffer;
+                        try {
+                            buffer = mReceived.take();
+                        } catch (InterruptedException e) {
+                            observer.onError(e);
+                            return;
+                        }
+                        if (buffer == END_OF_STREAM) {
+                            // Keep the marker for later subscribers
+                            mReceived.add(END_OF_STREAM);
+                            observer.onCompleted();
+                            return;
+                        }
+                        mMultiplexer.grantWindow(MuxStream.this, buffer.remaining());
+                        observer.onNext(buffer);
+                    }
+                }));
+    }
+
+    /**
+     * Closes the sending side of the stream once all pending writes have been sent. The remote
+     * side may still send data until it closes the stream as well.
+     */
+    public void close() {
+        mMultiplexer.closeStream(this);
+    }
+
+    void onDataReceived(final ByteBuffer data) {
+        mReceived.add(data);
+    }
+
+    void onRemoteClosed() {
+        mReceived.add(END_OF_STREAM);
+    }
+
+    /**
+     * The unsent part of a {@link #write(ByteBuffer)}
+     */
+    static class PendingWrite {
+        final ByteBuffer mBuffer;
+        final CompletableSubscriber mSubscriber;
+
+        PendingWrite(final ByteBuffer buffer, final CompletableSubscriber subscriber) {
+            mBuffer = buffer;
+            mSubscriber = subscriber;
+        }
+    }
+}
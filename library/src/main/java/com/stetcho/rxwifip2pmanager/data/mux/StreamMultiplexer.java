@@ -0,0 +1,463 @@
+package com.stetcho.rxwifip2pmanager.data.mux;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+
+/**
+ * Multiplexes many {@link MuxStream}s over a single connection, e.g. the socket of a
+ * {@link com.stetcho.rxwifip2pmanager.data.socket.DataChannel}.
+ *
+ * Every frame starts with a header of {@value #HEADER_SIZE} bytes: the stream id (int), the frame
+ * type (byte) and the payload length (int), followed by the payload. Data frames carry at most
+ * {@link #MAX_FRAME_SIZE} bytes, so that a large write does not delay the other streams. Each
+ * stream may have at most {@code windowSize} unconsumed bytes in flight, more is sent once the
+ * receiver grants a window update. The writer serves control frames first, then the stream with
+ * the highest priority which has data and window left, round-robin between equal priorities.
+ *
+ * One side of the connection must be the initiator, e.g. the client, and the other one not:
+ * they allocate odd and even stream ids respectively.
+ */
+public class StreamMultiplexer implements Closeable {
+    public static final int HEADER_SIZE = 9;
+    public static final int MAX_FRAME_SIZE = 16 * 1024;
+    public static final int DEFAULT_WINDOW_SIZE = 256 * 1024;
+
+    static final byte TYPE_OPEN = 0;
+    static final byte TYPE_DATA = 1;
+    static final byte TYPE_WINDOW_UPDATE = 2;
+    static final byte TYPE_CLOSE = 3;
+
+    private final ByteChannel mChannel;
+    private final int mWindowSize;
+    private final Scheduler mScheduler;
+    private final Subject<MuxStream, MuxStream> mIncomingStreams =
+            PublishSubject.<MuxStream>create().toSerialized();
+
+    private final Object mLock = new Object();
+    private final Map<Integer, MuxStream> mStreams = new HashMap<>();
+    private final Deque<ByteBuffer> mControlFrames = new ArrayDeque<>();
+    private int mNextStreamId;
+    private long mServeCount;
+    private MuxStream.PendingWrite mCompletedWrite;
+    private boolean mStarted;
+    private boolean mClosed;
+
+    /**
+     * @param channel   a connected channel in blocking mode
+     * @param initiator true on exactly one side of the connection
+     */
+    public StreamMultiplexer(final ByteChannel channel, final boolean initiator) {
+        this(channel, initiator, DEFAULT_WINDOW_SIZE, Schedulers.io());
+    }
+
+    /**
+     * @param channel    a connected channel in blocking mode
+     * @param initiator  true on exactly one side of the connection
+     * @param windowSize the number of bytes each stream may have in flight, must be the same on
+     *                   both sides
+     * @param scheduler  runs the blocking read and write loops
+     */
+    public StreamMultiplexer(final ByteChannel channel,
+                             final boolean initiator,
+                             final int windowSize,
+                             final Scheduler scheduler) {
+        mChannel = channel;
+        mWindowSize = windowSize;
+        mScheduler = scheduler;
+        mNextStreamId = initiator ? 1 : 2;
+    }
+
+    /**
+     * Starts reading and writing frames. Streams may be opened before, their frames are sent once
+     * the multiplexer is started.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mStarted) {
+                return;
+            }
+            mStarted = true;
+        }
+        mScheduler.createWorker().schedule(new Action0() {
+            @Override
+            public void call() {
+                readLoop();
+            }
+        });
+        mScheduler.createWorker().schedule(new Action0() {
+            @Override
+            public void call() {
+                writeLoop();
+            }
+        });
+    }
+
+    /**
+     * Opens a new stream, the remote side receives it through {@link #acceptStreams()}
+     *
+     * @param priority between {@link MuxStream#PRIORITY_HIGHEST} and
+     *                 {@link MuxStream#PRIORITY_LOWEST}
+     * @return the new stream
+     */
+    public MuxStream openStream(final int priority) {
+        if (priority < MuxStream.PRIORITY_HIGHEST || priority > MuxStream.PRIORITY_LOWEST) {
+            throw new IllegalArgumentException("Invalid priority: " + priority);
+        }
+        synchronized (mLock) {
+            if (mClosed) {
+                throw new IllegalStateException("The multiplexer is closed");
+            }
+            final MuxStream stream = new MuxStream(this, mNextStreamId, priority, mWindowSize);
+            mNextStreamId += 2;
+            mStreams.put(stream.getId(), stream);
+            final ByteBuffer frame = header(stream.getId(), TYPE_OPEN, 1, 1);
+            frame.put((byte) priority).flip();
+            addControlFrame(frame);
+            return stream;
+        }
+    }
+
+    /**
+     * @return a hot {@link Observable} that emits the streams opened by the remote side and
+     * completes when the connection is closed
+     */
+    public Observable<MuxStream> acceptStreams() {
+        return mIncomingStreams.onBackpressureBuffer();
+    }
+
+    /**
+     * @return the number of streams which are not closed on both sides
+     */
+    public int getStreamCount() {
+        synchronized (mLock) {
+            return mStreams.size();
+        }
+    }
+
+    /**
+     * Closes the connection. Pending writes fail and all streams complete.
+     */
+    @Override
+    public void close() throws IOException {
+        shutDown(null);
+        mChannel.close();
+    }
+
+    void enqueue(final MuxStream stream, final MuxStream.PendingWrite write) {
+        synchronized (mLock) {
+            if (!mClosed && !stream.mCloseRequested) {
+                stream.mPendingWrites.add(write);
+                mLock.notifyAll();
+                return;
+            }
+        }
+        write.mSubscriber.onError(new IOException("The stream is closed"));
+    }
+
+    /**
+     * Removes a write which has not been started yet, e.g. because its subscriber unsubscribed
+     */
+    void withdraw(final MuxStream stream, final MuxStream.PendingWrite write) {
+        synchronized (mLock) {
+            if (write.mBuffer.position() == 0) {
+                stream.mPendingWrites.remove(write);
+            }
+        }
+    }
+
+    void grantWindow(final MuxStream stream, final int increment) {
+        if (increment == 0) {
+            return;
+        }
+        synchronized (mLock) {
+            if (!mClosed && !stream.mRemoteClosed) {
+                final ByteBuffer frame = header(stream.getId(), TYPE_WINDOW_UPDATE, 4, 4);
+                frame.putInt(increment).flip();
+                addControlFrame(frame);
+            }
+        }
+    }
+
+    void closeStream(final MuxStream stream) {
+        synchronized (mLock) {
+            stream.mCloseRequested = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private void addControlFrame(final ByteBuffer frame) {
+        mControlFrames.add(frame);
+        mLock.notifyAll();
+    }
+
+    private void readLoop() {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try {
+            while (true) {
+                header.clear();
+                if (!readFully(header)) {
+                    break;
+                }
+                header.flip();
+                final int streamId = header.getInt();
+                final byte type = header.get();
+                final int length = header.getInt();
+                if (length < 0 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length: " + length);
+                }
+                final ByteBuffer payload = ByteBuffer.allocate(length);
+                if (!readFully(payload)) {
+                    throw new EOFException("The connection ended within a frame");
+                }
+                payload.flip();
+                onFrame(streamId, type, payload);
+            }
+            shutDown(null);
+        } catch (IOException e) {
+            shutDown(e);
+        }
+    }
+
+    private void onFrame(final int streamId, final byte type, final ByteBuffer payload)
+            throws IOException {
+        checkPayloadLength(type, payload.remaining());
+        final MuxStream stream;
+        synchronized (mLock) {
+            if (type == TYPE_OPEN) {
+                // The remote side allocates the ids of the other parity
+                if (streamId <= 0 || (streamId & 1) == (mNextStreamId & 1)) {
+                    throw new IOException("Invalid stream id: " + streamId);
+                }
+                if (mStreams.containsKey(streamId)) {
+                    throw new IOException("Stream " + streamId + " is already open");
+                }
+                final byte priority = payload.get();
+                if (priority < MuxStream.PRIORITY_HIGHEST || priority > MuxStream.PRIORITY_LOWEST) {
+                    throw new IOException("Invalid priority: " + priority);
+                }
+                stream = new MuxStream(this, streamId, priority, mWindowSize);
+                mStreams.put(streamId, stream);
+            } else {
+                stream = mStreams.get(streamId);
+                if (stream == null) {
+                    // A late frame of a stream which has been closed on both sides
+                    return;
+                }
+                if (type == TYPE_WINDOW_UPDATE) {
+                    final int increment = payload.getInt();
+                    if (increment < 0) {
+                        throw new IOException("Invalid window update: " + increment);
+                    }
+                    stream.mSendWindow += increment;
+                    mLock.notifyAll();
+                } else if (type == TYPE_CLOSE) {
+                    stream.mRemoteClosed = true;
+                    removeIfClosed(stream);
+                }
+            }
+        }
+
+        if (type == TYPE_OPEN) {
+            mIncomingStreams.onNext(stream);
+        } else if (type == TYPE_DATA) {
+            stream.onDataReceived(payload);
+        } else if (type == TYPE_CLOSE) {
+            stream.onRemoteClosed();
+        }
+    }
+
+    /**
+     * Control frames have a payload of a fixed length, data frames of any length
+     */
+    private static void checkPayloadLength(final byte type, final int length) throws IOException {
+        final int expected;
+        switch (type) {
+            case TYPE_OPEN:
+                expected = 1;
+                break;
+            case TYPE_WINDOW_UPDATE:
+                expected = 4;
+                break;
+            case TYPE_CLOSE:
+                expected = 0;
+                break;
+            case TYPE_DATA:
+                return;
+            default:
+                throw new IOException("Unknown frame type: " + type);
+        }
+        if (length != expected) {
+            throw new IOException("Invalid payload length of frame type " + type + ": " + length);
+        }
+    }
+
+    private void writeLoop() {
+        final ByteBuffer[] frame = new ByteBuffer[2];
+        MuxStream.PendingWrite completed = null;
+        try {
+            while (true) {
+                synchronized (mLock) {
+                    while (!mClosed && !nextFrame(frame)) {
+                        mLock.wait();
+                    }
+                    if (mClosed) {
+                        return;
+                    }
+                    completed = mCompletedWrite;
+                    mCompletedWrite = null;
+                }
+
+                writeFully(frame[0]);
+                if (frame[1] != null) {
+                    writeFully(frame[1]);
+                }
+                if (completed != null) {
+                    completed.mSubscriber.onCompleted();
+                    completed = null;
+                }
+            }
+        } catch (InterruptedException | IOException e) {
+            if (completed != null) {
+                completed.mSubscriber.onError(e);
+            }
+            shutDown(e);
+        }
+    }
+
+    /**
+     * Picks the next frame to write, guarded by the lock
+     *
+     * @param frame receives the header and the payload of a data frame, or a whole control frame.
+     *              The write is moved to {@link #mCompletedWrite} when its last frame is picked.
+     * @return false if there is nothing to write
+     */
+    private boolean nextFrame(final ByteBuffer[] frame) {
+        if (!mStarted) {
+            return false;
+        }
+        frame[1] = null;
+        final ByteBuffer control = mControlFrames.poll();
+        if (control != null) {
+            frame[0] = control;
+            return true;
+        }
+
+        MuxStream next = null;
+        for (MuxStream stream : mStreams.values()) {
+            if (stream.mCloseSent) {
+                continue;
+            }
+            final boolean hasData = !stream.mPendingWrites.isEmpty() && stream.mSendWindow > 0;
+            final boolean needsClose = stream.mPendingWrites.isEmpty() && stream.mCloseRequested;
+            if ((hasData || needsClose) && (next == null
+                    || stream.getPriority() < next.getPriority()
+                    || (stream.getPriority() == next.getPriority()
+                    && stream.mLastServed < next.mLastServed))) {
+                next = stream;
+            }
+        }
+        if (next == null) {
+            return false;
+        }
+        next.mLastServed = ++mServeCount;
+
+        if (next.mPendingWrites.isEmpty()) {
+            next.mCloseSent = true;
+            frame[0] = header(next.getId(), TYPE_CLOSE, 0, 0);
+            frame[0].flip();
+            removeIfClosed(next);
+            return true;
+        }
+
+        final ByteBuffer data = next.mPendingWrites.peek().mBuffer;
+        final int length = Math.min(Math.min(data.remaining(), MAX_FRAME_SIZE), next.mSendWindow);
+        final ByteBuffer payload = data.slice();
+        payload.limit(length);
+        data.position(data.position() + length);
+        if (!data.hasRemaining()) {
+            mCompletedWrite = next.mPendingWrites.poll();
+        }
+        next.mSendWindow -= length;
+        frame[0] = header(next.getId(), TYPE_DATA, length, 0);
+        frame[0].flip();
+        frame[1] = payload;
+        return true;
+    }
+
+    private void removeIfClosed(final MuxStream stream) {
+        if (stream.mCloseSent && stream.mRemoteClosed) {
+            mStreams.remove(stream.getId());
+        }
+    }
+
+    private void shutDown(final Throwable error) {
+        final List<MuxStream> streams;
+        synchronized (mLock) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            streams = new ArrayList<>(mStreams.values());
+            mStreams.clear();
+            mControlFrames.clear();
+            mLock.notifyAll();
+        }
+
+        final Throwable cause = error != null ? error : new IOException("The connection is closed");
+        for (MuxStream stream : streams) {
+            for (MuxStream.PendingWrite write : stream.mPendingWrites) {
+                write.mSubscriber.onError(cause);
+            }
+            stream.mPendingWrites.clear();
+            stream.onRemoteClosed();
+        }
+        if (error != null) {
+            mIncomingStreams.onError(error);
+        } else {
+            mIncomingStreams.onCompleted();
+        }
+    }
+
+    private boolean readFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer) < 0) {
+                if (buffer.position() == 0) {
+                    return false;
+                }
+                throw new EOFException("The connection ended within a frame");
+            }
+        }
+        return true;
+    }
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer header(final int streamId,
+                                     final byte type,
+                                     final int length,
+                                     final int inlinePayload) {
+        final ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + inlinePayload);
+        frame.putInt(streamId).put(type).putInt(length);
+        return frame;
+    }
+}
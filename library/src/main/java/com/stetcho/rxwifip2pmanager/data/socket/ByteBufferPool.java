@@ -0,0 +1,69 @@
+package com.stetcho.rxwifip2pmanager.data.socket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bounded pool of direct {@link ByteBuffer}s of the same size. Direct buffers are expensive to
+ * allocate, but the socket reads into them without an intermediate copy, so they are reused.
+ * Buffers which are not released are simply garbage collected.
+ */
+public class ByteBufferPool {
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final Deque<ByteBuffer> mBuffers = new ArrayDeque<>();
+
+    /**
+     * @param bufferSize the capacity of each buffer
+     * @param maxPooled  the maximum number of released buffers that are kept for reuse
+     */
+    public ByteBufferPool(final int bufferSize, final int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        mBufferSize = bufferSize;
+        mMaxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * @return a cleared buffer, either a released one or a newly allocated one
+     */
+    public ByteBuffer acquire() {
+        final ByteBuffer buffer;
+        synchronized (mBuffers) {
+            buffer = mBuffers.poll();
+        }
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(mBufferSize);
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     *
+     * @param buffer a buffer which was acquired from this pool
+     */
+    public void release(final ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != mBufferSize || !buffer.isDirect()) {
+            return;
+        }
+        buffer.clear();
+        synchronized (mBuffers) {
+            if (mBuffers.size() < mMaxPooled) {
+                mBuffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * @return the number of buffers which are ready for reuse
+     */
+    public int getPooledCount() {
+        synchronized (mBuffers) {
+            return mBuffers.size();
+        }
+    }
+}
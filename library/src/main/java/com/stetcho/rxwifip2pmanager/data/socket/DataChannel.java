@@ -0,0 +1,197 @@
+package com.stetcho.rxwifip2pmanager.data.socket;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+
+import rx.Completable;
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action1;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * A connected socket between the group owner and one of its clients, see
+ * {@link DataChannelFactory}.
+ *
+ * All operations block the thread they are subscribed on, so subscribe on
+ * {@link rx.schedulers.Schedulers#io()}. Concurrent sends are written one after the other, so
+ * their bytes never interleave.
+ */
+public class DataChannel implements Closeable {
+    private final SocketChannel mChannel;
+    private final ByteBufferPool mBufferPool;
+    private final Object mReadLock = new Object();
+    private final Object mWriteLock = new Object();
+
+    /**
+     * @param channel    a connected channel in blocking mode
+     * @param bufferPool the pool which provides the buffers of {@link #receive()}
+     */
+    public DataChannel(final SocketChannel channel, final ByteBufferPool bufferPool) {
+        mChannel = channel;
+        mBufferPool = bufferPool;
+    }
+
+    public SocketChannel getSocketChannel() {
+        return mChannel;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return mChannel.socket().getRemoteSocketAddress();
+    }
+
+    public boolean isOpen() {
+        return mChannel.isOpen();
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer. Direct buffers are written without an
+     * intermediate copy.
+     *
+     * @param buffer the bytes between its position and limit are sent
+     * @return a {@link Completable} that completes once all bytes are written to the socket
+     */
+    public Completable send(final ByteBuffer buffer) {
+        return Completable.fromCallable(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                synchronized (mWriteLock) {
+                    while (buffer.hasRemaining()) {
+                        mChannel.write(buffer);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sends the whole file with {@link FileChannel#transferTo(long, long,
+     * java.nio.channels.WritableByteChannel)}, so the kernel copies the bytes straight from the page
+     * cache to the socket, where supported.
+     *
+     * @param file the file to send
+     * @return a {@link Completable} that completes once the file is written to the socket
+     */
+    public Completable sendFile(final File file) {
+        return Completable.fromCallable(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                final FileInputStream input = new FileInputStream(file);
+                try {
+                    final FileChannel channel = input.getChannel();
+                    transferFile(channel, 0, channel.size());
+                } finally {
+                    input.close();
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Sends a region of a file, see {@link #sendFile(File)}. The position of the file channel is
+     * not changed and the file channel is not closed.
+     *
+     * @param file     the file channel to read from
+     * @param position the position of the first byte to send
+     * @param count    the number of bytes to send
+     * @return a {@link Completable} that completes once the region is written to the socket
+     */
+    public Completable sendFile(final FileChannel file, final long position, final long count) {
+        return Completable.fromCallable(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                transferFile(file, position, count);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Reads from the socket into direct buffers of the {@link ByteBufferPool}. A read is issued
+     * only when the subscriber requests a buffer, so a slow subscriber slows down the sender
+     * through TCP flow control instead of filling the memory.
+     *
+     * Each buffer is flipped and ready to be read. Pass it to {@link #release(ByteBuffer)} once it
+     * has been consumed, so that it is reused for one of the next reads.
+     *
+     * @return an {@link Observable} that emits the received bytes and completes when the remote
+     * side closes the connection
+     */
+    public Observable<ByteBuffer> receive() {
+        return Observable.create(SyncOnSubscribe.createStateless(
+                new Action1<Observer<? super ByteBuffer>>() {
+                    @Override
+                    public void call(final Observer<? super ByteBuffer> observer) {
+                        final ByteBuffer buffer = mBufferPool.acquire();
+                        try {
+                            int read;
+                            synchronized (mReadLock) {
+                                do {
+                                    read = mChannel.read(buffer);
+                                } while (read == 0);
+                            }
+                            if (read < 0) {
+                                mBufferPool.release(buffer);
+                                observer.onCompleted();
+                            } else {
+                                buffer.flip();
+                                observer.onNext(buffer);
+                            }
+                        } catch (ClosedChannelException e) {
+                            mBufferPool.release(buffer);
+                            observer.onCompleted();
+                        } catch (IOException e) {
+                            mBufferPool.release(buffer);
+                            observer.onError(e);
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Returns a buffer emitted by {@link #receive()} to the pool
+     */
+    public void release(final ByteBuffer buffer) {
+        mBufferPool.release(buffer);
+    }
+
+    /**
+     * Closes the socket. A pending {@link #receive()} completes and pending sends fail.
+     */
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+
+    /**
+     * Sends a region of a file on the calling thread, for callers which already block on the
+     * socket, like {@link com.stetcho.rxwifip2pmanager.data.transfer.ChunkedFileSender}. See
+     * {@link #sendFile(FileChannel, long, long)}.
+     *
+     * @throws EOFException if the file ends before the region
+     */
+    public void transferFile(final FileChannel file, final long position, final long count)
+            throws IOException {
+        synchronized (mWriteLock) {
+            long sent = 0;
+            while (sent < count) {
+                final long transferred = file.transferTo(position + sent, count - sent, mChannel);
+                if (transferred <= 0 && position + sent >= file.size()) {
+                    throw new EOFException("The file ends before " + (position + count));
+                }
+                sent += transferred;
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.stetcho.rxwifip2pmanager.data.socket;
+
+import android.net.wifi.p2p.WifiP2pInfo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Callable;
+
+import rx.Observable;
+import rx.Observer;
+import rx.Single;
+import rx.exceptions.Exceptions;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Opens {@link DataChannel}s between the group owner and its clients, based on the
+ * {@link WifiP2pInfo} from
+ * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#requestConnectionInfo()}:
+ * <pre>
+ * rxWifiP2pManager.requestConnectionInfo()
+ *         .flatMapObservable(info -> dataChannelFactory.open(info))
+ *         .subscribeOn(Schedulers.io())
+ * </pre>
+ * Connecting and accepting block the thread they are subscribed on.
+ */
+public class DataChannelFactory {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_POOLED_BUFFERS = 16;
+
+    private final int mPort;
+    private final ByteBufferPool mBufferPool;
+
+    /**
+     * @param port the port the group owner listens on
+     */
+    public DataChannelFactory(final int port) {
+        this(port, new ByteBufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS));
+    }
+
+    /**
+     * @param port       the port the group owner listens on
+     * @param bufferPool provides the receive buffers of all channels opened by this factory
+     */
+    public DataChannelFactory(final int port, final ByteBufferPool bufferPool) {
+        mPort = port;
+        mBufferPool = bufferPool;
+    }
+
+    public int getPort() {
+        return mPort;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return mBufferPool;
+    }
+
+    /**
+     * Accepts the clients when this device is the group owner, otherwise connects to the group
+     * owner.
+     *
+     * @param info the connection info of a formed group
+     * @return an {@link Observable} that emits a {@link DataChannel} per client on the group
+     * owner, or a single {@link DataChannel} to the group owner on a client
+     */
+    public Observable<DataChannel> open(final WifiP2pInfo info) {
+        if (info == null || !info.groupFormed) {
+            return Observable.error(new IllegalStateException("No group has been formed"));
+        }
+        return info.isGroupOwner
+                ? accept()
+                : connect(info.groupOwnerAddress).toObservable();
+    }
+
+    /**
+     * Connects to the group owner. The group owner must already be accepting connections, so
+     * consider retrying with a delay.
+     *
+     * @param groupOwnerAddress see {@link WifiP2pInfo#groupOwnerAddress}
+     * @return a {@link Single} that emits the connected {@link DataChannel}
+     */
+    public Single<DataChannel> connect(final InetAddress groupOwnerAddress) {
+        return Single.fromCallable(new Callable<DataChannel>() {
+            @Override
+            public DataChannel call() throws Exception {
+                final SocketChannel channel =
+                        SocketChannel.open(new InetSocketAddress(groupOwnerAddress, mPort));
+                channel.socket().setTcpNoDelay(true);
+                return new DataChannel(channel, mBufferPool);
+            }
+        });
+    }
+
+    /**
+     * Listens on the port and accepts one client per request, so that clients are accepted only
+     * as fast as the subscriber handles them. Unsubscribing stops listening, but does not close
+     * the channels which have already been emitted.
+     *
+     * @return an {@link Observable} that emits a {@link DataChannel} per connected client
+     */
+    public Observable<DataChannel> accept() {
+        return Observable.using(
+                new Func0<ServerSocketChannel>() {
+                    @Override
+                    public ServerSocketChannel call() {
+                        try {
+                            final ServerSocketChannel server = ServerSocketChannel.open();
+                            server.socket().setReuseAddress(true);
+                            server.socket().bind(new InetSocketAddress(mPort));
+                            return server;
+                        } catch (IOException e) {
+                            throw Exceptions.propagate(e);
+                        }
+                    }
+                },
+                new Func1<ServerSocketChannel, Observable<DataChannel>>() {
+                    @Override
+                    public Observable<DataChannel> call(final ServerSocketChannel server) {
+                        return Observable.create(SyncOnSubscribe.createStateless(
+                                new Action1<Observer<? super DataChannel>>() {
+                                    @Override
+                                    public void call(
+                                            final Observer<? super DataChannel> observer) {
+                                        acceptNext(server, observer);
+                                    }
+                                }));
+                    }
+                },
+                new Action1<ServerSocketChannel>() {
+                    @Override
+                    public void call(final ServerSocketChannel server) {
+                        try {
+                            server.close();
+                        } catch (IOException e) {
+                            // Nothing to do, the server is not used anymore
+                        }
+                    }
+                },
+                true);
+    }
+
+    private void acceptNext(final ServerSocketChannel server,
+                            final Observer<? super DataChannel> observer) {
+        try {
+            final SocketChannel channel = server.accept();
+            channel.socket().setTcpNoDelay(true);
+            observer.onNext(new DataChannel(channel, mBufferPool));
+        } catch (ClosedChannelException e) {
+            observer.onCompleted();
+        } catch (IOException e) {
+            observer.onError(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.stetcho.rxwifip2pmanager.data.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Blocking read and write helpers shared by the transfer and the manifest code
+ */
+final class ChannelIo {
+    private ChannelIo() {
+    }
+
+    static void readFully(final ReadableByteChannel channel, final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The stream ends " + buffer.remaining() + " bytes early");
+            }
+        }
+        buffer.flip();
+    }
+
+    static void readFully(final FileChannel file, final ByteBuffer buffer, final long position)
+            throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position() - start) < 0) {
+                throw new EOFException("The file ends " + buffer.remaining() + " bytes early");
+            }
+        }
+        buffer.flip();
+    }
+
+    static ByteBuffer read(final ReadableByteChannel channel, final int length)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(channel, buffer);
+        return buffer;
+    }
+
+    static int readInt(final ReadableByteChannel channel) throws IOException {
+        return read(channel, 4).getInt();
+    }
+
+    static void writeFully(final WritableByteChannel channel, final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    static void writeFully(final FileChannel file, final ByteBuffer buffer, final long position)
+            throws IOException {
+        final int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            file.write(buffer, position + buffer.position() - start);
+        }
+    }
+}
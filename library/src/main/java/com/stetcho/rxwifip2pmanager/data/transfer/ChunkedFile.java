@@ -0,0 +1,174 @@
+package com.stetcho.rxwifip2pmanager.data.transfer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * The name, size and the SHA-1 hash of each fixed-size chunk of a file. It is what the sender
+ * offers to the receiver and what its resume manifest records.
+ */
+public class ChunkedFile {
+    public static final int HASH_LENGTH = 20;
+    static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+    static final int MAX_CHUNK_COUNT = 1024 * 1024;
+    private static final int MAX_NAME_LENGTH = 1024;
+    private static final String CHARSET = "UTF-8";
+
+    private final String mName;
+    private final long mSize;
+    private final int mChunkSize;
+    private final byte[][] mHashes;
+
+    ChunkedFile(final String name, final long size, final int chunkSize, final byte[][] hashes) {
+        mName = name;
+        mSize = size;
+        mChunkSize = chunkSize;
+        mHashes = hashes;
+    }
+
+    /**
+     * Reads the whole file and hashes each chunk
+     */
+    public static ChunkedFile of(final File file, final int chunkSize) throws IOException {
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            final FileChannel channel = input.getChannel();
+            final long size = channel.size();
+            if (size > (long) MAX_CHUNK_COUNT * chunkSize) {
+                throw new IOException(file + " has more than " + MAX_CHUNK_COUNT + " chunks");
+            }
+            final byte[][] hashes = new byte[getChunkCount(size, chunkSize)][];
+            final ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+            for (int i = 0; i < hashes.length; i++) {
+                buffer.clear().limit(getChunkLength(size, chunkSize, i));
+                ChannelIo.readFully(channel, buffer);
+                hashes[i] = hash(buffer);
+            }
+            return new ChunkedFile(file.getName(), size, chunkSize, hashes);
+        } finally {
+            input.close();
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public long getSize() {
+        return mSize;
+    }
+
+    public int getChunkSize() {
+        return mChunkSize;
+    }
+
+    public int getChunkCount() {
+        return mHashes.length;
+    }
+
+    public long getChunkOffset(final int index) {
+        return (long) index * mChunkSize;
+    }
+
+    public int getChunkLength(final int index) {
+        return getChunkLength(mSize, mChunkSize, index);
+    }
+
+    public byte[] getHash(final int index) {
+        return mHashes[index];
+    }
+
+    /**
+     * @return true if the remaining bytes of the buffer hash to the chunk at index
+     */
+    boolean isChunk(final int index, final ByteBuffer buffer) {
+        return buffer.remaining() == getChunkLength(index)
+                && Arrays.equals(mHashes[index], hash(buffer));
+    }
+
+    ByteBuffer encode() {
+        final byte[] name = toBytes(mName);
+        final ByteBuffer buffer = ByteBuffer.allocate(
+                4 + name.length + 8 + 4 + 4 + mHashes.length * HASH_LENGTH);
+        buffer.putInt(name.length).put(name)
+                .putLong(mSize)
+                .putInt(mChunkSize)
+                .putInt(mHashes.length);
+        for (byte[] hash : mHashes) {
+            buffer.put(hash);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    static ChunkedFile decode(final ReadableByteChannel channel) throws IOException {
+        final int nameLength = ChannelIo.readInt(channel);
+        if (nameLength < 0 || nameLength > MAX_NAME_LENGTH) {
+            throw new IOException("Invalid name length " + nameLength);
+        }
+        final ByteBuffer name = ChannelIo.read(channel, nameLength);
+        final ByteBuffer header = ChannelIo.read(channel, 8 + 4 + 4);
+        final long size = header.getLong();
+        final int chunkSize = header.getInt();
+        final int chunkCount = header.getInt();
+        if (size < 0 || chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE
+                || chunkCount < 0 || size > (long) MAX_CHUNK_COUNT * chunkSize
+                || chunkCount != getChunkCount(size, chunkSize)) {
+            throw new IOException("Invalid chunk layout: size " + size
+                    + ", chunk size " + chunkSize + ", chunk count " + chunkCount);
+        }
+        final ByteBuffer hashBuffer = ChannelIo.read(channel, chunkCount * HASH_LENGTH);
+        final byte[][] hashes = new byte[chunkCount][HASH_LENGTH];
+        for (byte[] hash : hashes) {
+            hashBuffer.get(hash);
+        }
+        return new ChunkedFile(new String(name.array(), 0, nameLength, CHARSET), size, chunkSize,
+                hashes);
+    }
+
+    /**
+     * @return true if both describe the same content
+     */
+    boolean hasSameContent(final ChunkedFile other) {
+        return mSize == other.mSize
+                && mChunkSize == other.mChunkSize
+                && Arrays.deepEquals(mHashes, other.mHashes);
+    }
+
+    /**
+     * Hashes the remaining bytes of the buffer without consuming them
+     */
+    static byte[] hash(final ByteBuffer buffer) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(buffer.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int getChunkCount(final long size, final int chunkSize) {
+        return (int) ((size + chunkSize - 1) / chunkSize);
+    }
+
+    private static int getChunkLength(final long size, final int chunkSize, final int index) {
+        return (int) Math.min(chunkSize, size - (long) index * chunkSize);
+    }
+
+    private static byte[] toBytes(final String name) {
+        try {
+            return name.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
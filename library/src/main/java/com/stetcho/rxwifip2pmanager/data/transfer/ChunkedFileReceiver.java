@@ -0,0 +1,298 @@
+package com.stetcho.rxwifip2pmanager.data.transfer;
+
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action1;
+import rx.functions.Action2;
+import rx.functions.Func0;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Receives the files of a {@link ChunkedFileSender} into a directory.
+ *
+ * While a file is incomplete its chunks are stored in {@code <name>.part} and the verified ones
+ * are recorded in {@code <name>.manifest}, so the next attempt asks only for the chunks that are
+ * still missing. Chunks whose content is already held, because the file repeats itself or an
+ * older version of it is in the directory, are copied locally instead of being asked for.
+ */
+public class ChunkedFileReceiver {
+    static final String PART_SUFFIX = ".part";
+    static final String MANIFEST_SUFFIX = ".manifest";
+
+    private final File mDirectory;
+
+    public ChunkedFileReceiver(final File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Receives one file over the channel, which must not be used by anything else until the
+     * transfer terminates. The next chunk is read only when the subscriber requests more
+     * progress.
+     *
+     * @return an {@link Observable} that emits the progress once the offer has been answered,
+     * after each stored chunk and a last time when the file has been moved to its place, then
+     * completes. It fails with an {@link IOException} when the connection drops, the chunks
+     * stored so far are kept for the next attempt.
+     */
+    public Observable<TransferProgress> receive(final DataChannel channel) {
+        return Observable.create(SyncOnSubscribe.createSingleState(
+                new Func0<Session>() {
+                    @Override
+                    public Session call() {
+                        return new Session(channel.getSocketChannel(), mDirectory);
+                    }
+                },
+                new Action2<Session, Observer<? super TransferProgress>>() {
+                    @Override
+                    public void call(final Session session,
+                                     final Observer<? super TransferProgress> observer) {
+                        try {
+                            session.next(observer);
+                        } catch (IOException e) {
+                            observer.onError(e);
+                        }
+                    }
+                },
+                new Action1<Session>() {
+                    @Override
+                    public void call(final Session session) {
+                        session.close();
+                    }
+                }));
+    }
+
+    private static class Session {
+        private final SocketChannel mSocket;
+        private final File mDirectory;
+        private final ByteBuffer mChunkHeader = ByteBuffer.allocate(8);
+        private ChunkedFile mChunks;
+        private File mTarget;
+        private File mPart;
+        private ResumeManifest mManifest;
+        private RandomAccessFile mPartAccess;
+        private FileChannel mPartChannel;
+        private ByteBuffer mBuffer;
+        private final Map<Integer, List<Integer>> mRepeats = new HashMap<>();
+        private int mSkippedChunks;
+        private int mMissingChunks;
+        private int mTransferredChunks = -1;
+        private long mTransferredBytes;
+
+        Session(final SocketChannel socket, final File directory) {
+            mSocket = socket;
+            mDirectory = directory;
+        }
+
+        void next(final Observer<? super TransferProgress> observer) throws IOException {
+            if (mTransferredChunks < 0) {
+                start();
+                mTransferredChunks = 0;
+            } else if (mTransferredChunks < mMissingChunks) {
+                receiveChunk();
+                mTransferredChunks++;
+            } else {
+                finish();
+                observer.onNext(progress(true));
+                observer.onCompleted();
+                return;
+            }
+            observer.onNext(progress(false));
+        }
+
+        private void start() throws IOException {
+            mChunks = ChunkedFile.decode(mSocket);
+            final String name = new File(mChunks.getName()).getName();
+            if (name.length() == 0 || name.equals(".") || name.equals("..")) {
+                throw new IOException("Invalid file name " + mChunks.getName());
+            }
+            mTarget = new File(mDirectory, name);
+            mPart = new File(mDirectory, name + PART_SUFFIX);
+            mManifest = ResumeManifest.open(new File(mDirectory, name + MANIFEST_SUFFIX), mChunks);
+            mPartAccess = new RandomAccessFile(mPart, "rw");
+            mPartAccess.setLength(mChunks.getSize());
+            mPartChannel = mPartAccess.getChannel();
+            mBuffer = ByteBuffer.allocate(mChunks.getChunkSize());
+
+            copyHeldChunks();
+            final ByteBuffer missing = requestMissingChunks();
+            mSkippedChunks = mChunks.getChunkCount() - mMissingChunks;
+            ChannelIo.writeFully(mSocket, missing);
+        }
+
+        /**
+         * Asks for the first chunk of each distinct content that is still missing, the repeats
+         * are filled in locally once it arrives
+         */
+        private ByteBuffer requestMissingChunks() {
+            final List<Integer> requested = new ArrayList<>();
+            final Map<ByteBuffer, Integer> firstIndexes = new HashMap<>();
+            for (int i = 0; i < mChunks.getChunkCount(); i++) {
+                if (mManifest.isReceived(i)) {
+                    continue;
+                }
+                final ByteBuffer hash = ByteBuffer.wrap(mChunks.getHash(i));
+                final Integer first = firstIndexes.get(hash);
+                if (first == null) {
+                    firstIndexes.put(hash, i);
+                    requested.add(i);
+                } else {
+                    List<Integer> repeats = mRepeats.get(first);
+                    if (repeats == null) {
+                        repeats = new ArrayList<>();
+                        mRepeats.put(first, repeats);
+                    }
+                    repeats.add(i);
+                }
+            }
+            mMissingChunks = requested.size();
+            final ByteBuffer missing = ByteBuffer.allocate(4 + mMissingChunks * 4);
+            missing.putInt(mMissingChunks);
+            for (int index : requested) {
+                missing.putInt(index);
+            }
+            missing.flip();
+            return missing;
+        }
+
+        /**
+         * Fills the missing chunks whose hash matches a stored chunk or a chunk of an older
+         * version of the target file
+         */
+        private void copyHeldChunks() throws IOException {
+            final Map<ByteBuffer, Long> partOffsets = new HashMap<>();
+            for (int i = 0; i < mChunks.getChunkCount(); i++) {
+                if (mManifest.isReceived(i)) {
+                    partOffsets.put(ByteBuffer.wrap(mChunks.getHash(i)), mChunks.getChunkOffset(i));
+                }
+            }
+            final Map<ByteBuffer, Long> targetOffsets = new HashMap<>();
+            RandomAccessFile target = null;
+            if (mTarget.isFile()) {
+                final ChunkedFile older = ChunkedFile.of(mTarget, mChunks.getChunkSize());
+                for (int i = older.getChunkCount() - 1; i >= 0; i--) {
+                    targetOffsets.put(ByteBuffer.wrap(older.getHash(i)), older.getChunkOffset(i));
+                }
+                target = new RandomAccessFile(mTarget, "r");
+            }
+            try {
+                final List<Integer> copied = new ArrayList<>();
+                for (int i = 0; i < mChunks.getChunkCount(); i++) {
+                    if (mManifest.isReceived(i)) {
+                        continue;
+                    }
+                    final ByteBuffer hash = ByteBuffer.wrap(mChunks.getHash(i));
+                    final Long partOffset = partOffsets.get(hash);
+                    final Long targetOffset = targetOffsets.get(hash);
+                    if (partOffset != null) {
+                        copyChunk(i, mPartChannel, partOffset);
+                    } else if (targetOffset != null) {
+                        copyChunk(i, target.getChannel(), targetOffset);
+                    } else {
+                        continue;
+                    }
+                    if (mChunks.isChunk(i, mBuffer)) {
+                        ChannelIo.writeFully(mPartChannel, mBuffer, mChunks.getChunkOffset(i));
+                        partOffsets.put(hash, mChunks.getChunkOffset(i));
+                        copied.add(i);
+                    }
+                }
+                if (!copied.isEmpty()) {
+                    mPartChannel.force(false);
+                    for (int index : copied) {
+                        mManifest.markReceived(index);
+                    }
+                }
+            } finally {
+                if (target != null) {
+                    target.close();
+                }
+            }
+        }
+
+        private void copyChunk(final int index, final FileChannel source, final long offset)
+                throws IOException {
+            mBuffer.clear().limit(mChunks.getChunkLength(index));
+            ChannelIo.readFully(source, mBuffer, offset);
+        }
+
+        private void receiveChunk() throws IOException {
+            mChunkHeader.clear();
+            ChannelIo.readFully(mSocket, mChunkHeader);
+            final int index = mChunkHeader.getInt();
+            final int length = mChunkHeader.getInt();
+            if (index < 0 || index >= mChunks.getChunkCount() || mManifest.isReceived(index)
+                    || length != mChunks.getChunkLength(index)) {
+                throw new IOException("Unexpected chunk " + index + " of " + length + " bytes");
+            }
+            mBuffer.clear().limit(length);
+            ChannelIo.readFully(mSocket, mBuffer);
+            if (!mChunks.isChunk(index, mBuffer)) {
+                throw new IOException("Chunk " + index + " does not match its hash");
+            }
+            ChannelIo.writeFully(mPartChannel, mBuffer.duplicate(), mChunks.getChunkOffset(index));
+            final List<Integer> repeats = mRepeats.get(index);
+            if (repeats != null) {
+                for (int repeat : repeats) {
+                    ChannelIo.writeFully(mPartChannel, mBuffer.duplicate(),
+                            mChunks.getChunkOffset(repeat));
+                }
+            }
+            mPartChannel.force(false);
+            mManifest.markReceived(index);
+            if (repeats != null) {
+                for (int repeat : repeats) {
+                    mManifest.markReceived(repeat);
+                }
+            }
+            mTransferredBytes += length;
+        }
+
+        private void finish() throws IOException {
+            mPartAccess.close();
+            if (mTarget.exists() && !mTarget.delete()) {
+                throw new IOException("Could not replace " + mTarget);
+            }
+            if (!mPart.renameTo(mTarget)) {
+                throw new IOException("Could not move " + mPart + " to " + mTarget);
+            }
+            mManifest.delete();
+            ChannelIo.writeFully(mSocket, ByteBuffer.wrap(new byte[]{1}));
+        }
+
+        private TransferProgress progress(final boolean completed) {
+            return new TransferProgress(mChunks,
+                    mSkippedChunks,
+                    mTransferredChunks,
+                    mMissingChunks - mTransferredChunks,
+                    mTransferredBytes,
+                    completed);
+        }
+
+        void close() {
+            try {
+                if (mPartAccess != null) {
+                    mPartAccess.close();
+                }
+                if (mManifest != null) {
+                    mManifest.close();
+                }
+            } catch (IOException e) {
+                // The stored chunks are already flushed
+            }
+        }
+    }
+}
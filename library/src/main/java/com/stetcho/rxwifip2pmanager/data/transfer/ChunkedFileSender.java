@@ -0,0 +1,167 @@
+package com.stetcho.rxwifip2pmanager.data.transfer;
+
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannel;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import rx.Observable;
+import rx.Observer;
+import rx.functions.Action1;
+import rx.functions.Action2;
+import rx.functions.Func0;
+import rx.observables.SyncOnSubscribe;
+
+/**
+ * Sends a file to a {@link ChunkedFileReceiver} in content-hashed chunks. The sender offers the
+ * hashes of all chunks first and the receiver answers with the chunks it is missing, so after a
+ * dropped connection only those are sent again.
+ *
+ * The wire format is:
+ * <pre>
+ * sender:   offer   = encoded {@link ChunkedFile}
+ * receiver: missing = count (int), chunk index (int) * count
+ * sender:   chunk   = chunk index (int), length (int), bytes, for each missing chunk
+ * receiver: done    = 1 (byte), once the file is stored
+ * </pre>
+ */
+public class ChunkedFileSender {
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private final int mChunkSize;
+
+    public ChunkedFileSender() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedFileSender(final int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > ChunkedFile.MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+        }
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Sends the file over the channel, which must not be used by anything else until the
+     * transfer terminates. The file is hashed on subscription and the next chunk is sent only
+     * when the subscriber requests more progress, so a slow subscriber slows down the transfer.
+     *
+     * @return an {@link Observable} that emits the progress once the receiver has answered the
+     * offer, after each sent chunk and a last time when the receiver has stored the file, then
+     * completes. It fails with an {@link IOException} when the connection drops; subscribe again
+     * over a new connection to resume.
+     */
+    public Observable<TransferProgress> send(final DataChannel channel, final File file) {
+        return Observable.create(SyncOnSubscribe.createSingleState(
+                new Func0<Session>() {
+                    @Override
+                    public Session call() {
+                        return new Session(channel, file, mChunkSize);
+                    }
+                },
+                new Action2<Session, Observer<? super TransferProgress>>() {
+                    @Override
+                    public void call(final Session session,
+                                     final Observer<? super TransferProgress> observer) {
+                        try {
+                            session.next(observer);
+                        } catch (IOException e) {
+                            observer.onError(e);
+                        }
+                    }
+                },
+                new Action1<Session>() {
+                    @Override
+                    public void call(final Session session) {
+                        session.close();
+                    }
+                }));
+    }
+
+    private static class Session {
+        private final DataChannel mChannel;
+        private final SocketChannel mSocket;
+        private final File mFile;
+        private final int mChunkSize;
+        private final ByteBuffer mChunkHeader = ByteBuffer.allocate(8);
+        private FileInputStream mInput;
+        private ChunkedFile mChunks;
+        private int[] mMissing;
+        private int mNext = -1;
+        private long mTransferredBytes;
+
+        Session(final DataChannel channel, final File file, final int chunkSize) {
+            mChannel = channel;
+            mSocket = channel.getSocketChannel();
+            mFile = file;
+            mChunkSize = chunkSize;
+        }
+
+        void next(final Observer<? super TransferProgress> observer) throws IOException {
+            if (mNext < 0) {
+                offer();
+                mNext = 0;
+            } else if (mNext < mMissing.length) {
+                sendChunk(mMissing[mNext++]);
+            } else {
+                if (ChannelIo.read(mSocket, 1).get() != 1) {
+                    throw new IOException("The receiver did not confirm " + mFile);
+                }
+                observer.onNext(progress(true));
+                observer.onCompleted();
+                return;
+            }
+            observer.onNext(progress(false));
+        }
+
+        private void offer() throws IOException {
+            mInput = new FileInputStream(mFile);
+            mChunks = ChunkedFile.of(mFile, mChunkSize);
+            ChannelIo.writeFully(mSocket, mChunks.encode());
+
+            final int count = ChannelIo.readInt(mSocket);
+            if (count < 0 || count > mChunks.getChunkCount()) {
+                throw new IOException("Invalid missing chunk count " + count);
+            }
+            final ByteBuffer indexes = ChannelIo.read(mSocket, count * 4);
+            mMissing = new int[count];
+            for (int i = 0; i < count; i++) {
+                mMissing[i] = indexes.getInt();
+                if (mMissing[i] < 0 || mMissing[i] >= mChunks.getChunkCount()) {
+                    throw new IOException("Invalid missing chunk " + mMissing[i]);
+                }
+            }
+        }
+
+        private void sendChunk(final int index) throws IOException {
+            final int length = mChunks.getChunkLength(index);
+            mChunkHeader.clear();
+            mChunkHeader.putInt(index).putInt(length).flip();
+            ChannelIo.writeFully(mSocket, mChunkHeader);
+            mChannel.transferFile(mInput.getChannel(), mChunks.getChunkOffset(index), length);
+            mTransferredBytes += length;
+        }
+
+        private TransferProgress progress(final boolean completed) {
+            return new TransferProgress(mChunks,
+                    mChunks.getChunkCount() - mMissing.length,
+                    mNext,
+                    mMissing.length - mNext,
+                    mTransferredBytes,
+                    completed);
+        }
+
+        void close() {
+            try {
+                if (mInput != null) {
+                    mInput.close();
+                }
+            } catch (IOException e) {
+                // Nothing else holds the file
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.stetcho.rxwifip2pmanager.data.transfer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+/**
+ * Records on disk which chunks of a {@link ChunkedFile} the receiver has already verified and
+ * stored. The file starts with the encoded {@link ChunkedFile} and is followed by the index of
+ * each stored chunk, appended and flushed one by one, so a transfer that is cut at any point can
+ * be resumed from the last chunk that made it to the disk.
+ */
+class ResumeManifest implements Closeable {
+    private static final int RECORD_LENGTH = 4;
+
+    private final File mFile;
+    private final RandomAccessFile mAccess;
+    private final FileChannel mChannel;
+    private final ChunkedFile mChunks;
+    private final BitSet mReceived;
+    private final ByteBuffer mRecord = ByteBuffer.allocate(RECORD_LENGTH);
+
+    private ResumeManifest(final File file,
+                           final RandomAccessFile access,
+                           final ChunkedFile chunks,
+                           final BitSet received) {
+        mFile = file;
+        mAccess = access;
+        mChannel = access.getChannel();
+        mChunks = chunks;
+        mReceived = received;
+    }
+
+    /**
+     * Opens the manifest of the given chunks. The recorded chunks are kept only if the file was
+     * written for the same content, otherwise the manifest starts over.
+     */
+    static ResumeManifest open(final File file, final ChunkedFile chunks) throws IOException {
+        final RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = access.getChannel();
+            final BitSet received = new BitSet(chunks.getChunkCount());
+            if (!load(channel, chunks, received)) {
+                received.clear();
+                channel.truncate(0);
+                ChannelIo.writeFully(channel.position(0), chunks.encode());
+                channel.force(false);
+            }
+            return new ResumeManifest(file, access, chunks, received);
+        } catch (IOException e) {
+            access.close();
+            throw e;
+        }
+    }
+
+    private static boolean load(final FileChannel channel,
+                                final ChunkedFile chunks,
+                                final BitSet received) throws IOException {
+        final ChunkedFile recorded;
+        try {
+            recorded = ChunkedFile.decode(channel.position(0));
+        } catch (IOException e) {
+            return false;
+        }
+        if (!recorded.hasSameContent(chunks)) {
+            return false;
+        }
+        final long records = (channel.size() - channel.position()) / RECORD_LENGTH;
+        final ByteBuffer buffer = ChannelIo.read(channel, (int) (records * RECORD_LENGTH));
+        while (buffer.hasRemaining()) {
+            final int index = buffer.getInt();
+            if (index < 0 || index >= chunks.getChunkCount()) {
+                return false;
+            }
+            received.set(index);
+        }
+        // Drops a record that was cut in the middle
+        channel.truncate(channel.position());
+        return true;
+    }
+
+    ChunkedFile getChunks() {
+        return mChunks;
+    }
+
+    boolean isReceived(final int index) {
+        return mReceived.get(index);
+    }
+
+    int getReceivedCount() {
+        return mReceived.cardinality();
+    }
+
+    boolean isComplete() {
+        return getReceivedCount() == mChunks.getChunkCount();
+    }
+
+    /**
+     * Records a chunk. Call it only once the chunk itself has been flushed to the disk.
+     */
+    void markReceived(final int index) throws IOException {
+        if (mReceived.get(index)) {
+            return;
+        }
+        mRecord.clear();
+        mRecord.putInt(index).flip();
+        ChannelIo.writeFully(mChannel.position(mChannel.size()), mRecord);
+        mChannel.force(false);
+        mReceived.set(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mAccess.close();
+    }
+
+    /**
+     * Closes and removes the manifest once the file is complete
+     */
+    void delete() throws IOException {
+        close();
+        if (!mFile.delete() && mFile.exists()) {
+            throw new IOException("Could not delete " + mFile);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.stetcho.rxwifip2pmanager.data.transfer;
+
+/**
+ * The progress of a chunked transfer, emitted by both {@link ChunkedFileSender} and
+ * {@link ChunkedFileReceiver}
+ */
+public class TransferProgress {
+    private final ChunkedFile mFile;
+    private final int mSkippedChunks;
+    private final int mTransferredChunks;
+    private final int mPendingChunks;
+    private final long mTransferredBytes;
+    private final boolean mCompleted;
+
+    public TransferProgress(final ChunkedFile file,
+                            final int skippedChunks,
+                            final int transferredChunks,
+                            final int pendingChunks,
+                            final long transferredBytes,
+                            final boolean completed) {
+        mFile = file;
+        mSkippedChunks = skippedChunks;
+        mTransferredChunks = transferredChunks;
+        mPendingChunks = pendingChunks;
+        mTransferredBytes = transferredBytes;
+        mCompleted = completed;
+    }
+
+    public ChunkedFile getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return the chunks the receiver already had, from an earlier attempt or from identical
+     * content, and which were not sent again
+     */
+    public int getSkippedChunks() {
+        return mSkippedChunks;
+    }
+
+    /**
+     * @return the chunks sent over the connection by this attempt so far
+     */
+    public int getTransferredChunks() {
+        return mTransferredChunks;
+    }
+
+    /**
+     * @return the chunks this attempt still has to send
+     */
+    public int getPendingChunks() {
+        return mPendingChunks;
+    }
+
+    /**
+     * @return the bytes sent over the connection by this attempt so far
+     */
+    public long getTransferredBytes() {
+        return mTransferredBytes;
+    }
+
+    /**
+     * @return true once the receiver has stored the whole file
+     */
+    public boolean isCompleted() {
+        return mCompleted;
+    }
+
+    @Override
+    public String toString() {
+        return "TransferProgress{" +
+                "mFile=" + mFile.getName() +
+                ", mSkippedChunks=" + mSkippedChunks +
+                ", mTransferredChunks=" + mTransferredChunks +
+                ", mPendingChunks=" + mPendingChunks +
+                ", mTransferredBytes=" + mTransferredBytes +
+                ", mCompleted=" + mCompleted +
+                '}';
+    }
+}
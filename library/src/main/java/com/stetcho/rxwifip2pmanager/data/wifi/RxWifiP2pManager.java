@@ -1,7 +1,7 @@
 package com.stetcho.rxwifip2pmanager.data.wifi;
 
+import android.annotation.TargetApi;
 import android.content.Context;
-import android.content.Intent;
 import android.net.wifi.WpsInfo;
 import android.net.wifi.p2p.WifiP2pConfig;
 import android.net.wifi.p2p.WifiP2pDevice;
@@ -9,21 +9,57 @@ import android.net.wifi.p2p.WifiP2pDeviceList;
 import android.net.wifi.p2p.WifiP2pGroup;
 import android.net.wifi.p2p.WifiP2pInfo;
 import android.net.wifi.p2p.WifiP2pManager;
+import android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceRequest;
+import android.net.wifi.p2p.nsd.WifiP2pServiceInfo;
+import android.net.wifi.p2p.nsd.WifiP2pServiceRequest;
+import android.os.Build;
 import android.os.Looper;
 
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionState;
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.ConnectionStateMachine;
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.PeerConnectionResult;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEventParser;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pChannelDisconnectedException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pException;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.HistogramP2pMetrics;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.MeasuredOperation;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.P2pMetrics;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.P2pOperation;
+import com.stetcho.rxwifip2pmanager.data.wifi.operation.ChannelOperationQueue;
+import com.stetcho.rxwifip2pmanager.data.wifi.operation.CoalescedRequest;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerCache;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerChange;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerHistory;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerListDiffer;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerRegistry;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerTable;
+import com.stetcho.rxwifip2pmanager.data.wifi.retry.RetryPolicy;
+import com.stetcho.rxwifip2pmanager.data.wifi.service.DnsSdRecord;
+import com.stetcho.rxwifip2pmanager.data.wifi.service.TxtRecordCache;
 import com.stetcho.rxwifip2pmanager.domain.broadcast.BroadcastObservableManager;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import rx.Completable;
-import rx.CompletableSubscriber;
 import rx.Observable;
+import rx.Scheduler;
 import rx.Single;
-import rx.SingleSubscriber;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
 import rx.functions.Func0;
 import rx.functions.Func1;
-
-import static android.net.wifi.p2p.WifiP2pManager.BUSY;
-import static android.net.wifi.p2p.WifiP2pManager.ERROR;
-import static android.net.wifi.p2p.WifiP2pManager.P2P_UNSUPPORTED;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
+import rx.subscriptions.SerialSubscription;
 
 /**
  * Created by Stefan Mitev on 01/07/2015.
@@ -32,9 +68,78 @@ import static android.net.wifi.p2p.WifiP2pManager.P2P_UNSUPPORTED;
  * ({@link "https://github.com/ReactiveX/RxJava"}).
  */
 public class RxWifiP2pManager {
+    /*
+     * Keys of the channel operations which are coalesced while in flight
+     */
+    private static final String OPERATION_DISCOVER_PEERS = "discoverPeers";
+    private static final String OPERATION_STOP_PEER_DISCOVERY = "stopPeerDiscovery";
+    private static final String OPERATION_CANCEL_CONNECT = "cancelConnect";
+    private static final String OPERATION_REQUEST_PEERS = "requestPeers";
+    private static final String OPERATION_REQUEST_CONNECTION_INFO = "requestConnectionInfo";
+    private static final String OPERATION_REQUEST_GROUP_INFO = "requestGroupInfo";
+    private static final String OPERATION_REMOVE_GROUP = "removeGroup";
+    private static final String OPERATION_CREATE_GROUP = "createGroup";
+    private static final String OPERATION_DISCOVER_SERVICES = "discoverServices";
+    private static final long DEFAULT_COALESCING_WINDOW_MILLIS = 1000;
+
+    private static final Func1<WifiP2pDeviceList, Iterable<WifiP2pDevice>> TO_DEVICES =
+            new Func1<WifiP2pDeviceList, Iterable<WifiP2pDevice>>() {
+                @Override
+                public Iterable<WifiP2pDevice> call(final WifiP2pDeviceList deviceList) {
+                    return deviceList.getDeviceList();
+                }
+            };
+
     private final WifiP2pManager mWifiP2pManager;
-    private final WifiP2pManager.Channel mChannel;
+    private final Context mContext;
+    private final Looper mLooper;
+    private final WifiP2pManager.ChannelListener mChannelListener =
+            new WifiP2pManager.ChannelListener() {
+                @Override
+                public void onChannelDisconnected() {
+                    reinitializeChannel();
+                }
+            };
+    private volatile WifiP2pManager.Channel mChannel;
     private final BroadcastObservableManager.Factory mIntentObservableFactory;
+    private final Observable<P2pEvent> mEvents;
+    private final ChannelOperationQueue mOperationQueue = new ChannelOperationQueue();
+    private final PeerCache mPeerCache = new PeerCache(Schedulers.immediate());
+    private final PeerRegistry mPeerRegistry = new PeerRegistry(Schedulers.immediate());
+    private final TxtRecordCache mTxtRecordCache = new TxtRecordCache(Schedulers.immediate());
+    private final Subject<DnsSdRecord, DnsSdRecord> mDnsSdRecords =
+            PublishSubject.<DnsSdRecord>create().toSerialized();
+    private final AtomicBoolean mDnsSdListenersSet = new AtomicBoolean();
+    private final ConnectionStateMachine mConnectionStateMachine;
+    private final CoalescedRequest<WifiP2pInfo> mConnectionInfo;
+    private final CoalescedRequest<WifiP2pGroup> mGroupInfo;
+    private final SerialSubscription mConnectionChangeWatch = new SerialSubscription();
+    private final Observable<WifiP2pDeviceList> mDiscoveredPeers;
+    // Set while a stop of the discovery requested by this manager has not been reported yet
+    private final AtomicBoolean mDiscoveryStopRequested = new AtomicBoolean();
+    private final Action0 mStopPeerDiscovery = new Action0() {
+        @Override
+        public void call() {
+            stopPeerDiscovery().onErrorComplete().subscribe();
+        }
+    };
+    private final Action0 mCancelConnect = new Action0() {
+        @Override
+        public void call() {
+            cancelConnect().onErrorComplete().subscribe();
+        }
+    };
+    private final Action1<WifiP2pDeviceList> mRecordPeers = new Action1<WifiP2pDeviceList>() {
+        @Override
+        public void call(final WifiP2pDeviceList peers) {
+            final PeerHistory history = mPeerHistory;
+            if (history != null) {
+                history.recordPeers(peers);
+            }
+        }
+    };
+    private volatile P2pMetrics mMetrics = P2pMetrics.NONE;
+    private volatile PeerHistory mPeerHistory;
 
     /**
      * Returns the class provides the API for managing Wi-Fi peer-to-peer connectivity.
@@ -55,7 +160,92 @@ public class RxWifiP2pManager {
     }
 
     /**
-     * The main and only (for now) constructor. External dependencies are injected from here.
+     * Operations on the {@link WifiP2pManager.Channel} are executed one at a time, so that they do
+     * not fail with {@link WifiP2pManager#BUSY} when they overlap.
+     *
+     * @return the number of channel operations that have not delivered their result yet,
+     * including the one in flight
+     */
+    public int getQueueDepth() {
+        return mOperationQueue.getQueueDepth();
+    }
+
+    /**
+     * Returns the cache that serves {@link #requestPeersList()} while it is enabled through
+     * {@link #enablePeerCache(long, TimeUnit)}.
+     *
+     * @return {@link PeerCache}
+     */
+    public PeerCache getPeerCache() {
+        return mPeerCache;
+    }
+
+    /**
+     * Returns the registry of all peers seen while it is enabled through
+     * {@link #enablePeerRegistry()}.
+     *
+     * @return {@link PeerRegistry}
+     */
+    public PeerRegistry getPeerRegistry() {
+        return mPeerRegistry;
+    }
+
+    /**
+     * Returns the cache that serves {@link #requestTxtRecord(String)}
+     *
+     * @return {@link TxtRecordCache}
+     */
+    public TxtRecordCache getTxtRecordCache() {
+        return mTxtRecordCache;
+    }
+
+    /**
+     * Plugs in the metrics which measure the framework calls and the handling of broadcasts from
+     * now on. Operations are not measured at all with the default {@link P2pMetrics#NONE}.
+     *
+     * @param metrics the metrics, e.g. {@link HistogramP2pMetrics}, or {@link P2pMetrics#NONE}
+     */
+    public void setMetrics(final P2pMetrics metrics) {
+        mMetrics = metrics == null ? P2pMetrics.NONE : metrics;
+    }
+
+    public P2pMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Plugs in the history which records the peer lists received from the framework or from
+     * broadcasts, and the results of {@link #connect(WifiP2pConfig)} from now on, so that known
+     * peers can be shown before a discovery has finished. Lists served by the peer cache are not
+     * recorded again.
+     *
+     * @param peerHistory the history, or null to stop recording
+     */
+    public void setPeerHistory(final PeerHistory peerHistory) {
+        mPeerHistory = peerHistory;
+    }
+
+    public PeerHistory getPeerHistory() {
+        return mPeerHistory;
+    }
+
+    /**
+     * Sets how long the results of {@link #requestConnectionInfo()} and {@link #requestGroupInfo()}
+     * are reused after they have been delivered. A
+     * {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION} broadcast within the window
+     * replaces them. Concurrent requests always share one framework call, 0 disables only the
+     * reuse.
+     *
+     * @param window the window, 1 s by default
+     * @param unit   the time unit of window
+     */
+    public void setRequestCoalescingWindow(final long window, final TimeUnit unit) {
+        mConnectionInfo.setWindow(window, unit);
+        mGroupInfo.setWindow(window, unit);
+    }
+
+    /**
+     * Creates a manager whose framework callbacks are delivered on the main thread.
      *
      * @param context                 an instance of the application's context
      * @param wifiP2pManager          an instance of {@link WifiP2pManager}
@@ -63,13 +253,95 @@ public class RxWifiP2pManager {
      *                                broadcasts emissions are handled and choose to use either the
      *                                default way, provided by the library, or plug your own
      *                                implementation.
+     * @see #RxWifiP2pManager(Context, WifiP2pManager, BroadcastObservableManager.Factory, Looper)
      */
     public RxWifiP2pManager(Context context,
                             WifiP2pManager wifiP2pManager,
                             BroadcastObservableManager.Factory intentObservableFactory) {
+        this(context, wifiP2pManager, intentObservableFactory, Looper.getMainLooper());
+    }
+
+    /**
+     * The main constructor. External dependencies are injected from here.
+     *
+     * The framework delivers the results of all operations on the given looper, and they are
+     * passed straight to the subscribers, so a looper of a {@link android.os.HandlerThread} keeps
+     * their processing off the main thread. When the framework disconnects the channel, it is
+     * initialized again on the same looper and the operation in flight fails with
+     * {@link P2pChannelDisconnectedException}.
+     *
+     * @param context                 an instance of the application's context
+     * @param wifiP2pManager          an instance of {@link WifiP2pManager}
+     * @param intentObservableFactory The factory allows you to have more control over the way
+     *                                broadcasts emissions are handled and choose to use either the
+     *                                default way, provided by the library, or plug your own
+     *                                implementation.
+     * @param looper                  the looper on which the framework callbacks are delivered
+     */
+    public RxWifiP2pManager(Context context,
+                            WifiP2pManager wifiP2pManager,
+                            BroadcastObservableManager.Factory intentObservableFactory,
+                            Looper looper) {
         mWifiP2pManager = wifiP2pManager;
-        mChannel = mWifiP2pManager.initialize(context, Looper.getMainLooper(), null);
+        mContext = context;
+        mLooper = looper;
+        mChannel = mWifiP2pManager.initialize(mContext, mLooper, mChannelListener);
         mIntentObservableFactory = intentObservableFactory;
+        mEvents = P2pEventParser.parse(mIntentObservableFactory.create().getBroadcastObservable());
+        mConnectionInfo = new CoalescedRequest<>(
+                Single.defer(new Func0<Single<WifiP2pInfo>>() {
+                    @Override
+                    public Single<WifiP2pInfo> call() {
+                        return requestConnectionInfoFromFramework()
+                                .doOnSuccess(watchConnectionChanges());
+                    }
+                }),
+                DEFAULT_COALESCING_WINDOW_MILLIS, TimeUnit.MILLISECONDS, Schedulers.immediate());
+        mGroupInfo = new CoalescedRequest<>(
+                Single.defer(new Func0<Single<WifiP2pGroup>>() {
+                    @Override
+                    public Single<WifiP2pGroup> call() {
+                        return requestGroupInfoFromFramework()
+                                .doOnSuccess(watchConnectionChanges());
+                    }
+                }),
+                DEFAULT_COALESCING_WINDOW_MILLIS, TimeUnit.MILLISECONDS, Schedulers.immediate());
+        mDiscoveredPeers = Observable.defer(new Func0<Observable<WifiP2pDeviceList>>() {
+            @Override
+            public Observable<WifiP2pDeviceList> call() {
+                return discoverPeerLists();
+            }
+        }).replay(1).refCount();
+        mConnectionStateMachine = new ConnectionStateMachine(mEvents,
+                Single.defer(new Func0<Single<WifiP2pInfo>>() {
+                    @Override
+                    public Single<WifiP2pInfo> call() {
+                        return requestConnectionInfo();
+                    }
+                }));
+    }
+
+    /**
+     * Observes the Wi-Fi p2p broadcasts as typed events. Each broadcast is parsed once and the
+     * event is shared between all subscribers of this manager, including the ones used internally.
+     *
+     * @return an {@link Observable} that emits {@link P2pEvent}s and never completes
+     */
+    public Observable<P2pEvent> observeEvents() {
+        return mEvents;
+    }
+
+    /**
+     * Observes the state of the p2p connection: idle, discovering, connecting, connected as a
+     * group owner or as a client, disconnecting, or disabled.
+     * While the state is observed, it is emitted immediately upon subscription without a
+     * round-trip to the framework, followed by every change. The connection info is requested
+     * only when no state is known yet, e.g. for the first subscriber after the last one left.
+     *
+     * @return an {@link Observable} that emits {@link ConnectionState}s and never completes
+     */
+    public Observable<ConnectionState> observeConnectionState() {
+        return mConnectionStateMachine.observe();
     }
 
     /**
@@ -81,43 +353,41 @@ public class RxWifiP2pManager {
     public Observable<WifiP2pDevice> requestPeers() {
         return requestPeersList()
                 .toObservable()
-                .flatMap(new Func1<WifiP2pDeviceList, Observable<WifiP2pDevice>>() {
-                    @Override
-                    public Observable<WifiP2pDevice> call(final WifiP2pDeviceList deviceList) {
-                        return Observable.from(deviceList.getDeviceList());
-                    }
-                });
+                .flatMapIterable(TO_DEVICES);
+    }
+
+    /**
+     * Requests all current peers, projected to their address, name and status
+     *
+     * @return a {@link Single} that emits a {@link PeerTable} of the current peers
+     */
+    public Single<PeerTable> requestPeerTable() {
+        return requestPeersList().map(PeerTable.FROM_DEVICE_LIST);
     }
 
     /**
      * Initiates a peer discovery by scanning for available Wi-Fi peers for the purpose of
-     * establishing a connection.
+     * establishing a connection. If the subscriber unsubscribes before the framework has
+     * answered, the discovery is stopped again (see {@link #stopPeerDiscovery()}).
      *
      * @return a {@link Completable} observable that indicates whether the discovery was successful
      * or not
      */
     public Completable discoverPeers() {
-        return Completable.create(new Completable.OnSubscribe() {
-            @Override
-            public void call(final CompletableSubscriber subscriber) {
-                final WifiP2pManager.ActionListener discoverPeersListener =
-                        new WifiP2pManager.ActionListener() {
-                            @Override
-                            public void onSuccess() {
-                                subscriber.onCompleted();
-                            }
-
-                            @Override
-                            public void onFailure(int reasonCode) {
-                                subscriber.onError(
-                                        new RuntimeException("Error: " +
-                                                getErrorString(reasonCode)));
-                            }
-                        };
+        return singleDiscoverPeers().toCompletable();
+    }
 
-                mWifiP2pManager.discoverPeers(mChannel, discoverPeersListener);
-            }
-        });
+    /**
+     * Initiates a peer discovery and retries it according to the given policy when it fails with
+     * a transient error, like {@link WifiP2pManager#BUSY}.
+     *
+     * @param retryPolicy the policy used to retry failed attempts
+     * @return a {@link Completable} observable that indicates whether the discovery was successful
+     * or not
+     * @see #discoverPeers()
+     */
+    public Completable discoverPeers(final RetryPolicy retryPolicy) {
+        return discoverPeers().retryWhen(retryPolicy);
     }
 
     /**
@@ -127,37 +397,61 @@ public class RxWifiP2pManager {
      * {@link Observable} observables.
      *
      * @return a {@link Single} observable that emits a null value for successful discovery, or
-     * throws an error
+     * throws a {@link P2pException}
      */
     public Single<Void> singleDiscoverPeers() {
-        return Single.create(new Single.OnSubscribe<Void>() {
-            @Override
-            public void call(final SingleSubscriber<? super Void> subscriber) {
-                final WifiP2pManager.ActionListener discoverPeersListener =
-                        new WifiP2pManager.ActionListener() {
-                            @Override
-                            public void onSuccess() {
-                                if (!subscriber.isUnsubscribed()) {
-                                    subscriber.onSuccess(null);
-                                }
-                            }
+        return mOperationQueue.enqueue(OPERATION_DISCOVER_PEERS,
+                measure(P2pOperation.DISCOVER_PEERS,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.discoverPeers(mChannel, toActionListener(callback));
+                    }
+                }), mStopPeerDiscovery)
+                .doOnSuccess(new Action1<Void>() {
+                    @Override
+                    public void call(final Void aVoid) {
+                        mDiscoveryStopRequested.set(false);
+                        mConnectionStateMachine.onDiscoveryStarted();
+                    }
+                });
+    }
 
-                            @Override
-                            public void onFailure(int reasonCode) {
-                                subscriber.onError(
-                                        new RuntimeException("Error: " +
-                                                getErrorString(reasonCode)));
-                            }
-                        };
+    /**
+     * Stops an ongoing peer discovery. The framework supports it since API level 16, on older
+     * releases this completes without doing anything and the discovery ends on its own.
+     *
+     * @return a {@link Completable} that completes once the discovery has been stopped
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable stopPeerDiscovery() {
+        if (getSdkLevel() < Build.VERSION_CODES.JELLY_BEAN) {
+            return Completable.complete();
+        }
+        return mOperationQueue.enqueue(OPERATION_STOP_PEER_DISCOVERY,
+                measure(P2pOperation.STOP_PEER_DISCOVERY,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mDiscoveryStopRequested.set(true);
+                        mWifiP2pManager.stopPeerDiscovery(mChannel, toActionListener(callback));
+                    }
+                }))
+                .toCompletable();
+    }
 
-                mWifiP2pManager.discoverPeers(mChannel, discoverPeersListener);
-            }
-        });
+    /**
+     * @return the API level of the framework, which decides the operations that are available
+     */
+    protected int getSdkLevel() {
+        return Build.VERSION.SDK_INT;
     }
 
     /**
      * Initiates a connection request to a peer. After a successful group formation, you might use
-     * {@link RxWifiP2pManager#requestConnectionInfo} to fetch the connection details.
+     * {@link RxWifiP2pManager#requestConnectionInfo} to fetch the connection details. If the
+     * subscriber unsubscribes before the framework has answered, the request is cancelled again
+     * (see {@link #cancelConnect()}).
      *
      * @param config <p>
      *               The configuration for setting up a new Wi-Fi p2p connection.
@@ -166,27 +460,294 @@ public class RxWifiP2pManager {
      * @return a {@link Completable} observable that indicates completion upon successful connection
      */
     public Completable connect(final WifiP2pConfig config) {
-        return Completable.create(new Completable.OnSubscribe() {
-            @Override
-            public void call(final CompletableSubscriber subscriber) {
-                mWifiP2pManager.connect(mChannel, config,
-                        new WifiP2pManager.ActionListener() {
+        return enqueueConnect(config, mCancelConnect);
+    }
 
-                            @Override
-                            public void onSuccess() {
-                                subscriber.onCompleted();
-                            }
+    /**
+     * @param onCancel cancels the request once the framework has accepted it, if the subscriber
+     *                 has unsubscribed in the meantime, or null to let it go on
+     */
+    private Completable enqueueConnect(final WifiP2pConfig config, final Action0 onCancel) {
+        return mOperationQueue.enqueue(null, measure(P2pOperation.CONNECT,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mConnectionStateMachine.onConnecting();
+                        mWifiP2pManager.connect(mChannel, config, toActionListener(callback));
+                    }
+                }), onCancel)
+                .doOnSuccess(new Action1<Void>() {
+                    @Override
+                    public void call(final Void aVoid) {
+                        invalidateConnectionInfo();
+                        recordConnect(config, true);
+                    }
+                })
+                .doOnError(new Action1<Throwable>() {
+                    @Override
+                    public void call(final Throwable throwable) {
+                        mConnectionStateMachine.onConnectFailed();
+                        recordConnect(config, false);
+                    }
+                })
+                .toCompletable();
+    }
 
+    /**
+     * Cancels an ongoing connection request, e.g. one whose peer has not accepted the invitation
+     * yet.
+     *
+     * @return a {@link Completable} that completes once the framework has cancelled the request
+     */
+    public Completable cancelConnect() {
+        return mOperationQueue.enqueue(OPERATION_CANCEL_CONNECT,
+                measure(P2pOperation.CANCEL_CONNECT,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.cancelConnect(mChannel, toActionListener(callback));
+                    }
+                }))
+                .toCompletable()
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        invalidateConnectionInfo();
+                        mConnectionStateMachine.onConnectFailed();
+                    }
+                });
+    }
+
+    /**
+     * Initiates a connection request to a peer and retries it according to the given policy when
+     * it fails with a transient error, like {@link WifiP2pManager#BUSY}.
+     *
+     * @param config      the configuration for setting up a new Wi-Fi p2p connection
+     * @param retryPolicy the policy used to retry failed attempts
+     * @return a {@link Completable} observable that indicates completion upon successful connection
+     * @see #connect(WifiP2pConfig)
+     */
+    public Completable connect(final WifiP2pConfig config, final RetryPolicy retryPolicy) {
+        return connect(config).retryWhen(retryPolicy);
+    }
+
+    /**
+     * Creates a p2p group with this device as the group owner. The group is formed
+     * asynchronously, a {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION} broadcast follows
+     * once it is up.
+     *
+     * @return a {@link Completable} observable that indicates whether the framework accepted the
+     * request
+     */
+    public Completable createGroup() {
+        return mOperationQueue.enqueue(OPERATION_CREATE_GROUP,
+                measure(P2pOperation.CREATE_GROUP,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mConnectionStateMachine.onConnecting();
+                        mWifiP2pManager.createGroup(mChannel, toActionListener(callback));
+                    }
+                }))
+                .doOnSuccess(new Action1<Void>() {
+                    @Override
+                    public void call(final Void aVoid) {
+                        invalidateConnectionInfo();
+                    }
+                })
+                .doOnError(new Action1<Throwable>() {
+                    @Override
+                    public void call(final Throwable throwable) {
+                        mConnectionStateMachine.onConnectFailed();
+                    }
+                })
+                .toCompletable();
+    }
+
+    /**
+     * Invites several peers into a single group with this device as the group owner.
+     *
+     * @see #connectAll(Collection, long, TimeUnit, Scheduler)
+     */
+    public Observable<PeerConnectionResult> connectAll(final Collection<String> deviceAddresses,
+                                                       final long timeout,
+                                                       final TimeUnit unit) {
+        return connectAll(deviceAddresses, timeout, unit, Schedulers.computation());
+    }
+
+    /**
+     * Invites several peers into a single group with this device as the group owner. The group is
+     * created first unless this device already owns one. The invitations are then sent back to
+     * back through {@link #connect(WifiP2pConfig)}, without waiting for the previous peer to join,
+     * and each peer is reported as soon as it shows up in the client list of the group (see
+     * {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION}). An invitation which times out is
+     * not cancelled, as {@link #cancelConnect()} would abort the other invitations as well.
+     *
+     * @param deviceAddresses the addresses of the peers, duplicates are invited once
+     * @param timeout         how long to wait for each peer to join
+     * @param unit            the time unit of timeout
+     * @param scheduler       the scheduler of the timeouts
+     * @return an {@link Observable} that emits one {@link PeerConnectionResult} per peer, in the
+     * order in which they arrive, and completes once all peers are reported. It fails when the
+     * group can not be created or when this device is a client of another group.
+     */
+    public Observable<PeerConnectionResult> connectAll(final Collection<String> deviceAddresses,
+                                                       final long timeout,
+                                                       final TimeUnit unit,
+                                                       final Scheduler scheduler) {
+        return Observable.defer(new Func0<Observable<PeerConnectionResult>>() {
+            @Override
+            public Observable<PeerConnectionResult> call() {
+                final Set<String> addresses = new LinkedHashSet<>(deviceAddresses);
+                return requestOwnedGroup().flatMapObservable(
+                        new Func1<WifiP2pGroup, Observable<PeerConnectionResult>>() {
                             @Override
-                            public void onFailure(int reason) {
-                                subscriber.onError(
-                                        new RuntimeException("Error: " + getErrorString(reason)));
+                            public Observable<PeerConnectionResult> call(
+                                    final WifiP2pGroup group) {
+                                final Observable<WifiP2pGroup> groups = observeOwnedGroup()
+                                        .startWith(group)
+                                        .replay(1)
+                                        .refCount();
+                                return Observable.from(addresses).flatMap(
+                                        new Func1<String, Observable<PeerConnectionResult>>() {
+                                            @Override
+                                            public Observable<PeerConnectionResult> call(
+                                                    final String address) {
+                                                return invite(address, groups, timeout, unit,
+                                                        scheduler);
+                                            }
+                                        });
                             }
                         });
             }
         });
     }
 
+    /**
+     * Reports the peer once it is a client of the group, sending an invitation unless it is one
+     * already
+     */
+    private Observable<PeerConnectionResult> invite(final String address,
+                                                    final Observable<WifiP2pGroup> groups,
+                                                    final long timeout,
+                                                    final TimeUnit unit,
+                                                    final Scheduler scheduler) {
+        final PeerConnectionResult connected =
+                new PeerConnectionResult(address, PeerConnectionResult.Status.CONNECTED, null);
+        return groups
+                .first()
+                .flatMap(new Func1<WifiP2pGroup, Observable<PeerConnectionResult>>() {
+                    @Override
+                    public Observable<PeerConnectionResult> call(final WifiP2pGroup group) {
+                        if (hasClient(group, address)) {
+                            return Observable.just(connected);
+                        }
+
+                        // Cancelling would abort the invitations of the other peers too
+                        final Observable<PeerConnectionResult> rejected =
+                                enqueueConnect(createConfig(address, WpsInfo.PBC), null)
+                                        .<PeerConnectionResult>toObservable()
+                                        .onErrorReturn(
+                                                new Func1<Throwable, PeerConnectionResult>() {
+                                                    @Override
+                                                    public PeerConnectionResult call(
+                                                            final Throwable throwable) {
+                                                        return new PeerConnectionResult(address,
+                                                                PeerConnectionResult.Status.FAILED,
+                                                                throwable);
+                                                    }
+                                                });
+                        final Observable<PeerConnectionResult> joined = groups
+                                .filter(new Func1<WifiP2pGroup, Boolean>() {
+                                    @Override
+                                    public Boolean call(final WifiP2pGroup group) {
+                                        return hasClient(group, address);
+                                    }
+                                })
+                                .map(new Func1<WifiP2pGroup, PeerConnectionResult>() {
+                                    @Override
+                                    public PeerConnectionResult call(final WifiP2pGroup group) {
+                                        return connected;
+                                    }
+                                });
+
+                        return Observable.merge(joined, rejected)
+                                .first()
+                                .timeout(timeout, unit, Observable.just(new PeerConnectionResult(
+                                        address, PeerConnectionResult.Status.TIMED_OUT, null)),
+                                        scheduler);
+                    }
+                });
+    }
+
+    /**
+     * Emits the group owned by this device, creating it first if there is none
+     */
+    private Single<WifiP2pGroup> requestOwnedGroup() {
+        return requestGroupInfo().flatMap(new Func1<WifiP2pGroup, Single<WifiP2pGroup>>() {
+            @Override
+            public Single<WifiP2pGroup> call(final WifiP2pGroup group) {
+                if (group != null && group.isGroupOwner()) {
+                    return Single.just(group);
+                }
+                if (group != null) {
+                    return Single.error(new IllegalStateException(
+                            "This device is a client of another group"));
+                }
+                // Listen before creating the group, so that its broadcast is not missed
+                return Observable
+                        .merge(observeOwnedGroup(),
+                                createGroup().<WifiP2pGroup>toObservable())
+                        .first()
+                        .toSingle();
+            }
+        });
+    }
+
+    /**
+     * Emits the group owned by this device whenever the connection changes. The group is attached
+     * to the broadcast since API level 18, otherwise it is requested from the framework.
+     */
+    private Observable<WifiP2pGroup> observeOwnedGroup() {
+        return mEvents
+                .ofType(P2pEvent.ConnectionChanged.class)
+                .filter(new Func1<P2pEvent.ConnectionChanged, Boolean>() {
+                    @Override
+                    public Boolean call(final P2pEvent.ConnectionChanged event) {
+                        return event.isConnected()
+                                && (event.getWifiP2pInfo() == null
+                                || event.getWifiP2pInfo().isGroupOwner);
+                    }
+                })
+                .concatMap(new Func1<P2pEvent.ConnectionChanged, Observable<WifiP2pGroup>>() {
+                    @Override
+                    public Observable<WifiP2pGroup> call(final P2pEvent.ConnectionChanged event) {
+                        return event.getWifiP2pGroup() != null
+                                ? Observable.just(event.getWifiP2pGroup())
+                                : requestGroupInfoFromFramework().toObservable();
+                    }
+                })
+                .filter(new Func1<WifiP2pGroup, Boolean>() {
+                    @Override
+                    public Boolean call(final WifiP2pGroup group) {
+                        return group != null && group.isGroupOwner();
+                    }
+                });
+    }
+
+    private static boolean hasClient(final WifiP2pGroup group, final String address) {
+        final Collection<WifiP2pDevice> clients = group.getClientList();
+        if (clients == null) {
+            return false;
+        }
+        for (WifiP2pDevice client : clients) {
+            if (client != null && address.equalsIgnoreCase(client.deviceAddress)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Fetches information about the current connection.
      * The connection info {@link WifiP2pInfo} contains the address of the group owner
@@ -194,56 +755,201 @@ public class RxWifiP2pManager {
      * owner. A p2p client can thus communicate with the p2p group owner through a socket
      * connection.
      *
+     * Subscribers that arrive while a request is in flight, or shortly after it has been
+     * delivered, share its result, see {@link #setRequestCoalescingWindow(long, TimeUnit)}.
+     *
      * @return a {@link Single} observable that emits {@link WifiP2pInfo}
      */
     public Single<WifiP2pInfo> requestConnectionInfo() {
-        return Single.defer(new Func0<Single<WifiP2pInfo>>() {
+        return mConnectionInfo.get();
+    }
+
+    /**
+     * Fetches information about the current group, shared like
+     * {@link #requestConnectionInfo()}.
+     *
+     * @return a {@link Single} that emits the {@link WifiP2pGroup}, or null when this device is
+     * not part of a group
+     */
+    public Single<WifiP2pGroup> requestGroupInfo() {
+        return mGroupInfo.get();
+    }
+
+    /**
+     * Observes the clients of the group owned by this device. The current clients are emitted as
+     * {@link PeerChange.Type#ADDED} changes first, followed by the clients that join, leave or
+     * change, as reported by the {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION}
+     * broadcasts. When the group is removed, or this device is only a client, all known clients
+     * are emitted as {@link PeerChange.Type#REMOVED}.
+     *
+     * @return an {@link Observable} that emits {@link PeerChange}s keyed by
+     * {@link WifiP2pDevice#deviceAddress} and never completes
+     */
+    public Observable<PeerChange> observeGroupMembership() {
+        return Observable.defer(new Func0<Observable<PeerChange>>() {
             @Override
-            public Single<WifiP2pInfo> call() {
-                return Single.create(new Single.OnSubscribe<WifiP2pInfo>() {
+            public Observable<PeerChange> call() {
+                final Observable<Single<WifiP2pGroup>> changes = mEvents
+                        .ofType(P2pEvent.ConnectionChanged.class)
+                        .map(new Func1<P2pEvent.ConnectionChanged, Single<WifiP2pGroup>>() {
+                            @Override
+                            public Single<WifiP2pGroup> call(
+                                    final P2pEvent.ConnectionChanged event) {
+                                if (!event.isConnected()) {
+                                    return Single.just(null);
+                                }
+                                // The group is attached to the broadcast since API level 18
+                                return event.getWifiP2pGroup() != null
+                                        ? Single.just(event.getWifiP2pGroup())
+                                        : requestGroupInfoFromFramework();
+                            }
+                        });
+                final PeerListDiffer differ = new PeerListDiffer();
+
+                return Observable
+                        .merge(changes, Observable.just(requestGroupInfo()))
+                        .switchMap(new Func1<Single<WifiP2pGroup>, Observable<WifiP2pGroup>>() {
+                            @Override
+                            public Observable<WifiP2pGroup> call(
+                                    final Single<WifiP2pGroup> request) {
+                                return request.toObservable();
+                            }
+                        })
+                        .flatMapIterable(new Func1<WifiP2pGroup, Iterable<PeerChange>>() {
+                            @Override
+                            public Iterable<PeerChange> call(final WifiP2pGroup group) {
+                                return differ.diff(getClients(group));
+                            }
+                        });
+            }
+        });
+    }
+
+    private static Collection<WifiP2pDevice> getClients(final WifiP2pGroup group) {
+        if (group == null || !group.isGroupOwner() || group.getClientList() == null) {
+            return Collections.emptyList();
+        }
+        return group.getClientList();
+    }
+
+    private Single<WifiP2pInfo> requestConnectionInfoFromFramework() {
+        return mOperationQueue.enqueue(OPERATION_REQUEST_CONNECTION_INFO,
+                measure(P2pOperation.REQUEST_CONNECTION_INFO,
+                new ChannelOperationQueue.Operation<WifiP2pInfo>() {
                     @Override
-                    public void call(final SingleSubscriber<? super WifiP2pInfo> subscriber) {
+                    public void execute(
+                            final ChannelOperationQueue.Callback<WifiP2pInfo> callback) {
                         mWifiP2pManager.requestConnectionInfo(mChannel,
                                 new WifiP2pManager.ConnectionInfoListener() {
                                     @Override
                                     public void onConnectionInfoAvailable(WifiP2pInfo info) {
-                                        if (!subscriber.isUnsubscribed()) {
-                                            subscriber.onSuccess(info);
-                                        }
+                                        callback.onSuccess(info);
                                     }
                                 });
                     }
-                });
-            }
-        });
+                }));
     }
 
     /**
-     * Requests a list with all current nearby p2p devices
+     * Requests a list with all current nearby p2p devices. While the peer cache is enabled (see
+     * {@link #enablePeerCache(long, TimeUnit)}), a fresh enough list is served from memory.
      *
      * @return a {@link Observable} that emits {@link WifiP2pDeviceList}
      */
     public Single<WifiP2pDeviceList> requestPeersList() {
-        return Single.defer(new Func0<Single<WifiP2pDeviceList>>() {
+        return mPeerCache.get(requestPeersListFromFramework());
+    }
+
+    /**
+     * Enables the in-memory peer cache, so that {@link #requestPeersList()} and the methods built
+     * on it skip the round-trip to the framework while the cached list is fresh. The cache is kept
+     * up to date by {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION} broadcasts.
+     *
+     * @param maxStaleness the maximum age of a cached list that is served from memory
+     * @param unit         the time unit of maxStaleness
+     * @return a {@link Subscription} that disables the cache and releases its broadcast receiver
+     * when unsubscribed
+     */
+    public Subscription enablePeerCache(final long maxStaleness, final TimeUnit unit) {
+        return mPeerCache.enable(mEvents, maxStaleness, unit);
+    }
+
+    /**
+     * Records every peer list in the {@link PeerRegistry} (see {@link #getPeerRegistry()}), which
+     * keeps the peers across refreshes. The lists are read from
+     * {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION} broadcasts, or requested from the
+     * framework before API level 18. No discovery is started.
+     *
+     * @return a {@link Subscription} that stops recording and releases the broadcast receiver when
+     * unsubscribed. The recorded peers are kept.
+     */
+    public Subscription enablePeerRegistry() {
+        return mEvents
+                .ofType(P2pEvent.PeersChanged.class)
+                .switchMap(new Func1<P2pEvent.PeersChanged, Observable<WifiP2pDeviceList>>() {
+                    @Override
+                    public Observable<WifiP2pDeviceList> call(final P2pEvent.PeersChanged event) {
+                        // A failed request must not stop the recording, the next broadcast
+                        // will try again
+                        return requestPeersList(event)
+                                .toObservable()
+                                .onErrorResumeNext(Observable.<WifiP2pDeviceList>empty());
+                    }
+                })
+                .subscribe(new Action1<WifiP2pDeviceList>() {
+                    @Override
+                    public void call(final WifiP2pDeviceList peers) {
+                        mPeerRegistry.update(peers);
+                    }
+                });
+    }
+
+    /**
+     * Reads the peers from a {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION} broadcast. The
+     * list is attached to the broadcast since API level 18, otherwise it is requested from the
+     * framework, bypassing the peer cache which may not have received the broadcast yet.
+     */
+    private Single<WifiP2pDeviceList> requestPeersList(final P2pEvent.PeersChanged event) {
+        final WifiP2pDeviceList peers = event.getPeers();
+        return measureLag(event, peers != null
+                ? Single.just(peers).doOnSuccess(mRecordPeers)
+                : requestPeersListFromFramework());
+    }
+
+    private void recordConnect(final WifiP2pConfig config, final boolean succeeded) {
+        final PeerHistory history = mPeerHistory;
+        if (history != null) {
+            history.recordConnect(config.deviceAddress, succeeded);
+        }
+    }
+
+    private Func1<Void, Single<WifiP2pDeviceList>> toPeersListRequest() {
+        return new Func1<Void, Single<WifiP2pDeviceList>>() {
             @Override
-            public Single<WifiP2pDeviceList> call() {
-                return Single.create(new Single.OnSubscribe<WifiP2pDeviceList>() {
+            public Single<WifiP2pDeviceList> call(final Void aVoid) {
+                return requestPeersList();
+            }
+        };
+    }
+
+    private Single<WifiP2pDeviceList> requestPeersListFromFramework() {
+        return mOperationQueue.enqueue(OPERATION_REQUEST_PEERS,
+                measure(P2pOperation.REQUEST_PEERS,
+                new ChannelOperationQueue.Operation<WifiP2pDeviceList>() {
                     @Override
-                    public void call(final SingleSubscriber<? super WifiP2pDeviceList> subscriber) {
-                        WifiP2pManager.PeerListListener listener =
+                    public void execute(
+                            final ChannelOperationQueue.Callback<WifiP2pDeviceList> callback) {
+                        mWifiP2pManager.requestPeers(mChannel,
                                 new WifiP2pManager.PeerListListener() {
                                     @Override
                                     public void onPeersAvailable(WifiP2pDeviceList peers) {
-                                        if (!subscriber.isUnsubscribed()) {
-                                            subscriber.onSuccess(peers);
-                                        }
+                                        // Only fresh lists are recorded, not the cached ones
+                                        mRecordPeers.call(peers);
+                                        callback.onSuccess(peers);
                                     }
-                                };
-                        mWifiP2pManager.requestPeers(mChannel, listener);
+                                });
                     }
-                });
-            }
-        });
+                }));
     }
 
     /**
@@ -252,15 +958,30 @@ public class RxWifiP2pManager {
      * @return a {@link Single} observable that emits a list with all discovered nearby devices
      */
     public Single<WifiP2pDeviceList> discoverAndRequestPeersList() {
+        return discoverAndRequestPeersList(null);
+    }
+
+    /**
+     * Initiates a peer discovery, retried according to the given policy when it fails with a
+     * transient error, and looks for nearby devices.
+     *
+     * @param retryPolicy the policy used to retry failed discovery attempts, or null
+     * @return a {@link Single} observable that emits a list with all discovered nearby devices
+     */
+    public Single<WifiP2pDeviceList> discoverAndRequestPeersList(final RetryPolicy retryPolicy) {
         return Single.defer(new Func0<Single<WifiP2pDeviceList>>() {
             @Override
             public Single<WifiP2pDeviceList> call() {
-                return singleDiscoverPeers()
+                final Single<Void> discoverPeers = retryPolicy == null
+                        ? singleDiscoverPeers()
+                        : singleDiscoverPeers().retryWhen(retryPolicy);
+                return discoverPeers
                         .compose(listenForNewPeersTransformer())
-                        .flatMap(new Func1<Intent, Single<WifiP2pDeviceList>>() {
+                        .flatMap(new Func1<P2pEvent.PeersChanged, Single<WifiP2pDeviceList>>() {
                             @Override
-                            public Single<WifiP2pDeviceList> call(final Intent intent) {
-                                return requestPeersList();
+                            public Single<WifiP2pDeviceList> call(
+                                    final P2pEvent.PeersChanged event) {
+                                return requestPeersList(event);
                             }
                         });
             }
@@ -276,46 +997,120 @@ public class RxWifiP2pManager {
     public Observable<WifiP2pDevice> discoverAndRequestPeers() {
         return discoverAndRequestPeersList()
                 .toObservable()
-                .flatMap(new Func1<WifiP2pDeviceList, Observable<WifiP2pDevice>>() {
+                .flatMapIterable(TO_DEVICES);
+    }
+
+    /**
+     * Initiates a peer discovery and looks for nearby devices.
+     *
+     * @return a {@link Single} that emits a {@link PeerTable} of all discovered nearby devices
+     */
+    public Single<PeerTable> discoverAndRequestPeerTable() {
+        return discoverAndRequestPeersList().map(PeerTable.FROM_DEVICE_LIST);
+    }
+
+    /**
+     * Initiates a peer discovery and keeps it alive until unsubscribed. Instead of the whole
+     * {@link WifiP2pDeviceList}, only the peers that were added, removed or changed since the
+     * previous {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION} broadcast are emitted. The
+     * first emissions describe all peers that are already known.
+     *
+     * All subscribers share one discovery, which is stopped when the last one unsubscribes. It is
+     * restarted whenever the framework reports that it has stopped on its own (see
+     * {@link WifiP2pManager#WIFI_P2P_DISCOVERY_CHANGED_ACTION}, available since API level 16), but
+     * not after a stop requested through this manager, e.g. by {@link #stopPeerDiscovery()} or
+     * at the end of a scan window of a
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.discovery.DiscoveryScheduler}. Unsubscribe
+     * before connecting to a peer.
+     *
+     * @return an {@link Observable} that emits {@link PeerChange}s keyed by
+     * {@link WifiP2pDevice#deviceAddress}
+     */
+    public Observable<PeerChange> discoverPeerChanges() {
+        return Observable.defer(new Func0<Observable<PeerChange>>() {
+            @Override
+            public Observable<PeerChange> call() {
+                // The latest list is replayed, so that a late subscriber starts with all peers
+                return mDiscoveredPeers.flatMapIterable(new PeerListDiffer());
+            }
+        });
+    }
+
+    /**
+     * Runs the discovery shared by {@link #discoverPeerChanges()} and emits the peer list on
+     * every change
+     */
+    private Observable<WifiP2pDeviceList> discoverPeerLists() {
+        final Observable<Single<WifiP2pDeviceList>> refreshes = mEvents
+                .flatMap(new Func1<P2pEvent, Observable<Single<WifiP2pDeviceList>>>() {
                     @Override
-                    public Observable<WifiP2pDevice> call(final WifiP2pDeviceList p2pDeviceList) {
-                        return Observable.from(p2pDeviceList.getDeviceList());
+                    public Observable<Single<WifiP2pDeviceList>> call(final P2pEvent event) {
+                        if (event.getType() == P2pEvent.Type.PEERS_CHANGED) {
+                            return Observable.just(
+                                    requestPeersList((P2pEvent.PeersChanged) event));
+                        }
+                        if (event.getType() == P2pEvent.Type.DISCOVERY_CHANGED
+                                && !((P2pEvent.DiscoveryChanged) event).isStarted()
+                                && !mDiscoveryStopRequested.getAndSet(false)) {
+                            // A failed restart must not terminate the stream, the next stop
+                            // event or a resubscription will try again
+                            return singleDiscoverPeers()
+                                    .toObservable()
+                                    .map(toPeersListRequest())
+                                    .onErrorResumeNext(
+                                            Observable.<Single<WifiP2pDeviceList>>empty());
+                        }
+                        return Observable.empty();
                     }
                 });
+
+        return Observable
+                .merge(refreshes, singleDiscoverPeers().toObservable().map(toPeersListRequest()))
+                .switchMap(new Func1<Single<WifiP2pDeviceList>, Observable<WifiP2pDeviceList>>() {
+                    @Override
+                    public Observable<WifiP2pDeviceList> call(
+                            final Single<WifiP2pDeviceList> request) {
+                        return request.toObservable();
+                    }
+                })
+                .doOnUnsubscribe(mStopPeerDiscovery);
     }
 
     /**
      * Transformer function used internally to transform {@link Single} observable to
-     * {@link Single<Intent>} as it listens for {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION}
-     * broadcast event.
+     * {@link Single<P2pEvent.PeersChanged>} as it listens for
+     * {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION} broadcast event. The discovery is
+     * stopped if the subscriber unsubscribes before the broadcast has arrived.
      *
-     * @return a {@link Single} observable that emits the intent which indicated that p2p peers
+     * @return a {@link Single} observable that emits the event which indicated that p2p peers
      * changed
      */
-    private Single.Transformer<Void, Intent> listenForNewPeersTransformer() {
-        return new Single.Transformer<Void, Intent>() {
+    private Single.Transformer<Void, P2pEvent.PeersChanged> listenForNewPeersTransformer() {
+        return new Single.Transformer<Void, P2pEvent.PeersChanged>() {
             @Override
-            public Single<Intent> call(final Single<Void> voidSingle) {
-                return voidSingle.flatMap(new Func1<Void, Single<Intent>>() {
-                    @Override
-                    public Single<Intent> call(final Void aVoid) {
-                        return mIntentObservableFactory
-                                .create()
-                                .getBroadcastObservable()
-                                .filter(new Func1<Intent, Boolean>() {
+            public Single<P2pEvent.PeersChanged> call(final Single<Void> voidSingle) {
+                return voidSingle.flatMap(new Func1<Void, Single<P2pEvent.PeersChanged>>() {
+                    @Override
+                    public Single<P2pEvent.PeersChanged> call(final Void aVoid) {
+                        final AtomicBoolean received = new AtomicBoolean();
+                        return mEvents
+                                .ofType(P2pEvent.PeersChanged.class)
+                                .take(1) // Sometimes we get two broadcasts, so let's emit only one.
+                                .toSingle()
+                                .doOnSuccess(new Action1<P2pEvent.PeersChanged>() {
                                     @Override
-                                    public Boolean call(Intent intent) {
-                                        if (intent == null) {
-                                            return false;
-                                        }
-                                        // Filter the intents by action as we are interested only in
-                                        // WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION
-                                        return intent.getAction().equals(
-                                                WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION);
+                                    public void call(final P2pEvent.PeersChanged event) {
+                                        received.set(true);
                                     }
                                 })
-                                .take(1) // Sometimes we get two broadcasts, so let's emit only one.
-                                .toSingle();
+                                .doOnUnsubscribe(new Action0() {
+                                    @Override
+                                    public void call() {
+                                        if (!received.get()) {
+                                            mStopPeerDiscovery.call();
+                                        }
+                                    }
+                                });
                     }
                 });
             }
@@ -323,37 +1118,325 @@ public class RxWifiP2pManager {
     }
 
     /**
-     * Removes the group for the current channel {@link WifiP2pManager.Channel}.
+     * Registers a local service, which nearby peers can find through service discovery.
+     * Requires API level 16.
+     *
+     * @param serviceInfo the service, e.g. a
+     *                    {@link android.net.wifi.p2p.nsd.WifiP2pDnsSdServiceInfo}
+     * @return a {@link Completable} that completes once the service has been registered
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable addLocalService(final WifiP2pServiceInfo serviceInfo) {
+        return mOperationQueue.enqueue(null, measure(P2pOperation.ADD_LOCAL_SERVICE,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.addLocalService(mChannel, serviceInfo,
+                                toActionListener(callback));
+                    }
+                }))
+                .toCompletable();
+    }
+
+    /**
+     * Unregisters a service added through {@link #addLocalService(WifiP2pServiceInfo)}.
+     * Requires API level 16.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable removeLocalService(final WifiP2pServiceInfo serviceInfo) {
+        return mOperationQueue.enqueue(null, measure(P2pOperation.REMOVE_LOCAL_SERVICE,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.removeLocalService(mChannel, serviceInfo,
+                                toActionListener(callback));
+                    }
+                }))
+                .toCompletable();
+    }
+
+    /**
+     * Adds a request that the next {@link WifiP2pManager#discoverServices} sends over the air.
+     * {@link #discoverServices()} manages its own request, use this only for other kinds of
+     * services. Requires API level 16.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable addServiceRequest(final WifiP2pServiceRequest request) {
+        return mOperationQueue.enqueue(null, measure(P2pOperation.ADD_SERVICE_REQUEST,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.addServiceRequest(mChannel, request,
+                                toActionListener(callback));
+                    }
+                }))
+                .toCompletable();
+    }
+
+    /**
+     * Removes a request added through {@link #addServiceRequest(WifiP2pServiceRequest)}.
+     * Requires API level 16.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Completable removeServiceRequest(final WifiP2pServiceRequest request) {
+        return mOperationQueue.enqueue(null, measure(P2pOperation.REMOVE_SERVICE_REQUEST,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mWifiP2pManager.removeServiceRequest(mChannel, request,
+                                toActionListener(callback));
+                    }
+                }))
+                .toCompletable();
+    }
+
+    /**
+     * Discovers the DNS-SD (Bonjour) services of all nearby peers.
+     *
+     * @see #discoverServices(WifiP2pDnsSdServiceRequest)
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Observable<DnsSdRecord> discoverServices() {
+        return Observable.defer(new Func0<Observable<DnsSdRecord>>() {
+            @Override
+            public Observable<DnsSdRecord> call() {
+                return discoverServices(WifiP2pDnsSdServiceRequest.newInstance());
+            }
+        });
+    }
+
+    /**
+     * Adds the request, initiates a service discovery and emits the DNS-SD responses as they
+     * arrive. Every TXT record is also stored in the {@link TxtRecordCache}. The request is
+     * removed again when the subscriber unsubscribes. Requires API level 16.
+     *
+     * @param request the services to look for, e.g. a
+     *                {@link WifiP2pDnsSdServiceRequest#newInstance(String)} of a single service
+     *                type, which keeps the responses small
+     * @return an {@link Observable} that emits {@link DnsSdRecord}s and never completes, or fails
+     * with a {@link P2pException} when the discovery can not be initiated
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Observable<DnsSdRecord> discoverServices(final WifiP2pDnsSdServiceRequest request) {
+        return Observable.defer(new Func0<Observable<DnsSdRecord>>() {
+            @Override
+            public Observable<DnsSdRecord> call() {
+                setDnsSdResponseListeners();
+                final Completable discovery = addServiceRequest(request)
+                        .andThen(mOperationQueue.enqueue(OPERATION_DISCOVER_SERVICES,
+                                measure(P2pOperation.DISCOVER_SERVICES,
+                                new ChannelOperationQueue.Operation<Void>() {
+                                    @Override
+                                    public void execute(
+                                            final ChannelOperationQueue.Callback<Void> callback) {
+                                        mWifiP2pManager.discoverServices(mChannel,
+                                                toActionListener(callback));
+                                    }
+                                }))
+                                .toCompletable());
+                return Observable
+                        .merge(mDnsSdRecords, discovery.<DnsSdRecord>toObservable())
+                        .doOnUnsubscribe(new Action0() {
+                            @Override
+                            public void call() {
+                                removeServiceRequest(request).onErrorComplete().subscribe();
+                            }
+                        });
+            }
+        });
+    }
+
+    /**
+     * Looks up the DNS-SD TXT record of a peer. A record that is still fresh in the
+     * {@link TxtRecordCache} is served from memory, otherwise the services are discovered until
+     * the peer responds. Requires API level 16.
+     *
+     * @param deviceAddress the {@link WifiP2pDevice#deviceAddress} of the peer
+     * @return a {@link Single} that emits the latest {@link DnsSdRecord.Type#TXT_RECORD} of the
+     * peer. It waits for the peer indefinitely, so apply a timeout.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public Single<DnsSdRecord> requestTxtRecord(final String deviceAddress) {
+        return Single.defer(new Func0<Single<DnsSdRecord>>() {
+            @Override
+            public Single<DnsSdRecord> call() {
+                final DnsSdRecord cached = mTxtRecordCache.get(deviceAddress);
+                if (cached != null) {
+                    return Single.just(cached);
+                }
+                return discoverServices()
+                        .filter(new Func1<DnsSdRecord, Boolean>() {
+                            @Override
+                            public Boolean call(final DnsSdRecord record) {
+                                return record.getType() == DnsSdRecord.Type.TXT_RECORD
+                                        && deviceAddress.equals(record.getDeviceAddress());
+                            }
+                        })
+                        .first()
+                        .toSingle();
+            }
+        });
+    }
+
+    /**
+     * The framework keeps a single pair of DNS-SD listeners per channel, so they are set once and
+     * their responses are multicast to all service discoveries
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setDnsSdResponseListeners() {
+        if (!mDnsSdListenersSet.compareAndSet(false, true)) {
+            return;
+        }
+        mWifiP2pManager.setDnsSdResponseListeners(mChannel,
+                new WifiP2pManager.DnsSdServiceResponseListener() {
+                    @Override
+                    public void onDnsSdServiceAvailable(String instanceName,
+                                                        String registrationType,
+                                                        WifiP2pDevice srcDevice) {
+                        mDnsSdRecords.onNext(
+                                DnsSdRecord.service(instanceName, registrationType, srcDevice));
+                    }
+                },
+                new WifiP2pManager.DnsSdTxtRecordListener() {
+                    @Override
+                    public void onDnsSdTxtRecordAvailable(String fullDomainName,
+                                                          Map<String, String> txtRecordMap,
+                                                          WifiP2pDevice srcDevice) {
+                        final DnsSdRecord record =
+                                DnsSdRecord.txtRecord(fullDomainName, txtRecordMap, srcDevice);
+                        mTxtRecordCache.put(record);
+                        mDnsSdRecords.onNext(record);
+                    }
+                });
+    }
+
+    /**
+     * Replaces a channel that the framework has disconnected, e.g. because the Wi-Fi service was
+     * restarted. Local services and service requests of the old channel are lost.
+     */
+    private void reinitializeChannel() {
+        mChannel = mWifiP2pManager.initialize(mContext, mLooper, mChannelListener);
+        invalidateConnectionInfo();
+        if (mDnsSdListenersSet.getAndSet(false)) {
+            setDnsSdResponseListeners();
+        }
+        // The result of the operation in flight will never be delivered
+        mOperationQueue.failActive(new P2pChannelDisconnectedException());
+    }
+
+    /**
+     * Removes the group for the current channel {@link WifiP2pManager.Channel}. Only the group
+     * owner removes the group, so when this device is a client or not part of a group, this
+     * completes as soon as the group info is known.
      *
      * @return a {@link Completable} that indicates whether removing the group for the current
      * channel
      * {@link WifiP2pManager.Channel} was successful or not
      */
     public Completable disconnect() {
-        return Completable.create(new Completable.OnSubscribe() {
-            @Override
-            public void call(final CompletableSubscriber subscriber) {
-                mWifiP2pManager.requestGroupInfo(mChannel, new WifiP2pManager.GroupInfoListener() {
+        return requestGroupInfo()
+                .flatMapCompletable(new Func1<WifiP2pGroup, Completable>() {
                     @Override
-                    public void onGroupInfoAvailable(WifiP2pGroup group) {
+                    public Completable call(final WifiP2pGroup group) {
                         if (group != null && group.isGroupOwner()) {
-                            mWifiP2pManager.removeGroup(mChannel, new WifiP2pManager.ActionListener() {
-                                @Override
-                                public void onSuccess() {
-                                    subscriber.onCompleted();
-                                }
-
-                                @Override
-                                public void onFailure(int reason) {
-                                    subscriber.onError(new RuntimeException("Error: " +
-                                            getErrorString(reason)));
-                                }
-                            });
+                            return removeGroup();
                         }
+                        // Only the group owner removes the group, there is nothing to wait for
+                        return Completable.complete();
+                    }
+                });
+    }
+
+    /**
+     * Removes the group for the current channel and retries it according to the given policy when
+     * it fails with a transient error, like {@link WifiP2pManager#BUSY}.
+     *
+     * @param retryPolicy the policy used to retry failed attempts
+     * @return a {@link Completable} that indicates whether removing the group for the current
+     * channel was successful or not
+     * @see #disconnect()
+     */
+    public Completable disconnect(final RetryPolicy retryPolicy) {
+        return disconnect().retryWhen(retryPolicy);
+    }
+
+    private Single<WifiP2pGroup> requestGroupInfoFromFramework() {
+        return mOperationQueue.enqueue(OPERATION_REQUEST_GROUP_INFO,
+                measure(P2pOperation.REQUEST_GROUP_INFO,
+                new ChannelOperationQueue.Operation<WifiP2pGroup>() {
+                    @Override
+                    public void execute(
+                            final ChannelOperationQueue.Callback<WifiP2pGroup> callback) {
+                        mWifiP2pManager.requestGroupInfo(mChannel,
+                                new WifiP2pManager.GroupInfoListener() {
+                                    @Override
+                                    public void onGroupInfoAvailable(WifiP2pGroup group) {
+                                        callback.onSuccess(group);
+                                    }
+                                });
+                    }
+                }));
+    }
+
+    private Completable removeGroup() {
+        return mOperationQueue.enqueue(OPERATION_REMOVE_GROUP,
+                measure(P2pOperation.REMOVE_GROUP,
+                new ChannelOperationQueue.Operation<Void>() {
+                    @Override
+                    public void execute(final ChannelOperationQueue.Callback<Void> callback) {
+                        mConnectionStateMachine.onDisconnecting();
+                        mWifiP2pManager.removeGroup(mChannel, toActionListener(callback));
+                    }
+                }))
+                .toCompletable()
+                .doOnCompleted(new Action0() {
+                    @Override
+                    public void call() {
+                        invalidateConnectionInfo();
+                        mConnectionStateMachine.onDisconnected();
                     }
                 });
+    }
+
+    /**
+     * While a connection or group info is reused, keeps it up to date with the
+     * {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION} broadcasts, which carry both
+     */
+    private <T> Action1<T> watchConnectionChanges() {
+        return new Action1<T>() {
+            @Override
+            public void call(final T result) {
+                final long window = mConnectionInfo.getWindow(TimeUnit.MILLISECONDS);
+                if (window == 0) {
+                    return;
+                }
+                mConnectionChangeWatch.set(mEvents
+                        .ofType(P2pEvent.ConnectionChanged.class)
+                        .takeUntil(Observable.timer(window, TimeUnit.MILLISECONDS))
+                        .subscribe(new Action1<P2pEvent.ConnectionChanged>() {
+                            @Override
+                            public void call(final P2pEvent.ConnectionChanged event) {
+                                if (event.getWifiP2pInfo() != null) {
+                                    mConnectionInfo.update(event.getWifiP2pInfo());
+                                } else {
+                                    mConnectionInfo.invalidate();
+                                }
+                                if (!event.isConnected()) {
+                                    mGroupInfo.update(null);
+                                } else if (event.getWifiP2pGroup() != null) {
+                                    mGroupInfo.update(event.getWifiP2pGroup());
+                                } else {
+                                    mGroupInfo.invalidate();
+                                }
+                            }
+                        }));
             }
-        });
+        };
+    }
+
+    private void invalidateConnectionInfo() {
+        mConnectionInfo.invalidate();
+        mGroupInfo.invalidate();
     }
 
     /**
@@ -380,24 +1463,46 @@ public class RxWifiP2pManager {
     }
 
     /**
-     * Converts the error code, returned when peer discovery fails
-     *
-     * @param errorCode See {@link WifiP2pManager.ActionListener#onFailure(int)}
-     * @return the reason of a failure by given error code as a string
+     * Reports the latency and the outcome of the operation to the current metrics
      */
-    private String getErrorString(int errorCode) {
-        switch (errorCode) {
-            case BUSY:
-                return "Busy";
+    private <T> ChannelOperationQueue.Operation<T> measure(
+            final P2pOperation type,
+            final ChannelOperationQueue.Operation<T> operation) {
+        return MeasuredOperation.measure(mMetrics, type, operation);
+    }
 
-            case ERROR:
-                return "Error";
+    /**
+     * Reports the time between the arrival of the broadcast and the emission of its result
+     */
+    private <T> Single<T> measureLag(final P2pEvent event, final Single<T> result) {
+        final P2pMetrics metrics = mMetrics;
+        if (metrics == P2pMetrics.NONE) {
+            return result;
+        }
+        final long start = System.nanoTime();
+        return result.doOnSuccess(new Action1<T>() {
+            @Override
+            public void call(final T value) {
+                metrics.onBroadcastHandled(event.getType(), System.nanoTime() - start);
+            }
+        });
+    }
 
-            case P2P_UNSUPPORTED:
-                return "P2P Unsupported";
+    /**
+     * Bridges the result of a framework action to a {@link ChannelOperationQueue.Callback}
+     */
+    private static WifiP2pManager.ActionListener toActionListener(
+            final ChannelOperationQueue.Callback<Void> callback) {
+        return new WifiP2pManager.ActionListener() {
+            @Override
+            public void onSuccess() {
+                callback.onSuccess(null);
+            }
 
-            default:
-                return "Unknown (code: " + errorCode + ")";
-        }
+            @Override
+            public void onFailure(int reasonCode) {
+                callback.onError(P2pException.fromReasonCode(reasonCode));
+            }
+        };
     }
 }
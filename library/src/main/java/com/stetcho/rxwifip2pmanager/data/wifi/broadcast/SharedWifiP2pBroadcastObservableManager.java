@@ -0,0 +1,31 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.broadcast;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.stetcho.rxwifip2pmanager.domain.broadcast.BroadcastObservableManager;
+
+import rx.Observable;
+
+/**
+ * This implementation of {@link BroadcastObservableManager} multicasts a single
+ * {@link WifiP2PBroadcastObservableManager} stream to all of its subscribers.
+ *
+ * The underlying broadcast receiver is registered when the first {@link rx.Subscriber} subscribes
+ * and unregistered when the last one unsubscribes. Subscribers joining while the receiver is
+ * already registered will not receive the sticky broadcasts that were delivered upon registration.
+ */
+public class SharedWifiP2pBroadcastObservableManager implements BroadcastObservableManager {
+    private final Observable<Intent> mBroadcastObservable;
+
+    @Override
+    public Observable<Intent> getBroadcastObservable() {
+        return mBroadcastObservable;
+    }
+
+    public SharedWifiP2pBroadcastObservableManager(Context context) {
+        mBroadcastObservable = new WifiP2PBroadcastObservableManager(context)
+                .getBroadcastObservable()
+                .share();
+    }
+}
@@ -0,0 +1,46 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.broadcast.factory;
+
+import android.content.Context;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.broadcast.SharedWifiP2pBroadcastObservableManager;
+import com.stetcho.rxwifip2pmanager.domain.broadcast.BroadcastObservableManager;
+
+/**
+ * This implementation of {@link BroadcastObservableManager.Factory} hands out the same
+ * {@link SharedWifiP2pBroadcastObservableManager} on every {@link #create()} call, so all
+ * subscribers share one ref-counted broadcast receiver instead of registering their own.
+ *
+ * Use {@link #getInstance(Context)} to share the receiver across the whole process.
+ */
+public class SharedWifiP2pBroadcastObservableManagerFactory
+        implements BroadcastObservableManager.Factory {
+    private static SharedWifiP2pBroadcastObservableManagerFactory sInstance;
+
+    private final SharedWifiP2pBroadcastObservableManager mBroadcastObservableManager;
+
+    public SharedWifiP2pBroadcastObservableManagerFactory(final Context context) {
+        mBroadcastObservableManager = new SharedWifiP2pBroadcastObservableManager(context);
+    }
+
+    /**
+     * Returns the process-wide factory. The application context is used, so it is safe to call
+     * this method with an activity context.
+     *
+     * @param context any context of the application
+     * @return the process-wide {@link SharedWifiP2pBroadcastObservableManagerFactory}
+     */
+    public static synchronized SharedWifiP2pBroadcastObservableManagerFactory getInstance(
+            final Context context) {
+        if (sInstance == null) {
+            final Context applicationContext = context.getApplicationContext();
+            sInstance = new SharedWifiP2pBroadcastObservableManagerFactory(
+                    applicationContext != null ? applicationContext : context);
+        }
+        return sInstance;
+    }
+
+    @Override
+    public SharedWifiP2pBroadcastObservableManager create() {
+        return mBroadcastObservableManager;
+    }
+}
@@ -0,0 +1,51 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.connection;
+
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+
+/**
+ * An immutable snapshot of the p2p connection, emitted by {@link ConnectionStateMachine}
+ */
+public class ConnectionState {
+    private final ConnectionStatus mStatus;
+    private final WifiP2pInfo mWifiP2pInfo;
+    private final WifiP2pGroup mWifiP2pGroup;
+
+    public ConnectionState(final ConnectionStatus status,
+                           final WifiP2pInfo wifiP2pInfo,
+                           final WifiP2pGroup wifiP2pGroup) {
+        mStatus = status;
+        mWifiP2pInfo = wifiP2pInfo;
+        mWifiP2pGroup = wifiP2pGroup;
+    }
+
+    public ConnectionStatus getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * @return the connection info of the last connection change, or null if unknown
+     */
+    public WifiP2pInfo getWifiP2pInfo() {
+        return mWifiP2pInfo;
+    }
+
+    /**
+     * @return the group of the last connection change, or null if unknown. The group is
+     * attached to the connection change broadcasts since API level 18.
+     */
+    public WifiP2pGroup getWifiP2pGroup() {
+        return mWifiP2pGroup;
+    }
+
+    public boolean isConnected() {
+        return mStatus.isConnected();
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionState{" +
+                "mStatus=" + mStatus +
+                '}';
+    }
+}
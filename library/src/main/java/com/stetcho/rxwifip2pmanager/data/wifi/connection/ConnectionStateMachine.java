@@ -0,0 +1,339 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.connection;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import rx.Observable;
+import rx.Single;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.subjects.BehaviorSubject;
+
+/**
+ * Tracks the state of the p2p connection (see {@link ConnectionStatus}).
+ *
+ * The state is driven by the {@link WifiP2pManager#WIFI_P2P_STATE_CHANGED_ACTION},
+ * {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION},
+ * {@link WifiP2pManager#WIFI_P2P_DISCOVERY_CHANGED_ACTION} and
+ * {@link WifiP2pManager#WIFI_P2P_THIS_DEVICE_CHANGED_ACTION} broadcasts, which are received while
+ * there is at least one subscriber, and by the operations started through
+ * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager}. Subscribers that arrive while
+ * the state is tracked receive it immediately, and the connection info is requested from the
+ * framework only when no state is known yet. The state is forgotten when the last subscriber
+ * leaves, since no broadcasts are followed anymore, so the next subscriber requests it again.
+ */
+public class ConnectionStateMachine {
+    private final Observable<ConnectionState> mBroadcastDriver;
+    private final Single<WifiP2pInfo> mConnectionInfoRequest;
+    // Guarded by this. The states are emitted outside of the lock, in the order of the moves.
+    private BehaviorSubject<ConnectionState> mStates = BehaviorSubject.create();
+    private final List<ConnectionState> mPendingStates = new ArrayList<>();
+    private boolean mEmitting;
+    private boolean mObserved;
+    private ConnectionState mState;
+
+    /**
+     * @param events                the parsed broadcasts which drive the state, see
+     *                              {@link com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEventParser}
+     * @param connectionInfoRequest requests the connection info from the framework, used when a
+     *                              subscriber arrives and no state is known yet
+     */
+    public ConnectionStateMachine(final Observable<P2pEvent> events,
+                                  final Single<WifiP2pInfo> connectionInfoRequest) {
+        mConnectionInfoRequest = connectionInfoRequest;
+        mBroadcastDriver = events
+                .doOnSubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        onObservationStarted();
+                    }
+                })
+                .doOnNext(new Action1<P2pEvent>() {
+                    @Override
+                    public void call(final P2pEvent event) {
+                        onEvent(event);
+                        emitPendingStates();
+                    }
+                })
+                .doOnUnsubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        onObservationStopped();
+                    }
+                })
+                .ignoreElements()
+                .cast(ConnectionState.class)
+                .share();
+    }
+
+    /**
+     * @return an {@link Observable} that emits the current state upon subscription (if known) and
+     * every change after that. It never completes.
+     */
+    public Observable<ConnectionState> observe() {
+        return Observable.merge(mBroadcastDriver, requestInitialState(),
+                Observable.defer(new Func0<Observable<ConnectionState>>() {
+                    @Override
+                    public Observable<ConnectionState> call() {
+                        return getStates();
+                    }
+                }));
+    }
+
+    /**
+     * @return the current state, or null if it is not known yet or nobody observes it
+     */
+    public synchronized ConnectionState getState() {
+        return mState;
+    }
+
+    /**
+     * Called when a peer discovery was started successfully
+     */
+    public void onDiscoveryStarted() {
+        synchronized (this) {
+            if (getStatus() == ConnectionStatus.IDLE) {
+                moveTo(ConnectionStatus.DISCOVERING);
+            }
+        }
+        emitPendingStates();
+    }
+
+    /**
+     * Called when a connection request is about to be sent
+     */
+    public void onConnecting() {
+        synchronized (this) {
+            final ConnectionStatus status = getStatus();
+            if (status != ConnectionStatus.DISABLED && (status == null || !status.isConnected())) {
+                moveTo(ConnectionStatus.CONNECTING);
+            }
+        }
+        emitPendingStates();
+    }
+
+    /**
+     * Called when a connection request was rejected by the framework or cancelled
+     */
+    public void onConnectFailed() {
+        synchronized (this) {
+            if (getStatus() == ConnectionStatus.CONNECTING) {
+                moveTo(ConnectionStatus.IDLE);
+            }
+        }
+        emitPendingStates();
+    }
+
+    /**
+     * Called when the removal of the group is about to be requested
+     */
+    public void onDisconnecting() {
+        synchronized (this) {
+            final ConnectionStatus status = getStatus();
+            if (status != null && status.isConnected()) {
+                moveTo(ConnectionStatus.DISCONNECTING);
+            }
+        }
+        emitPendingStates();
+    }
+
+    /**
+     * Called when the group was removed, or there was no group to remove
+     */
+    public void onDisconnected() {
+        synchronized (this) {
+            final ConnectionStatus status = getStatus();
+            if (status == ConnectionStatus.DISCONNECTING) {
+                moveTo(ConnectionStatus.IDLE);
+            }
+        }
+        emitPendingStates();
+    }
+
+    private Observable<ConnectionState> requestInitialState() {
+        return Observable.defer(new Func0<Observable<ConnectionState>>() {
+            @Override
+            public Observable<ConnectionState> call() {
+                if (getState() != null) {
+                    return Observable.empty();
+                }
+                return mConnectionInfoRequest
+                        .toObservable()
+                        .doOnNext(new Action1<WifiP2pInfo>() {
+                            @Override
+                            public void call(final WifiP2pInfo info) {
+                                onInitialConnectionInfo(info);
+                                emitPendingStates();
+                            }
+                        })
+                        .ignoreElements()
+                        .cast(ConnectionState.class)
+                        .onErrorResumeNext(Observable.<ConnectionState>empty());
+            }
+        });
+    }
+
+    private synchronized BehaviorSubject<ConnectionState> getStates() {
+        return mStates;
+    }
+
+    private synchronized void onObservationStarted() {
+        mObserved = true;
+    }
+
+    private synchronized void onObservationStopped() {
+        mObserved = false;
+        mState = null;
+        mPendingStates.clear();
+        mStates = BehaviorSubject.create();
+    }
+
+    private synchronized void onInitialConnectionInfo(final WifiP2pInfo info) {
+        // A broadcast may have been faster
+        if (mState != null) {
+            return;
+        }
+        if (info != null && info.groupFormed) {
+            moveTo(info.isGroupOwner
+                    ? ConnectionStatus.CONNECTED_AS_GROUP_OWNER
+                    : ConnectionStatus.CONNECTED_AS_CLIENT, info, null);
+        } else {
+            moveTo(ConnectionStatus.IDLE, info, null);
+        }
+    }
+
+    private synchronized void onEvent(final P2pEvent event) {
+        final ConnectionStatus status = getStatus();
+        switch (event.getType()) {
+            case STATE_CHANGED:
+                if (!((P2pEvent.StateChanged) event).isEnabled()) {
+                    moveTo(ConnectionStatus.DISABLED, null, null);
+                } else if (status == null || status == ConnectionStatus.DISABLED) {
+                    moveTo(ConnectionStatus.IDLE);
+                }
+                break;
+
+            case CONNECTION_CHANGED:
+                onConnectionChanged((P2pEvent.ConnectionChanged) event, status);
+                break;
+
+            case DISCOVERY_CHANGED:
+                final boolean started = ((P2pEvent.DiscoveryChanged) event).isStarted();
+                if (started && status == ConnectionStatus.IDLE) {
+                    moveTo(ConnectionStatus.DISCOVERING);
+                } else if (!started && status == ConnectionStatus.DISCOVERING) {
+                    moveTo(ConnectionStatus.IDLE);
+                }
+                break;
+
+            case THIS_DEVICE_CHANGED:
+                onThisDeviceChanged(((P2pEvent.ThisDeviceChanged) event).getDevice(), status);
+                break;
+        }
+    }
+
+    private void onConnectionChanged(final P2pEvent.ConnectionChanged event,
+                                     final ConnectionStatus status) {
+        final WifiP2pInfo info = event.getWifiP2pInfo();
+        final WifiP2pGroup group = event.getWifiP2pGroup();
+
+        if (event.isConnected()) {
+            final boolean isGroupOwner = info != null
+                    ? info.isGroupOwner
+                    : group != null && group.isGroupOwner();
+            moveTo(isGroupOwner
+                    ? ConnectionStatus.CONNECTED_AS_GROUP_OWNER
+                    : ConnectionStatus.CONNECTED_AS_CLIENT, info, group);
+        } else if (status == null
+                || status.isConnected()
+                || status == ConnectionStatus.DISCONNECTING) {
+            moveTo(ConnectionStatus.IDLE, info, group);
+        }
+        // Otherwise a discovery is running or a group is being negotiated
+    }
+
+    private void onThisDeviceChanged(final WifiP2pDevice device, final ConnectionStatus status) {
+        if (device == null) {
+            return;
+        }
+        if (device.status == WifiP2pDevice.INVITED
+                && (status == ConnectionStatus.IDLE || status == ConnectionStatus.DISCOVERING)) {
+            moveTo(ConnectionStatus.CONNECTING);
+        } else if ((device.status == WifiP2pDevice.AVAILABLE
+                || device.status == WifiP2pDevice.FAILED)
+                && status == ConnectionStatus.CONNECTING) {
+            // The group negotiation failed or was declined
+            moveTo(ConnectionStatus.IDLE);
+        }
+    }
+
+    private ConnectionStatus getStatus() {
+        return mState == null ? null : mState.getStatus();
+    }
+
+    private void moveTo(final ConnectionStatus status) {
+        if (status != getStatus()) {
+            moveTo(status,
+                    mState == null ? null : mState.getWifiP2pInfo(),
+                    mState == null ? null : mState.getWifiP2pGroup());
+        }
+    }
+
+    private void moveTo(final ConnectionStatus status,
+                        final WifiP2pInfo info,
+                        final WifiP2pGroup group) {
+        // Without the broadcasts the state would soon be stale
+        if (!mObserved) {
+            return;
+        }
+        mState = new ConnectionState(status, info, group);
+        mPendingStates.add(mState);
+    }
+
+    /**
+     * Emits the states queued by the moves, unless another thread is emitting already, in which
+     * case that thread emits them after its own
+     */
+    private void emitPendingStates() {
+        synchronized (this) {
+            if (mEmitting) {
+                return;
+            }
+            mEmitting = true;
+        }
+        boolean drained = false;
+        try {
+            while (true) {
+                final List<ConnectionState> states;
+                final BehaviorSubject<ConnectionState> subject;
+                synchronized (this) {
+                    if (mPendingStates.isEmpty()) {
+                        mEmitting = false;
+                        drained = true;
+                        return;
+                    }
+                    states = new ArrayList<>(mPendingStates);
+                    mPendingStates.clear();
+                    subject = mStates;
+                }
+                for (ConnectionState state : states) {
+                    subject.onNext(state);
+                }
+            }
+        } finally {
+            if (!drained) {
+                synchronized (this) {
+                    mEmitting = false;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.connection;
+
+/**
+ * The states of the p2p connection state machine, see {@link ConnectionStateMachine}
+ */
+public enum ConnectionStatus {
+    /**
+     * Wi-Fi p2p is disabled
+     */
+    DISABLED,
+    /**
+     * Wi-Fi p2p is enabled, but there is neither an ongoing discovery nor a connection
+     */
+    IDLE,
+    /**
+     * A peer discovery is running
+     */
+    DISCOVERING,
+    /**
+     * A connection request was sent and the group is being formed
+     */
+    CONNECTING,
+    /**
+     * Connected, and this device is the owner of the group
+     */
+    CONNECTED_AS_GROUP_OWNER,
+    /**
+     * Connected, and this device is a client of the group
+     */
+    CONNECTED_AS_CLIENT,
+    /**
+     * The group is being removed
+     */
+    DISCONNECTING;
+
+    /**
+     * @return true if this device is a member of a p2p group
+     */
+    public boolean isConnected() {
+        return this == CONNECTED_AS_GROUP_OWNER || this == CONNECTED_AS_CLIENT;
+    }
+}
@@ -0,0 +1,66 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.connection;
+
+/**
+ * The outcome of inviting a single peer into this device's group, see
+ * {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager#connectAll}
+ */
+public class PeerConnectionResult {
+    /**
+     * The kind of a {@link PeerConnectionResult}
+     */
+    public enum Status {
+        /**
+         * The peer has joined the group
+         */
+        CONNECTED,
+        /**
+         * The framework rejected the invitation, see {@link #getError()}
+         */
+        FAILED,
+        /**
+         * The peer did not join the group in time
+         */
+        TIMED_OUT
+    }
+
+    private final String mDeviceAddress;
+    private final Status mStatus;
+    private final Throwable mError;
+
+    public PeerConnectionResult(final String deviceAddress,
+                                final Status status,
+                                final Throwable error) {
+        mDeviceAddress = deviceAddress;
+        mStatus = status;
+        mError = error;
+    }
+
+    public String getDeviceAddress() {
+        return mDeviceAddress;
+    }
+
+    public Status getStatus() {
+        return mStatus;
+    }
+
+    public boolean isConnected() {
+        return mStatus == Status.CONNECTED;
+    }
+
+    /**
+     * @return the reason of a {@link Status#FAILED} result, usually a
+     * {@link com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pException}, otherwise null
+     */
+    public Throwable getError() {
+        return mError;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerConnectionResult{" +
+                "mDeviceAddress='" + mDeviceAddress + '\'' +
+                ", mStatus=" + mStatus +
+                ", mError=" + mError +
+                '}';
+    }
+}
@@ -0,0 +1,244 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.discovery;
+
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pException;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerListDiffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Completable;
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Owns the peer discovery of a {@link RxWifiP2pManager} and runs it in duty cycles: a scan
+ * window, during which the discovery is active and the peer lists are requested, followed by a
+ * pause with the discovery stopped.
+ *
+ * The pause adapts to the peers. It is reset to the minimum interval whenever a scan finds peers
+ * that were added, removed or changed since the previous one, and grows by the multiplier up to
+ * the maximum interval while the peers stay the same.
+ *
+ * All subscribers of {@link #observePeers()} share the same cycles, so there is at most one
+ * discovery in flight no matter how many parts of the app are interested in the peers. The
+ * cycles stop when the last subscriber unsubscribes.
+ *
+ * Use {@link Builder} to create a scheduler. By default a scan lasts 10 s and the pause grows
+ * from 15 s to 5 min, doubling every time.
+ */
+public class DiscoveryScheduler {
+    private final RxWifiP2pManager mManager;
+    private final long mScanDurationMillis;
+    private final long mMinIntervalMillis;
+    private final long mMaxIntervalMillis;
+    private final double mMultiplier;
+    private final Scheduler mScheduler;
+    private final Observable<WifiP2pDeviceList> mPeers;
+
+    private volatile long mIntervalMillis;
+
+    private DiscoveryScheduler(final Builder builder) {
+        mManager = builder.mManager;
+        mScanDurationMillis = builder.mScanDurationMillis;
+        mMinIntervalMillis = builder.mMinIntervalMillis;
+        mMaxIntervalMillis = Math.max(builder.mMaxIntervalMillis, builder.mMinIntervalMillis);
+        mMultiplier = builder.mMultiplier;
+        mScheduler = builder.mScheduler;
+        mIntervalMillis = mMinIntervalMillis;
+        mPeers = Observable.defer(new Func0<Observable<WifiP2pDeviceList>>() {
+            @Override
+            public Observable<WifiP2pDeviceList> call() {
+                return cycles();
+            }
+        }).replay(1).refCount();
+    }
+
+    /**
+     * @return an {@link Observable} that emits the peer lists found by the scans, and replays the
+     * latest one to new subscribers. It fails only when the discovery fails with an error that is
+     * not transient, see {@link P2pException#isTransient()}.
+     */
+    public Observable<WifiP2pDeviceList> observePeers() {
+        return mPeers;
+    }
+
+    /**
+     * @return the pause that follows the current or the last scan
+     */
+    public long getInterval(final TimeUnit unit) {
+        return unit.convert(mIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private Observable<WifiP2pDeviceList> cycles() {
+        final PeerListDiffer differ = new PeerListDiffer();
+        final boolean[] churned = new boolean[1];
+        mIntervalMillis = mMinIntervalMillis;
+
+        return Observable.defer(new Func0<Observable<WifiP2pDeviceList>>() {
+            @Override
+            public Observable<WifiP2pDeviceList> call() {
+                churned[0] = false;
+                return scan().doOnNext(new Action1<WifiP2pDeviceList>() {
+                    @Override
+                    public void call(final WifiP2pDeviceList peers) {
+                        if (!differ.diff(peers.getDeviceList()).isEmpty()) {
+                            churned[0] = true;
+                        }
+                    }
+                });
+            }
+        }).repeatWhen(new Func1<Observable<? extends Void>, Observable<?>>() {
+            @Override
+            public Observable<?> call(final Observable<? extends Void> scans) {
+                return scans.flatMap(new Func1<Void, Observable<Long>>() {
+                    @Override
+                    public Observable<Long> call(final Void scan) {
+                        mIntervalMillis = churned[0]
+                                ? mMinIntervalMillis
+                                : Math.min(mMaxIntervalMillis,
+                                Math.round(mIntervalMillis * mMultiplier));
+                        return Observable.timer(mIntervalMillis, TimeUnit.MILLISECONDS,
+                                mScheduler);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Starts the discovery, requests the peers on every change until the scan window closes and
+     * stops the discovery. The discovery is also stopped when the last subscriber leaves while
+     * the window is open.
+     */
+    private Observable<WifiP2pDeviceList> scan() {
+        final AtomicBoolean discovering = new AtomicBoolean();
+        return mManager.singleDiscoverPeers()
+                .doOnSuccess(new Action1<Void>() {
+                    @Override
+                    public void call(final Void aVoid) {
+                        discovering.set(true);
+                    }
+                })
+                .toObservable()
+                .flatMap(new Func1<Void, Observable<WifiP2pDeviceList>>() {
+                    @Override
+                    public Observable<WifiP2pDeviceList> call(final Void aVoid) {
+                        return mManager.observeEvents()
+                                .ofType(P2pEvent.PeersChanged.class)
+                                .concatMap(new Func1<P2pEvent.PeersChanged,
+                                        Observable<WifiP2pDeviceList>>() {
+                                    @Override
+                                    public Observable<WifiP2pDeviceList> call(
+                                            final P2pEvent.PeersChanged event) {
+                                        return mManager.requestPeersList().toObservable();
+                                    }
+                                });
+                    }
+                })
+                .takeUntil(Observable.timer(mScanDurationMillis, TimeUnit.MILLISECONDS,
+                        mScheduler))
+                .onErrorResumeNext(new Func1<Throwable, Observable<WifiP2pDeviceList>>() {
+                    @Override
+                    public Observable<WifiP2pDeviceList> call(final Throwable error) {
+                        // A busy framework is not a reason to give up, the next cycle retries
+                        return error instanceof P2pException && ((P2pException) error).isTransient()
+                                ? Observable.<WifiP2pDeviceList>empty()
+                                : Observable.<WifiP2pDeviceList>error(error);
+                    }
+                })
+                .concatWith(Completable.defer(new Func0<Completable>() {
+                    @Override
+                    public Completable call() {
+                        discovering.set(false);
+                        return mManager.stopPeerDiscovery().onErrorComplete();
+                    }
+                }).<WifiP2pDeviceList>toObservable())
+                .doOnUnsubscribe(new Action0() {
+                    @Override
+                    public void call() {
+                        if (discovering.getAndSet(false)) {
+                            mManager.stopPeerDiscovery().onErrorComplete().subscribe();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Builder for {@link DiscoveryScheduler}
+     */
+    public static class Builder {
+        private final RxWifiP2pManager mManager;
+        private long mScanDurationMillis = 10000;
+        private long mMinIntervalMillis = 15000;
+        private long mMaxIntervalMillis = 300000;
+        private double mMultiplier = 2;
+        private Scheduler mScheduler = Schedulers.computation();
+
+        /**
+         * @param manager the manager whose discovery is scheduled
+         */
+        public Builder(final RxWifiP2pManager manager) {
+            mManager = manager;
+        }
+
+        /**
+         * @param duration how long the discovery stays active in every cycle
+         * @param unit     the time unit of the duration
+         */
+        public Builder scanDuration(final long duration, final TimeUnit unit) {
+            mScanDurationMillis = unit.toMillis(duration);
+            return this;
+        }
+
+        /**
+         * @param interval the pause after a scan that found changed peers
+         * @param unit     the time unit of the interval
+         */
+        public Builder minInterval(final long interval, final TimeUnit unit) {
+            mMinIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * @param interval the upper bound of the pause while the peers do not change
+         * @param unit     the time unit of the interval
+         */
+        public Builder maxInterval(final long interval, final TimeUnit unit) {
+            mMaxIntervalMillis = unit.toMillis(interval);
+            return this;
+        }
+
+        /**
+         * @param multiplier the factor by which the pause grows after every scan that found the
+         *                   same peers
+         */
+        public Builder multiplier(final double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("multiplier < 1: " + multiplier);
+            }
+            mMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param scheduler the scheduler on which the scan windows and the pauses are timed
+         */
+        public Builder scheduler(final Scheduler scheduler) {
+            mScheduler = scheduler;
+            return this;
+        }
+
+        public DiscoveryScheduler build() {
+            return new DiscoveryScheduler(this);
+        }
+    }
+}
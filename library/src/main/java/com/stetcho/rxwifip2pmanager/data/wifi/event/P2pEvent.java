@@ -0,0 +1,167 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.event;
+
+import android.net.NetworkInfo;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+/**
+ * A Wi-Fi p2p broadcast, parsed by {@link P2pEventParser}. Dispatch on {@link #getType()} and cast
+ * to the matching subclass to read the extras of the broadcast.
+ *
+ * Events without extras (or with primitive extras only) are shared instances, so they must not be
+ * compared by identity to tell two broadcasts apart.
+ */
+public abstract class P2pEvent {
+    /**
+     * The type of a {@link P2pEvent}, one per broadcast action
+     */
+    public enum Type {
+        /**
+         * {@link WifiP2pManager#WIFI_P2P_STATE_CHANGED_ACTION}, see {@link StateChanged}
+         */
+        STATE_CHANGED,
+        /**
+         * {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION}, see {@link PeersChanged}
+         */
+        PEERS_CHANGED,
+        /**
+         * {@link WifiP2pManager#WIFI_P2P_CONNECTION_CHANGED_ACTION}, see {@link ConnectionChanged}
+         */
+        CONNECTION_CHANGED,
+        /**
+         * {@link WifiP2pManager#WIFI_P2P_THIS_DEVICE_CHANGED_ACTION}, see {@link ThisDeviceChanged}
+         */
+        THIS_DEVICE_CHANGED,
+        /**
+         * {@link WifiP2pManager#WIFI_P2P_DISCOVERY_CHANGED_ACTION}, see {@link DiscoveryChanged}
+         */
+        DISCOVERY_CHANGED
+    }
+
+    private final Type mType;
+
+    P2pEvent(final Type type) {
+        mType = type;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * Wi-Fi p2p has been enabled or disabled
+     */
+    public static final class StateChanged extends P2pEvent {
+        static final StateChanged ENABLED = new StateChanged(true);
+        static final StateChanged DISABLED = new StateChanged(false);
+
+        private final boolean mEnabled;
+
+        private StateChanged(final boolean enabled) {
+            super(Type.STATE_CHANGED);
+            mEnabled = enabled;
+        }
+
+        public boolean isEnabled() {
+            return mEnabled;
+        }
+    }
+
+    /**
+     * The list with available peers has changed
+     */
+    public static final class PeersChanged extends P2pEvent {
+        static final PeersChanged WITHOUT_PEERS = new PeersChanged(null);
+
+        private final WifiP2pDeviceList mPeers;
+
+        PeersChanged(final WifiP2pDeviceList peers) {
+            super(Type.PEERS_CHANGED);
+            mPeers = peers;
+        }
+
+        /**
+         * @return the new list with peers, or null if it was not attached to the broadcast
+         * (before API level 18)
+         */
+        public WifiP2pDeviceList getPeers() {
+            return mPeers;
+        }
+    }
+
+    /**
+     * The state of the Wi-Fi p2p connectivity has changed
+     */
+    public static final class ConnectionChanged extends P2pEvent {
+        private final WifiP2pInfo mWifiP2pInfo;
+        private final NetworkInfo mNetworkInfo;
+        private final WifiP2pGroup mWifiP2pGroup;
+
+        ConnectionChanged(final WifiP2pInfo wifiP2pInfo,
+                          final NetworkInfo networkInfo,
+                          final WifiP2pGroup wifiP2pGroup) {
+            super(Type.CONNECTION_CHANGED);
+            mWifiP2pInfo = wifiP2pInfo;
+            mNetworkInfo = networkInfo;
+            mWifiP2pGroup = wifiP2pGroup;
+        }
+
+        public WifiP2pInfo getWifiP2pInfo() {
+            return mWifiP2pInfo;
+        }
+
+        public NetworkInfo getNetworkInfo() {
+            return mNetworkInfo;
+        }
+
+        /**
+         * @return the group, or null if it was not attached to the broadcast (before API
+         * level 18)
+         */
+        public WifiP2pGroup getWifiP2pGroup() {
+            return mWifiP2pGroup;
+        }
+
+        public boolean isConnected() {
+            return mNetworkInfo != null && mNetworkInfo.isConnected();
+        }
+    }
+
+    /**
+     * The details of this device have changed
+     */
+    public static final class ThisDeviceChanged extends P2pEvent {
+        private final WifiP2pDevice mDevice;
+
+        ThisDeviceChanged(final WifiP2pDevice device) {
+            super(Type.THIS_DEVICE_CHANGED);
+            mDevice = device;
+        }
+
+        public WifiP2pDevice getDevice() {
+            return mDevice;
+        }
+    }
+
+    /**
+     * A peer discovery has started or stopped
+     */
+    public static final class DiscoveryChanged extends P2pEvent {
+        static final DiscoveryChanged STARTED = new DiscoveryChanged(true);
+        static final DiscoveryChanged STOPPED = new DiscoveryChanged(false);
+
+        private final boolean mStarted;
+
+        private DiscoveryChanged(final boolean started) {
+            super(Type.DISCOVERY_CHANGED);
+            mStarted = started;
+        }
+
+        public boolean isStarted() {
+            return mStarted;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.event;
+
+import android.content.Intent;
+import android.net.NetworkInfo;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import rx.Observable;
+import rx.functions.Func1;
+
+/**
+ * Implementation of {@link Observable#map(Func1)} that parses a Wi-Fi p2p broadcast
+ * {@link Intent} into a {@link P2pEvent}. Broadcasts with an unknown action are mapped to null.
+ */
+public class P2pEventParser implements Func1<Intent, P2pEvent> {
+    private static final P2pEventParser INSTANCE = new P2pEventParser();
+
+    private static final Func1<P2pEvent, Boolean> IS_NOT_NULL = new Func1<P2pEvent, Boolean>() {
+        @Override
+        public Boolean call(final P2pEvent event) {
+            return event != null;
+        }
+    };
+
+    /**
+     * Parses the broadcasts once, no matter how many subscribers there are.
+     *
+     * @param intents the broadcasts, see
+     *                {@link com.stetcho.rxwifip2pmanager.domain.broadcast.BroadcastObservableManager}
+     * @return a shared {@link Observable} that emits a {@link P2pEvent} for each known broadcast
+     */
+    public static Observable<P2pEvent> parse(final Observable<Intent> intents) {
+        return intents
+                .map(INSTANCE)
+                .filter(IS_NOT_NULL)
+                .share();
+    }
+
+    @Override
+    public P2pEvent call(final Intent intent) {
+        final String action = intent == null ? null : intent.getAction();
+        if (action == null) {
+            return null;
+        }
+
+        switch (action) {
+            case WifiP2pManager.WIFI_P2P_STATE_CHANGED_ACTION:
+                return intent.getIntExtra(WifiP2pManager.EXTRA_WIFI_STATE,
+                        WifiP2pManager.WIFI_P2P_STATE_DISABLED)
+                        == WifiP2pManager.WIFI_P2P_STATE_ENABLED
+                        ? P2pEvent.StateChanged.ENABLED
+                        : P2pEvent.StateChanged.DISABLED;
+
+            case WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION:
+                final WifiP2pDeviceList peers =
+                        intent.getParcelableExtra(WifiP2pManager.EXTRA_P2P_DEVICE_LIST);
+                return peers == null
+                        ? P2pEvent.PeersChanged.WITHOUT_PEERS
+                        : new P2pEvent.PeersChanged(peers);
+
+            case WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION:
+                return new P2pEvent.ConnectionChanged(
+                        intent.<WifiP2pInfo>getParcelableExtra(
+                                WifiP2pManager.EXTRA_WIFI_P2P_INFO),
+                        intent.<NetworkInfo>getParcelableExtra(
+                                WifiP2pManager.EXTRA_NETWORK_INFO),
+                        intent.<WifiP2pGroup>getParcelableExtra(
+                                WifiP2pManager.EXTRA_WIFI_P2P_GROUP));
+
+            case WifiP2pManager.WIFI_P2P_THIS_DEVICE_CHANGED_ACTION:
+                return new P2pEvent.ThisDeviceChanged(intent.<WifiP2pDevice>getParcelableExtra(
+                        WifiP2pManager.EXTRA_WIFI_P2P_DEVICE));
+
+            case WifiP2pManager.WIFI_P2P_DISCOVERY_CHANGED_ACTION:
+                return intent.getIntExtra(WifiP2pManager.EXTRA_DISCOVERY_STATE,
+                        WifiP2pManager.WIFI_P2P_DISCOVERY_STOPPED)
+                        == WifiP2pManager.WIFI_P2P_DISCOVERY_STARTED
+                        ? P2pEvent.DiscoveryChanged.STARTED
+                        : P2pEvent.DiscoveryChanged.STOPPED;
+
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.exception;
+
+import android.net.wifi.p2p.WifiP2pManager;
+
+/**
+ * Thrown when the framework is busy and unable to service the request.
+ *
+ * @see WifiP2pManager#BUSY
+ */
+public class P2pBusyException extends P2pException {
+    private static final long serialVersionUID = 1L;
+
+    public P2pBusyException() {
+        super(WifiP2pManager.BUSY, "Busy");
+    }
+
+    @Override
+    public boolean isTransient() {
+        return true;
+    }
+}
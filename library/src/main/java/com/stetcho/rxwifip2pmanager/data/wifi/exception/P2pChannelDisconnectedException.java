@@ -0,0 +1,22 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.exception;
+
+import android.net.wifi.p2p.WifiP2pManager;
+
+/**
+ * Thrown when the channel of an operation in flight was disconnected from the framework, so the
+ * result of the operation will never be delivered. The channel is initialized again right away.
+ *
+ * @see WifiP2pManager.ChannelListener#onChannelDisconnected()
+ */
+public class P2pChannelDisconnectedException extends P2pException {
+    private static final long serialVersionUID = 1L;
+
+    public P2pChannelDisconnectedException() {
+        super(WifiP2pManager.ERROR, "Channel disconnected");
+    }
+
+    @Override
+    public boolean isTransient() {
+        return true;
+    }
+}
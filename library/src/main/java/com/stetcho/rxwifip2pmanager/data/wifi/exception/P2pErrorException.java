@@ -0,0 +1,21 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.exception;
+
+import android.net.wifi.p2p.WifiP2pManager;
+
+/**
+ * Thrown when an operation fails due to an internal error.
+ *
+ * @see WifiP2pManager#ERROR
+ */
+public class P2pErrorException extends P2pException {
+    private static final long serialVersionUID = 1L;
+
+    public P2pErrorException() {
+        super(WifiP2pManager.ERROR, "Error");
+    }
+
+    @Override
+    public boolean isTransient() {
+        return true;
+    }
+}
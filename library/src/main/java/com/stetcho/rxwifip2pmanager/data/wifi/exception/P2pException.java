@@ -0,0 +1,69 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.exception;
+
+import android.net.wifi.p2p.WifiP2pManager;
+
+import static android.net.wifi.p2p.WifiP2pManager.BUSY;
+import static android.net.wifi.p2p.WifiP2pManager.ERROR;
+import static android.net.wifi.p2p.WifiP2pManager.NO_SERVICE_REQUESTS;
+import static android.net.wifi.p2p.WifiP2pManager.P2P_UNSUPPORTED;
+
+/**
+ * Thrown when a {@link WifiP2pManager} operation fails. Carries the reason code that was passed
+ * to {@link WifiP2pManager.ActionListener#onFailure(int)}, and there is a subclass for each of
+ * the known reason codes.
+ */
+public class P2pException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int mReasonCode;
+
+    public P2pException(final int reasonCode) {
+        this(reasonCode, "Unknown (code: " + reasonCode + ")");
+    }
+
+    protected P2pException(final int reasonCode, final String reason) {
+        super("Error: " + reason);
+        mReasonCode = reasonCode;
+    }
+
+    /**
+     * Creates the exception matching the given reason code
+     *
+     * @param reasonCode See {@link WifiP2pManager.ActionListener#onFailure(int)}
+     * @return a subclass of {@link P2pException} for known reason codes, or a
+     * {@link P2pException} otherwise
+     */
+    public static P2pException fromReasonCode(final int reasonCode) {
+        switch (reasonCode) {
+            case BUSY:
+                return new P2pBusyException();
+
+            case ERROR:
+                return new P2pErrorException();
+
+            case P2P_UNSUPPORTED:
+                return new P2pUnsupportedException();
+
+            case NO_SERVICE_REQUESTS:
+                return new P2pNoServiceRequestsException();
+
+            default:
+                return new P2pException(reasonCode);
+        }
+    }
+
+    /**
+     * @return the reason code of the failure, see
+     * {@link WifiP2pManager.ActionListener#onFailure(int)}
+     */
+    public int getReasonCode() {
+        return mReasonCode;
+    }
+
+    /**
+     * @return true if the operation may succeed when it is tried again later
+     */
+    public boolean isTransient() {
+        return false;
+    }
+}
@@ -0,0 +1,16 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.exception;
+
+import android.net.wifi.p2p.WifiP2pManager;
+
+/**
+ * Thrown when a service discovery fails because no service requests were added.
+ *
+ * @see WifiP2pManager#NO_SERVICE_REQUESTS
+ */
+public class P2pNoServiceRequestsException extends P2pException {
+    private static final long serialVersionUID = 1L;
+
+    public P2pNoServiceRequestsException() {
+        super(WifiP2pManager.NO_SERVICE_REQUESTS, "No service requests");
+    }
+}
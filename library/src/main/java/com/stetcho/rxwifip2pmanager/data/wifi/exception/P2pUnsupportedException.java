@@ -0,0 +1,16 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.exception;
+
+import android.net.wifi.p2p.WifiP2pManager;
+
+/**
+ * Thrown when an operation fails because p2p is unsupported on the device.
+ *
+ * @see WifiP2pManager#P2P_UNSUPPORTED
+ */
+public class P2pUnsupportedException extends P2pException {
+    private static final long serialVersionUID = 1L;
+
+    public P2pUnsupportedException() {
+        super(WifiP2pManager.P2P_UNSUPPORTED, "P2P Unsupported");
+    }
+}
@@ -0,0 +1,128 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.metrics;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the latency of every operation and the lag of every handled broadcast into a
+ * {@link LatencyHistogram}, and counts successes and failures by reason code. Successes and
+ * failures are kept in separate histograms, so that a slow failure does not skew the latency of
+ * the calls that succeeded. All storage is allocated upfront, so recording does not allocate.
+ */
+public class HistogramP2pMetrics implements P2pMetrics {
+    private static final P2pOperation[] OPERATIONS = P2pOperation.values();
+    private static final P2pEvent.Type[] EVENT_TYPES = P2pEvent.Type.values();
+
+    /*
+     * Failure slots per operation: REASON_UNKNOWN followed by the framework's reason codes
+     */
+    private static final int REASON_SLOTS = 5;
+
+    private final LatencyHistogram[] mLatencies = new LatencyHistogram[OPERATIONS.length];
+    private final LatencyHistogram[] mFailureLatencies = new LatencyHistogram[OPERATIONS.length];
+    private final LatencyHistogram[] mBroadcastLags = new LatencyHistogram[EVENT_TYPES.length];
+    private final AtomicLongArray mSuccesses = new AtomicLongArray(OPERATIONS.length);
+    private final AtomicLongArray mFailures =
+            new AtomicLongArray(OPERATIONS.length * REASON_SLOTS);
+
+    public HistogramP2pMetrics() {
+        for (int i = 0; i < mLatencies.length; i++) {
+            mLatencies[i] = new LatencyHistogram();
+            mFailureLatencies[i] = new LatencyHistogram();
+        }
+        for (int i = 0; i < mBroadcastLags.length; i++) {
+            mBroadcastLags[i] = new LatencyHistogram();
+        }
+    }
+
+    @Override
+    public void onOperationSucceeded(final P2pOperation operation, final long latencyNanos) {
+        mLatencies[operation.ordinal()].record(latencyNanos);
+        mSuccesses.incrementAndGet(operation.ordinal());
+    }
+
+    @Override
+    public void onOperationFailed(final P2pOperation operation,
+                                  final long latencyNanos,
+                                  final int reasonCode) {
+        mFailureLatencies[operation.ordinal()].record(latencyNanos);
+        mFailures.incrementAndGet(getFailureIndex(operation, reasonCode));
+    }
+
+    @Override
+    public void onBroadcastHandled(final P2pEvent.Type type, final long lagNanos) {
+        mBroadcastLags[type.ordinal()].record(lagNanos);
+    }
+
+    /**
+     * @return the latencies of the successful calls, in nanoseconds
+     */
+    public LatencyHistogram getLatency(final P2pOperation operation) {
+        return mLatencies[operation.ordinal()];
+    }
+
+    /**
+     * @return the latencies of the failed calls, regardless of their reason code, in nanoseconds
+     */
+    public LatencyHistogram getFailureLatency(final P2pOperation operation) {
+        return mFailureLatencies[operation.ordinal()];
+    }
+
+    /**
+     * @return the lag between the arrival of a broadcast and the emission of its result, in
+     * nanoseconds
+     */
+    public LatencyHistogram getBroadcastLag(final P2pEvent.Type type) {
+        return mBroadcastLags[type.ordinal()];
+    }
+
+    public long getSuccessCount(final P2pOperation operation) {
+        return mSuccesses.get(operation.ordinal());
+    }
+
+    /**
+     * @param reasonCode the reason code reported by the framework, see
+     *                   {@link P2pMetrics#onOperationFailed(P2pOperation, long, int)}
+     */
+    public long getFailureCount(final P2pOperation operation, final int reasonCode) {
+        return mFailures.get(getFailureIndex(operation, reasonCode));
+    }
+
+    /**
+     * @return the number of failures, regardless of their reason code
+     */
+    public long getFailureCount(final P2pOperation operation) {
+        long count = 0;
+        for (int i = 0; i < REASON_SLOTS; i++) {
+            count += mFailures.get(operation.ordinal() * REASON_SLOTS + i);
+        }
+        return count;
+    }
+
+    /**
+     * Clears all histograms and counters
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : mLatencies) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : mFailureLatencies) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : mBroadcastLags) {
+            histogram.reset();
+        }
+        for (int i = 0; i < mSuccesses.length(); i++) {
+            mSuccesses.set(i, 0);
+        }
+        for (int i = 0; i < mFailures.length(); i++) {
+            mFailures.set(i, 0);
+        }
+    }
+
+    private static int getFailureIndex(final P2pOperation operation, final int reasonCode) {
+        final int slot = reasonCode >= 0 && reasonCode < REASON_SLOTS - 1 ? reasonCode + 1 : 0;
+        return operation.ordinal() * REASON_SLOTS + slot;
+    }
+}
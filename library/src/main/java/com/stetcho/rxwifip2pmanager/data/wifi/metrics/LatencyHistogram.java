@@ -0,0 +1,119 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram with a fixed set of log-linear buckets, like HdrHistogram with one significant
+ * digit: every power of two is split into 8 buckets, so a recorded value is reported with an
+ * error of at most 12.5%. Values up to 7 are exact and values above {@link #MAX_VALUE} are
+ * clamped.
+ *
+ * Recording does not allocate and does not lock, so it is safe to call it from any thread. The
+ * getters read the buckets one by one, so they may miss values which are recorded concurrently.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 42;
+
+    /**
+     * The highest value that can be recorded, about 146 minutes in nanoseconds
+     */
+    public static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKET_COUNT =
+            SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param value the value to record, negative values are recorded as 0
+     */
+    public void record(final long value) {
+        final long clamped = value < 0 ? 0 : value > MAX_VALUE ? MAX_VALUE : value;
+        mBuckets.incrementAndGet(getBucketIndex(clamped));
+        mCount.incrementAndGet();
+        mSum.addAndGet(clamped);
+
+        long max = mMax.get();
+        while (clamped > max && !mMax.compareAndSet(max, clamped)) {
+            max = mMax.get();
+        }
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * @return the highest recorded value, or 0 if nothing has been recorded
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        final long count = mCount.get();
+        return count == 0 ? 0 : (double) mSum.get() / count;
+    }
+
+    /**
+     * @param percentile a percentile between 0 and 100
+     * @return the highest value of the bucket which holds the given percentile, but not more
+     * than {@link #getMax()}, or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Clears all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    static int getBucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long getHighestValue(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        final int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        final long lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
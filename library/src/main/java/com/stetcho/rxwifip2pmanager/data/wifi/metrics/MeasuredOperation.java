@@ -0,0 +1,59 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.metrics;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pException;
+import com.stetcho.rxwifip2pmanager.data.wifi.operation.ChannelOperationQueue;
+
+/**
+ * Reports the latency and the outcome of a {@link ChannelOperationQueue.Operation} to
+ * {@link P2pMetrics}. The latency is measured from the framework call to its result, so the time
+ * spent waiting in the queue is not included.
+ *
+ * @param <T> the type of the result
+ */
+public class MeasuredOperation<T> implements ChannelOperationQueue.Operation<T> {
+    private final P2pMetrics mMetrics;
+    private final P2pOperation mType;
+    private final ChannelOperationQueue.Operation<T> mOperation;
+
+    private MeasuredOperation(final P2pMetrics metrics,
+                              final P2pOperation type,
+                              final ChannelOperationQueue.Operation<T> operation) {
+        mMetrics = metrics;
+        mType = type;
+        mOperation = operation;
+    }
+
+    /**
+     * @return the operation itself when the metrics are {@link P2pMetrics#NONE}, so that there is
+     * no overhead, otherwise a measured operation
+     */
+    public static <T> ChannelOperationQueue.Operation<T> measure(
+            final P2pMetrics metrics,
+            final P2pOperation type,
+            final ChannelOperationQueue.Operation<T> operation) {
+        return metrics == P2pMetrics.NONE
+                ? operation
+                : new MeasuredOperation<>(metrics, type, operation);
+    }
+
+    @Override
+    public void execute(final ChannelOperationQueue.Callback<T> callback) {
+        final long start = System.nanoTime();
+        mOperation.execute(new ChannelOperationQueue.Callback<T>() {
+            @Override
+            public void onSuccess(final T value) {
+                mMetrics.onOperationSucceeded(mType, System.nanoTime() - start);
+                callback.onSuccess(value);
+            }
+
+            @Override
+            public void onError(final Throwable error) {
+                mMetrics.onOperationFailed(mType, System.nanoTime() - start,
+                        error instanceof P2pException
+                                ? ((P2pException) error).getReasonCode()
+                                : P2pMetrics.REASON_UNKNOWN);
+                callback.onError(error);
+            }
+        });
+    }
+}
@@ -0,0 +1,61 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.metrics;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+
+/**
+ * Receives measurements from {@link com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager}.
+ * The methods are called on the thread which delivered the result, usually the main thread, so
+ * implementations must be fast and must not block.
+ *
+ * @see HistogramP2pMetrics
+ */
+public interface P2pMetrics {
+    /**
+     * The reason code of a failure which was not reported by the framework, like an exception
+     * thrown by the {@link android.net.wifi.p2p.WifiP2pManager}
+     */
+    int REASON_UNKNOWN = -1;
+
+    /**
+     * Records nothing. Operations are not measured at all while it is in use.
+     */
+    P2pMetrics NONE = new P2pMetrics() {
+        @Override
+        public void onOperationSucceeded(final P2pOperation operation, final long latencyNanos) {
+        }
+
+        @Override
+        public void onOperationFailed(final P2pOperation operation,
+                                      final long latencyNanos,
+                                      final int reasonCode) {
+        }
+
+        @Override
+        public void onBroadcastHandled(final P2pEvent.Type type, final long lagNanos) {
+        }
+    };
+
+    /**
+     * @param operation    the framework call
+     * @param latencyNanos the time between the call and its result
+     */
+    void onOperationSucceeded(P2pOperation operation, long latencyNanos);
+
+    /**
+     * @param operation    the framework call
+     * @param latencyNanos the time between the call and its failure
+     * @param reasonCode   one of {@link android.net.wifi.p2p.WifiP2pManager#ERROR},
+     *                     {@link android.net.wifi.p2p.WifiP2pManager#P2P_UNSUPPORTED},
+     *                     {@link android.net.wifi.p2p.WifiP2pManager#BUSY},
+     *                     {@link android.net.wifi.p2p.WifiP2pManager#NO_SERVICE_REQUESTS}
+     *                     or {@link #REASON_UNKNOWN}
+     */
+    void onOperationFailed(P2pOperation operation, long latencyNanos, int reasonCode);
+
+    /**
+     * @param type     the type of the broadcast
+     * @param lagNanos the time between the arrival of the broadcast and the emission of the
+     *                 result it triggered, including any framework call in between
+     */
+    void onBroadcastHandled(P2pEvent.Type type, long lagNanos);
+}
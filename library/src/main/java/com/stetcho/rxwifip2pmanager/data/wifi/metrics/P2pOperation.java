@@ -0,0 +1,21 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.metrics;
+
+/**
+ * The framework calls which are measured by {@link P2pMetrics}
+ */
+public enum P2pOperation {
+    DISCOVER_PEERS,
+    STOP_PEER_DISCOVERY,
+    CONNECT,
+    CANCEL_CONNECT,
+    CREATE_GROUP,
+    REQUEST_PEERS,
+    REQUEST_CONNECTION_INFO,
+    REQUEST_GROUP_INFO,
+    REMOVE_GROUP,
+    ADD_LOCAL_SERVICE,
+    REMOVE_LOCAL_SERVICE,
+    ADD_SERVICE_REQUEST,
+    REMOVE_SERVICE_REQUEST,
+    DISCOVER_SERVICES
+}
@@ -0,0 +1,324 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.operation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import rx.Single;
+import rx.SingleSubscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * Serializes the operations on a single {@link android.net.wifi.p2p.WifiP2pManager.Channel}.
+ *
+ * The framework rejects an operation with {@link android.net.wifi.p2p.WifiP2pManager#BUSY} when
+ * it overlaps with another one, so only one operation is in flight at a time and the next one is
+ * executed as soon as the previous one has delivered its result. Operations enqueued with the
+ * same non-null key while an equal operation is queued or in flight are coalesced: all of their
+ * subscribers share the result of a single framework call.
+ *
+ * A framework call cannot be recalled once it has been made. When all subscribers of an operation
+ * in flight unsubscribe, its optional cancel action is invoked instead, which undoes the effect of
+ * the call, e.g. by stopping a discovery. The queue still waits for the result, which is then
+ * dropped, so that the next operation does not fail with
+ * {@link android.net.wifi.p2p.WifiP2pManager#BUSY}.
+ */
+public class ChannelOperationQueue {
+    /**
+     * A single call into the framework
+     *
+     * @param <T> the type of the result
+     */
+    public interface Operation<T> {
+        /**
+         * Executes the operation. Exactly one of the callback's methods must be invoked once the
+         * framework has delivered the result, otherwise the queue will stall.
+         */
+        void execute(Callback<T> callback);
+    }
+
+    /**
+     * Receives the result of an {@link Operation}
+     *
+     * @param <T> the type of the result
+     */
+    public interface Callback<T> {
+        void onSuccess(T value);
+
+        void onError(Throwable error);
+    }
+
+    private class Entry<T> implements Callback<T> {
+        private final Object mKey;
+        private final Operation<T> mOperation;
+        private final Action0 mOnCancel;
+        private final List<Callback<? super T>> mSubscribers = new ArrayList<>(1);
+        private boolean mStarted;
+        private boolean mFinished;
+
+        Entry(final Object key, final Operation<T> operation, final Action0 onCancel) {
+            mKey = key;
+            mOperation = operation;
+            mOnCancel = onCancel;
+        }
+
+        void execute() {
+            try {
+                mOperation.execute(this);
+            } catch (RuntimeException e) {
+                onError(e);
+            }
+        }
+
+        @Override
+        public void onSuccess(final T value) {
+            final List<Callback<? super T>> subscribers = new ArrayList<>(1);
+            final Entry<?> next = finish(this, subscribers);
+            try {
+                for (Callback<? super T> subscriber : subscribers) {
+                    subscriber.onSuccess(value);
+                }
+            } finally {
+                executeNext(next);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+            final List<Callback<? super T>> subscribers = new ArrayList<>(1);
+            final Entry<?> next = finish(this, subscribers);
+            try {
+                for (Callback<? super T> subscriber : subscribers) {
+                    subscriber.onError(error);
+                }
+            } finally {
+                executeNext(next);
+            }
+        }
+    }
+
+    /**
+     * Delivers the result to an RxJava 1 subscriber unless it has unsubscribed meanwhile
+     */
+    private static class SubscriberCallback<T> implements Callback<T> {
+        private final SingleSubscriber<? super T> mSubscriber;
+
+        SubscriberCallback(final SingleSubscriber<? super T> subscriber) {
+            mSubscriber = subscriber;
+        }
+
+        @Override
+        public void onSuccess(final T value) {
+            if (!mSubscriber.isUnsubscribed()) {
+                mSubscriber.onSuccess(value);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+            if (!mSubscriber.isUnsubscribed()) {
+                mSubscriber.onError(error);
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Deque<Entry<?>> mPending = new ArrayDeque<>();
+    private final Map<Object, Entry<?>> mEntriesByKey = new HashMap<>();
+    private Entry<?> mActive;
+
+    /**
+     * Creates a {@link Single} that enqueues the operation upon subscription.
+     *
+     * @param key       operations with equal non-null keys are coalesced, pass {@code null} for
+     *                  operations which must always be executed on their own
+     * @param operation the framework call
+     * @param <T>       the type of the result
+     * @return a {@link Single} that emits the result of the operation
+     */
+    public <T> Single<T> enqueue(final Object key, final Operation<T> operation) {
+        return enqueue(key, operation, null);
+    }
+
+    /**
+     * Creates a {@link Single} that enqueues the operation upon subscription, like
+     * {@link #enqueue(Object, Operation)}.
+     *
+     * @param key       see {@link #enqueue(Object, Operation)}
+     * @param operation the framework call
+     * @param onCancel  invoked when the last subscriber unsubscribes while the operation is in
+     *                  flight, or null if its effect cannot be undone
+     * @param <T>       the type of the result
+     * @return a {@link Single} that emits the result of the operation
+     */
+    public <T> Single<T> enqueue(final Object key,
+                                 final Operation<T> operation,
+                                 final Action0 onCancel) {
+        return Single.create(new Single.OnSubscribe<T>() {
+            @Override
+            public void call(final SingleSubscriber<? super T> subscriber) {
+                subscriber.add(Subscriptions.create(submit(key, operation, onCancel,
+                        new SubscriberCallback<T>(subscriber))));
+            }
+        });
+    }
+
+    /**
+     * Enqueues the operation right away, without an RxJava 1 {@link Single} in between, which is
+     * what the adapters for other reactive libraries build on. The callback is invoked at most
+     * once, and not at all after it has been withdrawn.
+     *
+     * @param key       see {@link #enqueue(Object, Operation)}
+     * @param operation the framework call
+     * @param callback  receives the result of the operation
+     * @param <T>       the type of the result
+     * @return an action that withdraws the callback, and drops the operation if it has not been
+     * started yet and no other callback is waiting for it
+     */
+    public <T> Action0 submit(final Object key,
+                              final Operation<T> operation,
+                              final Callback<? super T> callback) {
+        return submit(key, operation, null, callback);
+    }
+
+    /**
+     * Enqueues the operation right away, like {@link #submit(Object, Operation, Callback)}.
+     *
+     * @param key       see {@link #enqueue(Object, Operation)}
+     * @param operation the framework call
+     * @param onCancel  see {@link #enqueue(Object, Operation, Action0)}
+     * @param callback  receives the result of the operation
+     * @param <T>       the type of the result
+     * @return an action that withdraws the callback, and drops or cancels the operation if no
+     * other callback is waiting for it
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Action0 submit(final Object key,
+                              final Operation<T> operation,
+                              final Action0 onCancel,
+                              final Callback<? super T> callback) {
+        final Entry<T> entry;
+        final boolean execute;
+        synchronized (mLock) {
+            final Entry<T> existing = key == null ? null : (Entry<T>) mEntriesByKey.get(key);
+            if (existing != null) {
+                entry = existing;
+            } else {
+                entry = new Entry<>(key, operation, onCancel);
+                if (key != null) {
+                    mEntriesByKey.put(key, entry);
+                }
+                mPending.add(entry);
+            }
+            entry.mSubscribers.add(callback);
+            execute = mActive == null && existing == null;
+            if (execute) {
+                mActive = mPending.poll();
+                mActive.mStarted = true;
+            }
+        }
+
+        if (execute) {
+            entry.execute();
+        }
+        return new Action0() {
+            @Override
+            public void call() {
+                remove(entry, callback);
+            }
+        };
+    }
+
+    /**
+     * @return the number of operations that have not delivered their result yet, including the
+     * one in flight. Coalesced operations are counted once.
+     */
+    public int getQueueDepth() {
+        synchronized (mLock) {
+            return mPending.size() + (mActive == null ? 0 : 1);
+        }
+    }
+
+    /**
+     * Fails the operation in flight, whose result will never be delivered, e.g. because its
+     * channel was disconnected. The next operation is executed afterwards.
+     *
+     * @param error the error delivered to the subscribers of the operation
+     */
+    public void failActive(final Throwable error) {
+        final Entry<?> active;
+        synchronized (mLock) {
+            active = mActive;
+        }
+        if (active != null) {
+            active.onError(error);
+        }
+    }
+
+    /**
+     * Drops an operation that has not been started yet once it has no subscribers left, or
+     * cancels it if it is in flight. A cancelled operation is no longer joined by new subscribers.
+     */
+    private <T> void remove(final Entry<T> entry, final Callback<? super T> callback) {
+        final boolean cancel;
+        synchronized (mLock) {
+            if (!entry.mSubscribers.remove(callback)
+                    || !entry.mSubscribers.isEmpty()
+                    || entry.mFinished) {
+                return;
+            }
+            removeKey(entry);
+            if (!entry.mStarted) {
+                entry.mFinished = true;
+                mPending.remove(entry);
+            }
+            cancel = entry.mStarted && entry.mOnCancel != null;
+        }
+
+        if (cancel) {
+            entry.mOnCancel.call();
+        }
+    }
+
+    /**
+     * Marks the entry as finished, collects the subscribers to be notified and returns the next
+     * operation to be executed (if any)
+     */
+    private <T> Entry<?> finish(final Entry<T> entry,
+                                final List<Callback<? super T>> subscribers) {
+        synchronized (mLock) {
+            if (entry.mFinished) {
+                // The framework delivered a result more than once
+                return null;
+            }
+            entry.mFinished = true;
+            removeKey(entry);
+            subscribers.addAll(entry.mSubscribers);
+            entry.mSubscribers.clear();
+            if (mActive != entry) {
+                return null;
+            }
+            mActive = mPending.poll();
+            if (mActive != null) {
+                mActive.mStarted = true;
+            }
+            return mActive;
+        }
+    }
+
+    private static void executeNext(final Entry<?> next) {
+        if (next != null) {
+            next.execute();
+        }
+    }
+
+    private void removeKey(final Entry<?> entry) {
+        if (entry.mKey != null && mEntriesByKey.get(entry.mKey) == entry) {
+            mEntriesByKey.remove(entry.mKey);
+        }
+    }
+}
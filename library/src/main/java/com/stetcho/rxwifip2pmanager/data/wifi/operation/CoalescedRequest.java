@@ -0,0 +1,127 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.operation;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.Single;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * Reuses the result of a framework request for a short window after it has been delivered.
+ *
+ * Concurrent subscribers already share one in-flight call through the
+ * {@link ChannelOperationQueue}; this extends the sharing to the subscribers that arrive shortly
+ * after, which is what happens when several components ask for the same information in response
+ * to one event. The result can be replaced through {@link #update(Object)} or dropped through
+ * {@link #invalidate()} as soon as it is known to have changed.
+ *
+ * @param <T> the type of the result
+ */
+public class CoalescedRequest<T> {
+    private final Single<T> mRequest;
+    private final Scheduler mClock;
+
+    private long mWindowMillis;
+    private boolean mHasValue;
+    private T mValue;
+    private long mDeliveredAtMillis;
+    private long mVersion;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param request the framework request
+     * @param window  how long a delivered result is reused, 0 disables the reuse
+     * @param unit    the time unit of window
+     * @param clock   the scheduler whose {@link Scheduler#now()} is used to tell the age of a
+     *                result
+     */
+    public CoalescedRequest(final Single<T> request,
+                            final long window,
+                            final TimeUnit unit,
+                            final Scheduler clock) {
+        mRequest = request;
+        mWindowMillis = unit.toMillis(window);
+        mClock = clock;
+    }
+
+    /**
+     * @return a {@link Single} that emits the result delivered within the window, or the one of a
+     * new request
+     */
+    public Single<T> get() {
+        return Single.defer(new Func0<Single<T>>() {
+            @Override
+            public Single<T> call() {
+                final long version;
+                synchronized (CoalescedRequest.this) {
+                    if (mHasValue && mClock.now() - mDeliveredAtMillis < mWindowMillis) {
+                        mHitCount++;
+                        return Single.just(mValue);
+                    }
+                    mMissCount++;
+                    version = mVersion;
+                }
+                return mRequest.doOnSuccess(new Action1<T>() {
+                    @Override
+                    public void call(final T value) {
+                        synchronized (CoalescedRequest.this) {
+                            // Drop the result if it changed while it was requested
+                            if (version == mVersion) {
+                                set(value);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public synchronized void setWindow(final long window, final TimeUnit unit) {
+        mWindowMillis = unit.toMillis(window);
+    }
+
+    public synchronized long getWindow(final TimeUnit unit) {
+        return unit.convert(mWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the result with a newer one for the rest of the window of the delivered result.
+     * The window is not extended, as whatever keeps the result up to date is bound to it.
+     */
+    public synchronized void update(final T value) {
+        mVersion++;
+        mHasValue = true;
+        mValue = value;
+    }
+
+    /**
+     * Forgets the result, so that the next subscriber triggers a new request
+     */
+    public synchronized void invalidate() {
+        mVersion++;
+        mHasValue = false;
+        mValue = null;
+    }
+
+    /**
+     * @return the number of subscribers served with a reused result
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of subscribers that needed a new request
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    private void set(final T value) {
+        mHasValue = true;
+        mValue = value;
+        mDeliveredAtMillis = mClock.now();
+    }
+}
@@ -0,0 +1,168 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.Single;
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.functions.Action1;
+import rx.functions.Func0;
+import rx.subscriptions.CompositeSubscription;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * In-memory cache of the latest {@link WifiP2pDeviceList}.
+ *
+ * While enabled, the cache listens for {@link WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION}
+ * broadcasts. Broadcasts carrying {@link WifiP2pManager#EXTRA_P2P_DEVICE_LIST} (API level 18+)
+ * refresh the cached list, while those without it invalidate the cache. Reads are served from
+ * memory as long as the cached list is not older than the configured max staleness, otherwise
+ * they are delegated to the framework and the result is cached.
+ */
+public class PeerCache {
+    private final Scheduler mClock;
+
+    private long mMaxStalenessMillis;
+    private int mEnabledCount;
+    private WifiP2pDeviceList mPeers;
+    private long mUpdatedAtMillis;
+    private long mVersion;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param clock the scheduler whose {@link Scheduler#now()} is used to tell the age of the
+     *              cached list
+     */
+    public PeerCache(final Scheduler clock) {
+        mClock = clock;
+    }
+
+    /**
+     * Starts caching peers and listening for peer changes. The cache stays enabled until all
+     * subscriptions returned by this method are unsubscribed, the last max staleness wins.
+     *
+     * @param events       the parsed broadcasts, see
+     *                     {@link com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEventParser}
+     * @param maxStaleness the maximum age of a list that is served from memory
+     * @param unit         the time unit of maxStaleness
+     * @return a {@link Subscription}, which disables the cache and stops listening for broadcasts
+     * when unsubscribed
+     */
+    public Subscription enable(final Observable<P2pEvent> events,
+                               final long maxStaleness,
+                               final TimeUnit unit) {
+        synchronized (this) {
+            mMaxStalenessMillis = unit.toMillis(maxStaleness);
+            mEnabledCount++;
+        }
+
+        final CompositeSubscription subscription = new CompositeSubscription();
+        subscription.add(events.subscribe(new Action1<P2pEvent>() {
+            @Override
+            public void call(final P2pEvent event) {
+                if (event.getType() == P2pEvent.Type.PEERS_CHANGED) {
+                    onPeersChanged((P2pEvent.PeersChanged) event);
+                }
+            }
+        }));
+        subscription.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                disable();
+            }
+        }));
+        return subscription;
+    }
+
+    /**
+     * Wraps a request to the framework, so that it is executed only when the cached list is
+     * missing or too old.
+     *
+     * @param request the request that fetches the peers from the framework
+     * @return a {@link Single} that emits the cached list, or the one returned by the request
+     */
+    public Single<WifiP2pDeviceList> get(final Single<WifiP2pDeviceList> request) {
+        return Single.defer(new Func0<Single<WifiP2pDeviceList>>() {
+            @Override
+            public Single<WifiP2pDeviceList> call() {
+                final long version;
+                synchronized (PeerCache.this) {
+                    if (mEnabledCount == 0) {
+                        return request;
+                    }
+                    if (mPeers != null
+                            && mClock.now() - mUpdatedAtMillis <= mMaxStalenessMillis) {
+                        mHitCount++;
+                        return Single.just(mPeers);
+                    }
+                    mMissCount++;
+                    version = mVersion;
+                }
+                return request.doOnSuccess(new Action1<WifiP2pDeviceList>() {
+                    @Override
+                    public void call(final WifiP2pDeviceList peers) {
+                        synchronized (PeerCache.this) {
+                            // Drop the result if the peers changed while it was requested
+                            if (mEnabledCount > 0 && version == mVersion) {
+                                update(peers);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Forgets the cached list, so that the next read is delegated to the framework
+     */
+    public synchronized void invalidate() {
+        mPeers = null;
+        mVersion++;
+    }
+
+    /**
+     * @return the number of reads served from memory
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of reads delegated to the framework while the cache was enabled
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized boolean isEnabled() {
+        return mEnabledCount > 0;
+    }
+
+    private synchronized void disable() {
+        if (--mEnabledCount == 0) {
+            invalidate();
+        }
+    }
+
+    private synchronized void onPeersChanged(final P2pEvent.PeersChanged event) {
+        final WifiP2pDeviceList peers = event.getPeers();
+        invalidate();
+        if (peers != null) {
+            update(peers);
+        }
+    }
+
+    private void update(final WifiP2pDeviceList peers) {
+        mPeers = peers;
+        mUpdatedAtMillis = mClock.now();
+    }
+}
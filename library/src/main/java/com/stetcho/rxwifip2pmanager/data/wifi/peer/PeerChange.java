@@ -0,0 +1,58 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+
+/**
+ * Describes a single change in the list of nearby p2p peers, keyed by
+ * {@link WifiP2pDevice#deviceAddress}.
+ */
+public class PeerChange {
+    /**
+     * The kind of a {@link PeerChange}
+     */
+    public enum Type {
+        /**
+         * The peer was not known before
+         */
+        ADDED,
+        /**
+         * The peer is known, but some of its properties (name, status, etc.) have changed
+         */
+        CHANGED,
+        /**
+         * The peer is no longer present in the list with peers
+         */
+        REMOVED
+    }
+
+    private final Type mType;
+    private final WifiP2pDevice mDevice;
+
+    public PeerChange(final Type type, final WifiP2pDevice device) {
+        mType = type;
+        mDevice = device;
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * @return the current device, or the last known one for {@link Type#REMOVED} changes
+     */
+    public WifiP2pDevice getDevice() {
+        return mDevice;
+    }
+
+    public String getDeviceAddress() {
+        return mDevice.deviceAddress;
+    }
+
+    @Override
+    public String toString() {
+        return "PeerChange{" +
+                "mType=" + mType +
+                ", mDeviceAddress='" + mDevice.deviceAddress + '\'' +
+                '}';
+    }
+}
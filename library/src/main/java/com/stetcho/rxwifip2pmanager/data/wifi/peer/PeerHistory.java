@@ -0,0 +1,504 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+import rx.Single;
+import rx.SingleSubscriber;
+import rx.functions.Action0;
+
+/**
+ * An on-disk history of the peers seen so far and of the connections to them, so that known
+ * peers can be shown right away while a new discovery is running.
+ *
+ * The history is an append-only binary log: every peer list and every connection attempt adds a
+ * few small records, which are replayed when the history is loaded. A peer which was seen again
+ * within {@link #SEEN_RESOLUTION_MILLIS} under the same name is not written again. Once the log
+ * holds several times more records than there are peers, it is compacted into a single record
+ * per peer. A torn record at the end of the log, e.g. after a crash, is dropped.
+ *
+ * The log is read on the first call and all file operations are executed one after the other on
+ * a worker of the given scheduler, e.g. {@link rx.schedulers.Schedulers#io()}, so none of the
+ * methods block.
+ */
+public class PeerHistory implements Closeable {
+    /**
+     * The resolution of the last-seen times which are written to the log
+     */
+    public static final long SEEN_RESOLUTION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MAGIC = 0x50325048; // "P2PH"
+    private static final int VERSION = 1;
+    private static final int RECORD_SEEN = 1;
+    private static final int RECORD_CONNECT = 2;
+    private static final int RECORD_CONNECT_STATS = 3;
+    private static final int MIN_RECORDS_BEFORE_COMPACTION = 64;
+    private static final int COMPACTION_FACTOR = 4;
+
+    private static final Comparator<Peer> MOST_RECENTLY_SEEN_FIRST = new Comparator<Peer>() {
+        @Override
+        public int compare(final Peer first, final Peer second) {
+            return first.mLastSeenMillis > second.mLastSeenMillis ? -1
+                    : first.mLastSeenMillis < second.mLastSeenMillis ? 1 : 0;
+        }
+    };
+
+    /**
+     * What is known about a single peer
+     */
+    public static final class Peer {
+        private final String mDeviceAddress;
+        private final String mDeviceName;
+        private final long mLastSeenMillis;
+        private final long mLastConnectedMillis;
+        private final int mConnectSuccesses;
+        private final int mConnectFailures;
+
+        Peer(final String deviceAddress,
+             final String deviceName,
+             final long lastSeenMillis,
+             final long lastConnectedMillis,
+             final int connectSuccesses,
+             final int connectFailures) {
+            mDeviceAddress = deviceAddress;
+            mDeviceName = deviceName;
+            mLastSeenMillis = lastSeenMillis;
+            mLastConnectedMillis = lastConnectedMillis;
+            mConnectSuccesses = connectSuccesses;
+            mConnectFailures = connectFailures;
+        }
+
+        public String getDeviceAddress() {
+            return mDeviceAddress;
+        }
+
+        public String getDeviceName() {
+            return mDeviceName;
+        }
+
+        /**
+         * @return the time the peer was last listed, according to the clock of the history
+         */
+        public long getLastSeenMillis() {
+            return mLastSeenMillis;
+        }
+
+        /**
+         * @return the time of the last successful connection request, or 0 if there was none
+         */
+        public long getLastConnectedMillis() {
+            return mLastConnectedMillis;
+        }
+
+        public int getConnectSuccesses() {
+            return mConnectSuccesses;
+        }
+
+        public int getConnectFailures() {
+            return mConnectFailures;
+        }
+
+        @Override
+        public String toString() {
+            return "Peer{" + mDeviceAddress + ", '" + mDeviceName + "', seen " + mLastSeenMillis
+                    + ", connected " + mConnectSuccesses + "/"
+                    + (mConnectSuccesses + mConnectFailures) + "}";
+        }
+    }
+
+    /**
+     * The mutable state of a peer, only accessed on the worker
+     */
+    private static final class Record {
+        final long mAddress;
+        String mName;
+        long mLastSeenMillis;
+        long mWrittenSeenMillis = -1;
+        long mLastConnectedMillis;
+        int mConnectSuccesses;
+        int mConnectFailures;
+
+        Record(final long address) {
+            mAddress = address;
+        }
+
+        Peer toPeer() {
+            return new Peer(PeerRegistry.unpackAddress(mAddress), mName, mLastSeenMillis,
+                    mLastConnectedMillis, mConnectSuccesses, mConnectFailures);
+        }
+    }
+
+    private final File mFile;
+    private final Scheduler mScheduler;
+    private final Scheduler.Worker mWorker;
+    // Guarded by this, unlike the state below which is only accessed on the worker
+    private boolean mClosed;
+    private final Map<Long, Record> mRecords = new HashMap<>();
+    private DataOutputStream mLog;
+    private boolean mLoaded;
+    private int mLogRecordCount;
+
+    /**
+     * @param file      the log file, created when the history is first loaded
+     * @param scheduler the scheduler whose worker reads and writes the file, and whose
+     *                  {@link Scheduler#now()} tells when a peer was seen
+     */
+    public PeerHistory(final File file, final Scheduler scheduler) {
+        mFile = file;
+        mScheduler = scheduler;
+        mWorker = scheduler.createWorker();
+    }
+
+    /**
+     * @return a {@link Single} that emits all known peers, the most recently seen first. The
+     * history is loaded from disk by the first subscription. It fails with an
+     * {@link IllegalStateException} when subscribed after {@link #close()}.
+     */
+    public Single<List<Peer>> getPeers() {
+        return Single.create(new Single.OnSubscribe<List<Peer>>() {
+            @Override
+            public void call(final SingleSubscriber<? super List<Peer>> subscriber) {
+                // Guards against scheduling on the worker after close() has released it, in
+                // which case the subscriber would never be called
+                synchronized (PeerHistory.this) {
+                    if (mClosed) {
+                        subscriber.onError(new IllegalStateException("The history is closed"));
+                        return;
+                    }
+                    schedulePeers(subscriber);
+                }
+            }
+        });
+    }
+
+    private void schedulePeers(final SingleSubscriber<? super List<Peer>> subscriber) {
+        mWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                load();
+                final List<Peer> peers = new ArrayList<>(mRecords.size());
+                for (Record record : mRecords.values()) {
+                    peers.add(record.toPeer());
+                }
+                Collections.sort(peers, MOST_RECENTLY_SEEN_FIRST);
+                subscriber.onSuccess(peers);
+            }
+        });
+    }
+
+    /**
+     * Records that the given peers were seen now
+     */
+    public void recordPeers(final WifiP2pDeviceList peers) {
+        final long now = mScheduler.now();
+        final List<WifiP2pDevice> devices = new ArrayList<>(peers.getDeviceList());
+        mWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                load();
+                for (WifiP2pDevice device : devices) {
+                    final long address = PeerRegistry.packAddress(device.deviceAddress);
+                    if (address < 0) {
+                        continue;
+                    }
+                    final Record record = getOrCreate(address);
+                    record.mLastSeenMillis = now;
+                    if (!equal(record.mName, device.deviceName)
+                            || now - record.mWrittenSeenMillis >= SEEN_RESOLUTION_MILLIS) {
+                        record.mName = device.deviceName;
+                        record.mWrittenSeenMillis = now;
+                        append(RECORD_SEEN, record);
+                    }
+                }
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Records the outcome of a connection request to a peer
+     *
+     * @param deviceAddress the address of the peer
+     * @param succeeded     whether the framework accepted the request
+     */
+    public void recordConnect(final String deviceAddress, final boolean succeeded) {
+        final long address = PeerRegistry.packAddress(deviceAddress);
+        if (address < 0) {
+            return;
+        }
+        final long now = mScheduler.now();
+        mWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                load();
+                final Record record = getOrCreate(address);
+                if (succeeded) {
+                    record.mConnectSuccesses++;
+                    record.mLastConnectedMillis = now;
+                } else {
+                    record.mConnectFailures++;
+                }
+                appendConnect(address, succeeded, now);
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Closes the log once the pending writes are done. Nothing is recorded afterwards, and
+     * {@link #getPeers()} fails.
+     */
+    @Override
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mWorker.schedule(new Action0() {
+            @Override
+            public void call() {
+                closeQuietly(mLog);
+                mLog = null;
+                mWorker.unsubscribe();
+            }
+        });
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        boolean intact = true;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+                intact = false;
+            } else {
+                while (readRecord(in)) {
+                    mLogRecordCount++;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing was recorded yet
+            intact = mFile.length() == 0;
+        } catch (IOException e) {
+            // A torn record at the end, keep what was read so far
+            intact = false;
+        } finally {
+            closeQuietly(in);
+        }
+
+        if (!intact || !mFile.exists()) {
+            compact();
+        }
+    }
+
+    /**
+     * @return false at the end of the log
+     */
+    private boolean readRecord(final DataInputStream in) throws IOException {
+        final int type = in.read();
+        if (type < 0) {
+            return false;
+        }
+        // Every field is read before the record is applied, so that a torn one is skipped whole
+        final long address = in.readLong();
+        switch (type) {
+            case RECORD_SEEN: {
+                final long time = in.readLong();
+                final String name = in.readBoolean() ? in.readUTF() : null;
+                final Record record = getOrCreate(address);
+                record.mLastSeenMillis = time;
+                record.mWrittenSeenMillis = time;
+                record.mName = name;
+                return true;
+            }
+            case RECORD_CONNECT: {
+                final boolean succeeded = in.readBoolean();
+                final long time = in.readLong();
+                final Record record = getOrCreate(address);
+                if (succeeded) {
+                    record.mConnectSuccesses++;
+                    record.mLastConnectedMillis = time;
+                } else {
+                    record.mConnectFailures++;
+                }
+                return true;
+            }
+            case RECORD_CONNECT_STATS: {
+                final int successes = in.readInt();
+                final int failures = in.readInt();
+                final long time = in.readLong();
+                final Record record = getOrCreate(address);
+                record.mConnectSuccesses = successes;
+                record.mConnectFailures = failures;
+                record.mLastConnectedMillis = time;
+                return true;
+            }
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private Record getOrCreate(final long address) {
+        Record record = mRecords.get(address);
+        if (record == null) {
+            record = new Record(address);
+            mRecords.put(address, record);
+        }
+        return record;
+    }
+
+    private void append(final int type, final Record record) {
+        final DataOutputStream log = openLog();
+        if (log == null) {
+            return;
+        }
+        try {
+            writeRecord(log, type, record);
+            mLogRecordCount++;
+        } catch (IOException e) {
+            closeLog();
+        }
+    }
+
+    private void appendConnect(final long address, final boolean succeeded, final long time) {
+        final DataOutputStream log = openLog();
+        if (log == null) {
+            return;
+        }
+        try {
+            log.writeByte(RECORD_CONNECT);
+            log.writeLong(address);
+            log.writeBoolean(succeeded);
+            log.writeLong(time);
+            mLogRecordCount++;
+        } catch (IOException e) {
+            closeLog();
+        }
+    }
+
+    private static void writeRecord(final DataOutputStream out,
+                                    final int type,
+                                    final Record record) throws IOException {
+        out.writeByte(type);
+        out.writeLong(record.mAddress);
+        if (type == RECORD_SEEN) {
+            out.writeLong(record.mLastSeenMillis);
+            out.writeBoolean(record.mName != null);
+            if (record.mName != null) {
+                out.writeUTF(record.mName);
+            }
+        } else {
+            out.writeInt(record.mConnectSuccesses);
+            out.writeInt(record.mConnectFailures);
+            out.writeLong(record.mLastConnectedMillis);
+        }
+    }
+
+    private void flush() {
+        if (mLog == null) {
+            return;
+        }
+        try {
+            mLog.flush();
+        } catch (IOException e) {
+            closeLog();
+            return;
+        }
+        if (mLogRecordCount > Math.max(MIN_RECORDS_BEFORE_COMPACTION,
+                COMPACTION_FACTOR * mRecords.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrites the log with a single record per peer. The new log replaces the old one only once
+     * it has been written completely.
+     */
+    private void compact() {
+        closeLog();
+        final File compacted = new File(mFile.getPath() + ".tmp");
+        FileOutputStream file = null;
+        try {
+            file = new FileOutputStream(compacted);
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            int count = 0;
+            for (Record record : mRecords.values()) {
+                writeRecord(out, RECORD_SEEN, record);
+                record.mWrittenSeenMillis = record.mLastSeenMillis;
+                count++;
+                if (record.mConnectSuccesses > 0 || record.mConnectFailures > 0) {
+                    writeRecord(out, RECORD_CONNECT_STATS, record);
+                    count++;
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+            file.close();
+            file = null;
+            if (compacted.renameTo(mFile)) {
+                mLogRecordCount = count;
+            }
+        } catch (IOException e) {
+            // The old log is kept, appending continues there
+        } finally {
+            closeQuietly(file);
+            compacted.delete();
+        }
+    }
+
+    private DataOutputStream openLog() {
+        if (mLog == null && !mWorker.isUnsubscribed()) {
+            try {
+                mLog = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(mFile, true)));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return mLog;
+    }
+
+    private void closeLog() {
+        closeQuietly(mLog);
+        mLog = null;
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing left to do
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import rx.functions.Func1;
+
+/**
+ * Stateful implementation of {@link rx.Observable#flatMapIterable(Func1)} that compares every
+ * {@link WifiP2pDeviceList} snapshot with the previous one and returns only the peers that were
+ * added, removed or changed, keyed by {@link WifiP2pDevice#deviceAddress}.
+ *
+ * Every device of the snapshot is looked up once in a hash table, so unchanged peers cost a single
+ * lookup and no allocation. The table is scanned for removed peers only when fewer known peers were
+ * seen than there were before. An instance must not be shared between subscriptions.
+ */
+public class PeerListDiffer implements Func1<WifiP2pDeviceList, List<PeerChange>> {
+    private static class Entry {
+        WifiP2pDevice device;
+        long generation;
+
+        Entry(final WifiP2pDevice device, final long generation) {
+            this.device = device;
+            this.generation = generation;
+        }
+    }
+
+    private final Map<String, Entry> mPeers = new HashMap<>();
+    private long mGeneration;
+
+    @Override
+    public List<PeerChange> call(final WifiP2pDeviceList deviceList) {
+        return diff(deviceList.getDeviceList());
+    }
+
+    /**
+     * Applies a new snapshot of peers.
+     *
+     * @param devices all currently known peers
+     * @return the changes compared to the previous snapshot, or an empty list if nothing changed
+     */
+    public List<PeerChange> diff(final Collection<WifiP2pDevice> devices) {
+        final long generation = ++mGeneration;
+        final int previousSize = mPeers.size();
+        int seen = 0;
+        List<PeerChange> changes = null;
+
+        for (final WifiP2pDevice device : devices) {
+            final Entry entry = mPeers.get(device.deviceAddress);
+            if (entry == null) {
+                mPeers.put(device.deviceAddress, new Entry(device, generation));
+                changes = add(changes, new PeerChange(PeerChange.Type.ADDED, device));
+                continue;
+            }
+            if (entry.generation == generation) {
+                // Duplicate address in the same snapshot
+                continue;
+            }
+            seen++;
+            entry.generation = generation;
+            if (hasChanged(entry.device, device)) {
+                changes = add(changes, new PeerChange(PeerChange.Type.CHANGED, device));
+            }
+            entry.device = device;
+        }
+
+        if (seen < previousSize) {
+            final Iterator<Entry> iterator = mPeers.values().iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                if (entry.generation != generation) {
+                    iterator.remove();
+                    changes = add(changes, new PeerChange(PeerChange.Type.REMOVED, entry.device));
+                }
+            }
+        }
+
+        return changes == null ? Collections.<PeerChange>emptyList() : changes;
+    }
+
+    /**
+     * @return the number of peers from the last snapshot
+     */
+    public int size() {
+        return mPeers.size();
+    }
+
+    private static List<PeerChange> add(List<PeerChange> changes, final PeerChange change) {
+        if (changes == null) {
+            changes = new ArrayList<>();
+        }
+        changes.add(change);
+        return changes;
+    }
+
+    /**
+     * {@link WifiP2pDevice#equals(Object)} compares only the device addresses, so the properties
+     * that can change for the same peer are compared one by one.
+     */
+    private static boolean hasChanged(final WifiP2pDevice previous, final WifiP2pDevice current) {
+        return previous.status != current.status
+                || !equals(previous.deviceName, current.deviceName)
+                || !equals(previous.primaryDeviceType, current.primaryDeviceType)
+                || !equals(previous.secondaryDeviceType, current.secondaryDeviceType)
+                || previous.groupCapability != current.groupCapability
+                || previous.deviceCapability != current.deviceCapability
+                || previous.wpsConfigMethodsSupported != current.wpsConfigMethodsSupported;
+    }
+
+    private static boolean equals(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
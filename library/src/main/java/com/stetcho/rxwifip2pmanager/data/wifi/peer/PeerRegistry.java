@@ -0,0 +1,375 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+
+/**
+ * A long-lived registry of all peers seen so far, for devices that meet hundreds or thousands of
+ * peers over time. Unlike a {@link PeerTable}, which projects a single list, the registry keeps
+ * its peers across refreshes, in parallel primitive columns rather than an object per peer:
+ * <ul>
+ * <li>the MAC address, packed into the lower 48 bits of a long (see {@link #packAddress})</li>
+ * <li>the name, which is replaced only when it changes, so that the copy that every refresh of
+ * the framework carries is not retained</li>
+ * <li>the status, the time the peer was last seen and the number of refreshes it was seen in</li>
+ * </ul>
+ * The rows are found by address through an open-addressing table of int indices, without boxing
+ * the keys. A peer costs about 40 bytes besides its name, and a refresh allocates nothing.
+ */
+public class PeerRegistry {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Scheduler mClock;
+
+    private long[] mAddresses;
+    private String[] mDeviceNames;
+    private int[] mStatuses;
+    private long[] mLastSeenMillis;
+    private int[] mSightings;
+    private int[] mLastRefresh;
+    // The row of each address plus one, 0 marks a free slot. Kept at most half full.
+    private int[] mSlots;
+    private int mSize;
+    private int mRefreshCount;
+    private Snapshot mSnapshot;
+
+    /**
+     * @param clock the scheduler whose {@link Scheduler#now()} tells when a peer was last seen
+     */
+    public PeerRegistry(final Scheduler clock) {
+        this(clock, INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param clock         the scheduler whose {@link Scheduler#now()} tells when a peer was last
+     *                      seen
+     * @param expectedPeers the number of peers to make room for, so that the columns do not have
+     *                      to grow while they are filled
+     */
+    public PeerRegistry(final Scheduler clock, final int expectedPeers) {
+        mClock = clock;
+        final int capacity = Math.max(INITIAL_CAPACITY,
+                Integer.highestOneBit(Math.max(expectedPeers, 1) - 1) << 1);
+        mAddresses = new long[capacity];
+        mDeviceNames = new String[capacity];
+        mStatuses = new int[capacity];
+        mLastSeenMillis = new long[capacity];
+        mSightings = new int[capacity];
+        mLastRefresh = new int[capacity];
+        mSlots = new int[capacity * 2];
+    }
+
+    /**
+     * Records a refresh of the peer list. The listed peers are added or updated, those which are
+     * missing from it are kept as {@link WifiP2pDevice#UNAVAILABLE}. Devices without a valid
+     * address are skipped.
+     *
+     * @param peers the current peers, e.g. from a
+     *              {@link android.net.wifi.p2p.WifiP2pManager#WIFI_P2P_PEERS_CHANGED_ACTION}
+     *              broadcast
+     * @return the number of peers which were seen for the first time
+     */
+    public synchronized int update(final WifiP2pDeviceList peers) {
+        final long now = mClock.now();
+        final int refresh = ++mRefreshCount;
+        final int sizeBefore = mSize;
+        for (WifiP2pDevice device : peers.getDeviceList()) {
+            final long address = packAddress(device.deviceAddress);
+            if (address < 0) {
+                continue;
+            }
+            int row = find(address);
+            if (row < 0) {
+                row = append(address);
+            }
+            if (!equal(mDeviceNames[row], device.deviceName)) {
+                mDeviceNames[row] = device.deviceName;
+            }
+            mStatuses[row] = device.status;
+            mLastSeenMillis[row] = now;
+            mLastRefresh[row] = refresh;
+            mSightings[row]++;
+        }
+        for (int row = 0; row < mSize; row++) {
+            if (mLastRefresh[row] != refresh) {
+                mStatuses[row] = WifiP2pDevice.UNAVAILABLE;
+            }
+        }
+        mSnapshot = null;
+        return mSize - sizeBefore;
+    }
+
+    /**
+     * Forgets the peers which have not been seen for longer than the given age
+     *
+     * @param maxAge the maximum time since a peer was last seen
+     * @param unit   the time unit of maxAge
+     * @return the number of peers which were forgotten
+     */
+    public synchronized int evictOlderThan(final long maxAge, final TimeUnit unit) {
+        final long oldest = mClock.now() - unit.toMillis(maxAge);
+        int kept = 0;
+        for (int row = 0; row < mSize; row++) {
+            if (mLastSeenMillis[row] >= oldest) {
+                move(row, kept++);
+            }
+        }
+        final int evicted = mSize - kept;
+        if (evicted > 0) {
+            Arrays.fill(mDeviceNames, kept, mSize, null);
+            mSize = kept;
+            rehash(mSlots.length);
+            mSnapshot = null;
+        }
+        return evicted;
+    }
+
+    /**
+     * Forgets all peers
+     */
+    public synchronized void clear() {
+        Arrays.fill(mDeviceNames, 0, mSize, null);
+        Arrays.fill(mSlots, 0);
+        mSize = 0;
+        mSnapshot = null;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns an immutable copy of the registry. The copy is shared until the registry changes,
+     * and consists of a few array copies, no matter how many peers there are.
+     *
+     * @return a {@link Snapshot} of all peers in the order they were first seen
+     */
+    public synchronized Snapshot snapshot() {
+        if (mSnapshot == null) {
+            mSnapshot = new Snapshot(
+                    Arrays.copyOf(mAddresses, mSize),
+                    Arrays.copyOf(mDeviceNames, mSize),
+                    Arrays.copyOf(mStatuses, mSize),
+                    Arrays.copyOf(mLastSeenMillis, mSize),
+                    Arrays.copyOf(mSightings, mSize),
+                    mSlots.clone());
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Packs a MAC address like {@code "aa:bb:cc:dd:ee:ff"} into the lower 48 bits of a long
+     *
+     * @param address the address, with colons between the octets
+     * @return the packed address, or -1 if it is null or malformed
+     */
+    public static long packAddress(final String address) {
+        if (address == null || address.length() != 17) {
+            return -1;
+        }
+        long packed = 0;
+        for (int i = 0; i < 17; i += 3) {
+            final int high = hexDigit(address.charAt(i));
+            final int low = hexDigit(address.charAt(i + 1));
+            if (high < 0 || low < 0 || (i < 15 && address.charAt(i + 2) != ':')) {
+                return -1;
+            }
+            packed = (packed << 8) | (high << 4) | low;
+        }
+        return packed;
+    }
+
+    /**
+     * @param packed an address packed by {@link #packAddress(String)}
+     * @return the address in the lower-case form used by the framework
+     */
+    public static String unpackAddress(final long packed) {
+        final char[] chars = new char[17];
+        for (int i = 0; i < 6; i++) {
+            final int octet = (int) (packed >>> (40 - 8 * i)) & 0xff;
+            chars[3 * i] = HEX_DIGITS[octet >>> 4];
+            chars[3 * i + 1] = HEX_DIGITS[octet & 0xf];
+            if (i < 5) {
+                chars[3 * i + 2] = ':';
+            }
+        }
+        return new String(chars);
+    }
+
+    private static int hexDigit(final char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private int find(final long address) {
+        return findRow(mSlots, mAddresses, address);
+    }
+
+    private int append(final long address) {
+        if (mSize == mAddresses.length) {
+            final int capacity = mSize * 2;
+            mAddresses = Arrays.copyOf(mAddresses, capacity);
+            mDeviceNames = Arrays.copyOf(mDeviceNames, capacity);
+            mStatuses = Arrays.copyOf(mStatuses, capacity);
+            mLastSeenMillis = Arrays.copyOf(mLastSeenMillis, capacity);
+            mSightings = Arrays.copyOf(mSightings, capacity);
+            mLastRefresh = Arrays.copyOf(mLastRefresh, capacity);
+            rehash(capacity * 2);
+        }
+        final int row = mSize++;
+        mAddresses[row] = address;
+        mSightings[row] = 0;
+        insert(mSlots, address, row);
+        return row;
+    }
+
+    private void move(final int from, final int to) {
+        if (from == to) {
+            return;
+        }
+        mAddresses[to] = mAddresses[from];
+        mDeviceNames[to] = mDeviceNames[from];
+        mStatuses[to] = mStatuses[from];
+        mLastSeenMillis[to] = mLastSeenMillis[from];
+        mSightings[to] = mSightings[from];
+        mLastRefresh[to] = mLastRefresh[from];
+    }
+
+    private void rehash(final int slotCount) {
+        mSlots = new int[slotCount];
+        for (int row = 0; row < mSize; row++) {
+            insert(mSlots, mAddresses[row], row);
+        }
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static void insert(final int[] slots, final long address, final int row) {
+        final int mask = slots.length - 1;
+        int slot = hash(address) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private static int findRow(final int[] slots, final long[] addresses, final long address) {
+        final int mask = slots.length - 1;
+        int slot = hash(address) & mask;
+        while (slots[slot] != 0) {
+            final int row = slots[slot] - 1;
+            if (addresses[row] == address) {
+                return row;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static int hash(final long address) {
+        return (int) ((address * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    /**
+     * An immutable copy of a {@link PeerRegistry}, indexed from 0 to {@link #size()} - 1
+     */
+    public static final class Snapshot {
+        private final long[] mAddresses;
+        private final String[] mDeviceNames;
+        private final int[] mStatuses;
+        private final long[] mLastSeenMillis;
+        private final int[] mSightings;
+        private final int[] mSlots;
+
+        private Snapshot(final long[] addresses,
+                         final String[] deviceNames,
+                         final int[] statuses,
+                         final long[] lastSeenMillis,
+                         final int[] sightings,
+                         final int[] slots) {
+            mAddresses = addresses;
+            mDeviceNames = deviceNames;
+            mStatuses = statuses;
+            mLastSeenMillis = lastSeenMillis;
+            mSightings = sightings;
+            mSlots = slots;
+        }
+
+        public int size() {
+            return mAddresses.length;
+        }
+
+        /**
+         * @return the address packed by {@link PeerRegistry#packAddress(String)}
+         */
+        public long getPackedAddress(final int index) {
+            return mAddresses[index];
+        }
+
+        /**
+         * @return the address, formatted anew on every call
+         */
+        public String getDeviceAddress(final int index) {
+            return unpackAddress(mAddresses[index]);
+        }
+
+        public String getDeviceName(final int index) {
+            return mDeviceNames[index];
+        }
+
+        /**
+         * @return the status of the latest refresh which listed the peer, or
+         * {@link WifiP2pDevice#UNAVAILABLE} if it was missing from later ones
+         */
+        public int getStatus(final int index) {
+            return mStatuses[index];
+        }
+
+        /**
+         * @return the time of the latest refresh which listed the peer, according to the clock of
+         * the registry
+         */
+        public long getLastSeenMillis(final int index) {
+            return mLastSeenMillis[index];
+        }
+
+        /**
+         * @return the number of refreshes which listed the peer, a rough measure of how reliably
+         * it is in range
+         */
+        public int getSightings(final int index) {
+            return mSightings[index];
+        }
+
+        /**
+         * @return the index of the peer with the given address, or -1
+         */
+        public int indexOf(final String deviceAddress) {
+            final long address = packAddress(deviceAddress);
+            return address < 0 ? -1 : indexOf(address);
+        }
+
+        /**
+         * @return the index of the peer with the given packed address, or -1
+         */
+        public int indexOf(final long packedAddress) {
+            return findRow(mSlots, mAddresses, packedAddress);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import rx.functions.Func1;
+
+/**
+ * A compact, column-wise projection of a {@link WifiP2pDeviceList} that holds only the address,
+ * the name and the status of each peer. It references the strings of the source devices instead
+ * of copying them, and a whole list costs three arrays rather than an object per peer.
+ */
+public final class PeerTable {
+    public static final PeerTable EMPTY = new PeerTable(new String[0], new String[0], new int[0]);
+
+    /**
+     * A shared, stateless projection function for {@link rx.Observable#map(Func1)}
+     */
+    public static final Func1<WifiP2pDeviceList, PeerTable> FROM_DEVICE_LIST =
+            new Func1<WifiP2pDeviceList, PeerTable>() {
+                @Override
+                public PeerTable call(final WifiP2pDeviceList deviceList) {
+                    return of(deviceList);
+                }
+            };
+
+    private final String[] mDeviceAddresses;
+    private final String[] mDeviceNames;
+    private final int[] mStatuses;
+
+    private PeerTable(final String[] deviceAddresses,
+                      final String[] deviceNames,
+                      final int[] statuses) {
+        mDeviceAddresses = deviceAddresses;
+        mDeviceNames = deviceNames;
+        mStatuses = statuses;
+    }
+
+    public static PeerTable of(final WifiP2pDeviceList deviceList) {
+        if (deviceList == null || deviceList.getDeviceList().isEmpty()) {
+            return EMPTY;
+        }
+        final int size = deviceList.getDeviceList().size();
+        final String[] addresses = new String[size];
+        final String[] names = new String[size];
+        final int[] statuses = new int[size];
+        int i = 0;
+        for (WifiP2pDevice device : deviceList.getDeviceList()) {
+            addresses[i] = device.deviceAddress;
+            names[i] = device.deviceName;
+            statuses[i] = device.status;
+            i++;
+        }
+        return new PeerTable(addresses, names, statuses);
+    }
+
+    public int size() {
+        return mStatuses.length;
+    }
+
+    public String getDeviceAddress(final int index) {
+        return mDeviceAddresses[index];
+    }
+
+    public String getDeviceName(final int index) {
+        return mDeviceNames[index];
+    }
+
+    /**
+     * @return one of {@link WifiP2pDevice#AVAILABLE}, {@link WifiP2pDevice#INVITED},
+     * {@link WifiP2pDevice#CONNECTED}, {@link WifiP2pDevice#FAILED} or
+     * {@link WifiP2pDevice#UNAVAILABLE}
+     */
+    public int getStatus(final int index) {
+        return mStatuses[index];
+    }
+
+    /**
+     * @return the index of the peer with the given address, or -1
+     */
+    public int indexOf(final String deviceAddress) {
+        for (int i = 0; i < mDeviceAddresses.length; i++) {
+            if (mDeviceAddresses[i] != null && mDeviceAddresses[i].equals(deviceAddress)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
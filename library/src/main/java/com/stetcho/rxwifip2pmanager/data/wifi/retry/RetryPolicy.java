@@ -0,0 +1,172 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.retry;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pException;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.functions.Func1;
+import rx.schedulers.Schedulers;
+
+/**
+ * Implementation of {@link Observable#retryWhen(Func1)} that retries operations which failed with
+ * a transient {@link P2pException} (see {@link P2pException#isTransient()}), using an exponential
+ * backoff with jitter. Any other error is propagated immediately.
+ *
+ * Use {@link Builder} to create a policy, or {@link #createDefault()} for the defaults: up to 3
+ * attempts, starting with a delay of 100 ms that doubles on every retry and is capped at 1 s, with
+ * up to 50% jitter.
+ */
+public class RetryPolicy implements Func1<Observable<? extends Throwable>, Observable<?>> {
+    private final int mMaxAttempts;
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final double mMultiplier;
+    private final double mJitter;
+    private final Scheduler mScheduler;
+    private final Random mRandom;
+
+    private RetryPolicy(final Builder builder) {
+        mMaxAttempts = builder.mMaxAttempts;
+        mInitialDelayMillis = builder.mInitialDelayMillis;
+        mMaxDelayMillis = builder.mMaxDelayMillis;
+        mMultiplier = builder.mMultiplier;
+        mJitter = builder.mJitter;
+        mScheduler = builder.mScheduler;
+        mRandom = builder.mRandom;
+    }
+
+    /**
+     * @return a policy with the default settings
+     */
+    public static RetryPolicy createDefault() {
+        return new Builder().build();
+    }
+
+    @Override
+    public Observable<?> call(final Observable<? extends Throwable> errors) {
+        // Invoked once per subscription, so the counter belongs to a single subscriber
+        return errors.flatMap(new Func1<Throwable, Observable<Long>>() {
+            private int mAttempt = 1;
+
+            @Override
+            public Observable<Long> call(final Throwable error) {
+                if (!shouldRetry(error) || mAttempt >= mMaxAttempts) {
+                    return Observable.error(error);
+                }
+                return Observable.timer(getDelayMillis(mAttempt++), TimeUnit.MILLISECONDS,
+                        mScheduler);
+            }
+        });
+    }
+
+    /**
+     * @return the maximum number of attempts, including the first one
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Calculates the delay before the next attempt
+     *
+     * @param attempt the number of the attempt that failed, starting from 1
+     * @return the delay in milliseconds
+     */
+    long getDelayMillis(final int attempt) {
+        final double delay = Math.min(mMaxDelayMillis,
+                mInitialDelayMillis * Math.pow(mMultiplier, attempt - 1));
+        return Math.round(delay * (1d - mJitter * mRandom.nextDouble()));
+    }
+
+    private static boolean shouldRetry(final Throwable error) {
+        return error instanceof P2pException && ((P2pException) error).isTransient();
+    }
+
+    /**
+     * Builder for {@link RetryPolicy}
+     */
+    public static class Builder {
+        private int mMaxAttempts = 3;
+        private long mInitialDelayMillis = 100;
+        private long mMaxDelayMillis = 1000;
+        private double mMultiplier = 2;
+        private double mJitter = 0.5;
+        private Scheduler mScheduler = Schedulers.computation();
+        private Random mRandom = new Random();
+
+        /**
+         * @param maxAttempts the maximum number of attempts, including the first one
+         */
+        public Builder maxAttempts(final int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts < 1: " + maxAttempts);
+            }
+            mMaxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * @param delay the delay before the first retry
+         * @param unit  the time unit of the delay
+         */
+        public Builder initialDelay(final long delay, final TimeUnit unit) {
+            mInitialDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * @param delay the upper bound of the delay between two attempts
+         * @param unit  the time unit of the delay
+         */
+        public Builder maxDelay(final long delay, final TimeUnit unit) {
+            mMaxDelayMillis = unit.toMillis(delay);
+            return this;
+        }
+
+        /**
+         * @param multiplier the factor by which the delay grows after every retry
+         */
+        public Builder multiplier(final double multiplier) {
+            if (multiplier < 1) {
+                throw new IllegalArgumentException("multiplier < 1: " + multiplier);
+            }
+            mMultiplier = multiplier;
+            return this;
+        }
+
+        /**
+         * @param jitter the fraction of the delay, between 0 and 1, by which every delay is
+         *               randomly shortened, so that several clients do not retry in lockstep
+         */
+        public Builder jitter(final double jitter) {
+            if (jitter < 0 || jitter > 1) {
+                throw new IllegalArgumentException("jitter not in [0, 1]: " + jitter);
+            }
+            mJitter = jitter;
+            return this;
+        }
+
+        /**
+         * @param scheduler the scheduler on which the delays are awaited
+         */
+        public Builder scheduler(final Scheduler scheduler) {
+            mScheduler = scheduler;
+            return this;
+        }
+
+        /**
+         * @param random the source of the jitter
+         */
+        public Builder random(final Random random) {
+            mRandom = random;
+            return this;
+        }
+
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.service;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A DNS-SD (Bonjour) response of a nearby peer, as delivered by
+ * {@link android.net.wifi.p2p.WifiP2pManager.DnsSdServiceResponseListener} or
+ * {@link android.net.wifi.p2p.WifiP2pManager.DnsSdTxtRecordListener}.
+ */
+public class DnsSdRecord {
+    /**
+     * The kind of a {@link DnsSdRecord}
+     */
+    public enum Type {
+        /**
+         * An available service, see {@link #getInstanceName()} and {@link #getRegistrationType()}
+         */
+        SERVICE,
+        /**
+         * The TXT record of a service, see {@link #getFullDomainName()} and {@link #getTxtRecord()}
+         */
+        TXT_RECORD
+    }
+
+    private final Type mType;
+    private final WifiP2pDevice mDevice;
+    private final String mInstanceName;
+    private final String mRegistrationType;
+    private final String mFullDomainName;
+    private final Map<String, String> mTxtRecord;
+
+    private DnsSdRecord(final Type type,
+                        final WifiP2pDevice device,
+                        final String instanceName,
+                        final String registrationType,
+                        final String fullDomainName,
+                        final Map<String, String> txtRecord) {
+        mType = type;
+        mDevice = device;
+        mInstanceName = instanceName;
+        mRegistrationType = registrationType;
+        mFullDomainName = fullDomainName;
+        mTxtRecord = txtRecord;
+    }
+
+    public static DnsSdRecord service(final String instanceName,
+                                      final String registrationType,
+                                      final WifiP2pDevice device) {
+        return new DnsSdRecord(Type.SERVICE, device, instanceName, registrationType, null,
+                Collections.<String, String>emptyMap());
+    }
+
+    public static DnsSdRecord txtRecord(final String fullDomainName,
+                                        final Map<String, String> txtRecord,
+                                        final WifiP2pDevice device) {
+        return new DnsSdRecord(Type.TXT_RECORD, device, null, null, fullDomainName,
+                txtRecord == null
+                        ? Collections.<String, String>emptyMap()
+                        : Collections.unmodifiableMap(txtRecord));
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * @return the peer that advertises the service
+     */
+    public WifiP2pDevice getDevice() {
+        return mDevice;
+    }
+
+    public String getDeviceAddress() {
+        return mDevice.deviceAddress;
+    }
+
+    /**
+     * @return the instance name of a {@link Type#SERVICE}, e.g. "printer", otherwise null
+     */
+    public String getInstanceName() {
+        return mInstanceName;
+    }
+
+    /**
+     * @return the registration type of a {@link Type#SERVICE}, e.g. "_ipp._tcp.local.", otherwise
+     * null
+     */
+    public String getRegistrationType() {
+        return mRegistrationType;
+    }
+
+    /**
+     * @return the full domain name of a {@link Type#TXT_RECORD}, e.g. "printer._ipp._tcp.local.",
+     * otherwise null
+     */
+    public String getFullDomainName() {
+        return mFullDomainName;
+    }
+
+    /**
+     * @return the key-value pairs of a {@link Type#TXT_RECORD}, otherwise an empty map
+     */
+    public Map<String, String> getTxtRecord() {
+        return mTxtRecord;
+    }
+
+    @Override
+    public String toString() {
+        return "DnsSdRecord{" +
+                "mType=" + mType +
+                ", mDeviceAddress='" + mDevice.deviceAddress + '\'' +
+                ", mInstanceName='" + mInstanceName + '\'' +
+                ", mFullDomainName='" + mFullDomainName + '\'' +
+                '}';
+    }
+}
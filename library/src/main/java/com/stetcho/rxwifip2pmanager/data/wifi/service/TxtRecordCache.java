@@ -0,0 +1,108 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import rx.Scheduler;
+
+/**
+ * In-memory cache of the latest DNS-SD TXT record of each peer, keyed by its device address.
+ *
+ * A record is served for as long as it is not older than the time to live, after which it is
+ * dropped and the next lookup goes over the air again.
+ */
+public class TxtRecordCache {
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private final Scheduler mClock;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    private long mTimeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param clock the scheduler whose {@link Scheduler#now()} is used to tell the age of a record
+     */
+    public TxtRecordCache(final Scheduler clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @param timeToLive how long a record is served after it has been received
+     * @param unit       the time unit of timeToLive
+     */
+    public synchronized void setTimeToLive(final long timeToLive, final TimeUnit unit) {
+        mTimeToLiveMillis = unit.toMillis(timeToLive);
+    }
+
+    /**
+     * @return the fresh TXT record of the peer, or null if there is none
+     */
+    public synchronized DnsSdRecord get(final String deviceAddress) {
+        final Entry entry = mEntries.get(deviceAddress);
+        if (entry != null && !isExpired(entry, mClock.now())) {
+            mHitCount++;
+            return entry.mRecord;
+        }
+        if (entry != null) {
+            mEntries.remove(deviceAddress);
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Stores a {@link DnsSdRecord.Type#TXT_RECORD}, other records are ignored
+     */
+    public synchronized void put(final DnsSdRecord record) {
+        if (record.getType() != DnsSdRecord.Type.TXT_RECORD) {
+            return;
+        }
+        final long now = mClock.now();
+        final Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (isExpired(entries.next(), now)) {
+                entries.remove();
+            }
+        }
+        mEntries.put(record.getDeviceAddress(), new Entry(record, now));
+    }
+
+    /**
+     * Forgets all records
+     */
+    public synchronized void invalidate() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return the number of lookups served from memory
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return the number of lookups that found no fresh record
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    private boolean isExpired(final Entry entry, final long now) {
+        return now - entry.mReceivedAtMillis > mTimeToLiveMillis;
+    }
+
+    private static class Entry {
+        private final DnsSdRecord mRecord;
+        private final long mReceivedAtMillis;
+
+        Entry(final DnsSdRecord record, final long receivedAtMillis) {
+            mRecord = record;
+            mReceivedAtMillis = receivedAtMillis;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.stetcho.rxwifip2pmanager.data.fanout;
+
+import android.net.wifi.p2p.WifiP2pInfo;
+
+import com.stetcho.rxwifip2pmanager.data.socket.ByteBufferPool;
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannel;
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannelFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import rx.Subscription;
+import rx.functions.Action1;
+import rx.functions.Func2;
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FanOutBroadcasterTest {
+    private static final int CLIENT_COUNT = 3;
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private DataChannelFactory mFactory;
+    private FanOutBroadcaster mBroadcaster;
+    private List<DataChannel> mGroupOwnerSide;
+    private List<DataChannel> mClients;
+
+    @Before
+    public void setUp() throws Exception {
+        mFactory = new DataChannelFactory(findFreePort(), new ByteBufferPool(8192, 16));
+        mBroadcaster = new FanOutBroadcaster();
+        final TestSubscriber<List<DataChannel>> accepted = new TestSubscriber<>();
+        mFactory.open(info(true))
+                .subscribeOn(Schedulers.io())
+                .take(CLIENT_COUNT)
+                .toList()
+                .subscribe(accepted);
+
+        mClients = new ArrayList<>();
+        for (int i = 0; i < CLIENT_COUNT; i++) {
+            mClients.add(connectWithRetry());
+        }
+        accepted.awaitTerminalEvent();
+        mGroupOwnerSide = accepted.getOnNextEvents().get(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (DataChannel channel : mGroupOwnerSide) {
+            channel.close();
+        }
+        for (DataChannel channel : mClients) {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void buffer_isReceivedCompletelyByEveryClient() throws Exception {
+        final byte[] payload = randomBytes(1024 * 1024);
+        final List<TestSubscriber<byte[]>> received = receiveAll(mClients);
+
+        final TestSubscriber<FanOutProgress> progress = new TestSubscriber<>();
+        mBroadcaster.broadcast(ByteBuffer.wrap(payload), mGroupOwnerSide).subscribe(progress);
+        progress.awaitTerminalEvent();
+        closeAll(mGroupOwnerSide);
+
+        progress.assertCompleted();
+        for (TestSubscriber<byte[]> client : received) {
+            client.awaitTerminalEvent();
+            assertArrayEquals(payload, client.getOnNextEvents().get(0));
+        }
+        final Map<DataChannel, FanOutProgress> last = lastProgressByClient(progress);
+        assertEquals(CLIENT_COUNT, last.size());
+        for (FanOutProgress clientProgress : last.values()) {
+            assertEquals(FanOutProgress.Status.COMPLETED, clientProgress.getStatus());
+            assertEquals(payload.length, clientProgress.getBytesSent());
+            assertTrue(clientProgress.getBytesPerSecond() > 0);
+        }
+    }
+
+    @Test
+    public void file_isReceivedCompletelyByEveryClient() throws Exception {
+        final byte[] payload = randomBytes(300000);
+        final File file = mFolder.newFile();
+        final FileOutputStream output = new FileOutputStream(file);
+        output.write(payload);
+        output.close();
+        final List<TestSubscriber<byte[]>> received = receiveAll(mClients);
+
+        mBroadcaster.broadcast(file, mGroupOwnerSide).toBlocking().last();
+        closeAll(mGroupOwnerSide);
+
+        for (TestSubscriber<byte[]> client : received) {
+            client.awaitTerminalEvent();
+            assertArrayEquals(payload, client.getOnNextEvents().get(0));
+        }
+    }
+
+    @Test
+    public void broadcast_leavesTheSharedBufferUntouched() throws Exception {
+        final ByteBuffer payload = ByteBuffer.wrap(randomBytes(1000));
+        receiveAll(mClients);
+
+        mBroadcaster.broadcast(payload, mGroupOwnerSide).toBlocking().last();
+
+        assertEquals(0, payload.position());
+        assertEquals(1000, payload.limit());
+        assertTrue(mGroupOwnerSide.get(0).getSocketChannel().isBlocking());
+    }
+
+    @Test
+    public void failedClient_doesNotStopTheOthers() throws Exception {
+        final byte[] payload = randomBytes(8 * 1024 * 1024);
+        final DataChannel dropped = mGroupOwnerSide.get(0);
+        dropped.close();
+        final List<TestSubscriber<byte[]>> received =
+                receiveAll(mClients.subList(1, CLIENT_COUNT));
+
+        final TestSubscriber<FanOutProgress> progress = new TestSubscriber<>();
+        mBroadcaster.broadcast(ByteBuffer.wrap(payload), mGroupOwnerSide).subscribe(progress);
+        progress.awaitTerminalEvent();
+        closeAll(mGroupOwnerSide);
+
+        progress.assertCompleted();
+        final Map<DataChannel, FanOutProgress> last = lastProgressByClient(progress);
+        assertEquals(FanOutProgress.Status.FAILED, last.get(dropped).getStatus());
+        assertNotNull(last.get(dropped).getError());
+        for (TestSubscriber<byte[]> client : received) {
+            client.awaitTerminalEvent();
+            assertArrayEquals(payload, client.getOnNextEvents().get(0));
+        }
+    }
+
+    @Test
+    public void unsubscription_leavesTheClientsOpen() throws Exception {
+        final ByteBuffer payload = ByteBuffer.wrap(randomBytes(8 * 1024 * 1024));
+        final CountDownLatch written = new CountDownLatch(1);
+        // Nobody reads, so the broadcast stalls once the socket buffers are full
+        final Subscription broadcast = mBroadcaster.broadcast(payload, mGroupOwnerSide)
+                .subscribe(new Action1<FanOutProgress>() {
+                    @Override
+                    public void call(final FanOutProgress progress) {
+                        written.countDown();
+                    }
+                });
+        assertTrue(written.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        broadcast.unsubscribe();
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        for (DataChannel channel : mGroupOwnerSide) {
+            while (!channel.getSocketChannel().isBlocking()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(channel.getSocketChannel().isBlocking());
+            assertTrue(channel.getSocketChannel().isOpen());
+        }
+    }
+
+    private static Map<DataChannel, FanOutProgress> lastProgressByClient(
+            final TestSubscriber<FanOutProgress> progress) {
+        final Map<DataChannel, FanOutProgress> last = new HashMap<>();
+        for (FanOutProgress event : progress.getOnNextEvents()) {
+            last.put(event.getClient(), event);
+        }
+        return last;
+    }
+
+    private static List<TestSubscriber<byte[]>> receiveAll(final List<DataChannel> channels) {
+        final List<TestSubscriber<byte[]>> subscribers = new ArrayList<>();
+        for (final DataChannel channel : channels) {
+            final TestSubscriber<byte[]> subscriber = new TestSubscriber<>();
+            channel.receive()
+                    .reduce(new byte[0], new Func2<byte[], ByteBuffer, byte[]>() {
+                        @Override
+                        public byte[] call(final byte[] received, final ByteBuffer buffer) {
+                            final byte[] bytes = new byte[received.length + buffer.remaining()];
+                            System.arraycopy(received, 0, bytes, 0, received.length);
+                            buffer.get(bytes, received.length, buffer.remaining());
+                            channel.release(buffer);
+                            return bytes;
+                        }
+                    })
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        return subscribers;
+    }
+
+    private static void closeAll(final List<DataChannel> channels) throws IOException {
+        for (DataChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    private DataChannel connectWithRetry() throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return mFactory.open(info(false)).toBlocking().single();
+            } catch (RuntimeException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static WifiP2pInfo info(final boolean isGroupOwner) throws IOException {
+        final WifiP2pInfo info = new WifiP2pInfo();
+        info.groupFormed = true;
+        info.isGroupOwner = isGroupOwner;
+        info.groupOwnerAddress = InetAddress.getByName("127.0.0.1");
+        return info;
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int findFreePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.stetcho.rxwifip2pmanager.data.mux;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import rx.Observable;
+import rx.functions.Action0;
+import rx.functions.Func1;
+import rx.functions.Func2;
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class StreamMultiplexerTest {
+    private static final int WINDOW_SIZE = 32 * 1024;
+    private static final int TIMEOUT_SECONDS = 5;
+
+    private SocketChannel mClientChannel;
+    private SocketChannel mServerChannel;
+    private StreamMultiplexer mClient;
+    private StreamMultiplexer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        final ServerSocketChannel server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0));
+        mClientChannel = SocketChannel.open(server.socket().getLocalSocketAddress());
+        mServerChannel = server.accept();
+        server.close();
+
+        mClient = new StreamMultiplexer(mClientChannel, true, WINDOW_SIZE, Schedulers.io());
+        mServer = new StreamMultiplexer(mServerChannel, false, WINDOW_SIZE, Schedulers.io());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.close();
+        mServer.close();
+    }
+
+    @Test
+    public void concurrentStreams_shareOneConnection() throws Exception {
+        final TestSubscriber<Map<Integer, byte[]>> received = new TestSubscriber<>();
+        mServer.acceptStreams()
+                .take(5)
+                .flatMap(new Func1<MuxStream, Observable<Map<Integer, byte[]>>>() {
+                    @Override
+                    public Observable<Map<Integer, byte[]>> call(final MuxStream stream) {
+                        return readAll(stream).map(new Func1<byte[], Map<Integer, byte[]>>() {
+                            @Override
+                            public Map<Integer, byte[]> call(final byte[] bytes) {
+                                return Collections.singletonMap(stream.getId(), bytes);
+                            }
+                        });
+                    }
+                })
+                .subscribe(received);
+        mClient.start();
+        mServer.start();
+
+        final Map<Integer, byte[]> sent = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            final MuxStream stream = mClient.openStream(MuxStream.PRIORITY_DEFAULT);
+            final byte[] payload = randomBytes(100000 + i);
+            sent.put(stream.getId(), payload);
+            stream.write(ByteBuffer.wrap(payload)).subscribe();
+            stream.close();
+        }
+
+        received.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        received.assertCompleted();
+        assertEquals(5, received.getOnNextEvents().size());
+        for (Map<Integer, byte[]> result : received.getOnNextEvents()) {
+            final Map.Entry<Integer, byte[]> entry = result.entrySet().iterator().next();
+            assertEquals(1, entry.getKey() % 2);
+            assertArrayEquals(sent.get(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void writer_isStalledByUnreadWindow() throws Exception {
+        final TestSubscriber<MuxStream> accepted = new TestSubscriber<>();
+        mServer.acceptStreams().subscribe(accepted);
+        mClient.start();
+        mServer.start();
+
+        final MuxStream stream = mClient.openStream(MuxStream.PRIORITY_DEFAULT);
+        final TestSubscriber<Void> write = new TestSubscriber<>();
+        stream.write(ByteBuffer.wrap(randomBytes(3 * WINDOW_SIZE))).subscribe(write);
+        accepted.awaitValueCount(1, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        Thread.sleep(200);
+        write.assertNoTerminalEvent();
+
+        final TestSubscriber<ByteBuffer> read = new TestSubscriber<>();
+        accepted.getOnNextEvents().get(0).read().subscribeOn(Schedulers.io()).subscribe(read);
+
+        write.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        write.assertCompleted();
+    }
+
+    @Test
+    public void higherPriority_isSentFirst() throws Exception {
+        final List<String> completions = Collections.synchronizedList(new ArrayList<String>());
+        final TestSubscriber<MuxStream> accepted = new TestSubscriber<>();
+        mServer.acceptStreams().subscribe(accepted);
+
+        final MuxStream low = mClient.openStream(MuxStream.PRIORITY_LOWEST);
+        final MuxStream high = mClient.openStream(MuxStream.PRIORITY_HIGHEST);
+        final TestSubscriber<Void> lowWrite = new TestSubscriber<>();
+        low.write(ByteBuffer.wrap(randomBytes(WINDOW_SIZE)))
+                .doOnCompleted(record(completions, "low"))
+                .subscribe(lowWrite);
+        high.write(ByteBuffer.wrap(randomBytes(WINDOW_SIZE)))
+                .doOnCompleted(record(completions, "high"))
+                .subscribe();
+        mClient.start();
+        mServer.start();
+
+        lowWrite.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertEquals(Collections.singletonList("high"), completions.subList(0, 1));
+    }
+
+    @Test
+    public void closedMultiplexer_failsPendingWritesAndCompletesStreams() throws Exception {
+        final TestSubscriber<MuxStream> accepted = new TestSubscriber<>();
+        mServer.acceptStreams().subscribe(accepted);
+        final MuxStream stream = mClient.openStream(MuxStream.PRIORITY_DEFAULT);
+        final TestSubscriber<Void> write = new TestSubscriber<>();
+        stream.write(ByteBuffer.wrap(randomBytes(16))).subscribe(write);
+
+        mClient.close();
+        mServer.start();
+
+        write.assertError(IOException.class);
+        accepted.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        accepted.assertNoValues();
+        accepted.assertCompleted();
+        assertEquals(0, mClient.getStreamCount());
+        assertFalse(mClientChannel.isOpen());
+    }
+
+    @Test
+    public void unsubscribedWrite_isWithdrawnBeforeItIsSent() throws Exception {
+        final TestSubscriber<byte[]> received = new TestSubscriber<>();
+        mServer.acceptStreams()
+                .first()
+                .flatMap(new Func1<MuxStream, Observable<byte[]>>() {
+                    @Override
+                    public Observable<byte[]> call(final MuxStream stream) {
+                        return readAll(stream);
+                    }
+                })
+                .subscribe(received);
+        final MuxStream stream = mClient.openStream(MuxStream.PRIORITY_DEFAULT);
+        final TestSubscriber<Void> withdrawn = new TestSubscriber<>();
+        stream.write(ByteBuffer.wrap(randomBytes(16))).subscribe(withdrawn);
+        withdrawn.unsubscribe();
+        final byte[] sent = randomBytes(32);
+        stream.write(ByteBuffer.wrap(sent)).subscribe();
+        stream.close();
+
+        mClient.start();
+        mServer.start();
+
+        received.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        received.assertNoErrors();
+        assertArrayEquals(sent, received.getOnNextEvents().get(0));
+        withdrawn.assertNoTerminalEvent();
+    }
+
+    @Test
+    public void truncatedControlFrame_failsTheConnection() throws Exception {
+        final TestSubscriber<MuxStream> accepted = new TestSubscriber<>();
+        mServer.acceptStreams().subscribe(accepted);
+        mServer.start();
+        sendFrame(1, StreamMultiplexer.TYPE_OPEN, (byte) MuxStream.PRIORITY_DEFAULT);
+        accepted.awaitValueCount(1, TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        final MuxStream stream = accepted.getOnNextEvents().get(0);
+        // More than the window, so that the write waits for a window update
+        final TestSubscriber<Void> write = new TestSubscriber<>();
+        stream.write(ByteBuffer.wrap(randomBytes(2 * WINDOW_SIZE))).subscribe(write);
+
+        sendFrame(1, StreamMultiplexer.TYPE_WINDOW_UPDATE, (byte) 0, (byte) 1);
+
+        write.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        write.assertError(IOException.class);
+        accepted.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        accepted.assertError(IOException.class);
+        assertEquals(0, mServer.getStreamCount());
+    }
+
+    @Test
+    public void emptyOpenFrame_failsTheConnection() throws Exception {
+        final TestSubscriber<MuxStream> accepted = new TestSubscriber<>();
+        mServer.acceptStreams().subscribe(accepted);
+        mServer.start();
+
+        sendFrame(1, StreamMultiplexer.TYPE_OPEN);
+
+        accepted.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        accepted.assertNoValues();
+        accepted.assertError(IOException.class);
+    }
+
+    @Test
+    public void reopenedStream_failsTheConnection() throws Exception {
+        final TestSubscriber<MuxStream> accepted = new TestSubscriber<>();
+        mServer.acceptStreams().subscribe(accepted);
+        mServer.start();
+
+        sendFrame(1, StreamMultiplexer.TYPE_OPEN, (byte) MuxStream.PRIORITY_DEFAULT);
+        sendFrame(1, StreamMultiplexer.TYPE_OPEN, (byte) MuxStream.PRIORITY_HIGHEST);
+
+        accepted.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        accepted.assertValueCount(1);
+        accepted.assertError(IOException.class);
+    }
+
+    @Test
+    public void streamOfTheWrongParity_failsTheConnection() throws Exception {
+        final TestSubscriber<MuxStream> accepted = new TestSubscriber<>();
+        mServer.acceptStreams().subscribe(accepted);
+        mServer.start();
+
+        // Even ids belong to the server
+        sendFrame(2, StreamMultiplexer.TYPE_OPEN, (byte) MuxStream.PRIORITY_DEFAULT);
+
+        accepted.awaitTerminalEvent(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        accepted.assertNoValues();
+        accepted.assertError(IOException.class);
+    }
+
+    /**
+     * Writes a frame to the server bypassing the client multiplexer
+     */
+    private void sendFrame(final int streamId, final byte type, final byte... payload)
+            throws IOException {
+        final ByteBuffer frame = ByteBuffer.allocate(StreamMultiplexer.HEADER_SIZE + payload.length);
+        frame.putInt(streamId).put(type).putInt(payload.length).put(payload).flip();
+        while (frame.hasRemaining()) {
+            mClientChannel.write(frame);
+        }
+    }
+
+    private static Action0 record(final List<String> completions, final String name) {
+        return new Action0() {
+            @Override
+            public void call() {
+                completions.add(name);
+            }
+        };
+    }
+
+    private static Observable<byte[]> readAll(final MuxStream stream) {
+        return stream.read()
+                .subscribeOn(Schedulers.io())
+                .reduce(new byte[0], new Func2<byte[], ByteBuffer, byte[]>() {
+                    @Override
+                    public byte[] call(final byte[] bytes, final ByteBuffer buffer) {
+                        final byte[] result = new byte[bytes.length + buffer.remaining()];
+                        System.arraycopy(bytes, 0, result, 0, bytes.length);
+                        buffer.get(result, bytes.length, buffer.remaining());
+                        return result;
+                    }
+                });
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
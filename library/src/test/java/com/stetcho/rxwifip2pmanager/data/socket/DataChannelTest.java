@@ -0,0 +1,190 @@
+package com.stetcho.rxwifip2pmanager.data.socket;
+
+import android.net.wifi.p2p.WifiP2pInfo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DataChannelTest {
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private DataChannelFactory mFactory;
+    private DataChannel mGroupOwner;
+    private DataChannel mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mFactory = new DataChannelFactory(findFreePort(), new ByteBufferPool(1024, 4));
+        final TestSubscriber<DataChannel> accepted = new TestSubscriber<>();
+        mFactory.open(info(true))
+                .subscribeOn(Schedulers.io())
+                .first()
+                .subscribe(accepted);
+
+        mClient = connectWithRetry();
+        accepted.awaitTerminalEvent();
+        mGroupOwner = accepted.getOnNextEvents().get(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.close();
+        mGroupOwner.close();
+    }
+
+    @Test
+    public void sentBuffers_areReceivedInOrder() throws Exception {
+        final byte[] payload = randomBytes(10000);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(payload.length);
+        direct.put(payload).flip();
+
+        mClient.send(direct).await();
+        mClient.close();
+
+        assertArrayEquals(payload, receiveAll(mGroupOwner));
+    }
+
+    @Test
+    public void sentFile_isReceivedCompletely() throws Exception {
+        final byte[] payload = randomBytes(100000);
+        final File file = mFolder.newFile();
+        final FileOutputStream output = new FileOutputStream(file);
+        output.write(payload);
+        output.close();
+
+        mGroupOwner.sendFile(file).await();
+        mGroupOwner.close();
+
+        assertArrayEquals(payload, receiveAll(mClient));
+    }
+
+    @Test
+    public void receive_readsOnlyWhenRequested() throws Exception {
+        final ByteBuffer buffer = ByteBuffer.wrap(randomBytes(3000));
+        mClient.send(buffer).await();
+
+        final TestSubscriber<ByteBuffer> subscriber = new TestSubscriber<>(0);
+        mGroupOwner.receive().subscribeOn(Schedulers.io()).subscribe(subscriber);
+        Thread.sleep(100);
+        subscriber.assertNoValues();
+
+        subscriber.requestMore(1);
+        subscriber.awaitValueCount(1, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+        subscriber.assertValueCount(1);
+        assertTrue(subscriber.getOnNextEvents().get(0).isDirect());
+        subscriber.unsubscribe();
+    }
+
+    @Test
+    public void releasedBuffers_areReused() throws Exception {
+        final ByteBufferPool pool = mFactory.getBufferPool();
+        final ByteBuffer first = pool.acquire();
+        pool.release(first);
+
+        assertEquals(1, pool.getPooledCount());
+        assertTrue(first == pool.acquire());
+        assertEquals(0, pool.getPooledCount());
+    }
+
+    @Test
+    public void closedChannel_completesReceive() throws Exception {
+        final TestSubscriber<ByteBuffer> subscriber = new TestSubscriber<>();
+        mGroupOwner.receive().subscribeOn(Schedulers.io()).subscribe(subscriber);
+
+        mClient.close();
+
+        subscriber.awaitTerminalEvent();
+        subscriber.assertCompleted();
+        assertFalse(mClient.isOpen());
+    }
+
+    @Test
+    public void openWithoutGroup_fails() throws Exception {
+        final TestSubscriber<DataChannel> subscriber = new TestSubscriber<>();
+        final WifiP2pInfo info = info(false);
+        info.groupFormed = false;
+
+        mFactory.open(info).subscribe(subscriber);
+
+        subscriber.assertError(IllegalStateException.class);
+    }
+
+    private DataChannel connectWithRetry() throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return mFactory.open(info(false)).toBlocking().single();
+            } catch (RuntimeException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private static byte[] receiveAll(final DataChannel channel) throws IOException {
+        final List<ByteBuffer> buffers = channel.receive().toList().toBlocking().single();
+        int size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        final byte[] bytes = new byte[size];
+        int offset = 0;
+        for (ByteBuffer buffer : buffers) {
+            final int length = buffer.remaining();
+            buffer.get(bytes, offset, length);
+            offset += length;
+            channel.release(buffer);
+        }
+        return bytes;
+    }
+
+    private static WifiP2pInfo info(final boolean isGroupOwner) throws IOException {
+        final WifiP2pInfo info = new WifiP2pInfo();
+        info.groupFormed = true;
+        info.isGroupOwner = isGroupOwner;
+        info.groupOwnerAddress = InetAddress.getByName("127.0.0.1");
+        return info;
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int findFreePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.stetcho.rxwifip2pmanager.data.transfer;
+
+import android.net.wifi.p2p.WifiP2pInfo;
+
+import com.stetcho.rxwifip2pmanager.data.socket.ByteBufferPool;
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannel;
+import com.stetcho.rxwifip2pmanager.data.socket.DataChannelFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkedFileTransferTest {
+    private static final int CHUNK_SIZE = 4096;
+    private static final int CHUNK_COUNT = 10;
+    private static final int TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private DataChannelFactory mFactory;
+    private ChunkedFileSender mSender;
+    private ChunkedFileReceiver mReceiver;
+    private File mDirectory;
+    private final List<DataChannel> mChannels = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mFactory = new DataChannelFactory(findFreePort(), new ByteBufferPool(1024, 4));
+        mSender = new ChunkedFileSender(CHUNK_SIZE);
+        mDirectory = mFolder.newFolder();
+        mReceiver = new ChunkedFileReceiver(mDirectory);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (DataChannel channel : mChannels) {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void file_isReceivedCompletely() throws Exception {
+        final byte[] payload = randomBytes(CHUNK_COUNT * CHUNK_SIZE - 100, 1);
+        final File file = writeFile("payload.bin", payload);
+        final DataChannel[] link = connect();
+
+        final TestSubscriber<TransferProgress> received = receive(link[0]);
+        final TestSubscriber<TransferProgress> sent = new TestSubscriber<>();
+        mSender.send(link[1], file).subscribe(sent);
+        received.awaitTerminalEvent();
+
+        sent.assertCompleted();
+        received.assertCompleted();
+        final TransferProgress last = sent.getOnNextEvents().get(sent.getOnNextEvents().size() - 1);
+        assertTrue(last.isCompleted());
+        assertEquals(CHUNK_COUNT, last.getTransferredChunks());
+        assertEquals(payload.length, last.getTransferredBytes());
+        assertEquals(CHUNK_COUNT + 2, received.getOnNextEvents().size());
+        assertArrayEquals(payload, readFile(new File(mDirectory, "payload.bin")));
+        assertEquals(1, mDirectory.list().length);
+    }
+
+    @Test
+    public void senderDrop_resumesWithTheMissingChunks() throws Exception {
+        final byte[] payload = randomBytes(CHUNK_COUNT * CHUNK_SIZE, 2);
+        final File file = writeFile("payload.bin", payload);
+        final DataChannel[] link = connect();
+
+        final TestSubscriber<TransferProgress> received = receive(link[0]);
+        // The offer and four chunks make it through before the link drops
+        mSender.send(link[1], file).take(5).toBlocking().last();
+        link[1].close();
+        received.awaitTerminalEvent();
+        received.assertError(IOException.class);
+        assertTrue(new File(mDirectory, "payload.bin" + ChunkedFileReceiver.MANIFEST_SUFFIX)
+                .exists());
+
+        final TransferProgress resumed = transfer(file);
+
+        assertEquals(4, resumed.getSkippedChunks());
+        assertEquals(CHUNK_COUNT - 4, resumed.getTransferredChunks());
+        assertArrayEquals(payload, readFile(new File(mDirectory, "payload.bin")));
+        assertEquals(1, mDirectory.list().length);
+    }
+
+    @Test
+    public void receiverDrop_resumesWithTheMissingChunks() throws Exception {
+        final byte[] payload = randomBytes(CHUNK_COUNT * CHUNK_SIZE, 3);
+        final File file = writeFile("payload.bin", payload);
+        final DataChannel[] link = connect();
+
+        final TestSubscriber<TransferProgress> sent = new TestSubscriber<>();
+        mSender.send(link[1], file).subscribeOn(Schedulers.io()).subscribe(sent);
+        mReceiver.receive(link[0]).take(4).toBlocking().last();
+        link[0].close();
+        sent.awaitTerminalEvent();
+        sent.assertError(IOException.class);
+
+        final TransferProgress resumed = transfer(file);
+
+        assertEquals(3, resumed.getSkippedChunks());
+        assertEquals(CHUNK_COUNT - 3, resumed.getTransferredChunks());
+        assertArrayEquals(payload, readFile(new File(mDirectory, "payload.bin")));
+    }
+
+    @Test
+    public void repeatedChunks_areSentOnce() throws Exception {
+        final byte[] a = randomBytes(CHUNK_SIZE, 4);
+        final byte[] b = randomBytes(CHUNK_SIZE, 5);
+        final byte[] c = randomBytes(CHUNK_SIZE / 2, 6);
+        final byte[] payload = concat(a, b, a, a, b, c);
+        final File file = writeFile("repeated.bin", payload);
+
+        final TransferProgress last = transfer(file);
+
+        assertEquals(3, last.getSkippedChunks());
+        assertEquals(3, last.getTransferredChunks());
+        assertArrayEquals(payload, readFile(new File(mDirectory, "repeated.bin")));
+    }
+
+    @Test
+    public void olderVersion_sendsOnlyTheChangedChunks() throws Exception {
+        final byte[] older = randomBytes(CHUNK_COUNT * CHUNK_SIZE, 7);
+        writeFile(new File(mDirectory, "payload.bin"), older);
+        final byte[] newer = older.clone();
+        newer[2 * CHUNK_SIZE + 10]++;
+        final File file = writeFile("payload.bin", newer);
+
+        final TransferProgress last = transfer(file);
+
+        assertEquals(CHUNK_COUNT - 1, last.getSkippedChunks());
+        assertEquals(1, last.getTransferredChunks());
+        assertEquals(CHUNK_SIZE, last.getTransferredBytes());
+        assertArrayEquals(newer, readFile(new File(mDirectory, "payload.bin")));
+    }
+
+    @Test
+    public void progress_isBackpressured() throws Exception {
+        final File file = writeFile("payload.bin", randomBytes(CHUNK_COUNT * CHUNK_SIZE, 8));
+        final DataChannel[] link = connect();
+        receive(link[0]);
+
+        final TestSubscriber<TransferProgress> sent = new TestSubscriber<>(0);
+        mSender.send(link[1], file).subscribeOn(Schedulers.io()).subscribe(sent);
+        sent.requestMore(2);
+        sent.awaitValueCount(2, TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        Thread.sleep(100);
+
+        sent.assertValueCount(2);
+        assertEquals(1, sent.getOnNextEvents().get(1).getTransferredChunks());
+        assertFalse(sent.getOnNextEvents().get(1).isCompleted());
+        sent.unsubscribe();
+    }
+
+    private TransferProgress transfer(final File file) throws Exception {
+        final DataChannel[] link = connect();
+        final TestSubscriber<TransferProgress> received = receive(link[0]);
+        final TransferProgress last = mSender.send(link[1], file).toBlocking().last();
+        received.awaitTerminalEvent();
+        received.assertCompleted();
+        return last;
+    }
+
+    private TestSubscriber<TransferProgress> receive(final DataChannel channel) {
+        final TestSubscriber<TransferProgress> subscriber = new TestSubscriber<>();
+        mReceiver.receive(channel).subscribeOn(Schedulers.io()).subscribe(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * @return the group owner side and the client side of a new loopback link
+     */
+    private DataChannel[] connect() throws Exception {
+        final TestSubscriber<DataChannel> accepted = new TestSubscriber<>();
+        mFactory.open(info(true))
+                .subscribeOn(Schedulers.io())
+                .first()
+                .subscribe(accepted);
+        final DataChannel client = connectWithRetry();
+        accepted.awaitTerminalEvent();
+        final DataChannel groupOwner = accepted.getOnNextEvents().get(0);
+        mChannels.add(groupOwner);
+        mChannels.add(client);
+        return new DataChannel[]{groupOwner, client};
+    }
+
+    private DataChannel connectWithRetry() throws Exception {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                return mFactory.open(info(false)).toBlocking().single();
+            } catch (RuntimeException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private File writeFile(final String name, final byte[] bytes) throws IOException {
+        return writeFile(new File(mFolder.newFolder(), name), bytes);
+    }
+
+    private static File writeFile(final File file, final byte[] bytes) throws IOException {
+        final FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+
+    private static byte[] readFile(final File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        final FileInputStream input = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                offset += input.read(bytes, offset, bytes.length - offset);
+            }
+        } finally {
+            input.close();
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(final byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        final byte[] bytes = new byte[length];
+        int offset = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, bytes, offset, part.length);
+            offset += part.length;
+        }
+        return bytes;
+    }
+
+    private static WifiP2pInfo info(final boolean isGroupOwner) throws IOException {
+        final WifiP2pInfo info = new WifiP2pInfo();
+        info.groupFormed = true;
+        info.isGroupOwner = isGroupOwner;
+        info.groupOwnerAddress = InetAddress.getByName("127.0.0.1");
+        return info;
+    }
+
+    private static byte[] randomBytes(final int size, final long seed) {
+        final byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int findFreePort() throws IOException {
+        final ServerSocket socket = new ServerSocket(0);
+        try {
+            return socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,707 @@
+package com.stetcho.rxwifip2pmanager.data.wifi;
+
+import android.net.wifi.p2p.WifiP2pConfig;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+import android.os.Build;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.connection.PeerConnectionResult;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pBusyException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pChannelDisconnectedException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pErrorException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pNoServiceRequestsException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pUnsupportedException;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.HistogramP2pMetrics;
+import com.stetcho.rxwifip2pmanager.data.wifi.metrics.P2pOperation;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerChange;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerHistory;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerRegistry;
+import com.stetcho.rxwifip2pmanager.data.wifi.peer.PeerTable;
+import com.stetcho.rxwifip2pmanager.data.wifi.retry.RetryPolicy;
+import com.stetcho.rxwifip2pmanager.data.wifi.service.DnsSdRecord;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+import com.stetcho.rxwifip2pmanager.fake.FakeContext;
+import com.stetcho.rxwifip2pmanager.fake.FakeWifiP2pManager;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionInfo;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.discoveryChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.group;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.peersChanged;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RxWifiP2pManagerTest {
+    private static final String PEER_A = "aa:00:00:00:00:01";
+    private static final String PEER_B = "aa:00:00:00:00:02";
+    private static final String PEER_C = "aa:00:00:00:00:03";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private FakeWifiP2pManager mFramework;
+    private FakeBroadcastObservableManager mBroadcasts;
+    private RxWifiP2pManager mManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mFramework = new FakeWifiP2pManager();
+        mBroadcasts = new FakeBroadcastObservableManager();
+        mManager = new RxWifiP2pManager(new FakeContext(), mFramework.getWifiP2pManager(),
+                mBroadcasts);
+    }
+
+    @Test
+    public void discoverPeerChanges_emitsOnlyDifferences() throws Exception {
+        final WifiP2pDevice first = device("aa:00:00:00:00:01");
+        final WifiP2pDevice second = device("aa:00:00:00:00:02");
+        final TestSubscriber<PeerChange> subscriber = new TestSubscriber<>();
+        mManager.discoverPeerChanges().subscribe(subscriber);
+
+        mFramework.succeed("discoverPeers");
+        mFramework.respondPeers(deviceList(first));
+        assertTypes(subscriber.getOnNextEvents(), PeerChange.Type.ADDED);
+
+        mBroadcasts.send(peersChanged());
+        mFramework.respondPeers(deviceList(device("aa:00:00:00:00:01"), second));
+        assertTypes(subscriber.getOnNextEvents(), PeerChange.Type.ADDED, PeerChange.Type.ADDED);
+        assertEquals(second, subscriber.getOnNextEvents().get(1).getDevice());
+
+        mBroadcasts.send(peersChanged());
+        mFramework.respondPeers(deviceList(second));
+        assertTypes(subscriber.getOnNextEvents(),
+                PeerChange.Type.ADDED, PeerChange.Type.ADDED, PeerChange.Type.REMOVED);
+
+        subscriber.assertNoTerminalEvent();
+        subscriber.unsubscribe();
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void discoverPeerChanges_restartsStoppedDiscovery() throws Exception {
+        final TestSubscriber<PeerChange> subscriber = new TestSubscriber<>();
+        mManager.discoverPeerChanges().subscribe(subscriber);
+        mFramework.succeed("discoverPeers");
+        mFramework.respondPeers(deviceList());
+
+        mBroadcasts.send(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STARTED));
+        assertEquals(1, mFramework.getCallCount("discoverPeers"));
+
+        mBroadcasts.send(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STOPPED));
+        assertEquals(2, mFramework.getCallCount("discoverPeers"));
+
+        mFramework.fail("discoverPeers", WifiP2pManager.BUSY);
+        subscriber.assertNoTerminalEvent();
+    }
+
+    @Test
+    public void discoverPeerChanges_sharesOneDiscovery() throws Exception {
+        final RxWifiP2pManager manager = newJellyBeanManager();
+        final TestSubscriber<PeerChange> first = new TestSubscriber<>();
+        manager.discoverPeerChanges().subscribe(first);
+        mFramework.succeed("discoverPeers");
+        mFramework.respondPeers(deviceList(device(PEER_A), device(PEER_B)));
+
+        final TestSubscriber<PeerChange> late = new TestSubscriber<>();
+        manager.discoverPeerChanges().subscribe(late);
+        assertTypes(late.getOnNextEvents(), PeerChange.Type.ADDED, PeerChange.Type.ADDED);
+        assertEquals(1, mFramework.getCallCount("discoverPeers"));
+
+        first.unsubscribe();
+        assertEquals(0, mFramework.getCallCount("stopPeerDiscovery"));
+        late.unsubscribe();
+        assertEquals(1, mFramework.getCallCount("stopPeerDiscovery"));
+    }
+
+    @Test
+    public void discoverPeerChanges_doesNotRestartARequestedStop() throws Exception {
+        final RxWifiP2pManager manager = newJellyBeanManager();
+        final TestSubscriber<PeerChange> subscriber = new TestSubscriber<>();
+        manager.discoverPeerChanges().subscribe(subscriber);
+        mFramework.succeed("discoverPeers");
+        mFramework.respondPeers(deviceList());
+
+        manager.stopPeerDiscovery().subscribe();
+        mFramework.succeed("stopPeerDiscovery");
+        mBroadcasts.send(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STOPPED));
+        assertEquals(1, mFramework.getCallCount("discoverPeers"));
+
+        manager.singleDiscoverPeers().subscribe();
+        mFramework.succeed("discoverPeers");
+        // Stopped by the framework
+        mBroadcasts.send(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STOPPED));
+        assertEquals(3, mFramework.getCallCount("discoverPeers"));
+        subscriber.assertNoTerminalEvent();
+    }
+
+    @Test
+    public void concurrentPeerRequests_shareOneFrameworkCall() throws Exception {
+        final WifiP2pDeviceList peers = deviceList(device("aa:00:00:00:00:01"));
+        final List<TestSubscriber<WifiP2pDeviceList>> subscribers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final TestSubscriber<WifiP2pDeviceList> subscriber = new TestSubscriber<>();
+            mManager.requestPeersList().subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+
+        assertEquals(1, mFramework.getCallCount("requestPeers"));
+        assertEquals(1, mManager.getQueueDepth());
+
+        mFramework.respondPeers(peers);
+
+        for (TestSubscriber<WifiP2pDeviceList> subscriber : subscribers) {
+            subscriber.assertValue(peers);
+        }
+        assertEquals(0, mManager.getQueueDepth());
+    }
+
+    @Test
+    public void requestPeers_flattensAndProjectsTheList() throws Exception {
+        final WifiP2pDeviceList peers = deviceList(device(PEER_A), device(PEER_B));
+        final TestSubscriber<WifiP2pDevice> devices = new TestSubscriber<>();
+        final TestSubscriber<PeerTable> table = new TestSubscriber<>();
+        mManager.requestPeers().subscribe(devices);
+        mManager.requestPeerTable().subscribe(table);
+
+        mFramework.respondPeers(peers);
+
+        devices.assertValueCount(2);
+        devices.assertCompleted();
+        assertEquals(2, table.getOnNextEvents().get(0).size());
+        assertTrue(table.getOnNextEvents().get(0).indexOf(PEER_B) >= 0);
+        assertEquals(1, mFramework.getCallCount("requestPeers"));
+    }
+
+    @Test
+    public void discoverServices_emitsResponsesAndRemovesItsRequest() throws Exception {
+        final TestSubscriber<DnsSdRecord> subscriber = new TestSubscriber<>();
+        mManager.discoverServices().subscribe(subscriber);
+        mFramework.succeed("addServiceRequest");
+        mFramework.succeed("discoverServices");
+
+        mFramework.respondDnsSdService("printer", "_ipp._tcp.local.", device(PEER_A));
+        mFramework.respondDnsSdTxtRecord("printer._ipp._tcp.local.",
+                Collections.singletonMap("color", "true"), device(PEER_A));
+
+        assertEquals(2, subscriber.getOnNextEvents().size());
+        assertEquals(DnsSdRecord.Type.SERVICE, subscriber.getOnNextEvents().get(0).getType());
+        assertEquals("true", subscriber.getOnNextEvents().get(1).getTxtRecord().get("color"));
+        subscriber.assertNoTerminalEvent();
+
+        subscriber.unsubscribe();
+        assertEquals(1, mFramework.getCallCount("removeServiceRequest"));
+    }
+
+    @Test
+    public void discoverServices_failsWhenTheFrameworkRejectsIt() throws Exception {
+        final TestSubscriber<DnsSdRecord> subscriber = new TestSubscriber<>();
+        mManager.discoverServices().subscribe(subscriber);
+        mFramework.succeed("addServiceRequest");
+
+        mFramework.fail("discoverServices", WifiP2pManager.NO_SERVICE_REQUESTS);
+
+        subscriber.assertError(P2pNoServiceRequestsException.class);
+    }
+
+    @Test
+    public void requestTxtRecord_isServedFromTheCacheOnceReceived() throws Exception {
+        final TestSubscriber<DnsSdRecord> first = new TestSubscriber<>();
+        mManager.requestTxtRecord(PEER_B).subscribe(first);
+        mFramework.succeed("addServiceRequest");
+        mFramework.succeed("discoverServices");
+        mFramework.respondDnsSdTxtRecord("a._ipp._tcp.local.",
+                Collections.<String, String>emptyMap(), device(PEER_A));
+        mFramework.respondDnsSdTxtRecord("b._ipp._tcp.local.",
+                Collections.singletonMap("rack", "7"), device(PEER_B));
+
+        final TestSubscriber<DnsSdRecord> second = new TestSubscriber<>();
+        mManager.requestTxtRecord(PEER_B).subscribe(second);
+
+        assertEquals("7", first.getOnNextEvents().get(0).getTxtRecord().get("rack"));
+        second.assertValue(first.getOnNextEvents().get(0));
+        assertEquals(1, mFramework.getCallCount("discoverServices"));
+        assertEquals(1, mFramework.getCallCount("setDnsSdResponseListeners"));
+        assertEquals(1, mManager.getTxtRecordCache().getHitCount());
+    }
+
+    @Test
+    public void connectionInfo_isReusedUntilTheConnectionChanges() throws Exception {
+        final WifiP2pInfo first = connectionInfo(false, false);
+        final TestSubscriber<WifiP2pInfo> concurrent = new TestSubscriber<>();
+        final TestSubscriber<WifiP2pInfo> otherConcurrent = new TestSubscriber<>();
+        mManager.requestConnectionInfo().subscribe(concurrent);
+        mManager.requestConnectionInfo().subscribe(otherConcurrent);
+        mFramework.respondConnectionInfo(first);
+
+        final TestSubscriber<WifiP2pInfo> reused = new TestSubscriber<>();
+        mManager.requestConnectionInfo().subscribe(reused);
+
+        concurrent.assertValue(first);
+        otherConcurrent.assertValue(first);
+        reused.assertValue(first);
+        assertEquals(1, mFramework.getCallCount("requestConnectionInfo"));
+
+        final WifiP2pInfo changed = connectionInfo(true, true);
+        mBroadcasts.send(connectionChanged(true, changed, group(true, PEER_A)));
+        final TestSubscriber<WifiP2pInfo> afterChange = new TestSubscriber<>();
+        mManager.requestConnectionInfo().subscribe(afterChange);
+
+        afterChange.assertValue(changed);
+        assertEquals(1, mFramework.getCallCount("requestConnectionInfo"));
+    }
+
+    @Test
+    public void groupInfo_isSharedAndInvalidatedByRemovingTheGroup() throws Exception {
+        final WifiP2pGroup group = group(true, PEER_A);
+        final TestSubscriber<WifiP2pGroup> first = new TestSubscriber<>();
+        final TestSubscriber<WifiP2pGroup> second = new TestSubscriber<>();
+        mManager.requestGroupInfo().subscribe(first);
+        mManager.requestGroupInfo().subscribe(second);
+        mFramework.respondGroupInfo(group);
+        first.assertValue(group);
+        second.assertValue(group);
+
+        mManager.disconnect().subscribe(new TestSubscriber<Void>());
+        mFramework.succeed("removeGroup");
+        final TestSubscriber<WifiP2pGroup> afterRemoval = new TestSubscriber<>();
+        mManager.requestGroupInfo().subscribe(afterRemoval);
+
+        assertEquals(2, mFramework.getCallCount("requestGroupInfo"));
+        mFramework.respondGroupInfo(null);
+        afterRemoval.assertValue(null);
+    }
+
+    @Test
+    public void disconnect_completesImmediatelyWhenNotTheGroupOwner() throws Exception {
+        final TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        mManager.disconnect().subscribe(subscriber);
+        mFramework.respondGroupInfo(group(false));
+
+        subscriber.assertCompleted();
+        assertEquals(0, mFramework.getCallCount("removeGroup"));
+    }
+
+    @Test
+    public void groupMembership_emitsTheClientsThatJoinAndLeave() throws Exception {
+        final TestSubscriber<PeerChange> subscriber = new TestSubscriber<>();
+        mManager.observeGroupMembership().subscribe(subscriber);
+        mFramework.respondGroupInfo(group(true, PEER_A));
+
+        final WifiP2pInfo owner = connectionInfo(true, true);
+        mBroadcasts.send(connectionChanged(true, owner, group(true, PEER_A, PEER_B)));
+        mBroadcasts.send(connectionChanged(true, owner, group(true, PEER_B)));
+        mBroadcasts.send(connectionChanged(false, connectionInfo(false, false), null));
+
+        final List<PeerChange> changes = subscriber.getOnNextEvents();
+        assertTypes(changes, PeerChange.Type.ADDED, PeerChange.Type.ADDED,
+                PeerChange.Type.REMOVED, PeerChange.Type.REMOVED);
+        assertEquals(Arrays.asList(PEER_A, PEER_B, PEER_A, PEER_B), Arrays.asList(
+                changes.get(0).getDeviceAddress(), changes.get(1).getDeviceAddress(),
+                changes.get(2).getDeviceAddress(), changes.get(3).getDeviceAddress()));
+    }
+
+    @Test
+    public void groupMembership_requestsTheGroupWhenTheBroadcastLacksIt() throws Exception {
+        final TestSubscriber<PeerChange> subscriber = new TestSubscriber<>();
+        mManager.observeGroupMembership().subscribe(subscriber);
+        mFramework.respondGroupInfo(group(true));
+
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true), null));
+        mFramework.respondGroupInfo(group(true, PEER_A));
+
+        assertTypes(subscriber.getOnNextEvents(), PeerChange.Type.ADDED);
+        assertEquals(PEER_A, subscriber.getOnNextEvents().get(0).getDeviceAddress());
+    }
+
+    @Test
+    public void disconnectedChannel_isReinitializedAndFailsTheOperationInFlight()
+            throws Exception {
+        final TestSubscriber<WifiP2pDeviceList> lost = new TestSubscriber<>();
+        final TestSubscriber<WifiP2pInfo> next = new TestSubscriber<>();
+        mManager.discoverServices().subscribe(new TestSubscriber<DnsSdRecord>());
+        mFramework.succeed("addServiceRequest");
+        mFramework.succeed("discoverServices");
+        mManager.requestPeersList().subscribe(lost);
+        mManager.requestConnectionInfo().subscribe(next);
+
+        mFramework.disconnectChannel();
+
+        lost.assertError(P2pChannelDisconnectedException.class);
+        assertEquals(2, mFramework.getCallCount("initialize"));
+        assertEquals(2, mFramework.getCallCount("setDnsSdResponseListeners"));
+        mFramework.respondConnectionInfo(connectionInfo(false, false));
+        next.assertValueCount(1);
+    }
+
+    @Test
+    public void zeroCoalescingWindow_sharesOnlyInFlightRequests() throws Exception {
+        mManager.setRequestCoalescingWindow(0, TimeUnit.SECONDS);
+        mManager.requestConnectionInfo().subscribe(new TestSubscriber<WifiP2pInfo>());
+        mManager.requestConnectionInfo().subscribe(new TestSubscriber<WifiP2pInfo>());
+        mFramework.respondConnectionInfo(new WifiP2pInfo());
+
+        mManager.requestConnectionInfo().subscribe(new TestSubscriber<WifiP2pInfo>());
+
+        assertEquals(2, mFramework.getCallCount("requestConnectionInfo"));
+    }
+
+    @Test
+    public void connectionChangeLateInTheWindow_doesNotExtendIt() throws Exception {
+        mManager.setRequestCoalescingWindow(500, TimeUnit.MILLISECONDS);
+        mManager.requestGroupInfo().subscribe(new TestSubscriber<WifiP2pGroup>());
+        mFramework.respondGroupInfo(group(true, PEER_A));
+
+        Thread.sleep(300);
+        final WifiP2pGroup joined = group(true, PEER_A, PEER_B);
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true), joined));
+        final TestSubscriber<WifiP2pGroup> updated = new TestSubscriber<>();
+        mManager.requestGroupInfo().subscribe(updated);
+        updated.assertValue(joined);
+
+        // Nothing watches the broadcasts once the first window has ended
+        Thread.sleep(400);
+        mBroadcasts.send(connectionChanged(false, null, null));
+        final TestSubscriber<WifiP2pGroup> afterTheWindow = new TestSubscriber<>();
+        mManager.requestGroupInfo().subscribe(afterTheWindow);
+
+        assertEquals(2, mFramework.getCallCount("requestGroupInfo"));
+        mFramework.respondGroupInfo(null);
+        afterTheWindow.assertValue(null);
+    }
+
+    @Test
+    public void overlappingOperations_areSerialized() throws Exception {
+        final TestSubscriber<Void> discover = new TestSubscriber<>();
+        final TestSubscriber<Void> connect = new TestSubscriber<>();
+        final TestSubscriber<WifiP2pInfo> connectionInfo = new TestSubscriber<>();
+        mManager.discoverPeers().subscribe(discover);
+        mManager.connect(new WifiP2pConfig()).subscribe(connect);
+        mManager.requestConnectionInfo().subscribe(connectionInfo);
+
+        assertEquals(1, mFramework.getCallCount("discoverPeers"));
+        assertEquals(0, mFramework.getCallCount("connect"));
+        assertEquals(3, mManager.getQueueDepth());
+
+        mFramework.succeed("discoverPeers");
+        discover.assertCompleted();
+        assertEquals(1, mFramework.getCallCount("connect"));
+        assertEquals(0, mFramework.getCallCount("requestConnectionInfo"));
+
+        mFramework.fail("connect", WifiP2pManager.ERROR);
+        connect.assertError(P2pErrorException.class);
+        assertEquals(1, mFramework.getCallCount("requestConnectionInfo"));
+
+        final WifiP2pInfo info = new WifiP2pInfo();
+        mFramework.respondConnectionInfo(info);
+        connectionInfo.assertValue(info);
+    }
+
+    @Test
+    public void discoverPeers_failsWithTypedException() throws Exception {
+        final TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        mManager.discoverPeers().subscribe(subscriber);
+
+        mFramework.fail("discoverPeers", WifiP2pManager.BUSY);
+
+        subscriber.assertError(P2pBusyException.class);
+    }
+
+    @Test
+    public void discoverPeers_isRetriedOnTransientErrors() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        mManager.discoverPeers(new RetryPolicy.Builder().scheduler(scheduler).jitter(0).build())
+                .subscribe(subscriber);
+
+        mFramework.fail("discoverPeers", WifiP2pManager.BUSY);
+        scheduler.advanceTimeBy(100, TimeUnit.MILLISECONDS);
+        assertEquals(2, mFramework.getCallCount("discoverPeers"));
+
+        mFramework.succeed("discoverPeers");
+        subscriber.assertCompleted();
+    }
+
+    @Test
+    public void connect_isNotRetriedOnPermanentErrors() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        mManager.connect(new WifiP2pConfig(),
+                new RetryPolicy.Builder().scheduler(scheduler).build())
+                .subscribe(subscriber);
+
+        mFramework.fail("connect", WifiP2pManager.P2P_UNSUPPORTED);
+        scheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        assertEquals(1, mFramework.getCallCount("connect"));
+        subscriber.assertError(P2pUnsupportedException.class);
+    }
+
+    @Test
+    public void unsubscribedConnect_isCancelledOnceTheFrameworkAnswers() throws Exception {
+        final TestSubscriber<Void> subscriber = new TestSubscriber<>();
+        mManager.connect(new WifiP2pConfig()).subscribe(subscriber);
+
+        subscriber.unsubscribe();
+        assertEquals(0, mFramework.getCallCount("cancelConnect"));
+
+        mFramework.succeed("connect");
+        subscriber.assertNoTerminalEvent();
+        assertEquals(1, mFramework.getCallCount("cancelConnect"));
+
+        mFramework.succeed("cancelConnect");
+        assertEquals(0, mManager.getQueueDepth());
+    }
+
+    @Test
+    public void enabledPeerCache_servesRepeatedRequestsFromMemory() throws Exception {
+        final WifiP2pDeviceList peers = deviceList(device("aa:00:00:00:00:01"));
+        mManager.enablePeerCache(1, TimeUnit.MINUTES);
+
+        final TestSubscriber<WifiP2pDeviceList> first = new TestSubscriber<>();
+        mManager.requestPeersList().subscribe(first);
+        mFramework.respondPeers(peers);
+        final TestSubscriber<WifiP2pDeviceList> second = new TestSubscriber<>();
+        mManager.requestPeersList().subscribe(second);
+
+        second.assertValue(peers);
+        assertEquals(1, mFramework.getCallCount("requestPeers"));
+        assertEquals(1, mManager.getPeerCache().getHitCount());
+    }
+
+    @Test
+    public void enabledPeerRegistry_recordsThePeersOfEachBroadcast() throws Exception {
+        final Subscription subscription = mManager.enablePeerRegistry();
+
+        mBroadcasts.send(peersChanged(deviceList(device(PEER_A), device(PEER_B))));
+        mBroadcasts.send(peersChanged());
+        mFramework.respondPeers(deviceList(device(PEER_C)));
+        subscription.unsubscribe();
+        mBroadcasts.send(peersChanged(deviceList()));
+
+        final PeerRegistry.Snapshot snapshot = mManager.getPeerRegistry().snapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals(WifiP2pDevice.UNAVAILABLE, snapshot.getStatus(snapshot.indexOf(PEER_A)));
+        assertEquals(WifiP2pDevice.AVAILABLE, snapshot.getStatus(snapshot.indexOf(PEER_C)));
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void peerHistory_recordsPeerListsAndConnects() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final PeerHistory history = new PeerHistory(mFolder.newFile(), scheduler);
+        mManager.setPeerHistory(history);
+
+        mManager.requestPeersList().subscribe(new TestSubscriber<WifiP2pDeviceList>());
+        mFramework.respondPeers(deviceList(device(PEER_A)));
+        final WifiP2pConfig config = new WifiP2pConfig();
+        config.deviceAddress = PEER_A;
+        mManager.connect(config).subscribe(new TestSubscriber<Void>());
+        mFramework.succeed("connect");
+        mManager.setPeerHistory(null);
+        mManager.requestPeersList().subscribe(new TestSubscriber<WifiP2pDeviceList>());
+        mFramework.respondPeers(deviceList(device(PEER_B)));
+
+        final TestSubscriber<List<PeerHistory.Peer>> subscriber = new TestSubscriber<>();
+        history.getPeers().subscribe(subscriber);
+        scheduler.triggerActions();
+        final List<PeerHistory.Peer> peers = subscriber.getOnNextEvents().get(0);
+        assertEquals(1, peers.size());
+        assertEquals(PEER_A, peers.get(0).getDeviceAddress());
+        assertEquals(1, peers.get(0).getConnectSuccesses());
+    }
+
+    @Test
+    public void peerHistory_doesNotRecordCachedPeerLists() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final PeerHistory history = new PeerHistory(mFolder.newFile(), scheduler);
+        mManager.setPeerHistory(history);
+        mManager.enablePeerCache(1, TimeUnit.MINUTES);
+
+        mManager.requestPeersList().subscribe(new TestSubscriber<WifiP2pDeviceList>());
+        mFramework.respondPeers(deviceList(device(PEER_A)));
+        scheduler.advanceTimeBy(5, TimeUnit.MINUTES);
+        mManager.requestPeersList().subscribe(new TestSubscriber<WifiP2pDeviceList>());
+        assertEquals(1, mManager.getPeerCache().getHitCount());
+
+        final TestSubscriber<List<PeerHistory.Peer>> subscriber = new TestSubscriber<>();
+        history.getPeers().subscribe(subscriber);
+        scheduler.triggerActions();
+        assertEquals(0, subscriber.getOnNextEvents().get(0).get(0).getLastSeenMillis());
+    }
+
+    @Test
+    public void metrics_recordLatenciesAndFailureReasons() throws Exception {
+        final HistogramP2pMetrics metrics = new HistogramP2pMetrics();
+        mManager.setMetrics(metrics);
+
+        mManager.discoverPeers().subscribe(new TestSubscriber<Void>());
+        mFramework.fail("discoverPeers", WifiP2pManager.BUSY);
+        mManager.requestConnectionInfo().subscribe(new TestSubscriber<WifiP2pInfo>());
+        mFramework.respondConnectionInfo(new WifiP2pInfo());
+
+        assertEquals(1, metrics.getFailureCount(P2pOperation.DISCOVER_PEERS, WifiP2pManager.BUSY));
+        assertEquals(0, metrics.getFailureCount(P2pOperation.DISCOVER_PEERS, WifiP2pManager.ERROR));
+        assertEquals(1, metrics.getSuccessCount(P2pOperation.REQUEST_CONNECTION_INFO));
+        assertEquals(1, metrics.getLatency(P2pOperation.REQUEST_CONNECTION_INFO).getCount());
+        assertEquals(0, metrics.getLatency(P2pOperation.DISCOVER_PEERS).getCount());
+        assertEquals(1, metrics.getFailureLatency(P2pOperation.DISCOVER_PEERS).getCount());
+        assertEquals(0, metrics.getFailureLatency(P2pOperation.REQUEST_CONNECTION_INFO).getCount());
+    }
+
+    @Test
+    public void metrics_recordBroadcastToEmissionLag() throws Exception {
+        final HistogramP2pMetrics metrics = new HistogramP2pMetrics();
+        mManager.setMetrics(metrics);
+        mManager.discoverAndRequestPeersList().subscribe(new TestSubscriber<WifiP2pDeviceList>());
+
+        mFramework.succeed("discoverPeers");
+        mBroadcasts.send(peersChanged());
+        assertEquals(0, metrics.getBroadcastLag(P2pEvent.Type.PEERS_CHANGED).getCount());
+        mFramework.respondPeers(deviceList());
+
+        assertEquals(1, metrics.getBroadcastLag(P2pEvent.Type.PEERS_CHANGED).getCount());
+        assertEquals(1, metrics.getSuccessCount(P2pOperation.REQUEST_PEERS));
+    }
+
+    @Test
+    public void connectAll_createsGroupAndPipelinesInvitations() throws Exception {
+        // Reused group info would keep watching the broadcasts for a while
+        mManager.setRequestCoalescingWindow(0, TimeUnit.SECONDS);
+        final TestScheduler scheduler = new TestScheduler();
+        final TestSubscriber<PeerConnectionResult> subscriber = new TestSubscriber<>();
+        mManager.connectAll(Arrays.asList(PEER_A, PEER_B, PEER_C), 30, TimeUnit.SECONDS,
+                scheduler).subscribe(subscriber);
+
+        mFramework.respondGroupInfo(null);
+        mFramework.succeed("createGroup");
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true), group(true)));
+
+        // Every invitation is sent before any peer has joined
+        mFramework.succeed("connect");
+        mFramework.succeed("connect");
+        mFramework.fail("connect", WifiP2pManager.BUSY);
+        assertEquals(3, mFramework.getCallCount("connect"));
+        subscriber.assertValueCount(1);
+
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true), group(true, PEER_B)));
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true),
+                group(true, PEER_A, PEER_B)));
+
+        final List<PeerConnectionResult> results = subscriber.getOnNextEvents();
+        assertResult(results.get(0), PEER_C, PeerConnectionResult.Status.FAILED);
+        assertTrue(results.get(0).getError() instanceof P2pBusyException);
+        assertResult(results.get(1), PEER_B, PeerConnectionResult.Status.CONNECTED);
+        assertResult(results.get(2), PEER_A, PeerConnectionResult.Status.CONNECTED);
+        subscriber.assertCompleted();
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void connectAll_reportsClientsAndTimeoutsOfExistingGroup() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final TestSubscriber<PeerConnectionResult> subscriber = new TestSubscriber<>();
+        mManager.connectAll(Arrays.asList(PEER_A, PEER_B), 30, TimeUnit.SECONDS, scheduler)
+                .subscribe(subscriber);
+
+        mFramework.respondGroupInfo(group(true, PEER_A));
+        mFramework.succeed("connect");
+        assertEquals(0, mFramework.getCallCount("createGroup"));
+        assertEquals(1, mFramework.getCallCount("connect"));
+        assertResult(subscriber.getOnNextEvents().get(0), PEER_A,
+                PeerConnectionResult.Status.CONNECTED);
+
+        scheduler.advanceTimeBy(30, TimeUnit.SECONDS);
+        assertResult(subscriber.getOnNextEvents().get(1), PEER_B,
+                PeerConnectionResult.Status.TIMED_OUT);
+        subscriber.assertCompleted();
+    }
+
+    @Test
+    public void connectAll_doesNotCancelTheOtherInvitationsOnTimeout() throws Exception {
+        final TestScheduler scheduler = new TestScheduler();
+        final TestSubscriber<PeerConnectionResult> subscriber = new TestSubscriber<>();
+        mManager.connectAll(Arrays.asList(PEER_A, PEER_B, PEER_C), 30, TimeUnit.SECONDS,
+                scheduler).subscribe(subscriber);
+        mFramework.respondGroupInfo(group(true));
+
+        // PEER_A and PEER_C join while the invitation of PEER_B is still with the framework
+        mFramework.succeed("connect");
+        mBroadcasts.send(connectionChanged(true, connectionInfo(true, true),
+                group(true, PEER_A, PEER_C)));
+        scheduler.advanceTimeBy(30, TimeUnit.SECONDS);
+        mFramework.succeed("connect");
+
+        // The peers which join with the same broadcast are reported in no particular order
+        final List<PeerConnectionResult> results = subscriber.getOnNextEvents();
+        assertEquals(new HashSet<>(Arrays.asList(PEER_A, PEER_C)), new HashSet<>(Arrays.asList(
+                results.get(0).getDeviceAddress(), results.get(1).getDeviceAddress())));
+        assertEquals(PeerConnectionResult.Status.CONNECTED, results.get(0).getStatus());
+        assertEquals(PeerConnectionResult.Status.CONNECTED, results.get(1).getStatus());
+        assertResult(results.get(2), PEER_B, PeerConnectionResult.Status.TIMED_OUT);
+        subscriber.assertCompleted();
+        assertEquals(0, mFramework.getCallCount("cancelConnect"));
+        assertEquals(0, mManager.getQueueDepth());
+    }
+
+    @Test
+    public void connectAll_failsForClientOfAnotherGroup() throws Exception {
+        final TestSubscriber<PeerConnectionResult> subscriber = new TestSubscriber<>();
+        mManager.connectAll(Arrays.asList(PEER_A), 30, TimeUnit.SECONDS).subscribe(subscriber);
+
+        mFramework.respondGroupInfo(group(false));
+
+        subscriber.assertError(IllegalStateException.class);
+        assertEquals(0, mFramework.getCallCount("connect"));
+    }
+
+    /**
+     * @return a manager of a framework which supports stopping the discovery
+     */
+    private RxWifiP2pManager newJellyBeanManager() {
+        return new RxWifiP2pManager(new FakeContext(), mFramework.getWifiP2pManager(),
+                mBroadcasts) {
+            @Override
+            protected int getSdkLevel() {
+                return Build.VERSION_CODES.JELLY_BEAN;
+            }
+        };
+    }
+
+    private static void assertResult(final PeerConnectionResult result,
+                                     final String address,
+                                     final PeerConnectionResult.Status status) {
+        assertEquals(address, result.getDeviceAddress());
+        assertEquals(status, result.getStatus());
+    }
+
+    private static void assertTypes(final List<PeerChange> changes,
+                                    final PeerChange.Type... types) {
+        assertEquals(types.length, changes.size());
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(types[i], changes.get(i).getType());
+        }
+    }
+}
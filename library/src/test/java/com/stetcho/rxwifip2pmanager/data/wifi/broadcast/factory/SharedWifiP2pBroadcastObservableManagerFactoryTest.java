@@ -0,0 +1,64 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.broadcast.factory;
+
+import android.content.Intent;
+
+import com.stetcho.rxwifip2pmanager.fake.FakeContext;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SharedWifiP2pBroadcastObservableManagerFactoryTest {
+    private FakeContext mContext;
+    private SharedWifiP2pBroadcastObservableManagerFactory mFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = new FakeContext();
+        mFactory = new SharedWifiP2pBroadcastObservableManagerFactory(mContext);
+    }
+
+    @Test
+    public void create_returnsTheSameManager() throws Exception {
+        assertSame(mFactory.create(), mFactory.create());
+    }
+
+    @Test
+    public void subscribers_shareOneReceiver() throws Exception {
+        final TestSubscriber<Intent> first = new TestSubscriber<>();
+        final TestSubscriber<Intent> second = new TestSubscriber<>();
+        final Subscription firstSubscription =
+                mFactory.create().getBroadcastObservable().subscribe(first);
+        final Subscription secondSubscription =
+                mFactory.create().getBroadcastObservable().subscribe(second);
+
+        assertEquals(1, mContext.getRegistrationCount());
+
+        final Intent intent = new Intent();
+        mContext.sendBroadcast(intent);
+
+        first.assertValue(intent);
+        second.assertValue(intent);
+
+        firstSubscription.unsubscribe();
+        assertEquals(0, mContext.getUnregistrationCount());
+
+        secondSubscription.unsubscribe();
+        assertEquals(1, mContext.getUnregistrationCount());
+        assertEquals(0, mContext.getRegisteredReceiverCount());
+    }
+
+    @Test
+    public void resubscribing_registersAgain() throws Exception {
+        mFactory.create().getBroadcastObservable().subscribe().unsubscribe();
+        mFactory.create().getBroadcastObservable().subscribe().unsubscribe();
+
+        assertEquals(2, mContext.getRegistrationCount());
+        assertEquals(2, mContext.getUnregistrationCount());
+    }
+}
@@ -0,0 +1,181 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.connection;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEventParser;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Single;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionInfo;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.discoveryChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.stateChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.thisDeviceChanged;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class ConnectionStateMachineTest {
+    private FakeBroadcastObservableManager mBroadcasts;
+    private AtomicInteger mRequestCount;
+    private WifiP2pInfo mFrameworkInfo;
+    private Observable<P2pEvent> mEvents;
+    private ConnectionStateMachine mMachine;
+
+    @Before
+    public void setUp() throws Exception {
+        mBroadcasts = new FakeBroadcastObservableManager();
+        mRequestCount = new AtomicInteger();
+        mFrameworkInfo = connectionInfo(false, false);
+        mEvents = P2pEventParser.parse(mBroadcasts.getBroadcastObservable());
+        mMachine = new ConnectionStateMachine(mEvents,
+                Single.fromCallable(new Callable<WifiP2pInfo>() {
+                    @Override
+                    public WifiP2pInfo call() throws Exception {
+                        mRequestCount.incrementAndGet();
+                        return mFrameworkInfo;
+                    }
+                }));
+    }
+
+    @Test
+    public void unknownState_isRequestedOnce() throws Exception {
+        mFrameworkInfo = connectionInfo(true, true);
+
+        final TestSubscriber<ConnectionState> first = subscribe();
+        final TestSubscriber<ConnectionState> second = subscribe();
+
+        assertStatuses(first, ConnectionStatus.CONNECTED_AS_GROUP_OWNER);
+        assertStatuses(second, ConnectionStatus.CONNECTED_AS_GROUP_OWNER);
+        assertSame(mFrameworkInfo, second.getOnNextEvents().get(0).getWifiP2pInfo());
+        assertEquals(1, mRequestCount.get());
+    }
+
+    @Test
+    public void broadcasts_driveTheState() throws Exception {
+        final TestSubscriber<ConnectionState> subscriber = subscribe();
+
+        mBroadcasts.send(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STARTED));
+        mBroadcasts.send(thisDeviceChanged(WifiP2pDevice.INVITED));
+        mBroadcasts.send(connectionChanged(true, false));
+        mBroadcasts.send(connectionChanged(false, false));
+        mBroadcasts.send(stateChanged(false));
+        mBroadcasts.send(stateChanged(true));
+
+        assertStatuses(subscriber,
+                ConnectionStatus.IDLE,
+                ConnectionStatus.DISCOVERING,
+                ConnectionStatus.CONNECTING,
+                ConnectionStatus.CONNECTED_AS_CLIENT,
+                ConnectionStatus.IDLE,
+                ConnectionStatus.DISABLED,
+                ConnectionStatus.IDLE);
+    }
+
+    @Test
+    public void disconnectedBroadcast_doesNotInterruptAGroupNegotiation() throws Exception {
+        final TestSubscriber<ConnectionState> subscriber = subscribe();
+
+        mMachine.onConnecting();
+        mBroadcasts.send(connectionChanged(false, false));
+        mBroadcasts.send(connectionChanged(true, true));
+
+        assertStatuses(subscriber,
+                ConnectionStatus.IDLE,
+                ConnectionStatus.CONNECTING,
+                ConnectionStatus.CONNECTED_AS_GROUP_OWNER);
+    }
+
+    @Test
+    public void failedNegotiation_returnsToIdle() throws Exception {
+        final TestSubscriber<ConnectionState> subscriber = subscribe();
+
+        mMachine.onConnecting();
+        mBroadcasts.send(thisDeviceChanged(WifiP2pDevice.AVAILABLE));
+
+        assertStatuses(subscriber,
+                ConnectionStatus.IDLE, ConnectionStatus.CONNECTING, ConnectionStatus.IDLE);
+    }
+
+    @Test
+    public void localOperations_driveTheState() throws Exception {
+        final TestSubscriber<ConnectionState> subscriber = subscribe();
+
+        mMachine.onDiscoveryStarted();
+        mMachine.onConnecting();
+        mMachine.onConnectFailed();
+        mBroadcasts.send(connectionChanged(true, true));
+        mMachine.onDisconnecting();
+        mMachine.onDisconnected();
+
+        assertStatuses(subscriber,
+                ConnectionStatus.IDLE,
+                ConnectionStatus.DISCOVERING,
+                ConnectionStatus.CONNECTING,
+                ConnectionStatus.IDLE,
+                ConnectionStatus.CONNECTED_AS_GROUP_OWNER,
+                ConnectionStatus.DISCONNECTING,
+                ConnectionStatus.IDLE);
+    }
+
+    @Test
+    public void broadcastsAreReceived_onlyWhileSubscribed() throws Exception {
+        final TestSubscriber<ConnectionState> first = subscribe();
+        final TestSubscriber<ConnectionState> second = subscribe();
+        first.unsubscribe();
+        mBroadcasts.send(connectionChanged(true, false));
+
+        second.unsubscribe();
+        assertFalse(mBroadcasts.hasObservers());
+
+        // The state is forgotten, as the broadcasts were missed in the meantime
+        assertStatuses(subscribe(), ConnectionStatus.IDLE);
+        assertEquals(2, mRequestCount.get());
+    }
+
+    @Test
+    public void stateOfAPreviousObservation_isNotReported() throws Exception {
+        // Keeps the receiver registered, so that no sticky broadcast is replayed
+        final Subscription receiver = mEvents.subscribe();
+        final TestSubscriber<ConnectionState> first = subscribe();
+        mBroadcasts.send(connectionChanged(true, true));
+        first.unsubscribe();
+        mMachine.onDisconnecting();
+
+        mBroadcasts.send(connectionChanged(false, false));
+        final TestSubscriber<ConnectionState> second = subscribe();
+
+        assertStatuses(second, ConnectionStatus.IDLE);
+        assertEquals(2, mRequestCount.get());
+        receiver.unsubscribe();
+    }
+
+    private TestSubscriber<ConnectionState> subscribe() {
+        final TestSubscriber<ConnectionState> subscriber = new TestSubscriber<>();
+        mMachine.observe().subscribe(subscriber);
+        return subscriber;
+    }
+
+    private static void assertStatuses(final TestSubscriber<ConnectionState> subscriber,
+                                       final ConnectionStatus... statuses) {
+        final List<ConnectionState> states = subscriber.getOnNextEvents();
+        assertEquals(statuses.length, states.size());
+        for (int i = 0; i < statuses.length; i++) {
+            assertEquals(statuses[i], states.get(i).getStatus());
+        }
+    }
+}
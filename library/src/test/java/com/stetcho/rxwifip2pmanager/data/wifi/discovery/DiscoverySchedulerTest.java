@@ -0,0 +1,190 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.discovery;
+
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pManager;
+import android.os.Build;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.RxWifiP2pManager;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pUnsupportedException;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+import com.stetcho.rxwifip2pmanager.fake.FakeContext;
+import com.stetcho.rxwifip2pmanager.fake.FakeWifiP2pManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.peersChanged;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class DiscoverySchedulerTest {
+    private static final String PEER_A = "aa:00:00:00:00:01";
+    private static final String PEER_B = "aa:00:00:00:00:02";
+
+    private FakeWifiP2pManager mFramework;
+    private FakeBroadcastObservableManager mBroadcasts;
+    private TestScheduler mScheduler;
+    private DiscoveryScheduler mDiscoveryScheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        mFramework = new FakeWifiP2pManager();
+        mBroadcasts = new FakeBroadcastObservableManager();
+        mScheduler = new TestScheduler();
+        // A framework which supports stopping the discovery at the end of the window
+        final RxWifiP2pManager manager = new RxWifiP2pManager(new FakeContext(),
+                mFramework.getWifiP2pManager(), mBroadcasts) {
+            @Override
+            protected int getSdkLevel() {
+                return Build.VERSION_CODES.JELLY_BEAN;
+            }
+        };
+        mDiscoveryScheduler = new DiscoveryScheduler.Builder(manager)
+                .scanDuration(10, TimeUnit.SECONDS)
+                .minInterval(15, TimeUnit.SECONDS)
+                .maxInterval(60, TimeUnit.SECONDS)
+                .multiplier(2)
+                .scheduler(mScheduler)
+                .build();
+    }
+
+    @Test
+    public void subscribers_shareOneDiscovery() throws Exception {
+        final List<TestSubscriber<WifiP2pDeviceList>> subscribers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final TestSubscriber<WifiP2pDeviceList> subscriber = new TestSubscriber<>();
+            mDiscoveryScheduler.observePeers().subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+
+        final WifiP2pDeviceList peers = deviceList(device(PEER_A));
+        scan(peers);
+
+        assertEquals(1, mFramework.getCallCount("discoverPeers"));
+        assertEquals(1, mFramework.getCallCount("requestPeers"));
+        for (TestSubscriber<WifiP2pDeviceList> subscriber : subscribers) {
+            subscriber.assertValue(peers);
+        }
+
+        final TestSubscriber<WifiP2pDeviceList> late = new TestSubscriber<>();
+        mDiscoveryScheduler.observePeers().subscribe(late);
+        late.assertValue(peers);
+        assertEquals(1, mFramework.getCallCount("discoverPeers"));
+    }
+
+    @Test
+    public void stablePeers_backOffUpToTheMaxInterval() throws Exception {
+        mDiscoveryScheduler.observePeers().subscribe(new TestSubscriber<WifiP2pDeviceList>());
+
+        scan(deviceList(device(PEER_A)));
+        assertEquals(15, mDiscoveryScheduler.getInterval(TimeUnit.SECONDS));
+
+        mScheduler.advanceTimeBy(15, TimeUnit.SECONDS);
+        assertEquals(2, mFramework.getCallCount("discoverPeers"));
+        scan(deviceList(device(PEER_A)));
+        assertEquals(30, mDiscoveryScheduler.getInterval(TimeUnit.SECONDS));
+
+        mScheduler.advanceTimeBy(29, TimeUnit.SECONDS);
+        assertEquals(2, mFramework.getCallCount("discoverPeers"));
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertEquals(3, mFramework.getCallCount("discoverPeers"));
+        scan(deviceList(device(PEER_A)));
+        assertEquals(60, mDiscoveryScheduler.getInterval(TimeUnit.SECONDS));
+
+        mScheduler.advanceTimeBy(60, TimeUnit.SECONDS);
+        scan(deviceList(device(PEER_A)));
+        assertEquals(60, mDiscoveryScheduler.getInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void changedPeers_resetTheInterval() throws Exception {
+        mDiscoveryScheduler.observePeers().subscribe(new TestSubscriber<WifiP2pDeviceList>());
+        scan(deviceList(device(PEER_A)));
+        mScheduler.advanceTimeBy(15, TimeUnit.SECONDS);
+        scan(deviceList(device(PEER_A)));
+        assertEquals(30, mDiscoveryScheduler.getInterval(TimeUnit.SECONDS));
+
+        mScheduler.advanceTimeBy(30, TimeUnit.SECONDS);
+        scan(deviceList(device(PEER_A), device(PEER_B)));
+
+        assertEquals(15, mDiscoveryScheduler.getInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void busyFramework_isRetriedInTheNextCycle() throws Exception {
+        final TestSubscriber<WifiP2pDeviceList> subscriber = new TestSubscriber<>();
+        mDiscoveryScheduler.observePeers().subscribe(subscriber);
+
+        mFramework.fail("discoverPeers", WifiP2pManager.BUSY);
+        mFramework.succeed("stopPeerDiscovery");
+        assertEquals(30, mDiscoveryScheduler.getInterval(TimeUnit.SECONDS));
+        mScheduler.advanceTimeBy(30, TimeUnit.SECONDS);
+
+        assertEquals(2, mFramework.getCallCount("discoverPeers"));
+        subscriber.assertNoTerminalEvent();
+    }
+
+    @Test
+    public void unsupportedFramework_failsTheSubscribers() throws Exception {
+        final TestSubscriber<WifiP2pDeviceList> subscriber = new TestSubscriber<>();
+        mDiscoveryScheduler.observePeers().subscribe(subscriber);
+
+        mFramework.fail("discoverPeers", WifiP2pManager.P2P_UNSUPPORTED);
+
+        subscriber.assertError(P2pUnsupportedException.class);
+    }
+
+    @Test
+    public void lastUnsubscription_stopsTheCycles() throws Exception {
+        final TestSubscriber<WifiP2pDeviceList> subscriber = new TestSubscriber<>();
+        mDiscoveryScheduler.observePeers().subscribe(subscriber);
+        mFramework.succeed("discoverPeers");
+        mBroadcasts.send(peersChanged());
+        mFramework.respondPeers(deviceList(device(PEER_A)));
+
+        subscriber.unsubscribe();
+        assertEquals(1, mFramework.getCallCount("stopPeerDiscovery"));
+        mFramework.succeed("stopPeerDiscovery");
+        mScheduler.advanceTimeBy(10, TimeUnit.MINUTES);
+
+        assertEquals(1, mFramework.getCallCount("discoverPeers"));
+        assertEquals(1, mFramework.getCallCount("stopPeerDiscovery"));
+        assertFalse(mBroadcasts.hasObservers());
+    }
+
+    @Test
+    public void unsubscriptionDuringThePause_doesNotStopTheDiscoveryAgain() throws Exception {
+        final TestSubscriber<WifiP2pDeviceList> subscriber = new TestSubscriber<>();
+        mDiscoveryScheduler.observePeers().subscribe(subscriber);
+        scan(deviceList(device(PEER_A)));
+
+        subscriber.unsubscribe();
+
+        assertEquals(1, mFramework.getCallCount("stopPeerDiscovery"));
+    }
+
+    /**
+     * Completes the pending discovery, answers one peer change within the scan window and the
+     * stop of the discovery once the window has closed
+     */
+    private void scan(final WifiP2pDeviceList peers) {
+        final int stops = mFramework.getCallCount("stopPeerDiscovery");
+        mFramework.succeed("discoverPeers");
+        mBroadcasts.send(peersChanged());
+        mFramework.respondPeers(peers);
+        assertEquals(stops, mFramework.getCallCount("stopPeerDiscovery"));
+
+        mScheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+        assertEquals(stops + 1, mFramework.getCallCount("stopPeerDiscovery"));
+        mFramework.succeed("stopPeerDiscovery");
+    }
+}
@@ -0,0 +1,132 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.event;
+
+import android.content.Intent;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import rx.Observable;
+import rx.observers.TestSubscriber;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.connectionInfo;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.discoveryChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.intent;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.peersChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.stateChanged;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.thisDeviceChanged;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class P2pEventParserTest {
+    private P2pEventParser mParser;
+
+    @Before
+    public void setUp() throws Exception {
+        mParser = new P2pEventParser();
+    }
+
+    @Test
+    public void stateChanged_isParsedIntoSharedInstances() throws Exception {
+        final P2pEvent enabled = mParser.call(stateChanged(true));
+        final P2pEvent disabled = mParser.call(stateChanged(false));
+
+        assertEquals(P2pEvent.Type.STATE_CHANGED, enabled.getType());
+        assertTrue(((P2pEvent.StateChanged) enabled).isEnabled());
+        assertFalse(((P2pEvent.StateChanged) disabled).isEnabled());
+        assertSame(enabled, mParser.call(stateChanged(true)));
+    }
+
+    @Test
+    public void peersChanged_carriesTheAttachedList() throws Exception {
+        final WifiP2pDeviceList peers = deviceList(device("aa:00:00:00:00:01"));
+
+        final P2pEvent event = mParser.call(peersChanged(peers));
+
+        assertEquals(P2pEvent.Type.PEERS_CHANGED, event.getType());
+        assertSame(peers, ((P2pEvent.PeersChanged) event).getPeers());
+    }
+
+    @Test
+    public void peersChangedWithoutList_isSharedInstance() throws Exception {
+        final P2pEvent event = mParser.call(peersChanged());
+
+        assertNull(((P2pEvent.PeersChanged) event).getPeers());
+        assertSame(event, mParser.call(peersChanged()));
+    }
+
+    @Test
+    public void connectionChanged_carriesAllExtras() throws Exception {
+        final WifiP2pInfo info = connectionInfo(true, true);
+
+        final P2pEvent.ConnectionChanged event =
+                (P2pEvent.ConnectionChanged) mParser.call(connectionChanged(true, info, null));
+
+        assertEquals(P2pEvent.Type.CONNECTION_CHANGED, event.getType());
+        assertTrue(event.isConnected());
+        assertSame(info, event.getWifiP2pInfo());
+        assertNull(event.getWifiP2pGroup());
+    }
+
+    @Test
+    public void thisDeviceChanged_carriesTheDevice() throws Exception {
+        final P2pEvent event = mParser.call(thisDeviceChanged(WifiP2pDevice.INVITED));
+
+        assertEquals(P2pEvent.Type.THIS_DEVICE_CHANGED, event.getType());
+        assertEquals(WifiP2pDevice.INVITED,
+                ((P2pEvent.ThisDeviceChanged) event).getDevice().status);
+    }
+
+    @Test
+    public void discoveryChanged_isParsedIntoSharedInstances() throws Exception {
+        final P2pEvent started =
+                mParser.call(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STARTED));
+        final P2pEvent stopped =
+                mParser.call(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STOPPED));
+
+        assertTrue(((P2pEvent.DiscoveryChanged) started).isStarted());
+        assertFalse(((P2pEvent.DiscoveryChanged) stopped).isStarted());
+        assertSame(stopped,
+                mParser.call(discoveryChanged(WifiP2pManager.WIFI_P2P_DISCOVERY_STOPPED)));
+    }
+
+    @Test
+    public void unknownAction_isNull() throws Exception {
+        assertNull(mParser.call(intent("android.intent.action.UNKNOWN")));
+        assertNull(mParser.call(intent(null)));
+        assertNull(mParser.call(null));
+    }
+
+    @Test
+    public void parse_readsEachIntentOnceForAllSubscribers() throws Exception {
+        final FakeBroadcastObservableManager broadcasts = new FakeBroadcastObservableManager();
+        final Observable<P2pEvent> events = P2pEventParser.parse(
+                broadcasts.getBroadcastObservable());
+        final TestSubscriber<P2pEvent> first = new TestSubscriber<>();
+        final TestSubscriber<P2pEvent> second = new TestSubscriber<>();
+        events.subscribe(first);
+        events.subscribe(second);
+
+        final Intent intent = peersChanged();
+        broadcasts.send(intent);
+        broadcasts.send(intent("android.intent.action.UNKNOWN"));
+
+        verify(intent, times(1)).getAction();
+        first.assertValueCount(1);
+        second.assertValueCount(1);
+        assertSame(first.getOnNextEvents().get(0), second.getOnNextEvents().get(0));
+    }
+}
@@ -0,0 +1,42 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.exception;
+
+import android.net.wifi.p2p.WifiP2pManager;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class P2pExceptionTest {
+    @Test
+    public void fromReasonCode_mapsKnownReasons() throws Exception {
+        assertReason(WifiP2pManager.BUSY, P2pBusyException.class, "Error: Busy", true);
+        assertReason(WifiP2pManager.ERROR, P2pErrorException.class, "Error: Error", true);
+        assertReason(WifiP2pManager.P2P_UNSUPPORTED, P2pUnsupportedException.class,
+                "Error: P2P Unsupported", false);
+        assertReason(WifiP2pManager.NO_SERVICE_REQUESTS, P2pNoServiceRequestsException.class,
+                "Error: No service requests", false);
+    }
+
+    @Test
+    public void fromReasonCode_keepsUnknownReasons() throws Exception {
+        assertReason(42, P2pException.class, "Error: Unknown (code: 42)", false);
+    }
+
+    private static void assertReason(final int reasonCode,
+                                     final Class<? extends P2pException> type,
+                                     final String message,
+                                     final boolean isTransient) {
+        final P2pException exception = P2pException.fromReasonCode(reasonCode);
+
+        assertEquals(type, exception.getClass());
+        assertEquals(reasonCode, exception.getReasonCode());
+        assertEquals(message, exception.getMessage());
+        if (isTransient) {
+            assertTrue(exception.isTransient());
+        } else {
+            assertFalse(exception.isTransient());
+        }
+    }
+}
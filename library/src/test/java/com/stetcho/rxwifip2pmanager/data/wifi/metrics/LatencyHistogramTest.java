@@ -0,0 +1,82 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.metrics;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private LatencyHistogram mHistogram;
+
+    @Before
+    public void setUp() throws Exception {
+        mHistogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void emptyHistogram_reportsZero() throws Exception {
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getValueAtPercentile(99), 0);
+        assertEquals(0, mHistogram.getMean(), 0);
+    }
+
+    @Test
+    public void bucketBounds_containTheirValues() throws Exception {
+        for (long value = 0; value < 100000; value += 7) {
+            final int index = LatencyHistogram.getBucketIndex(value);
+            assertTrue(value <= LatencyHistogram.getHighestValue(index));
+            assertTrue(index == 0 || value > LatencyHistogram.getHighestValue(index - 1));
+        }
+        assertEquals(LatencyHistogram.MAX_VALUE, LatencyHistogram.getHighestValue(
+                LatencyHistogram.getBucketIndex(LatencyHistogram.MAX_VALUE)));
+    }
+
+    @Test
+    public void percentiles_areWithinTheBucketPrecision() throws Exception {
+        for (long value = 1; value <= 1000; value++) {
+            mHistogram.record(value * 1000);
+        }
+
+        assertEquals(1000, mHistogram.getCount());
+        assertEquals(1000000, mHistogram.getMax());
+        assertEquals(500500, mHistogram.getMean(), 0.001);
+        assertWithinPrecision(500000, mHistogram.getValueAtPercentile(50));
+        assertWithinPrecision(990000, mHistogram.getValueAtPercentile(99));
+        assertEquals(1000000, mHistogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void smallValues_areExact() throws Exception {
+        mHistogram.record(3);
+        mHistogram.record(5);
+
+        assertEquals(3, mHistogram.getValueAtPercentile(50));
+        assertEquals(5, mHistogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void outOfRangeValues_areClamped() throws Exception {
+        mHistogram.record(-1);
+        mHistogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, mHistogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, mHistogram.getMax());
+    }
+
+    @Test
+    public void reset_clearsAllValues() throws Exception {
+        mHistogram.record(42);
+        mHistogram.reset();
+
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getValueAtPercentile(100));
+    }
+
+    private static void assertWithinPrecision(final long expected, final long actual) {
+        assertTrue("expected " + expected + " but was " + actual,
+                actual >= expected && actual <= expected + expected / 8);
+    }
+}
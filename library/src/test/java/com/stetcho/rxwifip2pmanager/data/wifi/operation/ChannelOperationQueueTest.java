@@ -0,0 +1,231 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.operation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Subscription;
+import rx.functions.Action0;
+import rx.observers.TestSubscriber;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelOperationQueueTest {
+    /**
+     * An operation whose callbacks are kept until the test completes them
+     */
+    private static class PendingOperation implements ChannelOperationQueue.Operation<String> {
+        final List<ChannelOperationQueue.Callback<String>> callbacks = new ArrayList<>();
+
+        @Override
+        public void execute(final ChannelOperationQueue.Callback<String> callback) {
+            callbacks.add(callback);
+        }
+
+        int getExecutionCount() {
+            return callbacks.size();
+        }
+
+        ChannelOperationQueue.Callback<String> last() {
+            return callbacks.get(callbacks.size() - 1);
+        }
+    }
+
+    private ChannelOperationQueue mQueue;
+
+    @Before
+    public void setUp() throws Exception {
+        mQueue = new ChannelOperationQueue();
+    }
+
+    @Test
+    public void operations_areExecutedOneAtATime() throws Exception {
+        final PendingOperation first = new PendingOperation();
+        final PendingOperation second = new PendingOperation();
+        final TestSubscriber<String> firstSubscriber = new TestSubscriber<>();
+        final TestSubscriber<String> secondSubscriber = new TestSubscriber<>();
+
+        mQueue.enqueue(null, first).subscribe(firstSubscriber);
+        mQueue.enqueue(null, second).subscribe(secondSubscriber);
+
+        assertEquals(1, first.getExecutionCount());
+        assertEquals(0, second.getExecutionCount());
+        assertEquals(2, mQueue.getQueueDepth());
+
+        first.last().onSuccess("first");
+
+        firstSubscriber.assertValue("first");
+        assertEquals(1, second.getExecutionCount());
+        assertEquals(1, mQueue.getQueueDepth());
+
+        second.last().onSuccess("second");
+
+        secondSubscriber.assertValue("second");
+        assertEquals(0, mQueue.getQueueDepth());
+    }
+
+    @Test
+    public void operationsWithEqualKeys_areCoalesced() throws Exception {
+        final PendingOperation blocker = new PendingOperation();
+        final PendingOperation operation = new PendingOperation();
+        final List<TestSubscriber<String>> subscribers = new ArrayList<>();
+        mQueue.enqueue(null, blocker).subscribe();
+
+        for (int i = 0; i < 5; i++) {
+            final TestSubscriber<String> subscriber = new TestSubscriber<>();
+            mQueue.enqueue("key", operation).subscribe(subscriber);
+            subscribers.add(subscriber);
+        }
+        assertEquals(2, mQueue.getQueueDepth());
+
+        blocker.last().onSuccess(null);
+        assertEquals(1, operation.getExecutionCount());
+
+        // Joins the operation in flight
+        final TestSubscriber<String> late = new TestSubscriber<>();
+        mQueue.enqueue("key", operation).subscribe(late);
+        subscribers.add(late);
+
+        operation.last().onSuccess("result");
+
+        assertEquals(1, operation.getExecutionCount());
+        for (TestSubscriber<String> subscriber : subscribers) {
+            subscriber.assertValue("result");
+        }
+    }
+
+    @Test
+    public void keyIsReleased_afterTheOperationCompletes() throws Exception {
+        final PendingOperation operation = new PendingOperation();
+
+        mQueue.enqueue("key", operation).subscribe();
+        operation.last().onSuccess("first");
+        mQueue.enqueue("key", operation).subscribe();
+
+        assertEquals(2, operation.getExecutionCount());
+    }
+
+    @Test
+    public void failActive_failsOnlyTheOperationInFlight() throws Exception {
+        final PendingOperation lost = new PendingOperation();
+        final PendingOperation next = new PendingOperation();
+        final TestSubscriber<String> lostSubscriber = new TestSubscriber<>();
+        final TestSubscriber<String> nextSubscriber = new TestSubscriber<>();
+        mQueue.enqueue(null, lost).subscribe(lostSubscriber);
+        mQueue.enqueue(null, next).subscribe(nextSubscriber);
+
+        final IllegalStateException error = new IllegalStateException();
+        mQueue.failActive(error);
+        // A late result of the failed operation is ignored
+        lost.last().onSuccess("late");
+
+        lostSubscriber.assertError(error);
+        assertEquals(1, next.getExecutionCount());
+        nextSubscriber.assertNoTerminalEvent();
+        assertEquals(1, mQueue.getQueueDepth());
+    }
+
+    @Test
+    public void unsubscribedOperation_isDroppedBeforeExecution() throws Exception {
+        final PendingOperation blocker = new PendingOperation();
+        final PendingOperation dropped = new PendingOperation();
+        final PendingOperation next = new PendingOperation();
+        mQueue.enqueue(null, blocker).subscribe();
+
+        final Subscription subscription = mQueue.enqueue("key", dropped).subscribe();
+        mQueue.enqueue(null, next).subscribe();
+        subscription.unsubscribe();
+        assertEquals(2, mQueue.getQueueDepth());
+
+        blocker.last().onSuccess(null);
+
+        assertEquals(0, dropped.getExecutionCount());
+        assertEquals(1, next.getExecutionCount());
+    }
+
+    @Test
+    public void unsubscribedOperationInFlight_isCancelledOnceTheLastSubscriberLeaves()
+            throws Exception {
+        final PendingOperation operation = new PendingOperation();
+        final PendingOperation next = new PendingOperation();
+        final AtomicInteger cancellations = new AtomicInteger();
+        final Action0 onCancel = new Action0() {
+            @Override
+            public void call() {
+                cancellations.incrementAndGet();
+            }
+        };
+        final Subscription first = mQueue.enqueue("key", operation, onCancel).subscribe();
+        final Subscription second = mQueue.enqueue("key", operation, onCancel).subscribe();
+        mQueue.enqueue(null, next).subscribe();
+
+        first.unsubscribe();
+        assertEquals(0, cancellations.get());
+        second.unsubscribe();
+        assertEquals(1, cancellations.get());
+
+        // A new subscriber does not join the cancelled operation
+        final TestSubscriber<String> late = new TestSubscriber<>();
+        mQueue.enqueue("key", operation, onCancel).subscribe(late);
+        assertEquals(3, mQueue.getQueueDepth());
+
+        // The queue still waits for the result of the cancelled operation
+        assertEquals(0, next.getExecutionCount());
+        operation.last().onSuccess("cancelled");
+        assertEquals(1, next.getExecutionCount());
+        late.assertNoValues();
+        assertEquals(1, cancellations.get());
+    }
+
+    @Test
+    public void failure_isDeliveredAndNextOperationIsExecuted() throws Exception {
+        final PendingOperation failing = new PendingOperation();
+        final PendingOperation next = new PendingOperation();
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        final RuntimeException error = new RuntimeException("Error: Busy");
+
+        mQueue.enqueue(null, failing).subscribe(subscriber);
+        mQueue.enqueue(null, next).subscribe();
+        failing.last().onError(error);
+
+        subscriber.assertError(error);
+        assertEquals(1, next.getExecutionCount());
+    }
+
+    @Test
+    public void throwingOperation_failsAndDoesNotStallTheQueue() throws Exception {
+        final RuntimeException error = new IllegalStateException();
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        final PendingOperation next = new PendingOperation();
+
+        mQueue.enqueue(null, new ChannelOperationQueue.Operation<String>() {
+            @Override
+            public void execute(final ChannelOperationQueue.Callback<String> callback) {
+                throw error;
+            }
+        }).subscribe(subscriber);
+        mQueue.enqueue(null, next).subscribe();
+
+        subscriber.assertError(error);
+        assertEquals(1, next.getExecutionCount());
+    }
+
+    @Test
+    public void repeatedCallback_isIgnored() throws Exception {
+        final PendingOperation operation = new PendingOperation();
+        final PendingOperation next = new PendingOperation();
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        mQueue.enqueue(null, operation).subscribe(subscriber);
+        mQueue.enqueue(null, next).subscribe();
+
+        operation.last().onSuccess("first");
+        operation.last().onSuccess("second");
+
+        subscriber.assertValue("first");
+        assertEquals(1, next.getExecutionCount());
+        assertEquals(1, mQueue.getQueueDepth());
+    }
+}
@@ -0,0 +1,108 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.operation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Single;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import static org.junit.Assert.assertEquals;
+
+public class CoalescedRequestTest {
+    private TestScheduler mClock;
+    private AtomicInteger mRequestCount;
+    private CoalescedRequest<String> mRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestScheduler();
+        mRequestCount = new AtomicInteger();
+        mRequest = new CoalescedRequest<>(Single.fromCallable(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return "result " + mRequestCount.incrementAndGet();
+            }
+        }), 1, TimeUnit.SECONDS, mClock);
+    }
+
+    @Test
+    public void resultWithinTheWindow_isReused() throws Exception {
+        assertEquals("result 1", read());
+        mClock.advanceTimeBy(999, TimeUnit.MILLISECONDS);
+        assertEquals("result 1", read());
+
+        assertEquals(1, mRequestCount.get());
+        assertEquals(1, mRequest.getHitCount());
+        assertEquals(1, mRequest.getMissCount());
+    }
+
+    @Test
+    public void expiredResult_isRequestedAgain() throws Exception {
+        read();
+        mClock.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        assertEquals("result 2", read());
+        assertEquals(2, mRequest.getMissCount());
+    }
+
+    @Test
+    public void zeroWindow_disablesTheReuse() throws Exception {
+        mRequest.setWindow(0, TimeUnit.SECONDS);
+        read();
+        read();
+
+        assertEquals(2, mRequestCount.get());
+    }
+
+    @Test
+    public void update_replacesTheResultForTheRestOfTheWindow() throws Exception {
+        read();
+        mClock.advanceTimeBy(900, TimeUnit.MILLISECONDS);
+        mRequest.update("updated");
+        mClock.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        assertEquals("updated", read());
+
+        mClock.advanceTimeBy(50, TimeUnit.MILLISECONDS);
+        assertEquals("result 2", read());
+        assertEquals(2, mRequestCount.get());
+    }
+
+    @Test
+    public void invalidate_forcesANewRequest() throws Exception {
+        read();
+        mRequest.invalidate();
+
+        assertEquals("result 2", read());
+    }
+
+    @Test
+    public void resultOfARequestInFlightDuringAnUpdate_isDropped() throws Exception {
+        final PublishSubject<String> framework = PublishSubject.create();
+        final CoalescedRequest<String> request = new CoalescedRequest<>(
+                framework.toSingle(), 1, TimeUnit.SECONDS, mClock);
+        final TestSubscriber<String> inFlight = new TestSubscriber<>();
+        request.get().subscribe(inFlight);
+
+        request.update("from event");
+        framework.onNext("stale");
+        framework.onCompleted();
+
+        inFlight.assertValue("stale");
+        final TestSubscriber<String> next = new TestSubscriber<>();
+        request.get().subscribe(next);
+        next.assertValue("from event");
+    }
+
+    private String read() {
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        mRequest.get().subscribe(subscriber);
+        subscriber.assertNoErrors();
+        return subscriber.getOnNextEvents().get(0);
+    }
+}
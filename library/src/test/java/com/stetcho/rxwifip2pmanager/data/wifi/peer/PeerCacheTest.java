@@ -0,0 +1,148 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDeviceList;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEvent;
+import com.stetcho.rxwifip2pmanager.data.wifi.event.P2pEventParser;
+import com.stetcho.rxwifip2pmanager.fake.FakeBroadcastObservableManager;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Single;
+import rx.Subscription;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+import rx.subjects.PublishSubject;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.peersChanged;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+public class PeerCacheTest {
+    private TestScheduler mClock;
+    private FakeBroadcastObservableManager mBroadcasts;
+    private Observable<P2pEvent> mEvents;
+    private PeerCache mCache;
+    private AtomicInteger mRequestCount;
+    private WifiP2pDeviceList mFrameworkPeers;
+    private Single<WifiP2pDeviceList> mRequest;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestScheduler();
+        mBroadcasts = new FakeBroadcastObservableManager();
+        mEvents = P2pEventParser.parse(mBroadcasts.getBroadcastObservable());
+        mCache = new PeerCache(mClock);
+        mRequestCount = new AtomicInteger();
+        mFrameworkPeers = deviceList(device("aa:00:00:00:00:01"));
+        mRequest = Single.fromCallable(new Callable<WifiP2pDeviceList>() {
+            @Override
+            public WifiP2pDeviceList call() throws Exception {
+                mRequestCount.incrementAndGet();
+                return mFrameworkPeers;
+            }
+        });
+    }
+
+    @Test
+    public void disabledCache_alwaysRequestsTheFramework() throws Exception {
+        read();
+        read();
+
+        assertEquals(2, mRequestCount.get());
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    @Test
+    public void freshList_isServedFromMemory() throws Exception {
+        mCache.enable(mEvents, 1, TimeUnit.SECONDS);
+
+        assertSame(mFrameworkPeers, read());
+        mClock.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertSame(mFrameworkPeers, read());
+
+        assertEquals(1, mRequestCount.get());
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void staleList_isRequestedAgain() throws Exception {
+        mCache.enable(mEvents, 1, TimeUnit.SECONDS);
+
+        read();
+        mClock.advanceTimeBy(1001, TimeUnit.MILLISECONDS);
+        read();
+
+        assertEquals(2, mRequestCount.get());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void broadcastWithPeers_refreshesTheCache() throws Exception {
+        final WifiP2pDeviceList broadcastPeers = deviceList(device("aa:00:00:00:00:02"));
+        mCache.enable(mEvents, 1, TimeUnit.SECONDS);
+
+        mBroadcasts.send(peersChanged(broadcastPeers));
+
+        assertSame(broadcastPeers, read());
+        assertEquals(0, mRequestCount.get());
+        assertEquals(1, mCache.getHitCount());
+    }
+
+    @Test
+    public void broadcastWithoutPeers_invalidatesTheCache() throws Exception {
+        mCache.enable(mEvents, 1, TimeUnit.SECONDS);
+        read();
+
+        mBroadcasts.send(peersChanged());
+        read();
+
+        assertEquals(2, mRequestCount.get());
+    }
+
+    @Test
+    public void resultOfAnOutdatedRequest_isNotCached() throws Exception {
+        final PublishSubject<WifiP2pDeviceList> pending = PublishSubject.create();
+        mCache.enable(mEvents, 1, TimeUnit.SECONDS);
+        mCache.get(pending.toSingle()).subscribe(new TestSubscriber<WifiP2pDeviceList>());
+
+        mBroadcasts.send(peersChanged());
+        pending.onNext(deviceList());
+        pending.onCompleted();
+        read();
+
+        assertEquals(1, mRequestCount.get());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    @Test
+    public void unsubscribing_disablesTheCache() throws Exception {
+        final Subscription subscription = mCache.enable(mEvents, 1, TimeUnit.SECONDS);
+        read();
+
+        subscription.unsubscribe();
+        read();
+
+        assertFalse(mCache.isEnabled());
+        assertFalse(mBroadcasts.hasObservers());
+        assertEquals(2, mRequestCount.get());
+    }
+
+    private WifiP2pDeviceList read() {
+        final TestSubscriber<WifiP2pDeviceList> subscriber = new TestSubscriber<>();
+        mCache.get(mRequest).subscribe(subscriber);
+        subscriber.assertNoErrors();
+        return subscriber.getOnNextEvents().get(0);
+    }
+}
@@ -0,0 +1,159 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PeerHistoryTest {
+    private static final String PEER_A = "aa:00:00:00:00:01";
+    private static final String PEER_B = "aa:00:00:00:00:02";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private TestScheduler mScheduler;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mFile = new File(mFolder.getRoot(), "peers.log");
+    }
+
+    @Test
+    public void peers_areRestoredByANewHistory() throws Exception {
+        final PeerHistory history = new PeerHistory(mFile, mScheduler);
+        history.recordPeers(deviceList(device(PEER_A, "first", WifiP2pDevice.AVAILABLE)));
+        mScheduler.advanceTimeBy(5, TimeUnit.MINUTES);
+        history.recordPeers(deviceList(device(PEER_B, "second", WifiP2pDevice.AVAILABLE)));
+        history.recordConnect(PEER_B, false);
+        history.recordConnect(PEER_B, true);
+        history.close();
+        mScheduler.triggerActions();
+
+        final List<PeerHistory.Peer> peers = load(new PeerHistory(mFile, mScheduler));
+        assertEquals(2, peers.size());
+        final PeerHistory.Peer second = peers.get(0);
+        assertEquals(PEER_B, second.getDeviceAddress());
+        assertEquals("second", second.getDeviceName());
+        assertEquals(TimeUnit.MINUTES.toMillis(5), second.getLastSeenMillis());
+        assertEquals(1, second.getConnectSuccesses());
+        assertEquals(1, second.getConnectFailures());
+        assertEquals(TimeUnit.MINUTES.toMillis(5), second.getLastConnectedMillis());
+        final PeerHistory.Peer first = peers.get(1);
+        assertEquals(PEER_A, first.getDeviceAddress());
+        assertEquals("first", first.getDeviceName());
+        assertEquals(0, first.getConnectSuccesses());
+    }
+
+    @Test
+    public void history_isLoadedOnlyOnTheWorker() throws Exception {
+        final PeerHistory history = new PeerHistory(mFile, mScheduler);
+        final TestSubscriber<List<PeerHistory.Peer>> subscriber = new TestSubscriber<>();
+        history.getPeers().subscribe(subscriber);
+
+        subscriber.assertNoValues();
+        assertFalse(mFile.exists());
+
+        mScheduler.triggerActions();
+        subscriber.assertValueCount(1);
+        assertTrue(subscriber.getOnNextEvents().get(0).isEmpty());
+    }
+
+    @Test
+    public void repeatedSightings_areCompacted() throws Exception {
+        final PeerHistory history = new PeerHistory(mFile, mScheduler);
+        for (int i = 0; i < 1000; i++) {
+            history.recordPeers(deviceList(device(PEER_A, "first", WifiP2pDevice.AVAILABLE),
+                    device(PEER_B, "second", WifiP2pDevice.AVAILABLE)));
+            history.recordConnect(PEER_A, true);
+            mScheduler.advanceTimeBy(1, TimeUnit.MINUTES);
+        }
+        history.close();
+        mScheduler.triggerActions();
+
+        assertTrue(String.valueOf(mFile.length()), mFile.length() < 4096);
+        final List<PeerHistory.Peer> peers = load(new PeerHistory(mFile, mScheduler));
+        assertEquals(2, peers.size());
+        assertEquals(1000, peers.get(0).getConnectSuccesses() + peers.get(1).getConnectSuccesses());
+        assertEquals(TimeUnit.MINUTES.toMillis(999), peers.get(0).getLastSeenMillis());
+    }
+
+    @Test
+    public void sightingsWithinTheResolution_areNotWritten() throws Exception {
+        final PeerHistory history = new PeerHistory(mFile, mScheduler);
+        history.recordPeers(deviceList(device(PEER_A, "first", WifiP2pDevice.AVAILABLE)));
+        mScheduler.triggerActions();
+        final long length = mFile.length();
+
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+        history.recordPeers(deviceList(device(PEER_A, "first", WifiP2pDevice.AVAILABLE)));
+        mScheduler.triggerActions();
+        assertEquals(length, mFile.length());
+
+        history.recordPeers(deviceList(device(PEER_A, "renamed", WifiP2pDevice.AVAILABLE)));
+        mScheduler.triggerActions();
+        assertTrue(mFile.length() > length);
+        assertEquals(1000, load(history).get(0).getLastSeenMillis());
+    }
+
+    @Test
+    public void tornRecord_isDropped() throws Exception {
+        final PeerHistory history = new PeerHistory(mFile, mScheduler);
+        history.recordPeers(deviceList(device(PEER_A, "first", WifiP2pDevice.AVAILABLE)));
+        history.close();
+        mScheduler.triggerActions();
+        final long length = mFile.length();
+        final FileOutputStream out = new FileOutputStream(mFile, true);
+        out.write(new byte[]{1, (byte) 0xaa, 0, 0});
+        out.close();
+
+        final PeerHistory restored = new PeerHistory(mFile, mScheduler);
+        final List<PeerHistory.Peer> peers = load(restored);
+        assertEquals(1, peers.size());
+        assertEquals(PEER_A, peers.get(0).getDeviceAddress());
+        assertEquals(length, mFile.length());
+
+        restored.recordPeers(deviceList(device(PEER_B)));
+        restored.close();
+        mScheduler.triggerActions();
+        assertEquals(2, load(new PeerHistory(mFile, mScheduler)).size());
+    }
+
+    @Test
+    public void closedHistory_failsToListThePeers() throws Exception {
+        final PeerHistory history = new PeerHistory(mFile, mScheduler);
+        history.close();
+        mScheduler.triggerActions();
+
+        final TestSubscriber<List<PeerHistory.Peer>> subscriber = new TestSubscriber<>();
+        history.getPeers().subscribe(subscriber);
+
+        subscriber.assertError(IllegalStateException.class);
+    }
+
+    private List<PeerHistory.Peer> load(final PeerHistory history) {
+        final TestSubscriber<List<PeerHistory.Peer>> subscriber = new TestSubscriber<>();
+        history.getPeers().subscribe(subscriber);
+        mScheduler.triggerActions();
+        subscriber.assertValueCount(1);
+        return subscriber.getOnNextEvents().get(0);
+    }
+}
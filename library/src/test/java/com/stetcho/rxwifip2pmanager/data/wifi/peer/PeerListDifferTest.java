@@ -0,0 +1,111 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PeerListDifferTest {
+    private PeerListDiffer mDiffer;
+
+    @Before
+    public void setUp() throws Exception {
+        mDiffer = new PeerListDiffer();
+    }
+
+    @Test
+    public void newPeers_areAdded() throws Exception {
+        final WifiP2pDevice first = device("aa:00:00:00:00:01");
+        final WifiP2pDevice second = device("aa:00:00:00:00:02");
+
+        final List<PeerChange> changes = mDiffer.diff(Arrays.asList(first, second));
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), PeerChange.Type.ADDED, first);
+        assertChange(changes.get(1), PeerChange.Type.ADDED, second);
+    }
+
+    @Test
+    public void unchangedPeers_produceNoChanges() throws Exception {
+        mDiffer.diff(Collections.singletonList(device("aa:00:00:00:00:01")));
+
+        assertTrue(mDiffer.diff(Collections.singletonList(device("aa:00:00:00:00:01"))).isEmpty());
+    }
+
+    @Test
+    public void changedStatus_isReported() throws Exception {
+        mDiffer.diff(Collections.singletonList(
+                device("aa:00:00:00:00:01", "Phone", WifiP2pDevice.AVAILABLE)));
+        final WifiP2pDevice invited = device("aa:00:00:00:00:01", "Phone", WifiP2pDevice.INVITED);
+
+        final List<PeerChange> changes = mDiffer.diff(Collections.singletonList(invited));
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), PeerChange.Type.CHANGED, invited);
+    }
+
+    @Test
+    public void changedName_isReported() throws Exception {
+        mDiffer.diff(Collections.singletonList(
+                device("aa:00:00:00:00:01", "Phone", WifiP2pDevice.AVAILABLE)));
+
+        final List<PeerChange> changes = mDiffer.diff(Collections.singletonList(
+                device("aa:00:00:00:00:01", "Tablet", WifiP2pDevice.AVAILABLE)));
+
+        assertEquals(1, changes.size());
+        assertEquals(PeerChange.Type.CHANGED, changes.get(0).getType());
+    }
+
+    @Test
+    public void missingPeers_areRemoved() throws Exception {
+        final WifiP2pDevice first = device("aa:00:00:00:00:01");
+        final WifiP2pDevice second = device("aa:00:00:00:00:02");
+        mDiffer.diff(Arrays.asList(first, second));
+
+        final List<PeerChange> changes =
+                mDiffer.diff(Collections.singletonList(device("aa:00:00:00:00:02")));
+
+        assertEquals(1, changes.size());
+        assertChange(changes.get(0), PeerChange.Type.REMOVED, first);
+        assertEquals(1, mDiffer.size());
+    }
+
+    @Test
+    public void replacedPeer_isAddedAndRemoved() throws Exception {
+        final WifiP2pDevice first = device("aa:00:00:00:00:01");
+        final WifiP2pDevice second = device("aa:00:00:00:00:02");
+        mDiffer.diff(Collections.singletonList(first));
+
+        final List<PeerChange> changes = mDiffer.diff(Collections.singletonList(second));
+
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), PeerChange.Type.ADDED, second);
+        assertChange(changes.get(1), PeerChange.Type.REMOVED, first);
+    }
+
+    @Test
+    public void duplicateAddresses_areReportedOnce() throws Exception {
+        final List<PeerChange> changes = mDiffer.diff(
+                Arrays.asList(device("aa:00:00:00:00:01"), device("aa:00:00:00:00:01")));
+
+        assertEquals(1, changes.size());
+        assertEquals(1, mDiffer.size());
+        assertTrue(mDiffer.diff(Collections.singletonList(device("aa:00:00:00:00:01"))).isEmpty());
+    }
+
+    private static void assertChange(final PeerChange change,
+                                     final PeerChange.Type type,
+                                     final WifiP2pDevice device) {
+        assertEquals(type, change.getType());
+        assertSame(device, change.getDevice());
+    }
+}
@@ -0,0 +1,120 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import rx.schedulers.TestScheduler;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PeerRegistryTest {
+    private static final String PEER_A = "aa:00:00:00:00:01";
+    private static final String PEER_B = "aa:00:00:00:00:02";
+
+    private TestScheduler mClock;
+    private PeerRegistry mRegistry;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestScheduler();
+        mRegistry = new PeerRegistry(mClock);
+    }
+
+    @Test
+    public void address_isPackedIntoALong() throws Exception {
+        final long packed = PeerRegistry.packAddress("AA:bb:0c:00:ff:01");
+
+        assertEquals(0xaabb0c00ff01L, packed);
+        assertEquals("aa:bb:0c:00:ff:01", PeerRegistry.unpackAddress(packed));
+        assertEquals(-1, PeerRegistry.packAddress(null));
+        assertEquals(-1, PeerRegistry.packAddress("aa:bb:cc:dd:ee"));
+        assertEquals(-1, PeerRegistry.packAddress("aa-bb-cc-dd-ee-ff"));
+        assertEquals(-1, PeerRegistry.packAddress("aa:bb:cc:dd:ee:fg"));
+    }
+
+    @Test
+    public void peers_areKeptAcrossRefreshes() throws Exception {
+        assertEquals(2, mRegistry.update(deviceList(
+                device(PEER_A, "first", WifiP2pDevice.AVAILABLE),
+                device(PEER_B, "second", WifiP2pDevice.AVAILABLE))));
+        mClock.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertEquals(0, mRegistry.update(deviceList(
+                device(PEER_B, "second", WifiP2pDevice.CONNECTED))));
+
+        final PeerRegistry.Snapshot snapshot = mRegistry.snapshot();
+        assertEquals(2, snapshot.size());
+        final int first = snapshot.indexOf(PEER_A);
+        assertEquals(PEER_A, snapshot.getDeviceAddress(first));
+        assertEquals(WifiP2pDevice.UNAVAILABLE, snapshot.getStatus(first));
+        assertEquals(0, snapshot.getLastSeenMillis(first));
+        assertEquals(1, snapshot.getSightings(first));
+        final int second = snapshot.indexOf(PEER_B);
+        assertEquals(WifiP2pDevice.CONNECTED, snapshot.getStatus(second));
+        assertEquals(1000, snapshot.getLastSeenMillis(second));
+        assertEquals(2, snapshot.getSightings(second));
+        assertEquals(-1, snapshot.indexOf("aa:00:00:00:00:03"));
+    }
+
+    @Test
+    public void unchangedName_isNotReplaced() throws Exception {
+        mRegistry.update(deviceList(device(PEER_A, new String("name"), WifiP2pDevice.AVAILABLE)));
+        final String name = mRegistry.snapshot().getDeviceName(0);
+
+        mRegistry.update(deviceList(device(PEER_A, new String("name"), WifiP2pDevice.AVAILABLE)));
+        assertSame(name, mRegistry.snapshot().getDeviceName(0));
+
+        mRegistry.update(deviceList(device(PEER_A, "renamed", WifiP2pDevice.AVAILABLE)));
+        assertEquals("renamed", mRegistry.snapshot().getDeviceName(0));
+    }
+
+    @Test
+    public void snapshot_isSharedUntilTheRegistryChanges() throws Exception {
+        mRegistry.update(deviceList(device(PEER_A)));
+        final PeerRegistry.Snapshot snapshot = mRegistry.snapshot();
+        assertSame(snapshot, mRegistry.snapshot());
+
+        mRegistry.update(deviceList(device(PEER_A), device(PEER_B)));
+
+        assertEquals(1, snapshot.size());
+        assertEquals(2, mRegistry.snapshot().size());
+    }
+
+    @Test
+    public void stalePeers_areEvicted() throws Exception {
+        mRegistry.update(deviceList(device(PEER_A), device(PEER_B)));
+        mClock.advanceTimeBy(10, TimeUnit.MINUTES);
+        mRegistry.update(deviceList(device(PEER_B)));
+        mClock.advanceTimeBy(1, TimeUnit.MINUTES);
+
+        assertEquals(1, mRegistry.evictOlderThan(5, TimeUnit.MINUTES));
+
+        final PeerRegistry.Snapshot snapshot = mRegistry.snapshot();
+        assertEquals(1, snapshot.size());
+        assertEquals(-1, snapshot.indexOf(PEER_A));
+        assertEquals(0, snapshot.indexOf(PEER_B));
+    }
+
+    @Test
+    public void manyPeers_areFoundByAddress() throws Exception {
+        final List<WifiP2pDevice> devices = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            devices.add(device(PeerRegistry.unpackAddress(0x020000000000L + i)));
+        }
+
+        assertEquals(10000, mRegistry.update(deviceList(devices)));
+
+        final PeerRegistry.Snapshot snapshot = mRegistry.snapshot();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, snapshot.indexOf(0x020000000000L + i));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.peer;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+
+import org.junit.Test;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.deviceList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PeerTableTest {
+    @Test
+    public void deviceList_isProjectedColumnWise() throws Exception {
+        final WifiP2pDevice first = device("aa:00:00:00:00:01", "first", WifiP2pDevice.AVAILABLE);
+        final WifiP2pDevice second = device("aa:00:00:00:00:02", "second", WifiP2pDevice.CONNECTED);
+
+        final PeerTable table = PeerTable.of(deviceList(first, second));
+
+        assertEquals(2, table.size());
+        final int index = table.indexOf("aa:00:00:00:00:02");
+        assertSame(second.deviceAddress, table.getDeviceAddress(index));
+        assertSame(second.deviceName, table.getDeviceName(index));
+        assertEquals(WifiP2pDevice.CONNECTED, table.getStatus(index));
+        assertEquals(-1, table.indexOf("aa:00:00:00:00:03"));
+    }
+
+    @Test
+    public void emptyOrMissingList_isSharedEmptyTable() throws Exception {
+        assertSame(PeerTable.EMPTY, PeerTable.of(deviceList()));
+        assertSame(PeerTable.EMPTY, PeerTable.of(null));
+        assertEquals(0, PeerTable.EMPTY.size());
+    }
+}
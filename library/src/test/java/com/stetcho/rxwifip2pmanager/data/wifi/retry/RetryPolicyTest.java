@@ -0,0 +1,117 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.retry;
+
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pBusyException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pErrorException;
+import com.stetcho.rxwifip2pmanager.data.wifi.exception.P2pUnsupportedException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rx.Observable;
+import rx.Subscriber;
+import rx.observers.TestSubscriber;
+import rx.schedulers.TestScheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+    private TestScheduler mScheduler;
+    private RetryPolicy mPolicy;
+
+    @Before
+    public void setUp() throws Exception {
+        mScheduler = new TestScheduler();
+        mPolicy = new RetryPolicy.Builder()
+                .maxAttempts(4)
+                .initialDelay(100, TimeUnit.MILLISECONDS)
+                .maxDelay(300, TimeUnit.MILLISECONDS)
+                .multiplier(2)
+                .jitter(0)
+                .scheduler(mScheduler)
+                .build();
+    }
+
+    @Test
+    public void transientErrors_areRetriedWithBackoff() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+        failing(attempts, 3, new P2pBusyException()).retryWhen(mPolicy).subscribe(subscriber);
+        assertEquals(1, attempts.get());
+
+        mScheduler.advanceTimeBy(99, TimeUnit.MILLISECONDS);
+        assertEquals(1, attempts.get());
+        mScheduler.advanceTimeBy(1, TimeUnit.MILLISECONDS);
+        assertEquals(2, attempts.get());
+
+        mScheduler.advanceTimeBy(200, TimeUnit.MILLISECONDS);
+        assertEquals(3, attempts.get());
+
+        // Capped by the maximum delay
+        mScheduler.advanceTimeBy(300, TimeUnit.MILLISECONDS);
+        assertEquals(4, attempts.get());
+        subscriber.assertValue("done");
+    }
+
+    @Test
+    public void permanentErrors_areNotRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+
+        failing(attempts, 1, new P2pUnsupportedException()).retryWhen(mPolicy)
+                .subscribe(subscriber);
+        mScheduler.advanceTimeBy(1, TimeUnit.SECONDS);
+
+        assertEquals(1, attempts.get());
+        subscriber.assertError(P2pUnsupportedException.class);
+    }
+
+    @Test
+    public void lastError_isPropagatedAfterMaxAttempts() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final TestSubscriber<String> subscriber = new TestSubscriber<>();
+
+        failing(attempts, 10, new P2pErrorException()).retryWhen(mPolicy).subscribe(subscriber);
+        mScheduler.advanceTimeBy(10, TimeUnit.SECONDS);
+
+        assertEquals(4, attempts.get());
+        subscriber.assertError(P2pErrorException.class);
+    }
+
+    @Test
+    public void jitter_shortensTheDelay() throws Exception {
+        final RetryPolicy policy = new RetryPolicy.Builder()
+                .initialDelay(100, TimeUnit.MILLISECONDS)
+                .jitter(0.5)
+                .random(new Random(0))
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            final long delay = policy.getDelayMillis(1);
+            assertTrue(delay >= 50 && delay <= 100);
+        }
+    }
+
+    /**
+     * Creates an observable which fails the given number of times before it emits a value
+     */
+    private static Observable<String> failing(final AtomicInteger attempts,
+                                              final int failures,
+                                              final RuntimeException error) {
+        return Observable.create(new Observable.OnSubscribe<String>() {
+            @Override
+            public void call(final Subscriber<? super String> subscriber) {
+                if (attempts.incrementAndGet() <= failures) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onNext("done");
+                    subscriber.onCompleted();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package com.stetcho.rxwifip2pmanager.data.wifi.service;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import rx.schedulers.TestScheduler;
+
+import static com.stetcho.rxwifip2pmanager.fake.Fixtures.device;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TxtRecordCacheTest {
+    private static final String PEER_A = "aa:00:00:00:00:01";
+
+    private TestScheduler mClock;
+    private TxtRecordCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new TestScheduler();
+        mCache = new TxtRecordCache(mClock);
+        mCache.setTimeToLive(30, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void freshRecord_isServedUntilItExpires() throws Exception {
+        final DnsSdRecord record = txtRecord(PEER_A);
+        mCache.put(record);
+
+        mClock.advanceTimeBy(30, TimeUnit.SECONDS);
+        assertSame(record, mCache.get(PEER_A));
+
+        mClock.advanceTimeBy(1, TimeUnit.SECONDS);
+        assertNull(mCache.get(PEER_A));
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    @Test
+    public void newerRecord_replacesTheOlderOne() throws Exception {
+        mCache.put(txtRecord(PEER_A));
+        mClock.advanceTimeBy(20, TimeUnit.SECONDS);
+        final DnsSdRecord newer = txtRecord(PEER_A);
+        mCache.put(newer);
+
+        mClock.advanceTimeBy(20, TimeUnit.SECONDS);
+
+        assertSame(newer, mCache.get(PEER_A));
+    }
+
+    @Test
+    public void serviceRecords_areNotCached() throws Exception {
+        mCache.put(DnsSdRecord.service("printer", "_ipp._tcp.local.", device(PEER_A)));
+
+        assertNull(mCache.get(PEER_A));
+    }
+
+    private static DnsSdRecord txtRecord(final String address) {
+        return DnsSdRecord.txtRecord("printer._ipp._tcp.local.",
+                Collections.singletonMap("color", "true"), device(address));
+    }
+}
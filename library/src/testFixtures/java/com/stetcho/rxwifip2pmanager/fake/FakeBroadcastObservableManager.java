@@ -0,0 +1,35 @@
+package com.stetcho.rxwifip2pmanager.fake;
+
+import android.content.Intent;
+
+import com.stetcho.rxwifip2pmanager.domain.broadcast.BroadcastObservableManager;
+
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+/**
+ * A {@link BroadcastObservableManager}, and a factory for itself, whose broadcasts are sent
+ * by the test.
+ */
+public class FakeBroadcastObservableManager
+        implements BroadcastObservableManager, BroadcastObservableManager.Factory {
+    private final PublishSubject<Intent> mBroadcasts = PublishSubject.create();
+
+    @Override
+    public BroadcastObservableManager create() {
+        return this;
+    }
+
+    @Override
+    public Observable<Intent> getBroadcastObservable() {
+        return mBroadcasts;
+    }
+
+    public void send(final Intent intent) {
+        mBroadcasts.onNext(intent);
+    }
+
+    public boolean hasObservers() {
+        return mBroadcasts.hasObservers();
+    }
+}
@@ -0,0 +1,62 @@
+package com.stetcho.rxwifip2pmanager.fake;
+
+import android.content.BroadcastReceiver;
+import android.content.ContextWrapper;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link android.content.Context} that keeps track of the registered broadcast receivers and
+ * delivers broadcasts to them synchronously.
+ */
+public class FakeContext extends ContextWrapper {
+    private final List<BroadcastReceiver> mReceivers = new ArrayList<>();
+    private int mRegistrationCount;
+    private int mUnregistrationCount;
+
+    public FakeContext() {
+        super(null);
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return registerReceiver(receiver, filter, null, null);
+    }
+
+    @Override
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+                                   String broadcastPermission, Handler scheduler) {
+        mRegistrationCount++;
+        mReceivers.add(receiver);
+        return null;
+    }
+
+    @Override
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        mUnregistrationCount++;
+        mReceivers.remove(receiver);
+    }
+
+    @Override
+    public void sendBroadcast(Intent intent) {
+        for (BroadcastReceiver receiver : new ArrayList<>(mReceivers)) {
+            receiver.onReceive(this, intent);
+        }
+    }
+
+    public int getRegistrationCount() {
+        return mRegistrationCount;
+    }
+
+    public int getUnregistrationCount() {
+        return mUnregistrationCount;
+    }
+
+    public int getRegisteredReceiverCount() {
+        return mReceivers.size();
+    }
+}
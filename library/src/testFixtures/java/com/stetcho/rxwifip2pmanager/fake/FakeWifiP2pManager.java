@@ -0,0 +1,138 @@
+package com.stetcho.rxwifip2pmanager.fake;
+
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * A {@link WifiP2pManager} whose operations never reach the framework. The listener passed to
+ * each call is kept until the test completes it through one of the {@code succeed}, {@code fail}
+ * or {@code respond} methods, in the order of the calls.
+ */
+public class FakeWifiP2pManager {
+    private final Map<String, Integer> mCallCounts = new HashMap<>();
+    private final Map<String, LinkedList<Object>> mPendingListeners = new HashMap<>();
+    private final Map<String, Object[]> mLastArguments = new HashMap<>();
+    private final WifiP2pManager mWifiP2pManager;
+
+    public FakeWifiP2pManager() {
+        mWifiP2pManager = mock(WifiP2pManager.class, new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final String method = invocation.getMethod().getName();
+                final Object[] arguments = invocation.getArguments();
+                final Integer count = mCallCounts.get(method);
+                mCallCounts.put(method, count == null ? 1 : count + 1);
+                mLastArguments.put(method, arguments);
+                if (arguments.length > 0 && arguments[arguments.length - 1] != null) {
+                    getPendingListeners(method).add(arguments[arguments.length - 1]);
+                }
+                return null;
+            }
+        });
+    }
+
+    public WifiP2pManager getWifiP2pManager() {
+        return mWifiP2pManager;
+    }
+
+    public int getCallCount(final String method) {
+        final Integer count = mCallCounts.get(method);
+        return count == null ? 0 : count;
+    }
+
+    public int getPendingCount(final String method) {
+        return getPendingListeners(method).size();
+    }
+
+    public void succeed(final String method) {
+        this.<WifiP2pManager.ActionListener>poll(method).onSuccess();
+    }
+
+    public void fail(final String method, final int reason) {
+        this.<WifiP2pManager.ActionListener>poll(method).onFailure(reason);
+    }
+
+    public void respondPeers(final WifiP2pDeviceList peers) {
+        this.<WifiP2pManager.PeerListListener>poll("requestPeers").onPeersAvailable(peers);
+    }
+
+    public void respondConnectionInfo(final WifiP2pInfo info) {
+        this.<WifiP2pManager.ConnectionInfoListener>poll("requestConnectionInfo")
+                .onConnectionInfoAvailable(info);
+    }
+
+    public void respondGroupInfo(final WifiP2pGroup group) {
+        this.<WifiP2pManager.GroupInfoListener>poll("requestGroupInfo")
+                .onGroupInfoAvailable(group);
+    }
+
+    /**
+     * Delivers a service response to the listener of the last setDnsSdResponseListeners call
+     */
+    public void respondDnsSdService(final String instanceName,
+                                    final String registrationType,
+                                    final WifiP2pDevice device) {
+        ((WifiP2pManager.DnsSdServiceResponseListener) getDnsSdListener(1))
+                .onDnsSdServiceAvailable(instanceName, registrationType, device);
+    }
+
+    /**
+     * Delivers a TXT record to the listener of the last setDnsSdResponseListeners call
+     */
+    public void respondDnsSdTxtRecord(final String fullDomainName,
+                                      final Map<String, String> txtRecord,
+                                      final WifiP2pDevice device) {
+        ((WifiP2pManager.DnsSdTxtRecordListener) getDnsSdListener(2))
+                .onDnsSdTxtRecordAvailable(fullDomainName, txtRecord, device);
+    }
+
+    /**
+     * Disconnects the channel of the last initialize call, like the framework does when its
+     * service dies
+     */
+    public void disconnectChannel() {
+        final Object[] arguments = mLastArguments.get("initialize");
+        if (arguments == null) {
+            throw new AssertionError("No channel was initialized");
+        }
+        ((WifiP2pManager.ChannelListener) arguments[2]).onChannelDisconnected();
+    }
+
+    private Object getDnsSdListener(final int index) {
+        final Object[] arguments = mLastArguments.get("setDnsSdResponseListeners");
+        if (arguments == null) {
+            throw new AssertionError("No DNS-SD listeners were set");
+        }
+        return arguments[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T poll(final String method) {
+        final Object listener = getPendingListeners(method).poll();
+        if (listener == null) {
+            throw new AssertionError("No pending " + method + " call");
+        }
+        return (T) listener;
+    }
+
+    private LinkedList<Object> getPendingListeners(final String method) {
+        LinkedList<Object> listeners = mPendingListeners.get(method);
+        if (listeners == null) {
+            listeners = new LinkedList<>();
+            mPendingListeners.put(method, listeners);
+        }
+        return listeners;
+    }
+}
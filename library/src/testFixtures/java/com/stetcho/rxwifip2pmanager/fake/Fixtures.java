@@ -0,0 +1,128 @@
+package com.stetcho.rxwifip2pmanager.fake;
+
+import android.content.Intent;
+import android.net.NetworkInfo;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.net.wifi.p2p.WifiP2pDeviceList;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.net.wifi.p2p.WifiP2pInfo;
+import android.net.wifi.p2p.WifiP2pManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Factory methods for framework objects which can not be populated through their public API on
+ * the JVM.
+ */
+public final class Fixtures {
+    private Fixtures() {
+    }
+
+    public static WifiP2pDevice device(final String address, final String name, final int status) {
+        final WifiP2pDevice device = new WifiP2pDevice();
+        device.deviceAddress = address;
+        device.deviceName = name;
+        device.status = status;
+        return device;
+    }
+
+    public static WifiP2pDevice device(final String address) {
+        return device(address, "Device " + address, WifiP2pDevice.AVAILABLE);
+    }
+
+    public static WifiP2pDeviceList deviceList(final WifiP2pDevice... devices) {
+        return deviceList(Arrays.asList(devices));
+    }
+
+    public static WifiP2pDeviceList deviceList(final Collection<WifiP2pDevice> devices) {
+        final Collection<WifiP2pDevice> copy = new ArrayList<>(devices);
+        final WifiP2pDeviceList deviceList = mock(WifiP2pDeviceList.class);
+        when(deviceList.getDeviceList()).thenReturn(copy);
+        return deviceList;
+    }
+
+    public static WifiP2pGroup group(final boolean isGroupOwner, final String... clientAddresses) {
+        final Collection<WifiP2pDevice> clients = new ArrayList<>();
+        for (String address : clientAddresses) {
+            clients.add(device(address));
+        }
+        final WifiP2pGroup group = mock(WifiP2pGroup.class);
+        when(group.isGroupOwner()).thenReturn(isGroupOwner);
+        when(group.getClientList()).thenReturn(clients);
+        return group;
+    }
+
+    public static Intent intent(final String action) {
+        final Intent intent = mock(Intent.class);
+        when(intent.getAction()).thenReturn(action);
+        return intent;
+    }
+
+    public static Intent peersChanged() {
+        return intent(WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION);
+    }
+
+    public static Intent peersChanged(final WifiP2pDeviceList peers) {
+        final Intent intent = peersChanged();
+        when(intent.<WifiP2pDeviceList>getParcelableExtra(WifiP2pManager.EXTRA_P2P_DEVICE_LIST))
+                .thenReturn(peers);
+        return intent;
+    }
+
+    public static Intent stateChanged(final boolean enabled) {
+        final Intent intent = intent(WifiP2pManager.WIFI_P2P_STATE_CHANGED_ACTION);
+        when(intent.getIntExtra(eq(WifiP2pManager.EXTRA_WIFI_STATE), anyInt()))
+                .thenReturn(enabled
+                        ? WifiP2pManager.WIFI_P2P_STATE_ENABLED
+                        : WifiP2pManager.WIFI_P2P_STATE_DISABLED);
+        return intent;
+    }
+
+    public static WifiP2pInfo connectionInfo(final boolean groupFormed,
+                                             final boolean isGroupOwner) {
+        final WifiP2pInfo info = new WifiP2pInfo();
+        info.groupFormed = groupFormed;
+        info.isGroupOwner = isGroupOwner;
+        return info;
+    }
+
+    public static Intent connectionChanged(final boolean connected,
+                                           final WifiP2pInfo info,
+                                           final WifiP2pGroup group) {
+        final Intent intent = intent(WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION);
+        final NetworkInfo networkInfo = mock(NetworkInfo.class);
+        when(networkInfo.isConnected()).thenReturn(connected);
+        when(intent.<NetworkInfo>getParcelableExtra(WifiP2pManager.EXTRA_NETWORK_INFO))
+                .thenReturn(networkInfo);
+        when(intent.<WifiP2pInfo>getParcelableExtra(WifiP2pManager.EXTRA_WIFI_P2P_INFO))
+                .thenReturn(info);
+        when(intent.<WifiP2pGroup>getParcelableExtra(WifiP2pManager.EXTRA_WIFI_P2P_GROUP))
+                .thenReturn(group);
+        return intent;
+    }
+
+    public static Intent connectionChanged(final boolean connected, final boolean isGroupOwner) {
+        return connectionChanged(connected, connectionInfo(connected, isGroupOwner), null);
+    }
+
+    public static Intent thisDeviceChanged(final int status) {
+        final Intent intent = intent(WifiP2pManager.WIFI_P2P_THIS_DEVICE_CHANGED_ACTION);
+        when(intent.<WifiP2pDevice>getParcelableExtra(WifiP2pManager.EXTRA_WIFI_P2P_DEVICE))
+                .thenReturn(device("aa:00:00:00:00:00", "This device", status));
+        return intent;
+    }
+
+    public static Intent discoveryChanged(final int state) {
+        final Intent intent = intent(WifiP2pManager.WIFI_P2P_DISCOVERY_CHANGED_ACTION);
+        when(intent.getIntExtra(eq(WifiP2pManager.EXTRA_DISCOVERY_STATE), anyInt()))
+                .thenReturn(state);
+        return intent;
+    }
+}